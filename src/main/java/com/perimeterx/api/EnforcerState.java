@@ -0,0 +1,32 @@
+package com.perimeterx.api;
+
+/**
+ * Lifecycle state of a {@link PerimeterX} enforcer
+ */
+public enum EnforcerState {
+
+    /**
+     * Initializing in the background, requests pass without verification
+     */
+    INITIALIZING,
+
+    /**
+     * Initializing in the background, requests are verified in monitor mode and never blocked
+     */
+    MONITORING,
+
+    /**
+     * Initialized, requests are verified according to the configuration
+     */
+    READY,
+
+    /**
+     * Initialization failed, requests pass without verification
+     */
+    FAILED,
+
+    /**
+     * Shut down, requests pass without verification
+     */
+    CLOSED
+}
@@ -0,0 +1,15 @@
+package com.perimeterx.api;
+
+/**
+ * Notified when the state of a {@link PerimeterX} enforcer changes
+ */
+public interface EnforcerStateListener {
+
+    /**
+     * Called on the thread that changed the state, implementations should return quickly
+     *
+     * @param enforcer - enforcer whose state changed
+     * @param state    - the new state
+     */
+    void onStateChange(PerimeterX enforcer, EnforcerState state);
+}
@@ -27,105 +27,262 @@ package com.perimeterx.api;
 
 import com.perimeterx.api.activities.ActivityHandler;
 import com.perimeterx.api.activities.BufferedActivityHandler;
+import com.perimeterx.api.activities.DrainableActivityHandler;
+import com.perimeterx.api.activities.SidecarActivityHandler;
+import com.perimeterx.api.jmx.EnforcerManagement;
 import com.perimeterx.api.providers.*;
 import com.perimeterx.api.proxy.DefaultReverseProxy;
 import com.perimeterx.api.proxy.ReverseProxy;
 import com.perimeterx.api.remoteconfigurations.DefaultRemoteConfigManager;
-import com.perimeterx.api.remoteconfigurations.RemoteConfigurationManager;
+import com.perimeterx.api.remoteconfigurations.RemoteConfigurationFile;
 import com.perimeterx.api.remoteconfigurations.TimerConfigUpdater;
 import com.perimeterx.api.verificationhandler.DefaultVerificationHandler;
 import com.perimeterx.api.verificationhandler.VerificationHandler;
 import com.perimeterx.http.PXHttpClient;
+import com.perimeterx.http.PXHttpTransport;
 import com.perimeterx.internals.PXCaptchaValidator;
 import com.perimeterx.internals.PXCookieValidator;
 import com.perimeterx.internals.PXS2SValidator;
+import com.perimeterx.metrics.EnforcerEvents;
+import com.perimeterx.metrics.EnforcerGauges;
+import com.perimeterx.metrics.EnforcerMetrics;
+import com.perimeterx.metrics.HealthReporter;
+import com.perimeterx.metrics.S2SOutcome;
+import com.perimeterx.metrics.Stage;
 import com.perimeterx.models.PXContext;
 import com.perimeterx.models.activities.UpdateReason;
+import com.perimeterx.models.configuration.AsyncInitMode;
+import com.perimeterx.models.configuration.ModuleMode;
 import com.perimeterx.models.configuration.PXConfiguration;
+import com.perimeterx.models.configuration.PXConfigurationChange;
+import com.perimeterx.models.configuration.PXConfigurationListener;
+import com.perimeterx.models.configuration.PXConfigurationStore;
 import com.perimeterx.models.configuration.PXDynamicConfiguration;
 import com.perimeterx.models.exceptions.PXException;
+import com.perimeterx.models.exceptions.RemoteConfigurationException;
+import com.perimeterx.models.risk.BlockReason;
 import com.perimeterx.models.risk.PassReason;
+import com.perimeterx.models.risk.S2SCallReason;
 import com.perimeterx.utils.Constants;
-import com.perimeterx.utils.PXCommonUtils;
 import com.perimeterx.utils.PXLogger;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
-import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
-import org.apache.http.impl.nio.client.HttpAsyncClients;
 
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Facade object for - configuring, validating and blocking requests
  * <p>
  * Created by shikloshi on 03/07/2016.
  */
-public class PerimeterX {
+public class PerimeterX implements Closeable {
 
     private static final PXLogger logger = PXLogger.getLogger(PerimeterX.class);
 
-    private PXConfiguration configuration;
+    /**
+     * Time to wait for pending activities when closing without an explicit drain timeout
+     */
+    public static final long DEFAULT_DRAIN_TIMEOUT = 5000;
+
+    private PXConfigurationStore configurationStore;
     private PXS2SValidator serverValidator;
     private PXCookieValidator cookieValidator;
-    private ActivityHandler activityHandler;
+    private volatile ActivityHandler activityHandler;
     private PXCaptchaValidator captchaValidator;
     private IPProvider ipProvider;
     private HostnameProvider hostnameProvider;
     private VerificationHandler verificationHandler;
     private CustomParametersProvider customParametersProvider;
     private ReverseProxy reverseProxy;
+    private PXHttpClient pxClient;
+    private PXHttpTransport transport;
+    private TimerConfigUpdater timerConfigUpdater;
+    private HealthReporter healthReporter;
+    private FutureTask<PerimeterX> readiness;
+    private final Object stateLock = new Object();
+    private final List<EnforcerStateListener> stateListeners = new ArrayList<>();
+    private final AtomicBoolean released = new AtomicBoolean();
+    private volatile EnforcerState state = EnforcerState.INITIALIZING;
+    private volatile MonitorSnapshot monitorSnapshot;
+    private volatile boolean closed;
+    private EnforcerMetrics metrics;
+    private volatile EnforcerGauges gauges;
+    private volatile long monitorForcedUntil;
+    private EnforcerManagement management;
 
-    private CloseableHttpClient getHttpClient() {
-        PoolingHttpClientConnectionManager cm = new PoolingHttpClientConnectionManager();
-        cm.setMaxTotal(configuration.getMaxConnections());
-        cm.setDefaultMaxPerRoute(configuration.getMaxConnectionsPerRoute());
-        return HttpClients.custom()
-                .setConnectionManager(cm)
-                .setDefaultHeaders(PXCommonUtils.getDefaultHeaders(configuration.getAuthToken()))
-                .build();
+    private void init(PXConfiguration configuration) throws PXException {
+        init(configuration, null);
     }
 
-    private CloseableHttpAsyncClient getAsyncHttpClient() {
-        CloseableHttpAsyncClient closeableHttpAsyncClient = HttpAsyncClients.createDefault();
-        closeableHttpAsyncClient.start();
-        return closeableHttpAsyncClient;
+    /**
+     * @param transport - transport to use, null for the JVM wide transport
+     */
+    private void init(final PXConfiguration configuration, final PXHttpTransport transport) throws PXException {
+        this.configurationStore = new PXConfigurationStore(configuration);
+        this.metrics = new EnforcerMetrics(configuration.getMetricsRecorder());
+        hostnameProvider = new DefaultHostnameProvider();
+        ipProvider = new CombinedIPProvider(configurationStore);
+        // Providers set by the constructors after init are not used by the reverse proxy, as before async init
+        final IPProvider proxyIpProvider = ipProvider;
+        this.readiness = new FutureTask<>(new Callable<PerimeterX>() {
+            @Override
+            public PerimeterX call() throws Exception {
+                try {
+                    initComponents(configuration, transport, proxyIpProvider);
+                } catch (Exception e) {
+                    logger.error("PerimeterX initialization failed, {}", e.getMessage());
+                    setState(EnforcerState.FAILED);
+                    release(DEFAULT_DRAIN_TIMEOUT);
+                    throw e;
+                }
+                return PerimeterX.this;
+            }
+        });
+
+        if (configuration.isAsyncInit()) {
+            Thread initThread = new Thread(readiness, "PerimeterX-init");
+            initThread.setDaemon(true);
+            initThread.start();
+            return;
+        }
+        readiness.run();
+        try {
+            readiness.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof PXException) {
+                throw (PXException) e.getCause();
+            }
+            throw new PXException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PXException(e);
+        }
     }
 
-    private void init(PXConfiguration configuration) throws PXException {
-        this.configuration = configuration;
-        hostnameProvider = new DefaultHostnameProvider();
-        ipProvider = new CombinedIPProvider(configuration);
-        PXHttpClient pxClient = PXHttpClient.getInstance(configuration, getAsyncHttpClient(), getHttpClient());
-        this.activityHandler = new BufferedActivityHandler(pxClient, this.configuration);
+    private void initComponents(PXConfiguration configuration, PXHttpTransport transport, IPProvider proxyIpProvider) throws Exception {
+        if (transport == null) {
+            transport = PXHttpTransport.shared();
+        }
+        transport.register(configuration);
+        this.transport = transport;
+        this.pxClient = new PXHttpClient(configurationStore, transport.getAsyncHttpClient(), transport.getHttpClient());
+        configurationStore.addListener(pxClient);
+        configurationStore.addListener(new PXConfigurationListener() {
+            @Override
+            public void onConfigurationChange(PXConfigurationChange change) {
+                if (change.isChanged("maxConnections", "maxConnectionsPerRoute", "serverURL", "collectorUrl", "clientHost",
+                        "remoteConfigurationUrl", "remoteConfigurationEnabled", "remoteConfigurationLongPollTimeout")) {
+                    PerimeterX.this.transport.update(change.getPrevious(), change.getCurrent());
+                }
+            }
+        });
+        // Handlers set before an async init finished are kept
+        synchronized (stateLock) {
+            if (this.activityHandler == null) {
+                if (configuration.getActivitiesSidecarPort() > 0) {
+                    this.activityHandler = new SidecarActivityHandler(pxClient, configuration);
+                } else {
+                    this.activityHandler = new BufferedActivityHandler(pxClient, configuration);
+                }
+            }
+        }
+
+        // The validators read the configuration snapshot of each request from its context
+        this.serverValidator = new PXS2SValidator(pxClient);
+        this.captchaValidator = new PXCaptchaValidator(pxClient);
+        this.cookieValidator = new PXCookieValidator(metrics);
+        if (this.verificationHandler == null) {
+            DefaultVerificationHandler defaultVerificationHandler = new DefaultVerificationHandler(configuration, this.activityHandler, metrics);
+            this.verificationHandler = defaultVerificationHandler;
+            configurationStore.addListener(defaultVerificationHandler);
+        }
+        DefaultReverseProxy defaultReverseProxy = new DefaultReverseProxy(configuration, proxyIpProvider, transport.getHttpClient());
+        this.reverseProxy = defaultReverseProxy;
+        configurationStore.addListener(defaultReverseProxy);
+        if (configuration.isAsyncInit() && configuration.getAsyncInitMode() == AsyncInitMode.MONITOR) {
+            setState(EnforcerState.MONITORING);
+        }
 
+        boolean refreshSavedConfiguration = false;
         if (configuration.isRemoteConfigurationEnabled()) {
-            RemoteConfigurationManager remoteConfigManager = new DefaultRemoteConfigManager(configuration, pxClient);
-            PXDynamicConfiguration initialConfig = remoteConfigManager.getConfiguration();
-            if (initialConfig == null) {
-                remoteConfigManager.disableModuleOnError();
-            } else {
-                remoteConfigManager.updateConfiguration(initialConfig);
+            RemoteConfigurationFile configurationFile = configuration.getRemoteConfigurationCacheFile() == null ? null
+                    : new RemoteConfigurationFile(new File(configuration.getRemoteConfigurationCacheFile()), configuration.getAppId());
+            DefaultRemoteConfigManager remoteConfigManager = new DefaultRemoteConfigManager(configurationStore, pxClient, configurationFile);
+            // A saved configuration is applied right away and refreshed by the first poll, startup does not wait for the service
+            refreshSavedConfiguration = remoteConfigManager.loadSavedConfiguration();
+            if (!refreshSavedConfiguration) {
+                PXDynamicConfiguration initialConfig = null;
+                try {
+                    initialConfig = remoteConfigManager.getConfiguration();
+                } catch (RemoteConfigurationException e) {
+                    logger.error("Failed to get the initial remote configuration, {}", e.getMessage());
+                }
+                if (initialConfig == null) {
+                    remoteConfigManager.disableModuleOnError();
+                } else {
+                    remoteConfigManager.updateConfiguration(initialConfig);
+                }
             }
-            TimerConfigUpdater timerConfigUpdater = new TimerConfigUpdater(remoteConfigManager, configuration, activityHandler);
-            timerConfigUpdater.schedule();
+            this.timerConfigUpdater = new TimerConfigUpdater(remoteConfigManager, configurationStore, activityHandler);
         }
 
-        this.serverValidator = new PXS2SValidator(pxClient, this.configuration);
-        this.captchaValidator = new PXCaptchaValidator(pxClient, configuration);
-        this.cookieValidator = PXCookieValidator.getDecoder(this.configuration.getCookieKey());
-        this.verificationHandler = new DefaultVerificationHandler(this.configuration, this.activityHandler);
-        this.activityHandler.handleEnforcerTelemetryActivity(configuration, UpdateReason.INIT);
-        this.reverseProxy = new DefaultReverseProxy(configuration, ipProvider);
+        this.activityHandler.handleEnforcerTelemetryActivity(configurationStore.get(), UpdateReason.INIT);
+        this.gauges = new EnforcerGauges(configurationStore, pxClient, transport, activityHandler);
+        this.healthReporter = new HealthReporter(configurationStore, metrics, pxClient, gauges);
+
+        synchronized (stateLock) {
+            // A handler set while initializing replaces the one the components were built with
+            useActivityHandler();
+            if (!closed) {
+                healthReporter.schedule();
+                if (configuration.isJmxEnabled()) {
+                    management = new EnforcerManagement(this);
+                    management.register();
+                }
+                if (timerConfigUpdater != null) {
+                    if (refreshSavedConfiguration) {
+                        timerConfigUpdater.schedule(0);
+                    } else {
+                        timerConfigUpdater.schedule();
+                    }
+                }
+                setState(EnforcerState.READY);
+                return;
+            }
+        }
+        // Shut down while initializing, the shutdown did not wait for the initialization to finish
+        release(DEFAULT_DRAIN_TIMEOUT);
     }
 
     public PerimeterX(PXConfiguration configuration) throws PXException {
         init(configuration);
     }
 
+    /**
+     * Creates an enforcer on the given transport, enforcers created with other constructors
+     * share the JVM wide transport {@link PXHttpTransport#shared()}
+     *
+     * @param configuration - enforcer configuration, auth token and limits are kept per enforcer
+     * @param transport     - connection pools and IO threads to use
+     * @throws PXException
+     */
+    public PerimeterX(PXConfiguration configuration, PXHttpTransport transport) throws PXException {
+        init(configuration, transport);
+    }
+
     public PerimeterX(PXConfiguration configuration, IPProvider ipProvider, HostnameProvider hostnameProvider) throws PXException {
         init(configuration);
         this.ipProvider = ipProvider;
@@ -154,15 +311,33 @@ public class PerimeterX {
         PXContext context = null;
         logger.debug(PXLogger.LogReason.DEBUG_STARTING_REQUEST_VERIFICTION);
 
+        // A single snapshot for the whole request, remote configuration updates apply from the next request
+        PXConfiguration configuration = requestConfiguration();
+        long start = 0;
+        Object verifyEvent = null;
         try {
-            if (!moduleEnabled()) {
+            if (configuration == null) {
+                logger.debug("Enforcer is {}, passing request", state);
+                return null;
+            }
+            if (!moduleEnabled(configuration)) {
                 logger.debug(PXLogger.LogReason.DEBUG_MODULE_DISABLED);
                 return null;
             }
 
+            verifyEvent = EnforcerEvents.beginVerify();
+            start = System.nanoTime();
+            Object contextEvent = EnforcerEvents.beginStage(Stage.CONTEXT);
             context = new PXContext(req, this.ipProvider, this.hostnameProvider, configuration);
-
-            if (shouldReverseRequest(req, responseWrapper)) {
+            EnforcerEvents.endStage(contextEvent, null, null);
+            metrics.recordStage(Stage.CONTEXT, System.nanoTime() - start);
+
+            Object firstPartyEvent = EnforcerEvents.beginStage(Stage.FIRST_PARTY);
+            long firstPartyStart = System.nanoTime();
+            boolean firstParty = shouldReverseRequest(req, responseWrapper);
+            metrics.recordStage(Stage.FIRST_PARTY, System.nanoTime() - firstPartyStart);
+            EnforcerEvents.endStage(firstPartyEvent, null, firstParty ? "served" : null);
+            if (firstParty) {
                 context.setFirstPartyRequest(true);
                 return context;
             }
@@ -172,14 +347,19 @@ public class PerimeterX {
             cookie.setMaxAge(0);
             responseWrapper.addCookie(cookie);
 
-            if (captchaValidator.verify(context)) {
+            Object captchaEvent = EnforcerEvents.beginStage(Stage.CAPTCHA);
+            long captchaStart = System.nanoTime();
+            boolean captchaVerified = captchaValidator.verify(context);
+            metrics.recordStage(Stage.CAPTCHA, System.nanoTime() - captchaStart);
+            EnforcerEvents.endStage(captchaEvent, null, captchaVerified ? "verified" : null);
+            if (captchaVerified) {
                 logger.debug(PXLogger.LogReason.DEBUG_CAPTCHA_COOKIE_FOUND);
                 context.setVerified(verificationHandler.handleVerification(context, responseWrapper));
                 return context;
             }
             logger.debug(PXLogger.LogReason.DEBUG_CAPTCHA_NO_COOKIE);
 
-            boolean cookieVerified = cookieValidator.verify(this.configuration, context);
+            boolean cookieVerified = cookieValidator.verify(configuration, context);
             logger.debug(PXLogger.LogReason.DEBUG_COOKIE_EVALUATION_FINISHED, context.getRiskScore());
             // Cookie is valid (exists and not expired) so we can block according to it's score
             if (cookieVerified) {
@@ -190,7 +370,20 @@ public class PerimeterX {
 
             // Calls risk_api and populate the data retrieved to the context
             logger.debug(PXLogger.LogReason.DEBUG_COOKIE_MISSING);
-            serverValidator.verify(context);
+            S2SCallReason s2sCallReason = context.getS2sCallReason() == null ? S2SCallReason.NONE : context.getS2sCallReason();
+            metrics.recordS2SCall(s2sCallReason);
+            S2SOutcome s2sOutcome = S2SOutcome.ERROR;
+            Object s2sEvent = EnforcerEvents.beginStage(Stage.S2S);
+            long s2sStart = System.nanoTime();
+            try {
+                serverValidator.verify(context);
+                s2sOutcome = S2SOutcome.of(context);
+            } finally {
+                long s2sTime = System.nanoTime() - s2sStart;
+                metrics.recordStage(Stage.S2S, s2sTime);
+                metrics.recordS2S(s2sOutcome, s2sTime);
+                EnforcerEvents.endStage(s2sEvent, s2sCallReason.getValue(), s2sOutcome.getValue());
+            }
             context.setVerified(verificationHandler.handleVerification(context,responseWrapper));
         } catch (Exception e) {
             logger.error(PXLogger.LogReason.ERROR_COOKIE_EVALUATION_EXCEPTION,  e.getMessage());
@@ -200,10 +393,172 @@ public class PerimeterX {
                 activityHandler.handlePageRequestedActivity(context);
                 context.setVerified(true);
             }
+        } finally {
+            if (context != null && !context.isFirstPartyRequest()) {
+                recordVerdict(context, start);
+            }
+            EnforcerEvents.endVerify(verifyEvent, context);
         }
         return context;
     }
 
+    private void recordVerdict(PXContext context, long start) {
+        metrics.recordStage(Stage.VERIFY, System.nanoTime() - start);
+        if (context.isRequestLowScore()) {
+            metrics.recordPass(context.getPassReason() == null ? PassReason.NONE : context.getPassReason());
+        } else {
+            metrics.recordBlock(context.getBlockReason() == null ? BlockReason.NONE : context.getBlockReason());
+        }
+    }
+
+    /**
+     * @return the configuration to verify the request with, null to pass it while the enforcer is not ready
+     */
+    private PXConfiguration requestConfiguration() {
+        switch (state) {
+            case READY:
+                if (monitorForcedUntil > 0 && System.currentTimeMillis() < monitorForcedUntil) {
+                    return monitorConfiguration();
+                }
+                return configurationStore.get();
+            case MONITORING:
+                return monitorConfiguration();
+            default:
+                return null;
+        }
+    }
+
+    private PXConfiguration monitorConfiguration() {
+        // Copied once per configuration snapshot and not per request
+        PXConfiguration current = configurationStore.get();
+        MonitorSnapshot snapshot = monitorSnapshot;
+        if (snapshot == null || snapshot.source != current) {
+            snapshot = new MonitorSnapshot(current);
+            monitorSnapshot = snapshot;
+        }
+        return snapshot.configuration;
+    }
+
+    /**
+     * Verifies requests in monitor mode for the given time, whatever the module mode of the configuration is.
+     * Remote configuration updates in the meantime do not end it
+     *
+     * @param duration - time to verify in monitor mode, 0 to stop forcing it
+     */
+    public void forceMonitorMode(long duration, TimeUnit unit) {
+        monitorForcedUntil = duration <= 0 ? 0 : System.currentTimeMillis() + unit.toMillis(duration);
+    }
+
+    /**
+     * @return time left of the forced monitor mode, 0 when it is not forced
+     */
+    public long getForcedMonitorModeRemaining(TimeUnit unit) {
+        long until = monitorForcedUntil;
+        return until == 0 ? 0 : unit.convert(Math.max(0, until - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends the buffered activities without waiting for a full batch
+     *
+     * @return false if the activity handler does not buffer activities
+     */
+    public boolean flushActivities() {
+        if (!(activityHandler instanceof BufferedActivityHandler)) {
+            return false;
+        }
+        try {
+            ((BufferedActivityHandler) activityHandler).flush();
+            return true;
+        } catch (PXException e) {
+            logger.error("Failed flushing activities, {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Publishes the current configuration with the values cached per snapshot, such as the cookie HMAC key,
+     * derived again
+     */
+    public void clearCaches() {
+        configurationStore.clearCaches();
+        monitorSnapshot = null;
+    }
+
+    /**
+     * @return the current lifecycle state of the enforcer
+     */
+    public EnforcerState getState() {
+        return state;
+    }
+
+    /**
+     * @return a future completed with this enforcer once it is initialized, or with the initialization failure.
+     * Already completed unless the enforcer was created with asyncInit
+     */
+    public Future<PerimeterX> getReadiness() {
+        return readiness;
+    }
+
+    /**
+     * Adds a listener notified of every later state change, the listener is called right away with the current state
+     *
+     * @param listener - listener to notify
+     */
+    public void addStateListener(EnforcerStateListener listener) {
+        synchronized (stateLock) {
+            stateListeners.add(listener);
+            notifyStateListener(listener, state);
+        }
+    }
+
+    public void removeStateListener(EnforcerStateListener listener) {
+        synchronized (stateLock) {
+            stateListeners.remove(listener);
+        }
+    }
+
+    private void setState(EnforcerState next) {
+        synchronized (stateLock) {
+            if (state == next || state == EnforcerState.CLOSED) {
+                return;
+            }
+            logger.debug("Enforcer state changed from {} to {}", state, next);
+            state = next;
+            for (EnforcerStateListener listener : stateListeners) {
+                notifyStateListener(listener, next);
+            }
+        }
+    }
+
+    private void notifyStateListener(EnforcerStateListener listener, EnforcerState current) {
+        try {
+            listener.onStateChange(this, current);
+        } catch (Exception e) {
+            logger.error("Enforcer state listener {} failed, {}", listener.getClass().getSimpleName(), e.getMessage());
+        }
+    }
+
+    /**
+     * @return stage latencies and verdicts of the requests verified by this enforcer
+     */
+    public EnforcerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return connection pool and activity pipeline usage of this enforcer, null until it is initialized
+     */
+    public EnforcerGauges getGauges() {
+        return gauges;
+    }
+
+    /**
+     * @return the remote configuration poller, null when remote configuration is disabled
+     */
+    public TimerConfigUpdater getRemoteConfigurationUpdater() {
+        return timerConfigUpdater;
+    }
+
     private boolean shouldReverseRequest(HttpServletRequest req, HttpServletResponseWrapper res) throws Exception {
         if (reverseProxy.reversePxClient(req, res)) {
             return true;
@@ -216,17 +571,145 @@ public class PerimeterX {
         return false;
     }
 
-    private boolean moduleEnabled() {
-        return this.configuration.isModuleEnabled();
+    private boolean moduleEnabled(PXConfiguration configuration) {
+        return !this.closed && configuration.isModuleEnabled();
     }
 
     /**
-     * Set activity handler
+     * Shuts down the enforcer using {@link #DEFAULT_DRAIN_TIMEOUT}
+     *
+     * @see #shutdown(long)
+     */
+    @Override
+    public void close() {
+        shutdown(DEFAULT_DRAIN_TIMEOUT);
+    }
+
+    /**
+     * Flushes buffered activities, waits for in-flight activities to be sent, stops the remote configuration
+     * updates and releases the transport, which closes the connection pools once no other enforcer uses them.
+     * Requests verified after shutdown are passed as if the module was disabled. An enforcer still initializing
+     * is waited for up to the drain timeout, otherwise its resources are released once the initialization finishes.
+     *
+     * @param drainTimeout - maximum time in milliseconds the shutdown waits, for the initialization and
+     *                     for pending activities to be sent
+     */
+    public void shutdown(long drainTimeout) {
+        long deadline = System.currentTimeMillis() + drainTimeout;
+        synchronized (stateLock) {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+        }
+        logger.debug("Shutting down PerimeterX enforcer");
+
+        if (!readiness.isDone()) {
+            try {
+                readiness.get(drainTimeout, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                logger.error("Enforcer is still initializing, its resources are released once the initialization finishes");
+                setState(EnforcerState.CLOSED);
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // Resources of a failed initialization were already released
+            }
+        }
+        release(Math.max(0, deadline - System.currentTimeMillis()));
+        setState(EnforcerState.CLOSED);
+    }
+
+    /**
+     * Releases the resources set up by the initialization, once
+     *
+     * @param drainTimeout - maximum time in milliseconds to wait for buffered and in-flight activities to be sent
+     */
+    private void release(long drainTimeout) {
+        long deadline = System.currentTimeMillis() + drainTimeout;
+        if (!released.compareAndSet(false, true)) {
+            return;
+        }
+        if (timerConfigUpdater != null) {
+            timerConfigUpdater.stop();
+        }
+
+        if (healthReporter != null) {
+            healthReporter.stop();
+        }
+
+        if (management != null) {
+            management.unregister();
+        }
+
+        if (activityHandler instanceof DrainableActivityHandler) {
+            try {
+                ((DrainableActivityHandler) activityHandler).close(drainTimeout);
+            } catch (IOException e) {
+                logger.error("Failed closing {}, {}", activityHandler.getClass().getSimpleName(), e.getMessage());
+            }
+        } else if (activityHandler instanceof Closeable) {
+            closeQuietly((Closeable) activityHandler);
+        }
+
+        if (pxClient != null) {
+            // The activities the handler sent share the drain timeout with the handler
+            if (!pxClient.awaitPendingRequests(Math.max(0, deadline - System.currentTimeMillis()))) {
+                logger.error("Shutdown drain timeout elapsed, dropping in-flight activities");
+            }
+            pxClient.cancelRetries();
+        }
+
+        if (reverseProxy instanceof DefaultReverseProxy) {
+            ((DefaultReverseProxy) reverseProxy).destroy();
+        }
+
+        if (transport != null) {
+            // Connection limits registered at init were moved to the current snapshot on every change
+            transport.release(configurationStore.get());
+        }
+    }
+
+    private void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            logger.error("Failed closing {}, {}", closeable.getClass().getSimpleName(), e.getMessage());
+        }
+    }
+
+    /**
+     * Set activity handler, activities of requests verified from now on are sent by it.
+     * A replaced handler that is {@link Closeable} is closed, sending the activities it buffered.
      *
      * @param activityHandler - new activity handler to use
      */
     public void setActivityHandler(ActivityHandler activityHandler) {
-        this.activityHandler = activityHandler;
+        ActivityHandler replaced;
+        synchronized (stateLock) {
+            replaced = this.activityHandler;
+            this.activityHandler = activityHandler;
+            useActivityHandler();
+        }
+        if (replaced != activityHandler && replaced instanceof Closeable) {
+            closeQuietly((Closeable) replaced);
+        }
+    }
+
+    /**
+     * Hands the activity handler to the components holding it, called with the state lock held
+     */
+    private void useActivityHandler() {
+        if (verificationHandler instanceof DefaultVerificationHandler) {
+            ((DefaultVerificationHandler) verificationHandler).setActivityHandler(activityHandler);
+        }
+        if (timerConfigUpdater != null) {
+            timerConfigUpdater.setActivityHandler(activityHandler);
+        }
+        if (gauges != null) {
+            gauges.setActivityHandler(activityHandler);
+        }
     }
 
     /**
@@ -253,10 +736,34 @@ public class PerimeterX {
      * @param verificationHandler - sets the verification handler for user customization
      */
     public void setVerificationHandler(VerificationHandler verificationHandler) {
+        if (this.verificationHandler instanceof PXConfigurationListener) {
+            configurationStore.removeListener((PXConfigurationListener) this.verificationHandler);
+        }
         this.verificationHandler = verificationHandler;
+        if (verificationHandler instanceof PXConfigurationListener) {
+            configurationStore.addListener((PXConfigurationListener) verificationHandler);
+        }
+    }
+
+    /**
+     * @return store of the enforcer configuration snapshots, listeners added to it are notified of every change
+     */
+    public PXConfigurationStore getConfigurationStore() {
+        return configurationStore;
     }
 
     public void setCustomParametersProvider(CustomParametersProvider customParametersProvider) {
         this.customParametersProvider = customParametersProvider;
     }
+
+    private static class MonitorSnapshot {
+
+        private final PXConfiguration source;
+        private final PXConfiguration configuration;
+
+        MonitorSnapshot(PXConfiguration source) {
+            this.source = source;
+            this.configuration = source.withModuleMode(ModuleMode.MONITOR);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,145 @@
+package com.perimeterx.api;
+
+import com.perimeterx.api.providers.DefaultHostnameProvider;
+import com.perimeterx.api.providers.HostnameProvider;
+import com.perimeterx.models.PXContext;
+import com.perimeterx.models.exceptions.PXException;
+import com.perimeterx.utils.PXLogger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Routes requests to one of several enforcers running in the same JVM according to the request hostname.
+ * Hostnames are matched exactly first, then by wildcard suffix (*.example.com) from the most specific
+ * suffix to the least, and finally the default enforcer is used if set.
+ * <p>
+ * The router is immutable once built and can be used concurrently without locking.
+ */
+public class PerimeterXRouter implements Closeable {
+
+    private static final PXLogger logger = PXLogger.getLogger(PerimeterXRouter.class);
+
+    private static final String WILDCARD_PREFIX = "*.";
+
+    private final Map<String, PerimeterX> exactHosts;
+    private final Map<String, PerimeterX> wildcardSuffixes;
+    private final PerimeterX defaultEnforcer;
+    private final HostnameProvider hostnameProvider;
+
+    private PerimeterXRouter(Builder builder) {
+        this.exactHosts = new HashMap<>(builder.exactHosts);
+        this.wildcardSuffixes = new HashMap<>(builder.wildcardSuffixes);
+        this.defaultEnforcer = builder.defaultEnforcer;
+        this.hostnameProvider = builder.hostnameProvider;
+    }
+
+    /**
+     * @param hostname - request hostname
+     * @return the enforcer configured for the hostname, or the default enforcer, null if none matched
+     */
+    public PerimeterX route(String hostname) {
+        if (hostname == null) {
+            return defaultEnforcer;
+        }
+        String host = hostname.toLowerCase(Locale.ENGLISH);
+        PerimeterX enforcer = exactHosts.get(host);
+        if (enforcer != null) {
+            return enforcer;
+        }
+        if (!wildcardSuffixes.isEmpty()) {
+            int dot = host.indexOf('.');
+            while (dot != -1) {
+                enforcer = wildcardSuffixes.get(host.substring(dot));
+                if (enforcer != null) {
+                    return enforcer;
+                }
+                dot = host.indexOf('.', dot + 1);
+            }
+        }
+        return defaultEnforcer;
+    }
+
+    public PerimeterX route(HttpServletRequest req) {
+        return route(hostnameProvider.getHostname(req));
+    }
+
+    /**
+     * Verify http request with the enforcer matching its hostname
+     *
+     * @param req             - current http call examined by PX
+     * @param responseWrapper - response wrapper on which we will set the response according to PX verification.
+     * @return PXContext, or null if no enforcer matched the hostname or the enforcer is disabled
+     * @throws PXException - PXException
+     */
+    public PXContext pxVerify(HttpServletRequest req, HttpServletResponseWrapper responseWrapper) throws PXException {
+        String hostname = hostnameProvider.getHostname(req);
+        PerimeterX enforcer = route(hostname);
+        if (enforcer == null) {
+            logger.debug("No enforcer configured for host {}", hostname);
+            return null;
+        }
+        return enforcer.pxVerify(req, responseWrapper);
+    }
+
+    /**
+     * Closes every routed enforcer once
+     */
+    @Override
+    public void close() {
+        Set<PerimeterX> enforcers = Collections.newSetFromMap(new IdentityHashMap<PerimeterX, Boolean>());
+        enforcers.addAll(exactHosts.values());
+        enforcers.addAll(wildcardSuffixes.values());
+        if (defaultEnforcer != null) {
+            enforcers.add(defaultEnforcer);
+        }
+        for (PerimeterX enforcer : enforcers) {
+            enforcer.close();
+        }
+    }
+
+    public static final class Builder {
+        private Map<String, PerimeterX> exactHosts = new HashMap<>();
+        private Map<String, PerimeterX> wildcardSuffixes = new HashMap<>();
+        private PerimeterX defaultEnforcer;
+        private HostnameProvider hostnameProvider = new DefaultHostnameProvider();
+
+        public Builder() {
+        }
+
+        /**
+         * @param hostname - exact hostname, or a wildcard such as *.example.com matching any subdomain
+         * @param enforcer - enforcer to verify the hostname requests with
+         */
+        public Builder route(String hostname, PerimeterX enforcer) {
+            String host = hostname.toLowerCase(Locale.ENGLISH);
+            if (host.startsWith(WILDCARD_PREFIX)) {
+                wildcardSuffixes.put(host.substring(1), enforcer);
+            } else {
+                exactHosts.put(host, enforcer);
+            }
+            return this;
+        }
+
+        public Builder defaultEnforcer(PerimeterX val) {
+            defaultEnforcer = val;
+            return this;
+        }
+
+        public Builder hostnameProvider(HostnameProvider val) {
+            hostnameProvider = val;
+            return this;
+        }
+
+        public PerimeterXRouter build() {
+            return new PerimeterXRouter(this);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.perimeterx.api.activities;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts activities as they pass through the activities pipeline.
+ * <p>
+ * Dropped activities are the ones rejected or evicted by the overflow policy,
+ * failed activities were part of a batch the collector did not accept.
+ * Spilled activities were written to the activities journal after failing and replayed activities were
+ * delivered from it.
+ * <p>
+ * Counters of a single lane also count towards the counters of the whole pipeline.
+ */
+public class ActivitiesCounters {
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+    private final ActivitiesCounters total;
+
+    public ActivitiesCounters() {
+        this(null);
+    }
+
+    /**
+     * @param total - counters every count is added to as well, null if there are none
+     */
+    ActivitiesCounters(ActivitiesCounters total) {
+        this.total = total;
+    }
+
+    void enqueued() {
+        enqueued.incrementAndGet();
+        if (total != null) {
+            total.enqueued();
+        }
+    }
+
+    void sent(int count) {
+        sent.addAndGet(count);
+        if (total != null) {
+            total.sent(count);
+        }
+    }
+
+    void dropped(int count) {
+        dropped.addAndGet(count);
+        if (total != null) {
+            total.dropped(count);
+        }
+    }
+
+    void failed(int count) {
+        failed.addAndGet(count);
+        if (total != null) {
+            total.failed(count);
+        }
+    }
+
+    void spilled(int count) {
+        spilled.addAndGet(count);
+        if (total != null) {
+            total.spilled(count);
+        }
+    }
+
+    void replayed(int count) {
+        replayed.addAndGet(count);
+        if (total != null) {
+            total.replayed(count);
+        }
+    }
+
+    public long getEnqueued() {
+        return enqueued.get();
+    }
+
+    public long getSent() {
+        return sent.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getSpilled() {
+        return spilled.get();
+    }
+
+    public long getReplayed() {
+        return replayed.get();
+    }
+
+    @Override
+    public String toString() {
+        return "enqueued=" + getEnqueued() + ", sent=" + getSent() + ", dropped=" + getDropped() + ", failed=" + getFailed()
+                + ", spilled=" + getSpilled() + ", replayed=" + getReplayed();
+    }
+}
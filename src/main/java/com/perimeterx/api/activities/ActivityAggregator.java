@@ -0,0 +1,364 @@
+package com.perimeterx.api.activities;
+
+import com.perimeterx.api.PerimeterX;
+import com.perimeterx.http.PXHttpClient;
+import com.perimeterx.http.PXHttpTransport;
+import com.perimeterx.models.activities.ActivitySnapshot;
+import com.perimeterx.models.configuration.PXConfiguration;
+import com.perimeterx.utils.PXLogger;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Receives activities from the {@link SidecarActivityHandler}s of the enforcers running on the same host
+ * and sends them to PX servers through a single {@link BufferedActivityHandler}, so the activities of all local
+ * enforcers are merged into large compressed batches over one set of collector connections.
+ * <p>
+ * Listens on the loopback interface only. Every connection starts with a handshake: the aggregator sends a random
+ * nonce and the enforcer answers with its application id and an HMAC-SHA256 of the nonce and application id keyed
+ * by its authentication token. The connection is then a stream of {@link ActivitySnapshot} records. Connections of
+ * other applications, or of local processes not holding the token, are refused. One aggregator runs per application id.
+ * <p>
+ * Every connection is read by a thread of its own. At most maxConnections connections are open, of which at most
+ * {@link #MAX_PENDING_HANDSHAKES} are still in their handshake, so local processes opening connections without
+ * authenticating cannot exhaust the aggregator threads or keep the enforcers out. Connections over either limit are
+ * closed as soon as they are accepted, before a thread is started for them.
+ * <p>
+ * Can be run as a standalone process with a properties file holding appId, authToken, cookieKey and
+ * activitiesSidecarPort, and optionally serverURL, maxBufferLen, maxAdaptiveBufferLen, maxBufferAge and maxConnections:
+ * <pre>
+ * java -cp perimeterx-sdk.jar com.perimeterx.api.activities.ActivityAggregator aggregator.properties
+ * </pre>
+ */
+public class ActivityAggregator implements Closeable {
+
+    private static final PXLogger logger = PXLogger.getLogger(ActivityAggregator.class);
+
+    private static final int HANDSHAKE_MAGIC = 0x50584132;
+    private static final int HANDSHAKE_NONCE_LENGTH = 16;
+    private static final int HANDSHAKE_MAC_LENGTH = 32;
+    private static final int HANDSHAKE_TIMEOUT = 5000;
+    private static final String HANDSHAKE_MAC_ALGORITHM = "HmacSHA256";
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_ACTIVITY_LENGTH = 1024 * 1024;
+    public static final int DEFAULT_MAX_CONNECTIONS = 64;
+    public static final int MAX_PENDING_HANDSHAKES = 8;
+
+    private final String appId;
+    private final String authToken;
+    private final SecureRandom random = new SecureRandom();
+    private final BufferedActivityHandler handler;
+    private final ServerSocket serverSocket;
+    private final Thread acceptThread;
+    private final Set<Socket> connections = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+    private final AtomicInteger connectionIds = new AtomicInteger();
+    private final Semaphore connectionPermits;
+    private final Semaphore handshakePermits = new Semaphore(MAX_PENDING_HANDSHAKES);
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong refused = new AtomicLong();
+    private volatile boolean running = true;
+
+    /**
+     * @param appId     - application id the connecting enforcers must use
+     * @param authToken - authentication token of the application, the connecting enforcers must hold it
+     * @param port      - loopback port to listen on, 0 for any free port
+     * @param handler   - handler the received activities are buffered and sent by
+     * @throws IOException when the port cannot be bound
+     */
+    public ActivityAggregator(String appId, String authToken, int port, BufferedActivityHandler handler) throws IOException {
+        this(appId, authToken, port, handler, DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * @param appId          - application id the connecting enforcers must use
+     * @param authToken      - authentication token of the application, the connecting enforcers must hold it
+     * @param port           - loopback port to listen on, 0 for any free port
+     * @param handler        - handler the received activities are buffered and sent by
+     * @param maxConnections - maximum number of connections open at once, further connections are closed
+     * @throws IOException when the port cannot be bound
+     */
+    public ActivityAggregator(String appId, String authToken, int port, BufferedActivityHandler handler, int maxConnections) throws IOException {
+        if (authToken == null || authToken.isEmpty()) {
+            throw new IllegalArgumentException("authToken is required to authenticate the enforcers");
+        }
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("maxConnections must be positive");
+        }
+        this.connectionPermits = new Semaphore(maxConnections);
+        this.appId = appId;
+        this.authToken = authToken;
+        this.handler = handler;
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        this.acceptThread = new Thread(new Acceptor(), "PerimeterX-aggregator-accept");
+        this.acceptThread.setDaemon(true);
+        this.acceptThread.start();
+    }
+
+    /**
+     * Answers the nonce sent by the aggregator
+     */
+    static void writeHandshake(DataInput in, DataOutput out, String appId, String authToken) throws IOException {
+        byte[] nonce = new byte[HANDSHAKE_NONCE_LENGTH];
+        in.readFully(nonce);
+        out.writeInt(HANDSHAKE_MAGIC);
+        out.writeUTF(appId);
+        out.write(handshakeMac(nonce, appId, authToken));
+    }
+
+    private static byte[] handshakeMac(byte[] nonce, String appId, String authToken) throws IOException {
+        try {
+            Mac mac = Mac.getInstance(HANDSHAKE_MAC_ALGORITHM);
+            mac.init(new SecretKeySpec(authToken.getBytes(StandardCharsets.UTF_8), HANDSHAKE_MAC_ALGORITHM));
+            mac.update(nonce);
+            return mac.doFinal(appId.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * @return port the aggregator listens on
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return number of enforcer connections currently open
+     */
+    public int getConnectionsCount() {
+        return connections.size();
+    }
+
+    /**
+     * @return number of connections closed on accept because maxConnections connections were open
+     * or {@link #MAX_PENDING_HANDSHAKES} connections were in their handshake
+     */
+    public long getRefusedConnections() {
+        return refused.get();
+    }
+
+    /**
+     * @return number of activities received from all connections
+     */
+    public long getReceivedActivities() {
+        return received.get();
+    }
+
+    /**
+     * Stops accepting activities, the activities already received are still sent when the handler is closed
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverSocket.close();
+        for (Socket connection : connections) {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                logger.debug("Failed closing aggregator connection, {}", e.getMessage());
+            }
+        }
+    }
+
+    private class Acceptor implements Runnable {
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    Socket connection = serverSocket.accept();
+                    if (!connectionPermits.tryAcquire()) {
+                        refuse(connection);
+                        continue;
+                    }
+                    if (!handshakePermits.tryAcquire()) {
+                        connectionPermits.release();
+                        refuse(connection);
+                        continue;
+                    }
+                    connections.add(connection);
+                    Thread reader = new Thread(new Reader(connection), "PerimeterX-aggregator-" + connectionIds.incrementAndGet());
+                    reader.setDaemon(true);
+                    reader.start();
+                } catch (IOException e) {
+                    if (running) {
+                        logger.error("Failed accepting activities connection, {}", e.getMessage());
+                    }
+                }
+            }
+        }
+
+        private void refuse(Socket connection) {
+            refused.incrementAndGet();
+            // Logged at debug level only, the connections may be opened faster than they can be logged
+            logger.debug("Refusing activities connection, too many connections are open");
+            try {
+                connection.close();
+            } catch (IOException e) {
+                logger.debug("Failed closing aggregator connection, {}", e.getMessage());
+            }
+        }
+    }
+
+    private class Reader implements Runnable {
+
+        private final Socket connection;
+
+        Reader(Socket connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void run() {
+            boolean handshaking = true;
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream(), READ_BUFFER_SIZE));
+                boolean authenticated = handshake(in);
+                handshaking = false;
+                handshakePermits.release();
+                if (!authenticated) {
+                    return;
+                }
+                while (running) {
+                    handler.handleActivitySnapshot(ActivitySnapshot.readFrom(in, MAX_ACTIVITY_LENGTH));
+                    received.incrementAndGet();
+                }
+            } catch (EOFException | SocketException | SocketTimeoutException e) {
+                // The enforcer closed the connection, did not answer the handshake in time or the aggregator is closing
+            } catch (IOException e) {
+                logger.error("Failed reading activities connection, {}", e.getMessage());
+            } finally {
+                if (handshaking) {
+                    handshakePermits.release();
+                }
+                connections.remove(connection);
+                connectionPermits.release();
+                try {
+                    connection.close();
+                } catch (IOException e) {
+                    logger.debug("Failed closing aggregator connection, {}", e.getMessage());
+                }
+            }
+        }
+
+        /**
+         * @return true if the enforcer answered the nonce with the application id and token of the aggregator
+         */
+        private boolean handshake(DataInputStream in) throws IOException {
+            connection.setSoTimeout(HANDSHAKE_TIMEOUT);
+            byte[] nonce = new byte[HANDSHAKE_NONCE_LENGTH];
+            random.nextBytes(nonce);
+            connection.getOutputStream().write(nonce);
+            connection.getOutputStream().flush();
+            if (in.readInt() != HANDSHAKE_MAGIC) {
+                logger.error("Refusing activities connection with an invalid handshake");
+                return false;
+            }
+            String connectionAppId = in.readUTF();
+            byte[] connectionMac = new byte[HANDSHAKE_MAC_LENGTH];
+            in.readFully(connectionMac);
+            if (!appId.equals(connectionAppId)) {
+                logger.error("Refusing activities connection of application {}, aggregating {}", connectionAppId, appId);
+                return false;
+            }
+            if (!MessageDigest.isEqual(connectionMac, handshakeMac(nonce, appId, authToken))) {
+                logger.error("Refusing activities connection of application {} with an invalid authentication", connectionAppId);
+                return false;
+            }
+            connection.setSoTimeout(0);
+            return true;
+        }
+    }
+
+    /**
+     * Runs the aggregator until the process is stopped
+     *
+     * @param args - path of the aggregator properties file
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("Usage: ActivityAggregator <properties file>");
+            System.exit(1);
+        }
+        Properties properties = new Properties();
+        InputStream input = new FileInputStream(args[0]);
+        try {
+            properties.load(input);
+        } finally {
+            input.close();
+        }
+        PXConfiguration.Builder builder = new PXConfiguration.Builder()
+                .appId(properties.getProperty("appId"))
+                .authToken(properties.getProperty("authToken"))
+                .cookieKey(properties.getProperty("cookieKey"))
+                .activitiesSidecarPort(Integer.parseInt(properties.getProperty("activitiesSidecarPort")));
+        if (properties.containsKey("serverURL")) {
+            builder.baseURL(properties.getProperty("serverURL"));
+        }
+        if (properties.containsKey("maxBufferLen")) {
+            builder.maxBufferLen(Integer.parseInt(properties.getProperty("maxBufferLen")));
+        }
+        if (properties.containsKey("maxAdaptiveBufferLen")) {
+            builder.maxAdaptiveBufferLen(Integer.parseInt(properties.getProperty("maxAdaptiveBufferLen")));
+        }
+        if (properties.containsKey("maxBufferAge")) {
+            builder.maxBufferAge(Integer.parseInt(properties.getProperty("maxBufferAge")));
+        }
+        int maxConnections = properties.containsKey("maxConnections")
+                ? Integer.parseInt(properties.getProperty("maxConnections")) : DEFAULT_MAX_CONNECTIONS;
+        final PXConfiguration configuration = builder.build();
+
+        final PXHttpTransport transport = new PXHttpTransport();
+        transport.register(configuration);
+        final PXHttpClient client = new PXHttpClient(configuration, transport.getAsyncHttpClient(), transport.getHttpClient());
+        final BufferedActivityHandler handler = new BufferedActivityHandler(client, configuration);
+        final ActivityAggregator aggregator = new ActivityAggregator(configuration.getAppId(), configuration.getAuthToken(),
+                configuration.getActivitiesSidecarPort(), handler, maxConnections);
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    aggregator.close();
+                    handler.close();
+                    client.awaitPendingRequests(PerimeterX.DEFAULT_DRAIN_TIMEOUT);
+                    client.cancelRetries();
+                } catch (IOException e) {
+                    logger.error("Failed stopping the activities aggregator, {}", e.getMessage());
+                } finally {
+                    transport.release(configuration);
+                }
+            }
+        }, "PerimeterX-aggregator-shutdown"));
+        logger.debug("Activities aggregator listening on port {}", aggregator.getPort());
+        aggregator.acceptThread.join();
+    }
+}
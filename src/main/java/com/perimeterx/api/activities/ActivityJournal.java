@@ -0,0 +1,354 @@
+package com.perimeterx.api.activities;
+
+import com.perimeterx.models.activities.ActivityBatch;
+import com.perimeterx.utils.MappedBuffers;
+import com.perimeterx.utils.PXLogger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append only journal of activity batches that could not be delivered, kept in memory mapped segment files
+ * of a fixed size so batches survive a collector outage and a restart.
+ * <p>
+ * Record format, all integers are big endian:
+ * <pre>
+ * record  := length crc32 body          length is negative once the record was replayed, 0 marks the end
+ * body    := count { activityLength activity }
+ * </pre>
+ * A segment file is deleted once all of its records were replayed. Records are replayed in the order they
+ * were written, one at a time.
+ */
+public class ActivityJournal implements Closeable {
+
+    private static final PXLogger logger = PXLogger.getLogger(ActivityJournal.class);
+
+    private static final String SEGMENT_PREFIX = "px-activities-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final int RECORD_HEADER = 8;
+
+    private final File directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final List<Segment> segments = new ArrayList<>();
+    private long nextSequence;
+    private int pendingRecords;
+    private boolean closed;
+
+    /**
+     * Opens the journal, records left by a previous run are kept for replay
+     *
+     * @param directory   - directory holding the segment files, created if missing
+     * @param segmentSize - size in bytes of each segment file
+     * @param maxSegments - maximum number of segment files, batches are rejected when all are full
+     * @throws IOException when the directory or the segment files cannot be used
+     */
+    public ActivityJournal(File directory, int segmentSize, int maxSegments) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create activities journal directory " + directory);
+        }
+        for (File file : existingSegments()) {
+            Segment segment = new Segment(file, sequenceOf(file));
+            nextSequence = segment.sequence + 1;
+            if (segment.liveRecords == 0) {
+                segment.delete();
+            } else {
+                segments.add(segment);
+                pendingRecords += segment.liveRecords;
+            }
+        }
+        if (pendingRecords > 0) {
+            logger.debug("Activities journal has {} batches to replay", pendingRecords);
+        }
+    }
+
+    /**
+     * @param batch - batch to keep until it can be replayed
+     * @return false if the journal is full or closed and the batch was not written
+     */
+    public synchronized boolean append(ActivityBatch batch) throws IOException {
+        if (closed) {
+            return false;
+        }
+        byte[] body = encode(batch);
+        int recordSize = RECORD_HEADER + body.length;
+        // Room is left for the trailing 0 length marking the end of the segment
+        if (recordSize + 4 > segmentSize) {
+            return false;
+        }
+        Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (segment == null || segment.writePosition + recordSize + 4 > segmentSize) {
+            // Acks keep the segment being written, it is deleted once it is no longer written if all of it was replayed
+            if (segment != null && segment.liveRecords == 0) {
+                segments.remove(segment);
+                segment.delete();
+            }
+            if (segments.size() >= maxSegments) {
+                return false;
+            }
+            segment = new Segment(new File(directory, SEGMENT_PREFIX + nextSequence + SEGMENT_SUFFIX), nextSequence);
+            nextSequence++;
+            segments.add(segment);
+        }
+        segment.write(body);
+        pendingRecords++;
+        return true;
+    }
+
+    /**
+     * @return the oldest batch not yet replayed, or null if there is none
+     */
+    public synchronized Entry next() {
+        for (Segment segment : segments) {
+            Entry entry = segment.next();
+            if (entry != null) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Marks the entry as replayed so it is not replayed again, even after a restart
+     */
+    public synchronized void ack(Entry entry) {
+        if (closed || !segments.contains(entry.segment)) {
+            return;
+        }
+        Segment segment = entry.segment;
+        segment.consume(entry);
+        pendingRecords--;
+        boolean active = segment == segments.get(segments.size() - 1);
+        if (segment.liveRecords == 0 && !active) {
+            segments.remove(segment);
+            segment.delete();
+        }
+    }
+
+    /**
+     * @return number of batches waiting to be replayed
+     */
+    public synchronized int getPendingBatches() {
+        return pendingRecords;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Segment segment : segments) {
+            segment.close();
+        }
+        segments.clear();
+    }
+
+    private File[] existingSegments() {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.valueOf(sequenceOf(a)).compareTo(sequenceOf(b));
+            }
+        });
+        return files;
+    }
+
+    private static long sequenceOf(File file) {
+        String name = file.getName();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static byte[] encode(ActivityBatch batch) {
+        List<byte[]> activities = batch.getActivities();
+        byte[] body = new byte[4 + 4 * activities.size() + batch.getBytes()];
+        ByteBuffer buffer = ByteBuffer.wrap(body);
+        buffer.putInt(activities.size());
+        for (byte[] activity : activities) {
+            buffer.putInt(activity.length);
+            buffer.put(activity);
+        }
+        return body;
+    }
+
+    private static ActivityBatch decode(MappedByteBuffer buffer, int offset, int length) {
+        ByteBuffer body = buffer.duplicate();
+        body.position(offset);
+        body.limit(offset + length);
+        int count = body.getInt();
+        ActivityBatch batch = new ActivityBatch();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            byte[] activity = new byte[body.getInt()];
+            body.get(activity);
+            batch.add(activity, now);
+        }
+        return batch;
+    }
+
+    private static int checksum(MappedByteBuffer buffer, int offset, int length) {
+        byte[] body = new byte[length];
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(offset);
+        duplicate.get(body);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Journaled batch handed out for replay
+     */
+    public static final class Entry {
+
+        private final Segment segment;
+        private final int offset;
+        private final int length;
+        private final ActivityBatch batch;
+
+        private Entry(Segment segment, int offset, int length, ActivityBatch batch) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.batch = batch;
+        }
+
+        public ActivityBatch getBatch() {
+            return batch;
+        }
+    }
+
+    private final class Segment {
+
+        private final File file;
+        private final long sequence;
+        private final RandomAccessFile raf;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private int writePosition;
+        private int readPosition;
+        private int liveRecords;
+
+        Segment(File file, long sequence) throws IOException {
+            this.file = file;
+            this.sequence = sequence;
+            this.raf = new RandomAccessFile(file, "rw");
+            this.channel = raf.getChannel();
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentSize, raf.length()));
+            recover();
+        }
+
+        /**
+         * Finds the end of the written records, a torn record left by a crash ends the segment
+         */
+        private void recover() {
+            int position = 0;
+            readPosition = -1;
+            while (position + RECORD_HEADER <= buffer.capacity()) {
+                int length = buffer.getInt(position);
+                int size = Math.abs(length);
+                if (length == 0 || position + RECORD_HEADER + size > buffer.capacity()) {
+                    break;
+                }
+                if (length > 0) {
+                    if (checksum(buffer, position + RECORD_HEADER, length) != buffer.getInt(position + 4)) {
+                        logger.error("Activities journal {} is corrupted at {}, ignoring the rest of it", file, position);
+                        buffer.putInt(position, 0);
+                        break;
+                    }
+                    liveRecords++;
+                    if (readPosition < 0) {
+                        readPosition = position;
+                    }
+                }
+                position += RECORD_HEADER + size;
+            }
+            writePosition = position;
+            if (readPosition < 0) {
+                readPosition = writePosition;
+            }
+        }
+
+        void write(byte[] body) {
+            int position = writePosition;
+            buffer.position(position + 4);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            buffer.putInt((int) crc.getValue());
+            buffer.put(body);
+            buffer.putInt(0);
+            // The length is written last so a partially written record is never read back
+            buffer.putInt(position, body.length);
+            writePosition = position + RECORD_HEADER + body.length;
+            liveRecords++;
+        }
+
+        Entry next() {
+            int position = readPosition;
+            while (position < writePosition) {
+                int length = buffer.getInt(position);
+                if (length > 0) {
+                    readPosition = position;
+                    return new Entry(this, position, length, decode(buffer, position + RECORD_HEADER, length));
+                }
+                position += RECORD_HEADER + Math.abs(length);
+            }
+            readPosition = position;
+            return null;
+        }
+
+        void consume(Entry entry) {
+            buffer.putInt(entry.offset, -entry.length);
+            liveRecords--;
+        }
+
+        /**
+         * Unmaps the segment, it is not read or written anymore
+         */
+        void close() {
+            try {
+                buffer.force();
+                channel.close();
+                raf.close();
+            } catch (IOException e) {
+                logger.error("Failed closing activities journal {}, {}", file, e.getMessage());
+            }
+            // Otherwise the mapping and the space of a deleted file are only released once the buffer is collected
+            MappedBuffers.unmap(buffer);
+        }
+
+        void delete() {
+            close();
+            if (!file.delete()) {
+                logger.error("Failed deleting replayed activities journal {}", file);
+            }
+        }
+    }
+}
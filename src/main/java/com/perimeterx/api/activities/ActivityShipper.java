@@ -0,0 +1,187 @@
+package com.perimeterx.api.activities;
+
+import com.perimeterx.http.ActivityBatchClient;
+import com.perimeterx.http.async.RejectedRequestException;
+import com.perimeterx.models.activities.ActivityBatch;
+import com.perimeterx.utils.LatencyHistogram;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends activity batches on the async client with at most maxInFlight batches waiting for the collector,
+ * once the limit is reached batches are not sent until a batch is answered so activities wait in the buffer.
+ * <p>
+ * Keeps the outcome of every batch, the time the collector took to answer it and the delivery lag,
+ * the time from the oldest activity of the batch until the collector accepted it.
+ */
+public class ActivityShipper {
+
+    private final ActivityBatchClient client;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final Runnable onRelease;
+    private final AtomicLong batchesSent = new AtomicLong();
+    private final AtomicLong batchesFailed = new AtomicLong();
+    private final AtomicLong batchesRejected = new AtomicLong();
+    private final LatencyHistogram batchLatency = new LatencyHistogram();
+    private final LatencyHistogram deliveryLag = new LatencyHistogram();
+
+    /**
+     * @param client      - client the batches are sent with
+     * @param maxInFlight - maximum number of batches sent concurrently
+     * @param onRelease   - called once a batch was answered and another can be sent
+     */
+    public ActivityShipper(ActivityBatchClient client, int maxInFlight, Runnable onRelease) {
+        this.client = client;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.onRelease = onRelease;
+    }
+
+    /**
+     * Sends the batch unless maxInFlight batches are in flight
+     *
+     * @param callback - notified with the outcome of the batch
+     * @return false if the batch was not sent
+     */
+    public boolean trySend(ActivityBatch batch, ActivityBatch.Callback callback) {
+        if (!inFlight.tryAcquire()) {
+            return false;
+        }
+        ship(batch, callback);
+        return true;
+    }
+
+    /**
+     * Sends the batch, waiting up to the timeout for a batch in flight to be answered
+     *
+     * @param callback - notified with the outcome of the batch
+     * @return false if the timeout elapsed and the batch was not sent
+     */
+    public boolean send(ActivityBatch batch, ActivityBatch.Callback callback, long timeout, TimeUnit unit) throws InterruptedException {
+        if (!inFlight.tryAcquire(timeout, unit)) {
+            return false;
+        }
+        ship(batch, callback);
+        return true;
+    }
+
+    /**
+     * Waits for all batches in flight to be answered
+     *
+     * @return false if the timeout elapsed first
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        if (!inFlight.tryAcquire(maxInFlight, timeout, unit)) {
+            return false;
+        }
+        inFlight.release(maxInFlight);
+        return true;
+    }
+
+    private void ship(ActivityBatch batch, ActivityBatch.Callback callback) {
+        ShipmentCallback shipment = new ShipmentCallback(callback);
+        batch.setCallback(shipment);
+        try {
+            client.sendBatchActivities(batch);
+        } catch (Exception e) {
+            shipment.failed(batch, e);
+        }
+    }
+
+    /**
+     * @return number of batches sent and not yet answered by the collector
+     */
+    public int getInFlightCount() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public long getBatchesSent() {
+        return batchesSent.get();
+    }
+
+    /**
+     * @return batches that could not be delivered, excluding the ones the collector rejected
+     */
+    public long getBatchesFailed() {
+        return batchesFailed.get();
+    }
+
+    /**
+     * @return batches the collector answered with a status that should not be retried
+     */
+    public long getBatchesRejected() {
+        return batchesRejected.get();
+    }
+
+    /**
+     * @return milliseconds from sending a batch until the collector answered it
+     */
+    public LatencyHistogram getBatchLatency() {
+        return batchLatency;
+    }
+
+    /**
+     * @return milliseconds from the oldest activity of a batch until the collector accepted it
+     */
+    public LatencyHistogram getDeliveryLag() {
+        return deliveryLag;
+    }
+
+    private class ShipmentCallback implements ActivityBatch.Callback {
+
+        private final AtomicBoolean done = new AtomicBoolean();
+        private final ActivityBatch.Callback callback;
+        private final long start = System.currentTimeMillis();
+
+        ShipmentCallback(ActivityBatch.Callback callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public void sent(ActivityBatch batch) {
+            if (done.compareAndSet(false, true)) {
+                long now = System.currentTimeMillis();
+                batchLatency.record(now - start);
+                deliveryLag.record(now - batch.getOldestTimestamp());
+                batchesSent.incrementAndGet();
+                try {
+                    callback.sent(batch);
+                } finally {
+                    release();
+                }
+            }
+        }
+
+        @Override
+        public void failed(ActivityBatch batch, Exception e) {
+            if (done.compareAndSet(false, true)) {
+                batchLatency.record(System.currentTimeMillis() - start);
+                if (e instanceof RejectedRequestException) {
+                    batchesRejected.incrementAndGet();
+                } else {
+                    batchesFailed.incrementAndGet();
+                }
+                try {
+                    callback.failed(batch, e);
+                } finally {
+                    release();
+                }
+            }
+        }
+
+        private void release() {
+            inFlight.release();
+            if (onRelease != null) {
+                onRelease.run();
+            }
+        }
+    }
+}
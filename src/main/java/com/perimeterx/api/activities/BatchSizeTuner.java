@@ -0,0 +1,87 @@
+package com.perimeterx.api.activities;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tunes the number of activities per batch from the observed arrival rate and collector latency.
+ * <p>
+ * The batch size aims for at most {@value #TARGET_BATCHES_PER_SECOND} batches per second, and fewer when the
+ * collector latency would keep more than half of the in flight batches busy, so peaks are sent in fewer, larger
+ * batches. The size stays within the configured bounds, batches of quiet periods are flushed by age.
+ */
+public class BatchSizeTuner {
+
+    private static final int TARGET_BATCHES_PER_SECOND = 10;
+    private static final long WINDOW = TimeUnit.SECONDS.toNanos(1);
+    private static final double SMOOTHING = 0.5;
+
+    private final int minSize;
+    private final int maxSize;
+    private final int maxInFlight;
+    private volatile int size;
+    private volatile double latencyMillis;
+    private double rate;
+    private long windowStart;
+    private int windowArrivals;
+
+    /**
+     * @param minSize     - smallest batch size, used until the rate is known
+     * @param maxSize     - largest batch size
+     * @param maxInFlight - maximum number of batches sent concurrently
+     */
+    public BatchSizeTuner(int minSize, int maxSize, int maxInFlight) {
+        this.minSize = minSize;
+        this.maxSize = Math.max(minSize, maxSize);
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.size = minSize;
+        this.windowStart = System.nanoTime();
+    }
+
+    /**
+     * @return false if the bounds leave nothing to tune
+     */
+    public boolean isAdaptive() {
+        return maxSize > minSize;
+    }
+
+    public int getBatchSize() {
+        return size;
+    }
+
+    /**
+     * Records activities taken from the queue, called from a single thread
+     *
+     * @param count - number of activities
+     * @param now   - {@link System#nanoTime()}
+     */
+    public void onArrivals(int count, long now) {
+        windowArrivals += count;
+        long elapsed = now - windowStart;
+        if (elapsed < WINDOW) {
+            return;
+        }
+        double windowRate = windowArrivals * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+        rate = rate == 0 ? windowRate : SMOOTHING * windowRate + (1 - SMOOTHING) * rate;
+        windowStart = now;
+        windowArrivals = 0;
+        size = computeSize();
+    }
+
+    /**
+     * Records the time a batch took to be answered, may be called from any thread
+     */
+    public void onBatchLatency(long millis) {
+        double current = latencyMillis;
+        latencyMillis = current == 0 ? millis : SMOOTHING * millis + (1 - SMOOTHING) * current;
+    }
+
+    private int computeSize() {
+        double batchesPerSecond = TARGET_BATCHES_PER_SECOND;
+        if (latencyMillis > 0) {
+            // Keep at most half of the in flight batches busy
+            batchesPerSecond = Math.min(batchesPerSecond, maxInFlight * 1000 / latencyMillis / 2);
+        }
+        long wanted = (long) Math.ceil(rate / batchesPerSecond);
+        return (int) Math.max(minSize, Math.min(maxSize, wanted));
+    }
+}
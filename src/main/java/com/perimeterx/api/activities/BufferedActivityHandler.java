@@ -1,45 +1,134 @@
 package com.perimeterx.api.activities;
 
+import com.perimeterx.http.ActivityBatchClient;
 import com.perimeterx.http.PXClient;
+import com.perimeterx.http.async.RejectedRequestException;
+import com.perimeterx.metrics.EnforcerEvents;
 import com.perimeterx.models.PXContext;
 import com.perimeterx.models.activities.*;
+import com.perimeterx.models.configuration.ActivitiesOverflowPolicy;
 import com.perimeterx.models.configuration.PXConfiguration;
 import com.perimeterx.models.exceptions.PXException;
 import com.perimeterx.utils.Constants;
+import com.perimeterx.utils.PXLogger;
+import com.perimeterx.utils.RingBuffer;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
 /**
- * Buffered activities and sends them to PX servers when buffer is full
+ * Buffers activities and sends them to PX servers from a background sender thread.
+ * <p>
+ * Activities go through two lanes, each with its own bounded lock free queue, overflow policy, in flight limit
+ * and counters, so block activities never wait behind or get dropped along with page_requested activities.
+ * Request threads encode activities to compact {@link ActivitySnapshot}s and add them to the queue of their lane
+ * without blocking, in a bounded number of attempts (see {@link RingBuffer}). The sender thread serves the block
+ * lane first. It sends a batch of a lane when it reaches its batch size or maxBufferBytes bytes, or when its
+ * oldest activity is older than the lane maximum age.
+ * <ul>
+ * <li>Block activities are sent in batches of maxBufferLen activities within blockActivitiesMaxBufferAge
+ * milliseconds, at most blockMaxInFlightBatches concurrently.</li>
+ * <li>Page_requested activities are sent in batches growing from maxBufferLen up to maxAdaptiveBufferLen with the
+ * arrival rate and the collector latency, see {@link BatchSizeTuner}, within maxBufferAge milliseconds,
+ * at most maxInFlightBatches concurrently.</li>
+ * </ul>
+ * Each lane ships its batches with an {@link ActivityShipper}, while the collector is slow the sender waits for
+ * in flight batches and the queues fill up, at which point activities are dropped according to the overflow policy
+ * of their lane.
+ * <p>
+ * When activitiesJournalDir is set, batches the collector did not accept are written to an {@link ActivityJournal}
+ * by the sender thread and replayed at activitiesJournalReplayRate batches per second once a batch is accepted again.
+ * A replayed batch the collector rejects, or that failed {@link #MAX_REPLAY_FAILURES} times while the collector
+ * accepted other batches in between, is dropped. Spilled and replayed activities are only counted by the pipeline counters.
  * <p>
  * Created by nitzangoldfeder on 05/03/2017.
  */
-public class BufferedActivityHandler implements ActivityHandler {
+public class BufferedActivityHandler implements DrainableActivityHandler {
+
+    private static final PXLogger logger = PXLogger.getLogger(BufferedActivityHandler.class);
 
-    private int maxBufferLength;
-    private List<Activity> bufferedActivities;
+    private static final long CLOSE_TIMEOUT = TimeUnit.SECONDS.toMillis(5);
+    private static final long CLOSE_GRACE = 100;
+    // DROP_OLDEST evicts at most this many activities on the request thread, each round being a bounded offer and poll
+    private static final int MAX_EVICTIONS = 4;
+    // While the collector is failing a single journaled batch is replayed at this interval to probe it
+    private static final long JOURNAL_PROBE_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+    private static final int MAX_REPLAY_FAILURES = 5;
+
+    private int maxBufferBytes;
+    private final ActivitiesCounters counters = new ActivitiesCounters();
+    private Lane blockLane;
+    private Lane pageRequestedLane;
+    // Served in order, the block lane first
+    private Lane[] lanes;
+    private ActivityJournal journal;
+    private long replayInterval;
+    private final Queue<ActivityBatch> failedBatches = new ConcurrentLinkedQueue<>();
+    private volatile boolean collectorAvailable = true;
+    private volatile boolean replaying;
+    // Failures of the oldest journaled batch, only one replayed batch is in flight at a time
+    private volatile int replayFailures;
     private PXConfiguration configuration;
     private PXClient client;
+    private final ActivityBatchClient batchClient;
+    private Thread senderThread;
+    private volatile boolean running;
+    private volatile long closeDeadline;
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
 
+    /**
+     * @param client - client the activities are sent with, batches are sent as encoded when it is an
+     *               {@link ActivityBatchClient} and with {@link PXClient#sendBatchActivities(List)} otherwise
+     */
     public BufferedActivityHandler(PXClient client, PXConfiguration configuration) {
         this.configuration = configuration;
         this.client = client;
-        this.maxBufferLength = configuration.getMaxBufferLen();
-        this.bufferedActivities = new ArrayList<>();
+        this.batchClient = client instanceof ActivityBatchClient ? (ActivityBatchClient) client : new ActivityListClient(client);
+        this.maxBufferBytes = configuration.getMaxBufferBytes();
+        this.blockLane = new Lane(configuration.getBlockActivitiesQueueCapacity(), configuration.getBlockActivitiesOverflowPolicy(),
+                new BatchSizeTuner(configuration.getMaxBufferLen(), configuration.getMaxBufferLen(), configuration.getBlockMaxInFlightBatches()),
+                configuration.getBlockActivitiesMaxBufferAge(), configuration.getBlockMaxInFlightBatches());
+        this.pageRequestedLane = new Lane(configuration.getActivitiesQueueCapacity(), configuration.getActivitiesOverflowPolicy(),
+                new BatchSizeTuner(configuration.getMaxBufferLen(), configuration.getMaxAdaptiveBufferLen(), configuration.getMaxInFlightBatches()),
+                configuration.getMaxBufferAge(), configuration.getMaxInFlightBatches());
+        this.lanes = new Lane[]{blockLane, pageRequestedLane};
+        this.journal = openJournal(configuration);
+        this.replayInterval = TimeUnit.SECONDS.toNanos(1) / Math.max(1, configuration.getActivitiesJournalReplayRate());
+        this.running = true;
+        this.senderThread = new Thread(new Sender(), "PerimeterX-activity-sender");
+        this.senderThread.setDaemon(true);
+        this.senderThread.start();
     }
 
+    private static ActivityJournal openJournal(PXConfiguration configuration) {
+        if (configuration.getActivitiesJournalDir() == null) {
+            return null;
+        }
+        try {
+            return new ActivityJournal(new File(configuration.getActivitiesJournalDir()),
+                    configuration.getActivitiesJournalSegmentSize(), configuration.getActivitiesJournalMaxSegments());
+        } catch (IOException e) {
+            logger.error("Failed opening activities journal, undelivered activities will be dropped, {}", e.getMessage());
+            return null;
+        }
+    }
 
     @Override
     public void handleBlockActivity(PXContext context) throws PXException {
-        Activity activity = ActivityFactory.createActivity(Constants.ACTIVITY_BLOCKED, configuration.getAppId(), context);
+        Activity activity = ActivityFactory.createActivity(Constants.ACTIVITY_BLOCKED, context.getPxConfiguration().getAppId(), context);
         handleSendActivities(activity);
     }
 
     @Override
     public void handlePageRequestedActivity(PXContext context) throws PXException {
-        Activity activity = ActivityFactory.createActivity(Constants.ACTIVITY_PAGE_REQUESTED, configuration.getAppId(), context);
+        Activity activity = ActivityFactory.createActivity(Constants.ACTIVITY_PAGE_REQUESTED, context.getPxConfiguration().getAppId(), context);
         handleSendActivities(activity);
     }
 
@@ -54,25 +143,528 @@ public class BufferedActivityHandler implements ActivityHandler {
         }
     }
 
-    private void handleSendActivities(Activity activity) throws PXException {
-        bufferedActivities.add(activity);
-        if (bufferedActivities.size() >= maxBufferLength) {
-            flush();
-            bufferedActivities.clear();
+    private void handleSendActivities(Activity activity) {
+        ActivitySnapshot snapshot;
+        try {
+            snapshot = ActivitySnapshot.of(activity);
+        } catch (IOException e) {
+            laneOf(activity.getType()).counters.failed(1);
+            logger.error("Failed serializing {} activity, {}", activity.getType(), e.getMessage());
+            return;
         }
+        handleActivitySnapshot(snapshot);
+    }
+
+    /**
+     * Buffers an activity that was already encoded, such as one received by an {@link ActivityAggregator}
+     */
+    public void handleActivitySnapshot(ActivitySnapshot snapshot) {
+        laneOf(snapshot.getType()).offer(snapshot);
+    }
+
+    private Lane laneOf(String activityType) {
+        return Constants.ACTIVITY_BLOCKED.equals(activityType) ? blockLane : pageRequestedLane;
     }
 
     /**
-     * Will trigger the client to send a batch of activities to PX Servers
-     * Most likely to call clear after to remove sent activities
+     * Will trigger the sender thread to send all buffered activities without waiting for the batch to fill up
      *
-     * @throws PXException - when transport layer fails to report activities
+     * @throws PXException - kept for compatibility, activities are sent asynchronously
      */
     public void flush() throws PXException {
+        flushRequested.set(true);
+        LockSupport.unpark(senderThread);
+    }
+
+    /**
+     * @return number of activities waiting to be sent
+     */
+    public int getBufferedActivitiesCount() {
+        return blockLane.queue.size() + pageRequestedLane.queue.size();
+    }
+
+    /**
+     * @return number of activities the next page_requested batch is sent at
+     */
+    public int getBatchSize() {
+        return pageRequestedLane.batchSizeTuner.getBatchSize();
+    }
+
+    /**
+     * @return number of batches sent and not yet answered by the collector
+     */
+    public int getInFlightBatchesCount() {
+        return blockLane.getInFlightBatchesCount() + pageRequestedLane.getInFlightBatchesCount();
+    }
+
+    /**
+     * @return shipper of the block activities batches, with their outcomes and latencies
+     */
+    public ActivityShipper getBlockShipper() {
+        return blockLane.shipper;
+    }
+
+    /**
+     * @return shipper of the page_requested activities and journaled batches, with their outcomes and latencies
+     */
+    public ActivityShipper getPageRequestedShipper() {
+        return pageRequestedLane.shipper;
+    }
+
+    /**
+     * @return number of batches in the journal waiting to be replayed, 0 when the journal is disabled
+     */
+    public int getJournaledBatchesCount() {
+        return journal == null ? 0 : journal.getPendingBatches();
+    }
+
+    /**
+     * @return activities counters of both lanes since the handler was created
+     */
+    public ActivitiesCounters getCounters() {
+        return counters;
+    }
+
+    /**
+     * @return block activities counters since the handler was created
+     */
+    public ActivitiesCounters getBlockCounters() {
+        return blockLane.counters;
+    }
+
+    /**
+     * @return page_requested activities counters since the handler was created
+     */
+    public ActivitiesCounters getPageRequestedCounters() {
+        return pageRequestedLane.counters;
+    }
+
+    /**
+     * Stops the sender thread after it sends the activities left in the buffer,
+     * should be called once the handler is no longer in use
+     */
+    @Override
+    public void close() throws IOException {
+        close(CLOSE_TIMEOUT);
+    }
+
+    @Override
+    public void close(long timeout) throws IOException {
+        if (!running) {
+            return;
+        }
+        closeDeadline = System.currentTimeMillis() + timeout;
+        running = false;
+        LockSupport.unpark(senderThread);
         try {
-            client.sendBatchActivities(bufferedActivities);
-        } catch (Exception e) {
-            throw new PXException(e);
+            senderThread.join(timeout + CLOSE_GRACE);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (senderThread.isAlive()) {
+            throw new IOException("Timed out sending buffered activities");
+        }
+    }
+
+    /**
+     * Queue and batch of one kind of activities, the batch is only touched by the sender thread
+     */
+    private class Lane {
+
+        private final RingBuffer<ActivitySnapshot> queue;
+        private final ActivitiesOverflowPolicy overflowPolicy;
+        private final BatchSizeTuner batchSizeTuner;
+        private final long maxBufferAgeNanos;
+        private final ActivityShipper shipper;
+        private final ActivitiesCounters counters = new ActivitiesCounters(BufferedActivityHandler.this.counters);
+        private ActivityBatch batch = new ActivityBatch();
+        private boolean flushing;
+
+        Lane(int capacity, ActivitiesOverflowPolicy overflowPolicy, BatchSizeTuner batchSizeTuner, int maxBufferAge, int maxInFlightBatches) {
+            this.queue = new RingBuffer<>(capacity);
+            this.overflowPolicy = overflowPolicy;
+            this.batchSizeTuner = batchSizeTuner;
+            this.maxBufferAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxBufferAge);
+            this.shipper = new ActivityShipper(batchClient, maxInFlightBatches, new Runnable() {
+                @Override
+                public void run() {
+                    // The sender may be waiting for a batch to be answered
+                    LockSupport.unpark(senderThread);
+                }
+            });
+        }
+
+        void offer(ActivitySnapshot activity) {
+            Object enqueueEvent = EnforcerEvents.beginActivityEnqueue();
+            boolean accepted = enqueue(activity);
+            EnforcerEvents.endActivityEnqueue(enqueueEvent, activity.getType(), accepted);
+            if (!accepted) {
+                counters.dropped(1);
+                logger.debug("Activities queue is full, dropping {} activity", activity.getType());
+                return;
+            }
+            counters.enqueued();
+            if (queue.size() >= batchSizeTuner.getBatchSize()) {
+                LockSupport.unpark(senderThread);
+            }
+        }
+
+        private boolean enqueue(ActivitySnapshot activity) {
+            switch (overflowPolicy) {
+                case DROP_OLDEST:
+                    return offerEvictingOldest(activity);
+                case SAMPLE:
+                    return sample() && queue.offer(activity);
+                default:
+                    return queue.offer(activity);
+            }
+        }
+
+        private boolean offerEvictingOldest(ActivitySnapshot activity) {
+            for (int i = 0; i < MAX_EVICTIONS; i++) {
+                if (queue.offer(activity)) {
+                    return true;
+                }
+                ActivitySnapshot evicted = queue.tryPoll();
+                if (evicted != null) {
+                    counters.dropped(1);
+                    logger.debug("Activities queue is full, evicting {} activity", evicted.getType());
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Keeps every activity while the queue is at most half full,
+         * then keeps a share matching the free space left in the upper half
+         */
+        private boolean sample() {
+            int capacity = queue.capacity();
+            int free = capacity - queue.size();
+            int half = capacity / 2;
+            return free > half || ThreadLocalRandom.current().nextInt(half + 1) < free;
+        }
+
+        void fill() {
+            ActivitySnapshot activity;
+            int batchSize = batchSizeTuner.getBatchSize();
+            int taken = 0;
+            while (batch.size() < batchSize && batch.getBytes() < maxBufferBytes
+                    && (activity = queue.poll()) != null) {
+                batch.add(activity);
+                taken++;
+            }
+            batchSizeTuner.onArrivals(taken, System.nanoTime());
+        }
+
+        boolean isReady() {
+            if (batch.isEmpty()) {
+                // A requested flush is done once the queue was drained
+                flushing = false;
+                return false;
+            }
+            return flushing || batch.size() >= batchSizeTuner.getBatchSize() || batch.getBytes() >= maxBufferBytes
+                    || age() >= maxBufferAgeNanos;
+        }
+
+        /**
+         * Sends the batch when it is ready and fewer than the maximum batches are in flight
+         *
+         * @return true if the batch was sent
+         */
+        boolean trySend() {
+            if (!isReady() || !shipper.trySend(batch, new BatchCallback(this, null))) {
+                return false;
+            }
+            batch = new ActivityBatch();
+            return true;
+        }
+
+        /**
+         * @return false if the timeout elapsed before the batch could be sent
+         */
+        boolean send(long timeout) throws InterruptedException {
+            if (!shipper.send(batch, new BatchCallback(this, null), timeout, TimeUnit.MILLISECONDS)) {
+                return false;
+            }
+            batch = new ActivityBatch();
+            return true;
+        }
+
+        long parkTime() {
+            // A batch waiting for a batch in flight to be answered is sent once the shipper wakes the sender up
+            if (batch.isEmpty() || isReady()) {
+                return maxBufferAgeNanos;
+            }
+            return maxBufferAgeNanos - age();
+        }
+
+        private long age() {
+            return TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - batch.getOldestTimestamp());
+        }
+
+        int getInFlightBatchesCount() {
+            return shipper.getInFlightCount();
+        }
+    }
+
+    private class Sender implements Runnable {
+
+        private long lastReplay = System.nanoTime();
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    spill();
+                    if (flushRequested.getAndSet(false)) {
+                        for (Lane lane : lanes) {
+                            lane.flushing = true;
+                        }
+                    }
+                    boolean sent = false;
+                    for (Lane lane : lanes) {
+                        lane.fill();
+                        sent |= lane.trySend();
+                    }
+                    if (!sent && !replay()) {
+                        LockSupport.parkNanos(this, parkTime());
+                    }
+                } catch (Throwable t) {
+                    logger.error("Activity sender failed, {}", t.getMessage());
+                }
+            }
+            drain();
+        }
+
+        /**
+         * Sends whatever is left once closed, activities still queued when the close timeout elapses are dropped
+         */
+        private void drain() {
+            long deadline = closeDeadline;
+            for (Lane lane : lanes) {
+                if (!drain(lane, deadline)) {
+                    break;
+                }
+            }
+            if (journal != null) {
+                closeJournal(deadline);
+                return;
+            }
+            for (Lane lane : lanes) {
+                int left = lane.batch.size();
+                while (lane.queue.poll() != null) {
+                    left++;
+                }
+                if (left > 0) {
+                    logger.error("Timed out sending activities, dropping {} activities", left);
+                    lane.counters.dropped(left);
+                }
+            }
+        }
+
+        /**
+         * @return false if the close timeout elapsed
+         */
+        private boolean drain(Lane lane, long deadline) {
+            do {
+                lane.fill();
+                if (lane.batch.isEmpty()) {
+                    continue;
+                }
+                try {
+                    if (!lane.send(Math.max(0, deadline - System.currentTimeMillis()))) {
+                        return false;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            } while (!lane.queue.isEmpty() || !lane.batch.isEmpty());
+            return true;
+        }
+
+        /**
+         * Keeps the activities that could not be sent before closing for the next run
+         */
+        private void closeJournal(long deadline) {
+            try {
+                // Failures of the batches still in flight are journaled too
+                for (Lane lane : lanes) {
+                    lane.shipper.awaitIdle(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            for (Lane lane : lanes) {
+                do {
+                    lane.fill();
+                    if (!lane.batch.isEmpty()) {
+                        failedBatches.add(lane.batch);
+                        lane.batch = new ActivityBatch();
+                    }
+                } while (!lane.queue.isEmpty());
+            }
+            spill();
+            journal.close();
+        }
+
+        /**
+         * Writes the batches the collector did not accept to the journal
+         */
+        private void spill() {
+            ActivityBatch failed;
+            while ((failed = failedBatches.poll()) != null) {
+                try {
+                    if (journal.append(failed)) {
+                        counters.spilled(failed.size());
+                        continue;
+                    }
+                    logger.error("Activities journal is full, dropping {} activities", failed.size());
+                } catch (IOException e) {
+                    logger.error("Failed writing {} activities to the journal, {}", failed.size(), e.getMessage());
+                }
+                counters.dropped(failed.size());
+            }
+        }
+
+        /**
+         * Sends the oldest journaled batch on the page_requested lane, one replayed batch is in flight at a time
+         *
+         * @return true if a batch was sent
+         */
+        private boolean replay() {
+            if (journal == null || replaying || untilNextReplay() > 0) {
+                return false;
+            }
+            ActivityJournal.Entry entry = journal.next();
+            if (entry == null) {
+                return false;
+            }
+            // Set before sending since the callback may run before trySend returns
+            replaying = true;
+            if (!pageRequestedLane.shipper.trySend(entry.getBatch(), new BatchCallback(pageRequestedLane, entry))) {
+                replaying = false;
+                return false;
+            }
+            lastReplay = System.nanoTime();
+            return true;
+        }
+
+        /**
+         * Journaled batches are replayed at the configured rate, or probed slowly while the collector is failing
+         */
+        private long untilNextReplay() {
+            long interval = collectorAvailable ? replayInterval : JOURNAL_PROBE_INTERVAL;
+            return lastReplay + interval - System.nanoTime();
+        }
+
+        private long parkTime() {
+            long parkTime = Long.MAX_VALUE;
+            for (Lane lane : lanes) {
+                parkTime = Math.min(parkTime, lane.parkTime());
+            }
+            if (journal != null && !replaying && journal.getPendingBatches() > 0) {
+                parkTime = Math.min(parkTime, untilNextReplay());
+            }
+            return Math.max(TimeUnit.MILLISECONDS.toNanos(1), parkTime);
+        }
+    }
+
+    /**
+     * Handles the outcome of a batch, the batch is counted by the {@link ActivityShipper} of its lane
+     */
+    private class BatchCallback implements ActivityBatch.Callback {
+
+        private final Lane lane;
+        private final ActivityJournal.Entry replayed;
+        private final long start = System.currentTimeMillis();
+        private final Object flushEvent = EnforcerEvents.beginActivityFlush();
+
+        /**
+         * @param lane     - lane the batch was sent on
+         * @param replayed - journal entry of the batch, null if the batch was not journaled
+         */
+        BatchCallback(Lane lane, ActivityJournal.Entry replayed) {
+            this.lane = lane;
+            this.replayed = replayed;
+        }
+
+        @Override
+        public void sent(ActivityBatch batch) {
+            EnforcerEvents.endActivityFlush(flushEvent, batch.size(), true);
+            lane.batchSizeTuner.onBatchLatency(System.currentTimeMillis() - start);
+            collectorAvailable = true;
+            if (replayed != null) {
+                journal.ack(replayed);
+                counters.replayed(batch.size());
+                replayFailures = 0;
+                replaying = false;
+            } else {
+                lane.counters.sent(batch.size());
+            }
+        }
+
+        @Override
+        public void failed(ActivityBatch batch, Exception e) {
+            EnforcerEvents.endActivityFlush(flushEvent, batch.size(), false);
+            logger.error("Failed sending {} activities, {}", batch.size(), e.getMessage());
+            // A collector rejecting a batch is up and answering
+            boolean rejected = e instanceof RejectedRequestException;
+            if (replayed != null) {
+                failedReplay(batch, rejected);
+                replaying = false;
+                return;
+            }
+            collectorAvailable = rejected;
+            lane.counters.failed(batch.size());
+            // Batches the collector rejected would be rejected again when replayed
+            if (journal != null && !rejected) {
+                failedBatches.add(batch);
+            }
+        }
+
+        /**
+         * Keeps the batch in the journal to be replayed again later, unless the collector rejected it or keeps failing it
+         * while accepting other batches. Failures while the collector is down do not count.
+         */
+        private void failedReplay(ActivityBatch batch, boolean rejected) {
+            if (rejected) {
+                collectorAvailable = true;
+            } else {
+                if (collectorAvailable) {
+                    replayFailures++;
+                }
+                collectorAvailable = false;
+                if (replayFailures < MAX_REPLAY_FAILURES) {
+                    return;
+                }
+            }
+            logger.error("Dropping {} journaled activities the collector does not accept", batch.size());
+            journal.ack(replayed);
+            counters.dropped(batch.size());
+            replayFailures = 0;
+        }
+    }
+
+    /**
+     * Sends batches with {@link PXClient#sendBatchActivities(List)}, for clients that do not implement
+     * {@link ActivityBatchClient}. A batch is reported sent once the client returned.
+     */
+    private static class ActivityListClient implements ActivityBatchClient {
+
+        private final PXClient client;
+
+        ActivityListClient(PXClient client) {
+            this.client = client;
+        }
+
+        @Override
+        public void sendBatchActivities(ActivityBatch batch) throws PXException, IOException {
+            client.sendBatchActivities(batch.toActivities());
+            if (batch.getCallback() != null) {
+                batch.getCallback().sent(batch);
+            }
         }
     }
 }
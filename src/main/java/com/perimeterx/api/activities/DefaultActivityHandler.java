@@ -1,60 +1,200 @@
 package com.perimeterx.api.activities;
 
+import com.perimeterx.http.ActivityBatchClient;
 import com.perimeterx.http.PXClient;
 import com.perimeterx.models.PXContext;
 import com.perimeterx.models.activities.*;
 import com.perimeterx.models.configuration.PXConfiguration;
 import com.perimeterx.models.exceptions.PXException;
 import com.perimeterx.utils.Constants;
+import com.perimeterx.utils.PXLogger;
 
 import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Simple activity send per server request
  * <p>
+ * When activitiesSenderThreads is positive activities are sent from a pool of worker threads, the request thread
+ * only adds the activity to a bounded queue and activities are dropped when the queue is full. Workers send on the
+ * async client when the client is an {@link ActivityBatchClient}, so they never hold the connections and the
+ * concurrent calls limit of risk API calls, and wait for the outcome so at most one activity per worker is in flight.
+ * With 0 workers, the default, activities are sent on the request thread as before.
+ * <p>
  * Created by shikloshi on 05/07/2016.
  */
-public class DefaultActivityHandler implements ActivityHandler {
+public class DefaultActivityHandler implements DrainableActivityHandler {
+
+    private static final PXLogger logger = PXLogger.getLogger(DefaultActivityHandler.class);
+
+    private static final long CLOSE_TIMEOUT = TimeUnit.SECONDS.toMillis(5);
 
     private PXConfiguration configuration;
     private PXClient client;
+    private ThreadPoolExecutor executor;
+    private final ActivitiesCounters counters = new ActivitiesCounters();
 
     public DefaultActivityHandler(PXClient client, PXConfiguration configuration) {
         this.configuration = configuration;
         this.client = client;
+        int workers = configuration.getActivitiesSenderThreads();
+        if (workers > 0) {
+            this.executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(configuration.getActivitiesQueueCapacity()), new WorkerThreadFactory());
+        }
     }
 
     @Override
     public void handleBlockActivity(PXContext context) throws PXException {
-        Activity activity = ActivityFactory.createActivity(Constants.ACTIVITY_BLOCKED, configuration.getAppId(), context);
+        Activity activity = ActivityFactory.createActivity(Constants.ACTIVITY_BLOCKED, context.getPxConfiguration().getAppId(), context);
+        handleSendActivity(activity);
+    }
+
+    @Override
+    public void handlePageRequestedActivity(PXContext context) throws PXException {
+        Activity activity = ActivityFactory.createActivity(Constants.ACTIVITY_PAGE_REQUESTED, context.getPxConfiguration().getAppId(), context);
+        handleSendActivity(activity);
+    }
+
+    @Override
+    public void handleEnforcerTelemetryActivity(PXConfiguration pxConfiguration, UpdateReason updateReason) throws PXException {
+        try {
+            EnforcerTelemetryActivityDetails details = new EnforcerTelemetryActivityDetails(pxConfiguration, updateReason);
+            EnforcerTelemetry enforcerTelemetry = new EnforcerTelemetry("enforcer_telemetry",pxConfiguration.getAppId(), details);
+            this.client.sendEnforcerTelemetry(enforcerTelemetry);
+        } catch (Exception e) {
+            throw new PXException(e);
+        }
+    }
+
+    private void handleSendActivity(final Activity activity) throws PXException {
+        if (executor == null) {
+            sendActivity(activity);
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        sendQueuedActivity(activity);
+                    } catch (PXException e) {
+                        logger.error("Failed sending {} activity, {}", activity.getType(), e.getMessage());
+                    }
+                }
+            });
+            counters.enqueued();
+        } catch (RejectedExecutionException e) {
+            counters.dropped(1);
+            logger.debug("Activities queue is full, dropping {} activity", activity.getType());
+        }
+    }
+
+    private void sendActivity(Activity activity) throws PXException {
         try {
             this.client.sendActivity(activity);
+            counters.sent(1);
         } catch (IOException e) {
+            counters.failed(1);
             throw new PXException(e);
+        } catch (PXException e) {
+            counters.failed(1);
+            throw e;
         }
     }
 
-    @Override
-    public void handlePageRequestedActivity(PXContext context) throws PXException {
-        Activity activity = ActivityFactory.createActivity(Constants.ACTIVITY_PAGE_REQUESTED, configuration.getAppId(), context);
+    private void sendQueuedActivity(Activity activity) throws PXException {
+        if (!(client instanceof ActivityBatchClient)) {
+            sendActivity(activity);
+            return;
+        }
+        final CountDownLatch outcome = new CountDownLatch(1);
+        ActivityBatch batch = new ActivityBatch();
+        batch.setCallback(new ActivityBatch.Callback() {
+            @Override
+            public void sent(ActivityBatch batch) {
+                counters.sent(1);
+                outcome.countDown();
+            }
+
+            @Override
+            public void failed(ActivityBatch batch, Exception e) {
+                counters.failed(1);
+                outcome.countDown();
+            }
+        });
         try {
-            this.client.sendActivity(activity);
+            batch.add(ActivitySnapshot.of(activity));
+            ((ActivityBatchClient) client).sendBatchActivities(batch);
         } catch (IOException e) {
+            counters.failed(1);
             throw new PXException(e);
+        } catch (PXException e) {
+            counters.failed(1);
+            throw e;
         }
+        try {
+            outcome.await();
+        } catch (InterruptedException e) {
+            // Closing timed out, the outcome is still counted once known
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return number of activities waiting for a worker, 0 when sending on the request thread
+     */
+    public int getQueuedActivitiesCount() {
+        return executor == null ? 0 : executor.getQueue().size();
+    }
+
+    /**
+     * @return activities counters since the handler was created
+     */
+    public ActivitiesCounters getCounters() {
+        return counters;
     }
 
+    /**
+     * Stops accepting activities and waits for the queued activities to be sent
+     */
     @Override
-    public void handleEnforcerTelemetryActivity(PXConfiguration pxConfiguration, UpdateReason updateReason) throws PXException {
+    public void close() throws IOException {
+        close(CLOSE_TIMEOUT);
+    }
+
+    @Override
+    public void close(long timeout) throws IOException {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
         try {
-            EnforcerTelemetryActivityDetails details = new EnforcerTelemetryActivityDetails(pxConfiguration, updateReason);
-            EnforcerTelemetry enforcerTelemetry = new EnforcerTelemetry("enforcer_telemetry",pxConfiguration.getAppId(), details);
-            this.client.sendEnforcerTelemetry(enforcerTelemetry);
-        } catch (Exception e) {
-            throw new PXException(e);
+            if (!executor.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+                int dropped = executor.shutdownNow().size();
+                counters.dropped(dropped);
+                throw new IOException("Timed out sending queued activities, dropped " + dropped + " activities");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
+    private static class WorkerThreadFactory implements ThreadFactory {
 
+        private final AtomicInteger count = new AtomicInteger();
 
-}
\ No newline at end of file
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "PerimeterX-activity-worker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
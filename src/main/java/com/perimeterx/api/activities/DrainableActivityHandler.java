@@ -0,0 +1,18 @@
+package com.perimeterx.api.activities;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Activity handler that sends the activities it holds when closed, within a timeout given by the caller
+ */
+public interface DrainableActivityHandler extends ActivityHandler, Closeable {
+
+    /**
+     * Sends the activities held by the handler and stops it, activities not sent within the timeout are dropped
+     *
+     * @param timeout - maximum time in milliseconds to wait for the activities to be sent
+     * @throws IOException when the timeout elapsed before the activities were sent
+     */
+    void close(long timeout) throws IOException;
+}
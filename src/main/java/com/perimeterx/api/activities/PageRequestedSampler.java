@@ -0,0 +1,103 @@
+package com.perimeterx.api.activities;
+
+import com.perimeterx.models.PXContext;
+import com.perimeterx.models.configuration.PXConfiguration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Deterministic sampling of page_requested activities.
+ * <p>
+ * A request is kept when the hash of its vid falls under the sample rate of its route, so a visitor is either
+ * always or never sampled for a given rate. Kept requests are weighted by 1 / rate so the collector can
+ * reconstruct the original counts. The longest configured route prefix matching the uri decides the rate,
+ * other routes use pageRequestedSampleRate.
+ */
+public class PageRequestedSampler {
+
+    private final double defaultRate;
+    private final List<Map.Entry<String, Double>> routeRates;
+
+    public PageRequestedSampler(PXConfiguration configuration) {
+        this.defaultRate = configuration.getPageRequestedSampleRate();
+        Map<String, Double> configuredRates = configuration.getPageRequestedRouteSampleRates();
+        this.routeRates = configuredRates == null
+                ? new ArrayList<Map.Entry<String, Double>>()
+                : new ArrayList<>(configuredRates.entrySet());
+        Collections.sort(routeRates, new Comparator<Map.Entry<String, Double>>() {
+            @Override
+            public int compare(Map.Entry<String, Double> a, Map.Entry<String, Double> b) {
+                return b.getKey().length() - a.getKey().length();
+            }
+        });
+    }
+
+    /**
+     * @return true if sampling may drop page_requested activities
+     */
+    public boolean isEnabled() {
+        if (defaultRate < 1) {
+            return true;
+        }
+        for (Map.Entry<String, Double> routeRate : routeRates) {
+            if (routeRate.getValue() < 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Decides if the page_requested activity of the request is sent and sets its sampling weight on the context
+     *
+     * @param context - the request context
+     * @return true if the activity should be sent
+     */
+    public boolean sample(PXContext context) {
+        double rate = sampleRate(context.getUri());
+        if (rate >= 1) {
+            return true;
+        }
+        if (rate <= 0 || position(samplingKey(context)) >= rate) {
+            return false;
+        }
+        context.setSamplingWeight(1 / rate);
+        return true;
+    }
+
+    double sampleRate(String uri) {
+        if (uri != null) {
+            for (Map.Entry<String, Double> routeRate : routeRates) {
+                if (uri.startsWith(routeRate.getKey())) {
+                    return routeRate.getValue();
+                }
+            }
+        }
+        return defaultRate;
+    }
+
+    private static String samplingKey(PXContext context) {
+        if (context.getVid() != null) {
+            return context.getVid();
+        }
+        return context.getIp() != null ? context.getIp() : "";
+    }
+
+    /**
+     * Spreads the key hash evenly over [0, 1)
+     */
+    private static double position(String key) {
+        int h = key.hashCode();
+        // murmur3 finalizer, String.hashCode alone is poorly distributed for similar keys
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return (h & 0xffffffffL) / (double) (1L << 32);
+    }
+}
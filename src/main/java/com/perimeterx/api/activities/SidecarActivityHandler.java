@@ -0,0 +1,265 @@
+package com.perimeterx.api.activities;
+
+import com.perimeterx.http.PXClient;
+import com.perimeterx.models.PXContext;
+import com.perimeterx.models.activities.*;
+import com.perimeterx.models.configuration.PXConfiguration;
+import com.perimeterx.models.exceptions.PXException;
+import com.perimeterx.utils.Constants;
+import com.perimeterx.utils.PXLogger;
+import com.perimeterx.utils.RingBuffer;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes activities to an {@link ActivityAggregator} running on the same host instead of sending them to PX servers,
+ * the aggregator merges the activities of all local enforcers into large batches.
+ * <p>
+ * Request threads encode activities to {@link ActivitySnapshot}s and add them to a bounded lock free queue,
+ * a writer thread streams them over a loopback connection to activitiesSidecarPort, authenticated by the authToken.
+ * While the aggregator is not reachable the writer reconnects with a growing backoff and activities are dropped
+ * once the queue is full.
+ * Enforcer telemetry is still sent directly.
+ */
+public class SidecarActivityHandler implements DrainableActivityHandler {
+
+    private static final PXLogger logger = PXLogger.getLogger(SidecarActivityHandler.class);
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final int CONNECT_TIMEOUT = 1000;
+    private static final long IDLE_PARK = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long RECONNECT_BACKOFF_BASE = 100;
+    private static final long RECONNECT_BACKOFF_MAX = TimeUnit.SECONDS.toMillis(5);
+    private static final long CLOSE_TIMEOUT = TimeUnit.SECONDS.toMillis(5);
+
+    private final PXConfiguration configuration;
+    private final PXClient client;
+    private final RingBuffer<ActivitySnapshot> queue;
+    private final ActivitiesCounters counters = new ActivitiesCounters();
+    private final Thread writerThread;
+    private volatile boolean running = true;
+    private volatile long closeTimeout = CLOSE_TIMEOUT;
+    private volatile boolean idle;
+
+    public SidecarActivityHandler(PXClient client, PXConfiguration configuration) {
+        this.configuration = configuration;
+        this.client = client;
+        this.queue = new RingBuffer<>(configuration.getActivitiesQueueCapacity());
+        this.writerThread = new Thread(new Writer(), "PerimeterX-activity-sidecar");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    @Override
+    public void handleBlockActivity(PXContext context) throws PXException {
+        handleSendActivities(ActivityFactory.createActivity(Constants.ACTIVITY_BLOCKED, context.getPxConfiguration().getAppId(), context));
+    }
+
+    @Override
+    public void handlePageRequestedActivity(PXContext context) throws PXException {
+        handleSendActivities(ActivityFactory.createActivity(Constants.ACTIVITY_PAGE_REQUESTED, context.getPxConfiguration().getAppId(), context));
+    }
+
+    @Override
+    public void handleEnforcerTelemetryActivity(PXConfiguration pxConfig, UpdateReason updateReason) throws PXException {
+        try {
+            EnforcerTelemetryActivityDetails details = new EnforcerTelemetryActivityDetails(pxConfig, updateReason);
+            this.client.sendEnforcerTelemetry(new EnforcerTelemetry("enforcer_telemetry", pxConfig.getAppId(), details));
+        } catch (IOException e) {
+            throw new PXException(e);
+        }
+    }
+
+    private void handleSendActivities(Activity activity) {
+        ActivitySnapshot snapshot;
+        try {
+            snapshot = ActivitySnapshot.of(activity);
+        } catch (IOException e) {
+            counters.failed(1);
+            logger.error("Failed serializing {} activity, {}", activity.getType(), e.getMessage());
+            return;
+        }
+        if (!queue.offer(snapshot)) {
+            counters.dropped(1);
+            logger.debug("Sidecar activities queue is full, dropping {} activity", activity.getType());
+            return;
+        }
+        counters.enqueued();
+        if (idle) {
+            LockSupport.unpark(writerThread);
+        }
+    }
+
+    /**
+     * @return number of activities waiting to be written to the aggregator
+     */
+    public int getBufferedActivitiesCount() {
+        return queue.size();
+    }
+
+    /**
+     * @return activities counters since the handler was created, sent activities were written to the aggregator
+     */
+    public ActivitiesCounters getCounters() {
+        return counters;
+    }
+
+    /**
+     * Stops the writer thread after it writes the queued activities, activities that cannot be written
+     * within the close timeout are dropped
+     */
+    @Override
+    public void close() throws IOException {
+        close(CLOSE_TIMEOUT);
+    }
+
+    @Override
+    public void close(long timeout) throws IOException {
+        if (!running) {
+            return;
+        }
+        closeTimeout = timeout;
+        running = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join(timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writerThread.isAlive()) {
+            throw new IOException("Timed out writing activities to the aggregator");
+        }
+    }
+
+    private class Writer implements Runnable {
+
+        private Socket socket;
+        private DataOutputStream out;
+        private int failedConnects;
+
+        @Override
+        public void run() {
+            long deadline = Long.MAX_VALUE;
+            while (running || (!queue.isEmpty() && System.currentTimeMillis() < deadline)) {
+                if (!running && deadline == Long.MAX_VALUE) {
+                    deadline = System.currentTimeMillis() + closeTimeout - RECONNECT_BACKOFF_BASE;
+                }
+                try {
+                    if (out == null && !connect()) {
+                        if (!running) {
+                            break;
+                        }
+                        continue;
+                    }
+                    write();
+                } catch (Throwable t) {
+                    logger.error("Activity sidecar writer failed, {}", t.getMessage());
+                }
+            }
+            disconnect();
+            int left = 0;
+            while (queue.poll() != null) {
+                left++;
+            }
+            if (left > 0) {
+                logger.error("Timed out writing activities to the aggregator, dropping {} activities", left);
+                counters.dropped(left);
+            }
+        }
+
+        /**
+         * Writes the queued activities and flushes them once the queue is drained
+         */
+        private void write() {
+            ActivitySnapshot activity = null;
+            int written = 0;
+            try {
+                while ((activity = queue.poll()) != null) {
+                    activity.writeTo(out);
+                    written++;
+                }
+                if (written > 0) {
+                    out.flush();
+                    counters.sent(written);
+                    return;
+                }
+            } catch (IOException e) {
+                // Activities buffered in the stream since the last flush may not have reached the aggregator
+                logger.error("Failed writing activities to the aggregator, {}", e.getMessage());
+                counters.failed(written + (activity == null ? 0 : 1));
+                disconnect();
+                return;
+            }
+            if (running) {
+                idle = true;
+                if (queue.isEmpty()) {
+                    LockSupport.parkNanos(this, IDLE_PARK);
+                }
+                idle = false;
+            }
+        }
+
+        private boolean connect() {
+            Socket connecting = null;
+            try {
+                connecting = new Socket();
+                connecting.setTcpNoDelay(true);
+                connecting.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), configuration.getActivitiesSidecarPort()), CONNECT_TIMEOUT);
+                connecting.setSoTimeout(CONNECT_TIMEOUT);
+                DataOutputStream stream = new DataOutputStream(new BufferedOutputStream(connecting.getOutputStream(), WRITE_BUFFER_SIZE));
+                ActivityAggregator.writeHandshake(new DataInputStream(connecting.getInputStream()), stream,
+                        configuration.getAppId(), configuration.getAuthToken());
+                stream.flush();
+                connecting.setSoTimeout(0);
+                socket = connecting;
+                out = stream;
+                failedConnects = 0;
+                logger.debug("Connected to the activities aggregator on port {}", configuration.getActivitiesSidecarPort());
+                return true;
+            } catch (IOException e) {
+                if (connecting != null) {
+                    try {
+                        connecting.close();
+                    } catch (IOException closeFailure) {
+                        // Not connected anyway
+                    }
+                }
+                long backoff = Math.min(RECONNECT_BACKOFF_MAX, RECONNECT_BACKOFF_BASE << Math.min(failedConnects, 16));
+                failedConnects++;
+                logger.debug("Failed connecting to the activities aggregator, retrying in {}ms, {}", backoff, e.getMessage());
+                if (running) {
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(backoff));
+                }
+                return false;
+            }
+        }
+
+        private void disconnect() {
+            if (socket == null) {
+                return;
+            }
+            try {
+                if (out != null) {
+                    out.flush();
+                }
+            } catch (IOException e) {
+                // The connection is closed anyway
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+                logger.debug("Failed closing the aggregator connection, {}", e.getMessage());
+            }
+            socket = null;
+            out = null;
+        }
+    }
+}
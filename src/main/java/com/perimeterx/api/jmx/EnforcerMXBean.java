@@ -0,0 +1,96 @@
+package com.perimeterx.api.jmx;
+
+import java.util.Map;
+
+/**
+ * Live statistics and runtime tuning of an enforcer over JMX, registered as
+ * {@code com.perimeterx:type=Enforcer,appId=<appId>} when jmxEnabled is set.
+ * <p>
+ * Counts and latencies are kept since the enforcer was created, latencies are in microseconds.
+ * Changes publish a new configuration snapshot and apply from the next request, they are kept until
+ * a remote configuration changes the same values.
+ */
+public interface EnforcerMXBean {
+
+    String getAppId();
+
+    String getState();
+
+    /**
+     * @return module mode requests are verified with, MONITOR while monitor mode is forced
+     */
+    String getModuleMode();
+
+    int getBlockingScore();
+
+    int getConnectionTimeout();
+
+    int getApiTimeout();
+
+    long getRequestCount();
+
+    long getPassCount();
+
+    long getBlockCount();
+
+    Map<String, Long> getPassReasons();
+
+    Map<String, Long> getBlockReasons();
+
+    long getS2SCallCount();
+
+    long getS2SLatencyP50();
+
+    long getS2SLatencyP90();
+
+    long getS2SLatencyP99();
+
+    long getS2SLatencyMax();
+
+    int getBulkheadInUse();
+
+    int getBulkheadMax();
+
+    /**
+     * @return activities waiting to be sent, -1 for activity handlers that do not buffer
+     */
+    int getActivitiesBuffered();
+
+    long getActivitiesDropped();
+
+    long getCookieHmacKeyHits();
+
+    long getCookieHmacKeyMisses();
+
+    double getCookieHmacKeyHitRate();
+
+    /**
+     * @return seconds left of the forced monitor mode, 0 when it is not forced
+     */
+    long getForcedMonitorModeSeconds();
+
+    /**
+     * Sends the buffered activities without waiting for a full batch
+     *
+     * @return false if the activity handler does not buffer activities
+     */
+    boolean flushActivities();
+
+    /**
+     * Derives the values cached per configuration snapshot again
+     */
+    void clearCaches();
+
+    /**
+     * Verifies requests in monitor mode for the given time, 0 stops forcing it
+     */
+    void forceMonitorMode(long seconds);
+
+    void changeBlockingScore(int blockingScore);
+
+    /**
+     * @param connectionTimeout - connection timeout in milliseconds
+     * @param apiTimeout        - risk API timeout in milliseconds
+     */
+    void changeTimeouts(int connectionTimeout, int apiTimeout);
+}
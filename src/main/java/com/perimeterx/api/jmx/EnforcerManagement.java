@@ -0,0 +1,263 @@
+package com.perimeterx.api.jmx;
+
+import com.perimeterx.api.PerimeterX;
+import com.perimeterx.api.activities.ActivitiesCounters;
+import com.perimeterx.metrics.EnforcerGauges;
+import com.perimeterx.metrics.EnforcerMetrics;
+import com.perimeterx.metrics.Stage;
+import com.perimeterx.models.configuration.PXConfiguration;
+import com.perimeterx.models.risk.BlockReason;
+import com.perimeterx.models.risk.PassReason;
+import com.perimeterx.models.risk.S2SCallReason;
+import com.perimeterx.utils.LatencyHistogram;
+import com.perimeterx.utils.PXLogger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link EnforcerMXBean} of an enforcer, registered on the platform MBean server
+ */
+public class EnforcerManagement implements EnforcerMXBean {
+
+    private static final PXLogger logger = PXLogger.getLogger(EnforcerManagement.class);
+
+    private final PerimeterX enforcer;
+    private ObjectName registeredName;
+
+    public EnforcerManagement(PerimeterX enforcer) {
+        this.enforcer = enforcer;
+    }
+
+    /**
+     * Registers this MBean, an MBean already registered for the application id is kept and this one is not registered
+     */
+    public synchronized void register() {
+        try {
+            ObjectName name = objectName(getAppId());
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(name)) {
+                logger.error("Enforcer MBean {} is already registered by another enforcer", name);
+                return;
+            }
+            server.registerMBean(this, name);
+            registeredName = name;
+        } catch (JMException e) {
+            logger.error("Failed registering the enforcer MBean, {}", e.getMessage());
+        }
+    }
+
+    public synchronized void unregister() {
+        if (registeredName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+        } catch (JMException e) {
+            logger.error("Failed unregistering the enforcer MBean {}, {}", registeredName, e.getMessage());
+        }
+        registeredName = null;
+    }
+
+    public static ObjectName objectName(String appId) throws JMException {
+        return new ObjectName("com.perimeterx:type=Enforcer,appId=" + ObjectName.quote(appId));
+    }
+
+    @Override
+    public String getAppId() {
+        return configuration().getAppId();
+    }
+
+    @Override
+    public String getState() {
+        return enforcer.getState().name();
+    }
+
+    @Override
+    public String getModuleMode() {
+        return enforcer.getForcedMonitorModeRemaining(TimeUnit.MILLISECONDS) > 0 ? "MONITOR"
+                : configuration().getModuleMode().name();
+    }
+
+    @Override
+    public int getBlockingScore() {
+        return configuration().getBlockingScore();
+    }
+
+    @Override
+    public int getConnectionTimeout() {
+        return configuration().getConnectionTimeout();
+    }
+
+    @Override
+    public int getApiTimeout() {
+        return configuration().getApiTimeout();
+    }
+
+    @Override
+    public long getRequestCount() {
+        return metrics().getStage(Stage.VERIFY).getCount();
+    }
+
+    @Override
+    public long getPassCount() {
+        long count = 0;
+        for (PassReason reason : PassReason.values()) {
+            count += metrics().getPassCount(reason);
+        }
+        return count;
+    }
+
+    @Override
+    public long getBlockCount() {
+        long count = 0;
+        for (BlockReason reason : BlockReason.values()) {
+            count += metrics().getBlockCount(reason);
+        }
+        return count;
+    }
+
+    @Override
+    public Map<String, Long> getPassReasons() {
+        Map<String, Long> reasons = new LinkedHashMap<>();
+        for (PassReason reason : PassReason.values()) {
+            reasons.put(reason.getValue() == null ? "none" : reason.getValue(), metrics().getPassCount(reason));
+        }
+        return reasons;
+    }
+
+    @Override
+    public Map<String, Long> getBlockReasons() {
+        Map<String, Long> reasons = new LinkedHashMap<>();
+        for (BlockReason reason : BlockReason.values()) {
+            reasons.put(reason.getValue(), metrics().getBlockCount(reason));
+        }
+        return reasons;
+    }
+
+    @Override
+    public long getS2SCallCount() {
+        long count = 0;
+        for (S2SCallReason reason : S2SCallReason.values()) {
+            count += metrics().getS2SCallCount(reason);
+        }
+        return count;
+    }
+
+    @Override
+    public long getS2SLatencyP50() {
+        return s2sLatency().getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getS2SLatencyP90() {
+        return s2sLatency().getValueAtPercentile(90);
+    }
+
+    @Override
+    public long getS2SLatencyP99() {
+        return s2sLatency().getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getS2SLatencyMax() {
+        return s2sLatency().getMax();
+    }
+
+    @Override
+    public int getBulkheadInUse() {
+        EnforcerGauges gauges = enforcer.getGauges();
+        return gauges == null ? 0 : gauges.getBulkheadInUse();
+    }
+
+    @Override
+    public int getBulkheadMax() {
+        return configuration().getMaxConnectionsPerRoute();
+    }
+
+    @Override
+    public int getActivitiesBuffered() {
+        EnforcerGauges gauges = enforcer.getGauges();
+        return gauges == null ? -1 : gauges.getActivitiesBuffered();
+    }
+
+    @Override
+    public long getActivitiesDropped() {
+        EnforcerGauges gauges = enforcer.getGauges();
+        ActivitiesCounters counters = gauges == null ? null : gauges.getActivitiesCounters();
+        return counters == null ? 0 : counters.getDropped();
+    }
+
+    @Override
+    public long getCookieHmacKeyHits() {
+        return metrics().getHmacKeyHits();
+    }
+
+    @Override
+    public long getCookieHmacKeyMisses() {
+        return metrics().getHmacKeyMisses();
+    }
+
+    @Override
+    public double getCookieHmacKeyHitRate() {
+        long hits = metrics().getHmacKeyHits();
+        long total = hits + metrics().getHmacKeyMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public long getForcedMonitorModeSeconds() {
+        return enforcer.getForcedMonitorModeRemaining(TimeUnit.SECONDS);
+    }
+
+    @Override
+    public boolean flushActivities() {
+        return enforcer.flushActivities();
+    }
+
+    @Override
+    public void clearCaches() {
+        enforcer.clearCaches();
+    }
+
+    @Override
+    public void forceMonitorMode(long seconds) {
+        if (seconds < 0) {
+            throw new IllegalArgumentException("seconds must not be negative");
+        }
+        enforcer.forceMonitorMode(seconds, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void changeBlockingScore(int blockingScore) {
+        if (blockingScore < 0 || blockingScore > 100) {
+            throw new IllegalArgumentException("blockingScore must be between 0 and 100");
+        }
+        enforcer.getConfigurationStore().setBlockingScore(blockingScore);
+    }
+
+    @Override
+    public void changeTimeouts(int connectionTimeout, int apiTimeout) {
+        if (connectionTimeout <= 0 || apiTimeout <= 0) {
+            throw new IllegalArgumentException("timeouts must be positive");
+        }
+        enforcer.getConfigurationStore().setTimeouts(connectionTimeout, apiTimeout);
+    }
+
+    private PXConfiguration configuration() {
+        return enforcer.getConfigurationStore().get();
+    }
+
+    private EnforcerMetrics metrics() {
+        return enforcer.getMetrics();
+    }
+
+    private LatencyHistogram s2sLatency() {
+        return metrics().getStage(Stage.S2S);
+    }
+}
@@ -1,6 +1,7 @@
 package com.perimeterx.api.providers;
 
 import com.perimeterx.models.configuration.PXConfiguration;
+import com.perimeterx.models.configuration.PXConfigurationStore;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -8,17 +9,24 @@ import javax.servlet.http.HttpServletRequest;
  * Created by nitzangoldfeder on 06/11/2017.
  */
 public class CombinedIPProvider implements IPProvider{
-    private PXConfiguration pxConfiguration;
+    private PXConfigurationStore configurationStore;
 
     public CombinedIPProvider(PXConfiguration pxConfiguration) {
-        this.pxConfiguration = pxConfiguration;
+        this(new PXConfigurationStore(pxConfiguration));
+    }
+
+    /**
+     * @param configurationStore - store the ip headers of the current configuration snapshot are read from
+     */
+    public CombinedIPProvider(PXConfigurationStore configurationStore) {
+        this.configurationStore = configurationStore;
     }
 
     @Override
     public String getRequestIP(HttpServletRequest request) {
         String ipHeader;
 
-        for (String ip : pxConfiguration.getIpHeaders()) {
+        for (String ip : configurationStore.get().getIpHeaders()) {
             ipHeader = request.getHeader(ip);
             if (ipHeader != null) {
                 return ipHeader;
@@ -2,6 +2,8 @@ package com.perimeterx.api.proxy;
 
 import com.perimeterx.api.providers.IPProvider;
 import com.perimeterx.models.configuration.PXConfiguration;
+import com.perimeterx.models.configuration.PXConfigurationChange;
+import com.perimeterx.models.configuration.PXConfigurationListener;
 import com.perimeterx.models.proxy.PredefinedResponse;
 import com.perimeterx.utils.PXLogger;
 import org.apache.http.HttpRequest;
@@ -17,7 +19,7 @@ import java.io.IOException;
 /**
  * Created by nitzangoldfeder on 14/05/2018.
  */
-public class DefaultReverseProxy implements ReverseProxy {
+public class DefaultReverseProxy implements ReverseProxy, PXConfigurationListener {
 
     private final PXLogger logger = PXLogger.getLogger(DefaultReverseProxy.class);
     private final String DEFAULT_JAVASCRIPT_VALUE = "";
@@ -29,41 +31,61 @@ public class DefaultReverseProxy implements ReverseProxy {
     private final String CONTENT_TYPE_APPLICATION_JSON = "application/json";
     private final String CONTENT_TYPE_IMAGE_GIF = "image/gif";
 
-    private final String XHR_PATH = "xhr";
-    private final String CLIENT_FP_PATH = "init.js";
-    private final String CLIENT_TP_PATH = "main.min.js";
+    private static final String XHR_PATH = "xhr";
+    private static final String CLIENT_FP_PATH = "init.js";
+    private static final String CLIENT_TP_PATH = "main.min.js";
 
     private IPProvider ipProvider;
-    private String clientPath;
-    private String clientReversePrefix;
-    private String xhrReversePrefix;
-    private String collectorUrl;
+    private volatile Routes routes;
     private CloseableHttpClient proxyClient;
+    private boolean ownsProxyClient;
     private PredefinedResponseHelper predefinedResponseHelper;
 
-    private PXConfiguration pxConfiguration;
-
     public DefaultReverseProxy(PXConfiguration pxConfiguration, IPProvider ipProvider) {
+        this(pxConfiguration, ipProvider, createProxyClient(pxConfiguration));
+        this.ownsProxyClient = true;
+    }
+
+    /**
+     * Creates a reverse proxy using an existing client, the client is not closed on {@link #destroy()}
+     *
+     * @param pxConfiguration - enforcer configuration
+     * @param ipProvider      - used to extract the user ip for the forwarded headers
+     * @param proxyClient     - client without default headers, usually shared with other enforcers
+     */
+    public DefaultReverseProxy(PXConfiguration pxConfiguration, IPProvider ipProvider, CloseableHttpClient proxyClient) {
         this.predefinedResponseHelper = new DefaultPredefinedResponseHandler();
-        this.pxConfiguration = pxConfiguration;
-        String reverseAppId = pxConfiguration.getAppId().substring(2);
-        this.clientReversePrefix = String.format("/%s/%s", reverseAppId, CLIENT_FP_PATH);
-        this.xhrReversePrefix = String.format("/%s/%s", reverseAppId, XHR_PATH);
-        this.clientPath = String.format("/%s/%s", pxConfiguration.getAppId(), CLIENT_TP_PATH);
-        this.collectorUrl = pxConfiguration.getCollectorUrl();
+        this.routes = new Routes(pxConfiguration);
         this.ipProvider = ipProvider;
+        this.proxyClient = proxyClient;
+    }
+
+    /**
+     * Rebuilds the first party routes when the application id or the PX hosts change
+     */
+    @Override
+    public void onConfigurationChange(PXConfigurationChange change) {
+        if (change.isChanged("appId", "collectorUrl", "clientHost", "firstPartyEnabled", "xhrFirstPartyEnabled")) {
+            this.routes = new Routes(change.getCurrent());
+        } else {
+            this.routes = this.routes.withConfiguration(change.getCurrent());
+        }
+    }
 
+    private static CloseableHttpClient createProxyClient(PXConfiguration pxConfiguration) {
         PoolingHttpClientConnectionManager cm = new PoolingHttpClientConnectionManager();
         cm.setMaxTotal(pxConfiguration.getMaxConnections());
         cm.setDefaultMaxPerRoute(pxConfiguration.getMaxConnectionsPerRoute());
-        this.proxyClient = HttpClients.custom()
+        return HttpClients.custom()
                 .setConnectionManager(cm)
                 .build();
     }
 
 
     public boolean reversePxClient(HttpServletRequest req, HttpServletResponse res) throws Exception {
-        if (!req.getRequestURI().startsWith(clientReversePrefix)) {
+        Routes routes = this.routes;
+        PXConfiguration pxConfiguration = routes.configuration;
+        if (!req.getRequestURI().startsWith(routes.clientReversePrefix)) {
             return false;
         }
 
@@ -74,14 +96,16 @@ public class DefaultReverseProxy implements ReverseProxy {
             return true;
         }
 
-        RemoteServer remoteServer = new RemoteServer(pxConfiguration.getClientHost(), clientPath, req, res, ipProvider, proxyClient, null, null, pxConfiguration);
+        RemoteServer remoteServer = new RemoteServer(pxConfiguration.getClientHost(), routes.clientPath, req, res, ipProvider, proxyClient, null, null, pxConfiguration);
         HttpRequest proxyRequest = remoteServer.prepareProxyRequest();
         remoteServer.handleResponse(proxyRequest, false);
         return true;
     }
 
     public boolean reversePxXhr(HttpServletRequest req, HttpServletResponse res) throws Exception {
-        if (!req.getRequestURI().startsWith(xhrReversePrefix)) {
+        Routes routes = this.routes;
+        PXConfiguration pxConfiguration = routes.configuration;
+        if (!req.getRequestURI().startsWith(routes.xhrReversePrefix)) {
             return false;
         }
 
@@ -102,9 +126,9 @@ public class DefaultReverseProxy implements ReverseProxy {
             return true;
         }
 
-        String originalUrl = req.getRequestURI().substring(xhrReversePrefix.length());
+        String originalUrl = req.getRequestURI().substring(routes.xhrReversePrefix.length());
 
-        RemoteServer remoteServer = new RemoteServer(collectorUrl, originalUrl, req, res, ipProvider, proxyClient, predefinedResponse, predefinedResponseHelper, pxConfiguration);
+        RemoteServer remoteServer = new RemoteServer(routes.collectorUrl, originalUrl, req, res, ipProvider, proxyClient, predefinedResponse, predefinedResponseHelper, pxConfiguration);
         HttpRequest proxyRequest = remoteServer.prepareProxyRequest();
         remoteServer.handleResponse(proxyRequest, true);
 
@@ -121,10 +145,47 @@ public class DefaultReverseProxy implements ReverseProxy {
 
     public void setProxyClient(CloseableHttpClient proxyClient) {
         this.proxyClient = proxyClient;
+        this.ownsProxyClient = true;
+    }
+
+    /**
+     * First party paths and hosts derived from one configuration snapshot
+     */
+    private static final class Routes {
+
+        private final PXConfiguration configuration;
+        private final String clientPath;
+        private final String clientReversePrefix;
+        private final String xhrReversePrefix;
+        private final String collectorUrl;
+
+        Routes(PXConfiguration configuration) {
+            String reverseAppId = configuration.getAppId().substring(2);
+            this.configuration = configuration;
+            this.clientReversePrefix = String.format("/%s/%s", reverseAppId, CLIENT_FP_PATH);
+            this.xhrReversePrefix = String.format("/%s/%s", reverseAppId, XHR_PATH);
+            this.clientPath = String.format("/%s/%s", configuration.getAppId(), CLIENT_TP_PATH);
+            this.collectorUrl = configuration.getCollectorUrl();
+        }
+
+        private Routes(Routes routes, PXConfiguration configuration) {
+            this.configuration = configuration;
+            this.clientReversePrefix = routes.clientReversePrefix;
+            this.xhrReversePrefix = routes.xhrReversePrefix;
+            this.clientPath = routes.clientPath;
+            this.collectorUrl = routes.collectorUrl;
+        }
+
+        /**
+         * @return the same routes passing the given snapshot to the proxied requests
+         */
+        Routes withConfiguration(PXConfiguration configuration) {
+            return new Routes(this, configuration);
+        }
     }
 
     public void destroy() {
-        if (proxyClient instanceof Closeable) {
+        if (ownsProxyClient && proxyClient instanceof Closeable) {
             try {
                 ((Closeable) proxyClient).close();
             } catch (IOException e) {
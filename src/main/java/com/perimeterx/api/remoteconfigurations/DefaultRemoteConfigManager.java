@@ -2,9 +2,12 @@ package com.perimeterx.api.remoteconfigurations;
 
 import com.perimeterx.http.PXClient;
 import com.perimeterx.models.configuration.PXConfiguration;
+import com.perimeterx.models.configuration.PXConfigurationStore;
 import com.perimeterx.models.configuration.PXDynamicConfiguration;
 import com.perimeterx.utils.PXLogger;
 
+import java.io.IOException;
+
 /**
  * Created by nitzangoldfeder on 05/07/2017.
  */
@@ -13,11 +16,58 @@ public class DefaultRemoteConfigManager implements RemoteConfigurationManager {
     private static final PXLogger logger = PXLogger.getLogger(DefaultRemoteConfigManager.class);
 
     private PXClient pxClient;
-    private PXConfiguration pxConfiguration;
+    private PXConfigurationStore configurationStore;
+    private RemoteConfigurationFile configurationFile;
 
+    /**
+     * Publishes updated configuration snapshots to a store of its own starting with the given configuration,
+     * the configuration itself is left unchanged, see {@link #getConfigurationStore()}
+     */
     public DefaultRemoteConfigManager(PXConfiguration pxConfiguration, PXClient pxClient){
+        this(new PXConfigurationStore(pxConfiguration), pxClient);
+    }
+
+    /**
+     * Publishes updated configuration snapshots to the store
+     */
+    public DefaultRemoteConfigManager(PXConfigurationStore configurationStore, PXClient pxClient) {
         this.pxClient = pxClient;
-        this.pxConfiguration = pxConfiguration;
+        this.configurationStore = configurationStore;
+    }
+
+    /**
+     * Publishes updated configuration snapshots to the store and saves every configuration applied to the file
+     *
+     * @param configurationFile - file the last configuration is saved to, null to not save it
+     */
+    public DefaultRemoteConfigManager(PXConfigurationStore configurationStore, PXClient pxClient, RemoteConfigurationFile configurationFile) {
+        this(configurationStore, pxClient);
+        this.configurationFile = configurationFile;
+    }
+
+    /**
+     * Applies the configuration saved to the configuration file
+     *
+     * @return false if there is no valid saved configuration
+     */
+    public boolean loadSavedConfiguration() {
+        if (configurationFile == null) {
+            return false;
+        }
+        PXDynamicConfiguration saved = configurationFile.load();
+        if (saved == null) {
+            return false;
+        }
+        logger.debug("Applying the remote configuration saved to {}", configurationFile.getFile());
+        configurationStore.update(saved);
+        return true;
+    }
+
+    /**
+     * @return the store updated configuration snapshots are published to
+     */
+    public PXConfigurationStore getConfigurationStore() {
+        return configurationStore;
     }
 
     @Override
@@ -28,12 +78,25 @@ public class DefaultRemoteConfigManager implements RemoteConfigurationManager {
 
     @Override
     public void updateConfiguration(PXDynamicConfiguration pxDynamicConfiguration) {
-        pxConfiguration.update(pxDynamicConfiguration);
+        configurationStore.update(pxDynamicConfiguration);
+        save(pxDynamicConfiguration);
+    }
+
+    private void save(PXDynamicConfiguration pxDynamicConfiguration) {
+        if (configurationFile == null) {
+            return;
+        }
+        try {
+            configurationFile.save(pxDynamicConfiguration);
+        } catch (IOException e) {
+            // The enforcer keeps working, it only starts without a saved configuration
+            logger.error("Failed saving the remote configuration to {}, {}", configurationFile.getFile(), e.getMessage());
+        }
     }
 
     @Override
     public void disableModuleOnError() {
-        pxConfiguration.disableModule();
+        configurationStore.disableModule();
     }
 
 }
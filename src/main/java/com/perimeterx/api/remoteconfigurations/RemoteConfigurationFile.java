@@ -0,0 +1,142 @@
+package com.perimeterx.api.remoteconfigurations;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.perimeterx.models.configuration.PXDynamicConfiguration;
+import com.perimeterx.utils.PXLogger;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.EnumSet;
+
+/**
+ * Keeps the last remote configuration received in a local file so an enforcer can start with it
+ * while the configuration service is slow or unreachable.
+ * <p>
+ * The file holds the SHA-256 of its content on the first line followed by the configuration as JSON.
+ * It is written to a temporary file in the same directory, synced and moved over the previous file, so readers
+ * see either the previous or the new configuration. A file with a wrong checksum, written for another application
+ * id or that cannot be parsed is ignored. The file contains the cookie secret and is readable by its owner only
+ * where the file system supports it.
+ */
+public class RemoteConfigurationFile {
+
+    private static final PXLogger logger = PXLogger.getLogger(RemoteConfigurationFile.class);
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final int CHECKSUM_LENGTH = 64;
+
+    private final File file;
+    private final String appId;
+
+    /**
+     * @param file  - file the configuration is kept in
+     * @param appId - application id of the enforcer, files saved by enforcers of other applications are ignored
+     */
+    public RemoteConfigurationFile(File file, String appId) {
+        this.file = file;
+        this.appId = appId;
+    }
+
+    /**
+     * @return the saved configuration, null if there is none or it is not valid
+     */
+    public PXDynamicConfiguration load() {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            byte[] content = Files.readAllBytes(file.toPath());
+            if (content.length <= CHECKSUM_LENGTH || content[CHECKSUM_LENGTH] != '\n') {
+                logger.error("Ignoring remote configuration file {}, the file is truncated", file);
+                return null;
+            }
+            byte[] body = Arrays.copyOfRange(content, CHECKSUM_LENGTH + 1, content.length);
+            String checksum = new String(content, 0, CHECKSUM_LENGTH, StandardCharsets.US_ASCII);
+            if (!MessageDigest.isEqual(checksum.getBytes(StandardCharsets.US_ASCII), sha256(body).getBytes(StandardCharsets.US_ASCII))) {
+                logger.error("Ignoring remote configuration file {}, the checksum does not match", file);
+                return null;
+            }
+            JsonNode saved = mapper.readTree(body);
+            if (!appId.equals(saved.path("appId").asText())) {
+                logger.error("Ignoring remote configuration file {}, it was saved for another application", file);
+                return null;
+            }
+            return mapper.treeToValue(saved.get("configuration"), PXDynamicConfiguration.class);
+        } catch (IOException e) {
+            logger.error("Failed reading remote configuration file {}, {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Replaces the saved configuration
+     *
+     * @throws IOException when the file could not be written, the previously saved file is kept
+     */
+    public void save(PXDynamicConfiguration configuration) throws IOException {
+        ObjectNode saved = mapper.createObjectNode();
+        saved.put("appId", appId);
+        saved.put("savedAt", System.currentTimeMillis());
+        saved.set("configuration", mapper.valueToTree(configuration));
+        byte[] body = mapper.writeValueAsBytes(saved);
+
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed creating directory " + directory);
+        }
+        File temp = File.createTempFile(file.getName(), ".tmp", directory);
+        try {
+            restrictPermissions(temp.toPath());
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                out.write(sha256(body).getBytes(StandardCharsets.US_ASCII));
+                out.write('\n');
+                out.write(body);
+                out.getFD().sync();
+            }
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    private static void restrictPermissions(Path path) {
+        try {
+            Files.setPosixFilePermissions(path, EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE));
+        } catch (UnsupportedOperationException | IOException e) {
+            logger.debug("Failed restricting permissions of {}, {}", path, e.getMessage());
+        }
+    }
+
+    private static String sha256(byte[] content) {
+        try {
+            StringBuilder hex = new StringBuilder(CHECKSUM_LENGTH);
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(content)) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
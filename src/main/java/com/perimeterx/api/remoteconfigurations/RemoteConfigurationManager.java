@@ -1,6 +1,7 @@
 package com.perimeterx.api.remoteconfigurations;
 
 import com.perimeterx.models.configuration.PXDynamicConfiguration;
+import com.perimeterx.models.exceptions.RemoteConfigurationException;
 
 /**
  * This interface will be used to retrieve new values for the PXConfiguration
@@ -8,7 +9,8 @@ import com.perimeterx.models.configuration.PXDynamicConfiguration;
 public interface RemoteConfigurationManager {
     /**
      * Returns new values to update PXConfiguration settings
-     * @return PXDynamicConfiguration
+     * @return PXDynamicConfiguration, null if there are no new values
+     * @throws RemoteConfigurationException when the values could not be fetched, the next attempt is delayed with a backoff
      */
     PXDynamicConfiguration getConfiguration();
 
@@ -3,47 +3,213 @@ package com.perimeterx.api.remoteconfigurations;
 import com.perimeterx.api.activities.ActivityHandler;
 import com.perimeterx.models.activities.UpdateReason;
 import com.perimeterx.models.configuration.PXConfiguration;
+import com.perimeterx.models.configuration.PXConfigurationStore;
 import com.perimeterx.models.configuration.PXDynamicConfiguration;
-import com.perimeterx.models.exceptions.PXException;
 import com.perimeterx.utils.PXLogger;
 
-import java.util.Timer;
+import java.util.Random;
 import java.util.TimerTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Polls the remote configuration on a daemon thread.
+ * <p>
+ * Every delay is randomly moved by up to remoteConfigurationJitter of itself so enforcers started together
+ * spread their requests, after a failed poll the interval doubles up to remoteConfigurationMaxBackoff.
+ * A failing poll never stops the polling.
+ * <p>
+ * With remoteConfigurationLongPollTimeout the service may hold a poll open until the configuration changes,
+ * a poll that was held open is followed right away by the next one. When the service answers right away
+ * the polls fall back to the interval.
+ */
 public class TimerConfigUpdater extends TimerTask {
 
     private static final PXLogger logger = PXLogger.getLogger(TimerConfigUpdater.class);
 
+    private static final int MAX_BACKOFF_SHIFT = 16;
+
+    private final Random random = new Random();
     private RemoteConfigurationManager configManager;
-    private PXConfiguration pxConfiguration;
-    private ActivityHandler activityHandler;
+    private PXConfigurationStore configurationStore;
+    private volatile ActivityHandler activityHandler;
+    private ScheduledThreadPoolExecutor scheduler;
+    private volatile boolean stopped;
+    private volatile long lastSuccessTime;
+    private volatile long lastFailureTime;
+    private volatile int consecutiveFailures;
+    private volatile boolean reconnect;
+    private volatile boolean reconnectedOnChange;
 
     public TimerConfigUpdater(RemoteConfigurationManager configManager, PXConfiguration pxConfiguration, ActivityHandler activityHandler) {
+        this(configManager, new PXConfigurationStore(pxConfiguration), activityHandler);
+    }
+
+    /**
+     * @param configurationStore - store the configuration manager publishes to, telemetry reports its current snapshot
+     */
+    public TimerConfigUpdater(RemoteConfigurationManager configManager, PXConfigurationStore configurationStore, ActivityHandler activityHandler) {
         logger.debug("TimerConfigUpdater[init]");
         this.configManager = configManager;
-        this.pxConfiguration = pxConfiguration;
+        this.configurationStore = configurationStore;
         this.activityHandler = activityHandler;
     }
 
+    /**
+     * @param activityHandler - handler reporting the telemetry of later configuration updates
+     */
+    public void setActivityHandler(ActivityHandler activityHandler) {
+        this.activityHandler = activityHandler;
+    }
+
+    /**
+     * Polls the remote configuration once, failures are recorded and never thrown
+     */
     @Override
     public void run() {
-        // Fetch the configuration from server
-        PXDynamicConfiguration dynamicConfig = configManager.getConfiguration();
+        PXDynamicConfiguration dynamicConfig;
+        long start = System.currentTimeMillis();
+        try {
+            // Fetch the configuration from server
+            dynamicConfig = configManager.getConfiguration();
+            if (dynamicConfig != null) {
+                configManager.updateConfiguration(dynamicConfig);
+            }
+        } catch (Exception e) {
+            consecutiveFailures++;
+            lastFailureTime = System.currentTimeMillis();
+            logger.error("Failed to update remote configuration, {}", e.getMessage());
+            return;
+        }
+        consecutiveFailures = 0;
+        lastSuccessTime = System.currentTimeMillis();
+        // A poll held open shows the service supports long polling. A change answered before that is reconnected
+        // right away once, so a service that does not hold requests and answers every poll is still polled by interval
+        int longPollTimeout = configurationStore.get().getRemoteConfigurationLongPollTimeout();
+        boolean heldOpen = longPollTimeout > 0 && lastSuccessTime - start >= longPollTimeout / 2;
+        reconnect = heldOpen || (longPollTimeout > 0 && dynamicConfig != null && !reconnectedOnChange);
+        reconnectedOnChange = reconnect && !heldOpen;
         if (dynamicConfig != null) {
-            configManager.updateConfiguration(dynamicConfig);
             try {
-                activityHandler.handleEnforcerTelemetryActivity(pxConfiguration, UpdateReason.REMOTE_CONFIG);
-            } catch (PXException e) {
+                activityHandler.handleEnforcerTelemetryActivity(configurationStore.get(), UpdateReason.REMOTE_CONFIG);
+            } catch (Exception e) {
+                // A telemetry failure does not fail the poll
                 logger.error("Failed to report telemetry, {}", e.getMessage());
             }
         }
     }
 
     /**
-     * Sets a new timer object and runs its execution method
+     * Starts polling on a named daemon thread after remoteConfigurationDelay
      */
     public void schedule() {
-        Timer timer = new Timer();
-        timer.schedule(this,pxConfiguration.getRemoteConfigurationDelay(),  pxConfiguration.getRemoteConfigurationInterval());
+        schedule(configurationStore.get().getRemoteConfigurationDelay());
+    }
+
+    /**
+     * Starts polling on a named daemon thread after the given delay
+     *
+     * @param delay - milliseconds until the first poll, moved by a random jitter
+     */
+    public synchronized void schedule(long delay) {
+        if (scheduler != null || stopped) {
+            return;
+        }
+        scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "PerimeterX-remote-config");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        PXConfiguration pxConfiguration = configurationStore.get();
+        long jitter = (long) (pxConfiguration.getRemoteConfigurationInterval() * pxConfiguration.getRemoteConfigurationJitter() * random.nextDouble());
+        scheduleNext(delay + jitter);
+    }
+
+    /**
+     * Stops polling and terminates the polling thread
+     */
+    public synchronized void stop() {
+        stopped = true;
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Stops polling, also when the updater was scheduled on a {@link java.util.Timer}
+     */
+    @Override
+    public boolean cancel() {
+        stop();
+        return super.cancel();
+    }
+
+    private synchronized void scheduleNext(long delay) {
+        if (stopped || scheduler == null) {
+            return;
+        }
+        try {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        TimerConfigUpdater.this.run();
+                    } catch (Throwable t) {
+                        consecutiveFailures++;
+                        lastFailureTime = System.currentTimeMillis();
+                        logger.error("Remote configuration poll failed, {}", t.getMessage());
+                    } finally {
+                        scheduleNext(nextDelay());
+                    }
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            logger.debug("Remote configuration polling stopped");
+        }
+    }
+
+    /**
+     * @return 0 to reconnect a long poll, otherwise the interval, doubled for every consecutive failure
+     * up to the max backoff, moved by a random jitter
+     */
+    public long nextDelay() {
+        if (reconnect && consecutiveFailures == 0) {
+            return 0;
+        }
+        PXConfiguration pxConfiguration = configurationStore.get();
+        long delay = pxConfiguration.getRemoteConfigurationInterval();
+        int failures = consecutiveFailures;
+        if (failures > 0) {
+            delay = Math.max(delay, Math.min(pxConfiguration.getRemoteConfigurationMaxBackoff(), delay << Math.min(failures, MAX_BACKOFF_SHIFT)));
+        }
+        double jitter = Math.max(0, Math.min(1, pxConfiguration.getRemoteConfigurationJitter()));
+        return Math.max(0, (long) (delay * (1 - jitter + 2 * jitter * random.nextDouble())));
+    }
+
+    /**
+     * @return time in milliseconds of the last successful poll, 0 if none succeeded yet
+     */
+    public long getLastSuccessTime() {
+        return lastSuccessTime;
+    }
+
+    /**
+     * @return time in milliseconds of the last failed poll, 0 if none failed yet
+     */
+    public long getLastFailureTime() {
+        return lastFailureTime;
+    }
+
+    /**
+     * @return number of polls failed since the last successful poll
+     */
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
     }
 }
@@ -1,10 +1,16 @@
 package com.perimeterx.api.verificationhandler;
 
 import com.perimeterx.api.activities.ActivityHandler;
+import com.perimeterx.api.activities.PageRequestedSampler;
 import com.perimeterx.api.blockhandler.BlockHandler;
+import com.perimeterx.metrics.EnforcerEvents;
+import com.perimeterx.metrics.EnforcerMetrics;
+import com.perimeterx.metrics.Stage;
 import com.perimeterx.models.PXContext;
 import com.perimeterx.models.configuration.ModuleMode;
 import com.perimeterx.models.configuration.PXConfiguration;
+import com.perimeterx.models.configuration.PXConfigurationChange;
+import com.perimeterx.models.configuration.PXConfigurationListener;
 import com.perimeterx.models.exceptions.PXException;
 import com.perimeterx.utils.PXLogger;
 
@@ -16,41 +22,86 @@ import static com.perimeterx.utils.PXLogger.LogReason.DEBUG_S2S_SCORE_IS_LOWER_T
 /**
  * Created by nitzangoldfeder on 28/05/2017.
  */
-public class DefaultVerificationHandler implements VerificationHandler {
+public class DefaultVerificationHandler implements VerificationHandler, PXConfigurationListener {
 
     private static final PXLogger logger = PXLogger.getLogger(DefaultVerificationHandler.class);
 
-    private PXConfiguration pxConfiguration;
-    private ActivityHandler activityHandler;
-    private BlockHandler blockHandler;
+    private volatile ActivityHandler activityHandler;
+    private volatile BlockHandler blockHandler;
+    private volatile PageRequestedSampler pageRequestedSampler;
+    private final EnforcerMetrics metrics;
 
     public DefaultVerificationHandler(PXConfiguration pxConfiguration, ActivityHandler activityHandler) {
-        this.pxConfiguration = pxConfiguration;
+        this(pxConfiguration, activityHandler, new EnforcerMetrics());
+    }
+
+    /**
+     * @param metrics - recorder of the block page render times
+     */
+    public DefaultVerificationHandler(PXConfiguration pxConfiguration, ActivityHandler activityHandler, EnforcerMetrics metrics) {
         this.activityHandler = activityHandler;
         this.blockHandler = pxConfiguration.getBlockHandler();
+        this.pageRequestedSampler = createSampler(pxConfiguration);
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param activityHandler - handler reporting the activities of requests handled from now on
+     */
+    public void setActivityHandler(ActivityHandler activityHandler) {
+        this.activityHandler = activityHandler;
+    }
+
+    private static PageRequestedSampler createSampler(PXConfiguration pxConfiguration) {
+        PageRequestedSampler sampler = new PageRequestedSampler(pxConfiguration);
+        return sampler.isEnabled() ? sampler : null;
+    }
+
+    /**
+     * Replaces the block handler and rebuilds the page_requested routes sampler when their settings change
+     */
+    @Override
+    public void onConfigurationChange(PXConfigurationChange change) {
+        if (change.isChanged("blockHandler")) {
+            this.blockHandler = change.getCurrent().getBlockHandler();
+        }
+        if (change.isChanged("pageRequestedSampleRate", "pageRequestedRouteSampleRates")) {
+            this.pageRequestedSampler = createSampler(change.getCurrent());
+        }
     }
 
     @Override
     public boolean handleVerification(PXContext context, HttpServletResponseWrapper responseWrapper) throws PXException {
-        boolean verified = shouldPassRequest(context);
+        // The configuration snapshot the request was verified with
+        PXConfiguration pxConfiguration = context.getPxConfiguration();
+        boolean verified = shouldPassRequest(context, pxConfiguration);
         if (verified) {
-            logger.debug("Passing request {} {}", verified, this.pxConfiguration.getModuleMode());
+            logger.debug("Passing request {} {}", verified, pxConfiguration.getModuleMode());
             // Not blocking request and sending page_requested activity to px if configured as true
-            if (this.pxConfiguration.shouldSendPageActivities()) {
+            PageRequestedSampler sampler = this.pageRequestedSampler;
+            if (pxConfiguration.shouldSendPageActivities() && (sampler == null || sampler.sample(context))) {
                 this.activityHandler.handlePageRequestedActivity(context);
             }
         } else {
             logger.debug("Request invalid");
             this.activityHandler.handleBlockActivity(context);
-            this.blockHandler.handleBlocking(context, this.pxConfiguration, responseWrapper);
+            Object renderEvent = EnforcerEvents.beginStage(Stage.BLOCK_RENDER);
+            long renderStart = System.nanoTime();
+            try {
+                this.blockHandler.handleBlocking(context, pxConfiguration, responseWrapper);
+            } finally {
+                metrics.recordStage(Stage.BLOCK_RENDER, System.nanoTime() - renderStart);
+                EnforcerEvents.endStage(renderEvent, context.getBlockReason().getValue(),
+                        context.getBlockAction() == null ? null : context.getBlockAction().name());
+            }
         }
 
         return verified;
     }
 
-    private boolean shouldPassRequest(PXContext context){
+    private boolean shouldPassRequest(PXContext context, PXConfiguration pxConfiguration){
         int score = context.getRiskScore();
-        int blockingScore = this.pxConfiguration.getBlockingScore();
+        int blockingScore = pxConfiguration.getBlockingScore();
         // If should block this request we will apply our block handle and send the block activity to px
 
         boolean verified = score < blockingScore;
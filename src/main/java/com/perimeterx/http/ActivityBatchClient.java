@@ -0,0 +1,25 @@
+package com.perimeterx.http;
+
+import com.perimeterx.models.activities.ActivityBatch;
+import com.perimeterx.models.exceptions.PXException;
+
+import java.io.IOException;
+
+/**
+ * Client sending already encoded activities, {@link com.perimeterx.api.activities.BufferedActivityHandler}
+ * sends its batches with it.
+ * <p>
+ * Kept apart from {@link PXClient} so existing PXClient implementations are not required to implement it.
+ */
+public interface ActivityBatchClient {
+
+    /**
+     * Calling PX Server to report already encoded activities,
+     * the batch callback must be notified once the batch is sent or failed
+     *
+     * @param batch - the encoded activities we want to report
+     * @throws PXException
+     * @throws IOException
+     */
+    void sendBatchActivities(ActivityBatch batch) throws PXException, IOException;
+}
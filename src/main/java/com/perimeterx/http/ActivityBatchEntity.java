@@ -0,0 +1,290 @@
+package com.perimeterx.http;
+
+import com.perimeterx.models.activities.ActivityBatch;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Streams an {@link ActivityBatch} as a JSON array without copying it to a single buffer.
+ * <p>
+ * When compressed the activities are deflated one at a time into a gzip stream as the body is read and sent chunked,
+ * the deflaters and their output buffers are pooled between requests.
+ * The entity is repeatable so a request can be retried with it.
+ */
+public class ActivityBatchEntity extends AbstractHttpEntity {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_POOLED_COMPRESSORS = 16;
+    private static final byte[] ARRAY_START = {'['};
+    private static final byte[] ARRAY_END = {']'};
+    private static final byte[] SEPARATOR = {','};
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+    private static final int GZIP_TRAILER_SIZE = 8;
+
+    private static final Queue<Compressor> compressors = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooledCompressors = new AtomicInteger();
+
+    private final ActivityBatch batch;
+    private final boolean compressed;
+
+    /**
+     * @param batch      - batch to send
+     * @param compressed - true to send the batch gzip compressed
+     */
+    public ActivityBatchEntity(ActivityBatch batch, boolean compressed) {
+        this.batch = batch;
+        this.compressed = compressed;
+        setContentType(ContentType.APPLICATION_JSON.toString());
+        if (compressed) {
+            setContentEncoding("gzip");
+            setChunked(true);
+        }
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        if (compressed) {
+            return -1;
+        }
+        return batch.getBytes() + Math.max(0, batch.size() - 1) + ARRAY_START.length + ARRAY_END.length;
+    }
+
+    @Override
+    public InputStream getContent() {
+        return compressed ? new CompressedContent(batch) : new Content(batch);
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        InputStream content = getContent();
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = content.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            content.close();
+        }
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    private static Compressor acquireCompressor() {
+        Compressor compressor = compressors.poll();
+        if (compressor == null) {
+            return new Compressor();
+        }
+        pooledCompressors.decrementAndGet();
+        return compressor;
+    }
+
+    private static void releaseCompressor(Compressor compressor) {
+        compressor.reset();
+        if (pooledCompressors.incrementAndGet() <= MAX_POOLED_COMPRESSORS) {
+            compressors.offer(compressor);
+        } else {
+            pooledCompressors.decrementAndGet();
+            compressor.deflater.end();
+        }
+    }
+
+    private static final class Compressor {
+
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        private final CRC32 crc = new CRC32();
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+
+        void reset() {
+            deflater.reset();
+            crc.reset();
+        }
+    }
+
+    /**
+     * Reads the JSON array directly from the encoded activities
+     */
+    private static class Content extends InputStream {
+
+        private final List<byte[]> activities;
+        // Index of the part being read, parts are the array delimiters, the activities and the separators between them
+        private int part;
+        private int position;
+
+        Content(ActivityBatch batch) {
+            this.activities = batch.getActivities();
+        }
+
+        /**
+         * @return the part at the given index, null past the end of the array
+         */
+        byte[] part(int index) {
+            int count = activities.size();
+            int parts = count == 0 ? 2 : 2 * count + 1;
+            if (index >= parts) {
+                return null;
+            }
+            if (index == 0) {
+                return ARRAY_START;
+            }
+            if (index == parts - 1) {
+                return ARRAY_END;
+            }
+            return index % 2 == 1 ? activities.get(index / 2) : SEPARATOR;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            int read = 0;
+            byte[] current;
+            while (read < len && (current = part(part)) != null) {
+                int count = Math.min(len - read, current.length - position);
+                System.arraycopy(current, position, b, off + read, count);
+                read += count;
+                position += count;
+                if (position == current.length) {
+                    part++;
+                    position = 0;
+                }
+            }
+            return read == 0 ? -1 : read;
+        }
+    }
+
+    /**
+     * Deflates the JSON array part by part as it is read, wrapped in a gzip header and trailer
+     */
+    private static final class CompressedContent extends Content {
+
+        private Compressor compressor;
+        private byte[] pending = GZIP_HEADER;
+        private int pendingOffset;
+        private int pendingLength = GZIP_HEADER.length;
+        private int nextPart;
+        private boolean finished;
+        private boolean closed;
+
+        CompressedContent(ActivityBatch batch) {
+            super(batch);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            while (pendingLength == 0) {
+                if (finished || closed) {
+                    return -1;
+                }
+                deflate();
+            }
+            int count = Math.min(len, pendingLength);
+            System.arraycopy(pending, pendingOffset, b, off, count);
+            pendingOffset += count;
+            pendingLength -= count;
+            if (finished && pendingLength == 0) {
+                // The trailer was read from the compressor buffer
+                release();
+            }
+            return count;
+        }
+
+        /**
+         * Produces the next compressed bytes, feeding the deflater with the next parts as it needs input
+         */
+        private void deflate() {
+            if (compressor == null) {
+                compressor = acquireCompressor();
+            }
+            Deflater deflater = compressor.deflater;
+            byte[] buffer = compressor.buffer;
+            while (true) {
+                int count = deflater.deflate(buffer, 0, buffer.length);
+                if (count > 0) {
+                    setPending(buffer, count);
+                    return;
+                }
+                if (deflater.finished()) {
+                    writeTrailer(buffer, compressor.crc, deflater.getBytesRead());
+                    setPending(buffer, GZIP_TRAILER_SIZE);
+                    finished = true;
+                    return;
+                }
+                if (deflater.needsInput()) {
+                    byte[] next = part(nextPart);
+                    if (next == null) {
+                        deflater.finish();
+                    } else {
+                        nextPart++;
+                        deflater.setInput(next);
+                        compressor.crc.update(next);
+                    }
+                }
+            }
+        }
+
+        private void setPending(byte[] buffer, int length) {
+            pending = buffer;
+            pendingOffset = 0;
+            pendingLength = length;
+        }
+
+        private static void writeTrailer(byte[] buffer, CRC32 crc, long size) {
+            writeIntLE(buffer, 0, (int) crc.getValue());
+            writeIntLE(buffer, 4, (int) size);
+        }
+
+        private static void writeIntLE(byte[] buffer, int offset, int value) {
+            buffer[offset] = (byte) value;
+            buffer[offset + 1] = (byte) (value >> 8);
+            buffer[offset + 2] = (byte) (value >> 16);
+            buffer[offset + 3] = (byte) (value >> 24);
+        }
+
+        private void release() {
+            if (compressor != null) {
+                releaseCompressor(compressor);
+                compressor = null;
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            pendingLength = 0;
+            release();
+        }
+    }
+}
@@ -4,6 +4,7 @@ import com.perimeterx.models.activities.Activity;
 import com.perimeterx.models.activities.EnforcerTelemetry;
 import com.perimeterx.models.configuration.PXDynamicConfiguration;
 import com.perimeterx.models.exceptions.PXException;
+import com.perimeterx.models.exceptions.RemoteConfigurationException;
 import com.perimeterx.models.httpmodels.CaptchaResponse;
 import com.perimeterx.models.httpmodels.ResetCaptchaRequest;
 import com.perimeterx.models.httpmodels.RiskRequest;
@@ -60,8 +61,8 @@ public interface PXClient {
     /**
      * Calling remote configuration server and fetching the latest configuration values
      *
-     * @return PXDynamicConfiguration
-     * @throws IOException when trying to close the connection
+     * @return PXDynamicConfiguration, null if the configuration did not change since the current checksum
+     * @throws RemoteConfigurationException when the configuration service cannot be reached or answers with an error
      */
     PXDynamicConfiguration getConfigurationFromServer();
 
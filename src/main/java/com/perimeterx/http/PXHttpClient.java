@@ -1,11 +1,19 @@
 package com.perimeterx.http;
 
-import com.perimeterx.http.async.PxClientAsyncHandler;
+import com.perimeterx.http.async.DeliveryMetrics;
+import com.perimeterx.http.async.RejectedRequestException;
+import com.perimeterx.http.async.PendingRequests;
+import com.perimeterx.http.async.RetryPolicy;
 import com.perimeterx.models.activities.Activity;
+import com.perimeterx.models.activities.ActivityBatch;
 import com.perimeterx.models.activities.EnforcerTelemetry;
 import com.perimeterx.models.configuration.PXConfiguration;
+import com.perimeterx.models.configuration.PXConfigurationChange;
+import com.perimeterx.models.configuration.PXConfigurationListener;
+import com.perimeterx.models.configuration.PXConfigurationStore;
 import com.perimeterx.models.configuration.PXDynamicConfiguration;
 import com.perimeterx.models.exceptions.PXException;
+import com.perimeterx.models.exceptions.RemoteConfigurationException;
 import com.perimeterx.models.httpmodels.CaptchaResponse;
 import com.perimeterx.models.httpmodels.ResetCaptchaRequest;
 import com.perimeterx.models.httpmodels.RiskRequest;
@@ -15,69 +23,123 @@ import com.perimeterx.utils.JsonUtils;
 import com.perimeterx.utils.PXCommonUtils;
 import com.perimeterx.utils.PXLogger;
 import org.apache.commons.io.IOUtils;
+import org.apache.http.Header;
 import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
 import org.apache.http.nio.client.methods.HttpAsyncMethods;
 import org.apache.http.nio.protocol.BasicAsyncResponseConsumer;
-import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
 import org.apache.http.util.EntityUtils;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.charset.Charset;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Low level HTTP client
  * <p>
  * Created by shikloshi on 04/07/2016.
  */
-public class PXHttpClient implements PXClient {
+public class PXHttpClient implements PXClient, ActivityBatchClient, PXConfigurationListener, Closeable {
 
     private static final PXLogger logger = PXLogger.getLogger(PXHttpClient.class);
 
-    private static PXHttpClient instance;
     private static final Charset UTF_8 = Charset.forName("utf-8");
 
     private CloseableHttpClient httpClient;
     private CloseableHttpAsyncClient asyncHttpClient;
+    private PendingRequests pendingRequests;
+    private volatile Semaphore bulkhead;
+    private volatile RetryPolicy retryPolicy;
+    private ScheduledThreadPoolExecutor retryScheduler;
+    private final Set<AsyncRequest> waitingRetries = Collections.newSetFromMap(new ConcurrentHashMap<AsyncRequest, Boolean>());
+    private final DeliveryMetrics activitiesMetrics = new DeliveryMetrics();
+    private final DeliveryMetrics telemetryMetrics = new DeliveryMetrics();
 
-    private PXConfiguration pxConfiguration;
+    private PXConfigurationStore configurationStore;
 
+    /**
+     * @deprecated clients are no longer shared between configurations, use the constructor instead
+     */
+    @Deprecated
     public static PXHttpClient getInstance(PXConfiguration pxConfiguration, CloseableHttpAsyncClient asyncHttpClient, CloseableHttpClient httpClient) {
-        if (instance == null) {
-            synchronized (PXHttpClient.class) {
-                if (instance == null) {
-                    instance = new PXHttpClient(pxConfiguration, asyncHttpClient, httpClient);
-                }
-            }
-        }
-        return instance;
+        return new PXHttpClient(pxConfiguration, asyncHttpClient, httpClient);
     }
 
+    /**
+     * Creates a client for a single enforcer configuration, the underlying http clients may be shared
+     * between enforcers since authorization headers are set on each request.
+     * Concurrent synchronous calls are limited to the configured max connections per route.
+     *
+     * @param pxConfiguration - enforcer configuration
+     * @param asyncHttpClient - started async client used for activities and telemetry
+     * @param httpClient      - client used for risk, captcha and remote configuration calls
+     */
+    public PXHttpClient(PXConfiguration pxConfiguration, CloseableHttpAsyncClient asyncHttpClient, CloseableHttpClient httpClient) {
+        this(new PXConfigurationStore(pxConfiguration), asyncHttpClient, httpClient);
+    }
 
-    private PXHttpClient(PXConfiguration pxConfiguration, CloseableHttpAsyncClient asyncHttpClient, CloseableHttpClient httpClient) {
-        this.pxConfiguration = pxConfiguration;
+    /**
+     * Creates a client that reads the server urls, timeouts and checksum of every call from the current
+     * configuration snapshot of the store. Connection and retry limits are rebuilt when the client is registered
+     * as a listener of the store.
+     *
+     * @param configurationStore - store of the enforcer configuration
+     * @param asyncHttpClient    - started async client used for activities and telemetry
+     * @param httpClient         - client used for risk, captcha and remote configuration calls
+     */
+    public PXHttpClient(PXConfigurationStore configurationStore, CloseableHttpAsyncClient asyncHttpClient, CloseableHttpClient httpClient) {
+        PXConfiguration pxConfiguration = configurationStore.get();
+        this.configurationStore = configurationStore;
         this.httpClient = httpClient;
         this.asyncHttpClient = asyncHttpClient;
+        this.pendingRequests = new PendingRequests();
+        this.bulkhead = new Semaphore(pxConfiguration.getMaxConnectionsPerRoute());
+        this.retryPolicy = new RetryPolicy(pxConfiguration);
+        this.retryScheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "PerimeterX-retry");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
     }
 
     @Override
     public RiskResponse riskApiCall(RiskRequest riskRequest) throws PXException, IOException {
+        PXConfiguration pxConfiguration = configurationStore.get();
         CloseableHttpResponse httpResponse = null;
         try {
             String requestBody = JsonUtils.writer.writeValueAsString(riskRequest);
             logger.debug("Risk API Request: {}", requestBody);
-            HttpPost post = new HttpPost(this.pxConfiguration.getServerURL() + Constants.API_RISK);
+            HttpPost post = new HttpPost(pxConfiguration.getServerURL() + Constants.API_RISK);
             post.setEntity(new StringEntity(requestBody, UTF_8));
             post.setConfig(PXCommonUtils.getRequestConfig(pxConfiguration.getConnectionTimeout(),pxConfiguration.getApiTimeout()));
+            post.setHeaders(defaultHeaders());
 
-            httpResponse = httpClient.execute(post);
+            httpResponse = execute(post);
             String s = IOUtils.toString(httpResponse.getEntity().getContent(), UTF_8);
             logger.debug("Risk API Response: {}", s);
             if (httpResponse.getStatusLine().getStatusCode() == 200) {
@@ -93,15 +155,17 @@ public class PXHttpClient implements PXClient {
 
     @Override
     public void sendActivity(Activity activity) throws PXException, IOException {
+        PXConfiguration pxConfiguration = configurationStore.get();
         CloseableHttpResponse httpResponse = null;
         try {
             String requestBody = JsonUtils.writer.writeValueAsString(activity);
             logger.debug("Sending Activity: {}", requestBody);
-            HttpPost post = new HttpPost(this.pxConfiguration.getServerURL() + Constants.API_ACTIVITIES);
+            HttpPost post = new HttpPost(pxConfiguration.getServerURL() + Constants.API_ACTIVITIES);
             post.setEntity(new StringEntity(requestBody, UTF_8));
             post.setConfig(PXCommonUtils.getRequestConfig(pxConfiguration.getConnectionTimeout(),pxConfiguration.getApiTimeout()));
+            post.setHeaders(defaultHeaders());
 
-            httpResponse = httpClient.execute(post);
+            httpResponse = execute(post);
             EntityUtils.consume(httpResponse.getEntity());
         } catch (Exception e) {
             throw new PXException(e);
@@ -114,36 +178,50 @@ public class PXHttpClient implements PXClient {
 
     @Override
     public void sendBatchActivities(List<Activity> activities) throws PXException, IOException {
-        HttpAsyncRequestProducer producer = null;
+        PXConfiguration pxConfiguration = configurationStore.get();
         try {
             String requestBody = JsonUtils.writer.writeValueAsString(activities);
             logger.debug("Sending Activity: {}", requestBody);
-            HttpPost post = new HttpPost(this.pxConfiguration.getServerURL() + Constants.API_ACTIVITIES);
+            HttpPost post = new HttpPost(pxConfiguration.getServerURL() + Constants.API_ACTIVITIES);
             post.setEntity(new StringEntity(requestBody, UTF_8));
             post.setConfig(PXCommonUtils.getRequestConfig(pxConfiguration.getConnectionTimeout(),pxConfiguration.getApiTimeout()));
             post.setHeader(HttpHeaders.CONTENT_TYPE, "application/json");
             post.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + pxConfiguration.getAuthToken());
-            producer = HttpAsyncMethods.create(post);
-            asyncHttpClient.execute(producer, new BasicAsyncResponseConsumer(), new PxClientAsyncHandler());
+            new AsyncRequest(post, activitiesMetrics, null).start();
+        } catch (Exception e) {
+            throw new PXException(e);
+        }
+    }
+
+    @Override
+    public void sendBatchActivities(ActivityBatch batch) throws PXException, IOException {
+        PXConfiguration pxConfiguration = configurationStore.get();
+        try {
+            int compressionMinBytes = pxConfiguration.getActivitiesCompressionMinBytes();
+            boolean compressed = compressionMinBytes >= 0 && batch.getBytes() >= compressionMinBytes;
+            logger.debug("Sending {} activities, {} bytes, compressed: {}", batch.size(), batch.getBytes(), compressed);
+            HttpPost post = new HttpPost(pxConfiguration.getServerURL() + Constants.API_ACTIVITIES);
+            post.setEntity(new ActivityBatchEntity(batch, compressed));
+            post.setConfig(PXCommonUtils.getRequestConfig(pxConfiguration.getConnectionTimeout(),pxConfiguration.getApiTimeout()));
+            post.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + pxConfiguration.getAuthToken());
+            new AsyncRequest(post, activitiesMetrics, batch).start();
         } catch (Exception e) {
             throw new PXException(e);
-        } finally {
-            if (producer != null) {
-                producer.close();
-            }
         }
     }
 
     public CaptchaResponse sendCaptchaRequest(ResetCaptchaRequest resetCaptchaRequest) throws PXException, IOException {
+        PXConfiguration pxConfiguration = configurationStore.get();
         CloseableHttpResponse httpResponse = null;
         try {
             String requestBody = JsonUtils.writer.writeValueAsString(resetCaptchaRequest);
             logger.debug("Sending captcha verification: {}", requestBody);
-            HttpPost post = new HttpPost(this.pxConfiguration.getServerURL() + Constants.API_CAPTCHA);
+            HttpPost post = new HttpPost(pxConfiguration.getServerURL() + Constants.API_CAPTCHA);
             post.setEntity(new StringEntity(requestBody, UTF_8));
             post.setConfig(PXCommonUtils.getRequestConfig(pxConfiguration.getConnectionTimeout(),pxConfiguration.getApiTimeout()));
+            post.setHeaders(defaultHeaders());
 
-            httpResponse = httpClient.execute(post);
+            httpResponse = execute(post);
             String s = IOUtils.toString(httpResponse.getEntity().getContent(), UTF_8);
             logger.debug("Captcha verification response: {}", s);
             if (httpResponse.getStatusLine().getStatusCode() == 200) {
@@ -159,6 +237,7 @@ public class PXHttpClient implements PXClient {
 
     @Override
     public PXDynamicConfiguration getConfigurationFromServer() {
+        PXConfiguration pxConfiguration = configurationStore.get();
         logger.debug("TimerConfigUpdater[getConfiguration]");
         String queryParams = "";
         if (pxConfiguration.getChecksum() != null) {
@@ -167,6 +246,18 @@ public class PXHttpClient implements PXClient {
         }
         PXDynamicConfiguration stub = null;
         HttpGet get = new HttpGet(pxConfiguration.getRemoteConfigurationUrl() + Constants.API_REMOTE_CONFIGURATION + queryParams);
+        get.setHeaders(defaultHeaders());
+        int longPollTimeout = pxConfiguration.getRemoteConfigurationLongPollTimeout();
+        if (longPollTimeout > 0 && pxConfiguration.getChecksum() != null) {
+            // Ask the service to hold the request until the configuration no longer matches the checksum
+            get.setHeader(Constants.PREFER_HEADER, "wait=" + Math.max(1, TimeUnit.MILLISECONDS.toSeconds(longPollTimeout)));
+            // The held request reads for up to the wait, plus the api timeout for the answer
+            get.setConfig(RequestConfig.copy(PXCommonUtils.getRequestConfig(pxConfiguration.getConnectionTimeout(), pxConfiguration.getApiTimeout()))
+                    .setSocketTimeout(pxConfiguration.getApiTimeout() + longPollTimeout)
+                    .build());
+        } else {
+            get.setConfig(PXCommonUtils.getRequestConfig(pxConfiguration.getConnectionTimeout(), pxConfiguration.getApiTimeout()));
+        }
 
         try (CloseableHttpResponse httpResponse = httpClient.execute(get)){
             int httpCode = httpResponse.getStatusLine().getStatusCode();
@@ -174,37 +265,247 @@ public class PXHttpClient implements PXClient {
                 String bodyContent = IOUtils.toString(httpResponse.getEntity().getContent(), UTF_8);
                 stub = JsonUtils.pxConfigurationStubReader.readValue(bodyContent);
                 logger.debug("[getConfiguration] GET request successfully executed {}", bodyContent);
-            } else if (httpResponse.getStatusLine().getStatusCode() == HttpStatus.SC_NO_CONTENT) {
+            } else if (httpCode == HttpStatus.SC_NO_CONTENT || httpCode == HttpStatus.SC_NOT_MODIFIED) {
                 logger.debug("[getConfiguration] No updates found");
             } else {
                 logger.debug("[getConfiguration] Failed to get remote configuration, status code {}", httpCode);
+                throw new RemoteConfigurationException("Remote configuration request failed with status code " + httpCode);
             }
             return stub;
-        } catch (Exception e) {
+        } catch (IOException e) {
             logger.error("[getConfiguration] EXCEPTION {}", e.getMessage());
-            return null;
+            throw new RemoteConfigurationException("Remote configuration request failed, " + e.getMessage(), e);
         }
     }
 
     @Override
     public void sendEnforcerTelemetry(EnforcerTelemetry enforcerTelemetry) throws PXException, IOException{
-        HttpAsyncRequestProducer producer = null;
+        PXConfiguration pxConfiguration = configurationStore.get();
         try {
             String requestBody = JsonUtils.writer.writeValueAsString(enforcerTelemetry);
             logger.debug("Sending enforcer telemetry: {}", requestBody);
-            HttpPost post = new HttpPost(this.pxConfiguration.getServerURL() + Constants.API_ENFORCER_TELEMETRY);
+            HttpPost post = new HttpPost(pxConfiguration.getServerURL() + Constants.API_ENFORCER_TELEMETRY);
             post.setEntity(new StringEntity(requestBody, UTF_8));
-            PXCommonUtils.getDefaultHeaders(pxConfiguration.getAuthToken());
             post.setHeader(HttpHeaders.CONTENT_TYPE, "application/json");
             post.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + pxConfiguration.getAuthToken());
             post.setConfig(PXCommonUtils.getRequestConfig(pxConfiguration.getConnectionTimeout(),pxConfiguration.getApiTimeout()));
-            producer = HttpAsyncMethods.create(post);
-            asyncHttpClient.execute(producer, new BasicAsyncResponseConsumer(), new PxClientAsyncHandler());
+            new AsyncRequest(post, telemetryMetrics, null).start();
         } catch (Exception e) {
-            e.printStackTrace();
+            logger.error("Failed sending enforcer telemetry, {}", e.getMessage());
+        }
+    }
+
+    private Header[] defaultHeaders() {
+        PXConfiguration pxConfiguration = configurationStore.get();
+        List<Header> headers = PXCommonUtils.getDefaultHeaders(pxConfiguration.getAuthToken());
+        return headers.toArray(new Header[headers.size()]);
+    }
+
+    /**
+     * Resizes the concurrent calls limit and rebuilds the retry policy when their settings change
+     */
+    @Override
+    public void onConfigurationChange(PXConfigurationChange change) {
+        if (change.isChanged("maxConnectionsPerRoute")) {
+            // Calls in flight release the semaphore they acquired
+            this.bulkhead = new Semaphore(change.getCurrent().getMaxConnectionsPerRoute());
+        }
+        if (change.isChanged("asyncMaxRetries", "retryBackoffBase", "retryBackoffMax", "retryBudgetRatio")) {
+            this.retryPolicy = new RetryPolicy(change.getCurrent());
+        }
+    }
+
+    private CloseableHttpResponse execute(HttpUriRequest request) throws IOException {
+        PXConfiguration pxConfiguration = configurationStore.get();
+        Semaphore bulkhead = this.bulkhead;
+        try {
+            if (!bulkhead.tryAcquire(pxConfiguration.getConnectionTimeout(), TimeUnit.MILLISECONDS)) {
+                throw new ConnectionPoolTimeoutException("Max concurrent requests reached for " + pxConfiguration.getAppId());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        }
+        try {
+            return httpClient.execute(request);
+        } finally {
+            bulkhead.release();
+        }
+    }
+
+    /**
+     * @return number of blocking requests that may still start before requests wait for a connection
+     */
+    public int getBulkheadAvailable() {
+        return bulkhead.availablePermits();
+    }
+
+    public DeliveryMetrics getActivitiesMetrics() {
+        return activitiesMetrics;
+    }
+
+    public DeliveryMetrics getTelemetryMetrics() {
+        return telemetryMetrics;
+    }
+
+    /**
+     * Waits for activities and telemetry that were already dispatched on the async client
+     *
+     * @param timeout - maximum time to wait in milliseconds
+     * @return true if all requests completed, false if timeout elapsed first
+     */
+    public boolean awaitPendingRequests(long timeout) {
+        try {
+            return pendingRequests.await(timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Fails the requests waiting for a retry and stops retrying, called on shutdown once the drain timeout elapsed
+     */
+    public void cancelRetries() {
+        retryScheduler.shutdownNow();
+        for (AsyncRequest request : waitingRetries) {
+            if (waitingRetries.remove(request)) {
+                request.finish(new CancellationException("Retry cancelled on shutdown"));
+            }
+        }
+    }
+
+    /**
+     * Closes the sync and async clients along with their connection pools and IO threads,
+     * should not be called when the clients are shared with other enforcers
+     */
+    @Override
+    public void close() throws IOException {
+        cancelRetries();
+        try {
+            asyncHttpClient.close();
         } finally {
-            if (producer != null) {
-                producer.close();
+            httpClient.close();
+        }
+    }
+
+    /**
+     * Activities or telemetry request sent on the async client, retried according to the {@link RetryPolicy}.
+     * Counted as pending from the first attempt until its outcome is known.
+     */
+    private class AsyncRequest implements FutureCallback<HttpResponse>, Runnable {
+
+        private final HttpPost post;
+        private final DeliveryMetrics metrics;
+        private final ActivityBatch batch;
+        private int attempt;
+
+        /**
+         * @param batch - batch whose callback is notified with the outcome, null if none
+         */
+        AsyncRequest(HttpPost post, DeliveryMetrics metrics, ActivityBatch batch) {
+            this.post = post;
+            this.metrics = metrics;
+            this.batch = batch;
+        }
+
+        void start() {
+            pendingRequests.begin();
+            retryPolicy.onRequest();
+            run();
+        }
+
+        @Override
+        public void run() {
+            // A retry cancelled on shutdown was already finished
+            if (attempt > 0 && !waitingRetries.remove(this)) {
+                return;
+            }
+            try {
+                asyncHttpClient.execute(HttpAsyncMethods.create(post), new BasicAsyncResponseConsumer(), this);
+            } catch (RuntimeException e) {
+                // The client is closed
+                finish(e);
+            }
+        }
+
+        @Override
+        public void completed(HttpResponse httpResponse) {
+            int status = httpResponse.getStatusLine().getStatusCode();
+            logger.debug("Response completed {} {}", post.getURI().getPath(), status);
+            if (status < 300) {
+                metrics.delivered();
+                finish(null);
+            } else if (RetryPolicy.isRetryableStatus(status)) {
+                retry(new IOException("Request failed with status " + status), retryAfter(httpResponse));
+            } else {
+                metrics.rejected();
+                finish(new RejectedRequestException(status));
+            }
+        }
+
+        @Override
+        public void failed(Exception e) {
+            logger.debug("Response failed {}, {}", post.getURI().getPath(), e.getMessage());
+            retry(e, 0);
+        }
+
+        @Override
+        public void cancelled() {
+            finish(new CancellationException("Request was cancelled"));
+        }
+
+        private void retry(Exception cause, long retryAfter) {
+            if (attempt >= retryPolicy.getMaxRetries()) {
+                metrics.exhausted();
+                finish(cause);
+                return;
+            }
+            if (!retryPolicy.tryRetry()) {
+                metrics.budgetExhausted();
+                finish(cause);
+                return;
+            }
+            long delay = retryPolicy.backoff(attempt, retryAfter);
+            attempt++;
+            metrics.retried();
+            waitingRetries.add(this);
+            try {
+                retryScheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                waitingRetries.remove(this);
+                finish(cause);
+            }
+        }
+
+        private long retryAfter(HttpResponse httpResponse) {
+            Header header = httpResponse.getFirstHeader(HttpHeaders.RETRY_AFTER);
+            if (header == null) {
+                return 0;
+            }
+            try {
+                return TimeUnit.SECONDS.toMillis(Long.parseLong(header.getValue().trim()));
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        void finish(Exception e) {
+            try {
+                if (e != null) {
+                    logger.error("Request to {} failed, {}", post.getURI().getPath(), e.getMessage());
+                }
+                ActivityBatch.Callback callback = batch == null ? null : batch.getCallback();
+                if (callback == null) {
+                    return;
+                }
+                if (e == null) {
+                    callback.sent(batch);
+                } else {
+                    callback.failed(batch, e);
+                }
+            } finally {
+                pendingRequests.end();
             }
         }
     }
@@ -0,0 +1,267 @@
+package com.perimeterx.http;
+
+import com.perimeterx.models.configuration.PXConfiguration;
+import com.perimeterx.utils.PXLogger;
+import org.apache.http.HttpHost;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.pool.PoolStats;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Connection pools and IO threads shared by all enforcer instances in the JVM.
+ * Each enforcer registers its configuration, growing the pools by its connection limits, and releases it when closed.
+ * The limit of a PerimeterX host is the sum of the per route limits of the enforcers using it, plus the poll
+ * each long polling enforcer holds open on its remote configuration host. Other hosts are limited to
+ * {@link #DEFAULT_MAX_PER_ROUTE}. The transport is closed once the last enforcer released it.
+ * <p>
+ * Clients created by the transport do not carry any default headers, authorization is set per request.
+ */
+public class PXHttpTransport {
+
+    private static final PXLogger logger = PXLogger.getLogger(PXHttpTransport.class);
+
+    /**
+     * Connections per route for hosts no enforcer registered, the default maxConnectionsPerRoute
+     */
+    public static final int DEFAULT_MAX_PER_ROUTE = 20;
+
+    private static PXHttpTransport shared;
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final PoolingNHttpClientConnectionManager asyncConnectionManager;
+    private final CloseableHttpClient httpClient;
+    private final CloseableHttpAsyncClient asyncHttpClient;
+    private final Map<HttpRoute, Integer> routeLimits = new HashMap<>();
+
+    private int references;
+    private int maxTotal;
+    private boolean closed;
+    // Reporter of the pools, see claimPoolReporting
+    private Object poolReporter;
+
+    /**
+     * @return the JVM wide transport, a new one is created if none exists or the previous one was closed
+     * @throws IOException when the IO reactor could not be started
+     */
+    public static synchronized PXHttpTransport shared() throws IOException {
+        if (shared == null || shared.isClosed()) {
+            shared = new PXHttpTransport();
+        }
+        return shared;
+    }
+
+    public PXHttpTransport() throws IOException {
+        this.connectionManager = new PoolingHttpClientConnectionManager();
+        try {
+            this.asyncConnectionManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor());
+        } catch (IOReactorException e) {
+            throw new IOException(e);
+        }
+        connectionManager.setDefaultMaxPerRoute(DEFAULT_MAX_PER_ROUTE);
+        asyncConnectionManager.setDefaultMaxPerRoute(DEFAULT_MAX_PER_ROUTE);
+        this.httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .build();
+        this.asyncHttpClient = HttpAsyncClients.custom()
+                .setConnectionManager(asyncConnectionManager)
+                .build();
+        this.asyncHttpClient.start();
+    }
+
+    /**
+     * Adds the enforcer connection limits to the shared pools
+     *
+     * @param pxConfiguration - configuration of the enforcer using this transport
+     */
+    public synchronized void register(PXConfiguration pxConfiguration) {
+        if (closed) {
+            throw new IllegalStateException("Transport is closed");
+        }
+        references++;
+        maxTotal += pxConfiguration.getMaxConnections();
+        connectionManager.setMaxTotal(maxTotal);
+        asyncConnectionManager.setMaxTotal(maxTotal);
+        addRouteLimits(pxConfiguration, 1);
+    }
+
+    /**
+     * Removes the enforcer connection limits from the shared pools, closing them when no enforcer is left
+     *
+     * @param pxConfiguration - configuration the enforcer registered with
+     */
+    public synchronized void release(PXConfiguration pxConfiguration) {
+        if (closed) {
+            return;
+        }
+        references--;
+        maxTotal -= pxConfiguration.getMaxConnections();
+        if (references > 0) {
+            connectionManager.setMaxTotal(maxTotal);
+            asyncConnectionManager.setMaxTotal(maxTotal);
+            addRouteLimits(pxConfiguration, -1);
+            return;
+        }
+        close();
+    }
+
+    /**
+     * Moves the enforcer connection limits from its previous configuration to the current one
+     *
+     * @param previous - configuration the enforcer registered or was last updated with
+     * @param current  - configuration the enforcer releases the transport with
+     */
+    public synchronized void update(PXConfiguration previous, PXConfiguration current) {
+        if (closed) {
+            return;
+        }
+        maxTotal += current.getMaxConnections() - previous.getMaxConnections();
+        connectionManager.setMaxTotal(maxTotal);
+        asyncConnectionManager.setMaxTotal(maxTotal);
+        addRouteLimits(previous, -1);
+        addRouteLimits(current, 1);
+    }
+
+    /**
+     * @param url - url of a PerimeterX host
+     * @return connections allowed to the host, in each of the pools
+     */
+    public synchronized int getMaxPerRoute(String url) {
+        HttpRoute route = routeOf(url);
+        return route == null ? DEFAULT_MAX_PER_ROUTE : connectionManager.getMaxPerRoute(route);
+    }
+
+    /**
+     * Claims reporting the connection pools, the pools are reported by one owner at a time so they are not counted
+     * once per enforcer sharing the transport. The first owner asking keeps the claim until it unclaims it.
+     *
+     * @param owner - reporter asking to report the pools
+     * @return true if the owner reports the pools
+     */
+    public synchronized boolean claimPoolReporting(Object owner) {
+        if (poolReporter == null && !closed) {
+            poolReporter = owner;
+        }
+        return poolReporter == owner;
+    }
+
+    /**
+     * @param owner - reporter that stops reporting the pools, another owner may claim them from now
+     */
+    public synchronized void unclaimPoolReporting(Object owner) {
+        if (poolReporter == owner) {
+            poolReporter = null;
+        }
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return connections of the blocking pool used for risk, captcha and first party requests
+     */
+    public PoolStats getPoolStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    /**
+     * @return connections of the async pool used for activities and telemetry
+     */
+    public PoolStats getAsyncPoolStats() {
+        return asyncConnectionManager.getTotalStats();
+    }
+
+    public CloseableHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    public CloseableHttpAsyncClient getAsyncHttpClient() {
+        return asyncHttpClient;
+    }
+
+    private void close() {
+        closed = true;
+        poolReporter = null;
+        try {
+            asyncHttpClient.close();
+        } catch (IOException e) {
+            logger.error("Failed closing async http client, {}", e.getMessage());
+        }
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            logger.error("Failed closing http client, {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Adds or subtracts the per route limits of an enforcer, a route no enforcer uses returns to the default limit
+     *
+     * @param sign - 1 to add the limits, -1 to subtract them
+     */
+    private void addRouteLimits(PXConfiguration pxConfiguration, int sign) {
+        for (Map.Entry<HttpRoute, Integer> enforcerLimit : routeLimitsOf(pxConfiguration).entrySet()) {
+            HttpRoute route = enforcerLimit.getKey();
+            Integer current = routeLimits.get(route);
+            int limit = (current == null ? 0 : current) + sign * enforcerLimit.getValue();
+            if (limit > 0) {
+                routeLimits.put(route, limit);
+            } else {
+                routeLimits.remove(route);
+                limit = DEFAULT_MAX_PER_ROUTE;
+            }
+            connectionManager.setMaxPerRoute(route, limit);
+            asyncConnectionManager.setMaxPerRoute(route, limit);
+        }
+    }
+
+    /**
+     * @return connections the enforcer may use on each of its distinct PerimeterX hosts, the per route limit
+     * and one more on the remote configuration host for a poll held open by long polling
+     */
+    private Map<HttpRoute, Integer> routeLimitsOf(PXConfiguration pxConfiguration) {
+        Map<HttpRoute, Integer> limits = new LinkedHashMap<>();
+        String[] urls = {pxConfiguration.getServerURL(), pxConfiguration.getCollectorUrl(), pxConfiguration.getClientHost(),
+                pxConfiguration.getRemoteConfigurationUrl()};
+        for (String url : urls) {
+            HttpRoute route = routeOf(url);
+            if (route != null) {
+                limits.put(route, pxConfiguration.getMaxConnectionsPerRoute());
+            }
+        }
+        HttpRoute remoteConfigurationRoute = routeOf(pxConfiguration.getRemoteConfigurationUrl());
+        if (remoteConfigurationRoute != null && pxConfiguration.isRemoteConfigurationEnabled()
+                && pxConfiguration.getRemoteConfigurationLongPollTimeout() > 0) {
+            limits.put(remoteConfigurationRoute, limits.get(remoteConfigurationRoute) + 1);
+        }
+        return limits;
+    }
+
+    private HttpRoute routeOf(String url) {
+        if (url == null) {
+            return null;
+        }
+        try {
+            URI uri = URI.create(url);
+            boolean secure = "https".equalsIgnoreCase(uri.getScheme());
+            int port = uri.getPort() != -1 ? uri.getPort() : (secure ? 443 : 80);
+            return new HttpRoute(new HttpHost(uri.getHost(), port, uri.getScheme()), null, secure);
+        } catch (IllegalArgumentException e) {
+            logger.debug("Could not set route limit for {}", url);
+            return null;
+        }
+    }
+}
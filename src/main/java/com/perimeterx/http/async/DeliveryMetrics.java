@@ -0,0 +1,76 @@
+package com.perimeterx.http.async;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Outcomes of async requests sent to PX servers
+ */
+public class DeliveryMetrics {
+
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong exhausted = new AtomicLong();
+    private final AtomicLong budgetExhausted = new AtomicLong();
+
+    public void delivered() {
+        delivered.incrementAndGet();
+    }
+
+    public void retried() {
+        retried.incrementAndGet();
+    }
+
+    public void rejected() {
+        rejected.incrementAndGet();
+    }
+
+    public void exhausted() {
+        exhausted.incrementAndGet();
+    }
+
+    public void budgetExhausted() {
+        budgetExhausted.incrementAndGet();
+    }
+
+    /**
+     * @return requests answered with a 2xx status
+     */
+    public long getDelivered() {
+        return delivered.get();
+    }
+
+    /**
+     * @return retries made
+     */
+    public long getRetried() {
+        return retried.get();
+    }
+
+    /**
+     * @return requests answered with a status that is not retried
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * @return requests that failed on their last retry
+     */
+    public long getExhausted() {
+        return exhausted.get();
+    }
+
+    /**
+     * @return requests not retried because the retry budget was spent
+     */
+    public long getBudgetExhausted() {
+        return budgetExhausted.get();
+    }
+
+    @Override
+    public String toString() {
+        return "delivered=" + getDelivered() + ", retried=" + getRetried() + ", rejected=" + getRejected()
+                + ", exhausted=" + getExhausted() + ", budgetExhausted=" + getBudgetExhausted();
+    }
+}
@@ -0,0 +1,46 @@
+package com.perimeterx.http.async;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps count of asynchronous requests that were dispatched but did not complete yet,
+ * allowing the client to wait for them before shutting down
+ */
+public class PendingRequests {
+
+    private int pending;
+
+    public synchronized void begin() {
+        pending++;
+    }
+
+    public synchronized void end() {
+        pending--;
+        if (pending <= 0) {
+            notifyAll();
+        }
+    }
+
+    public synchronized int count() {
+        return pending;
+    }
+
+    /**
+     * Blocks until all pending requests are done or the timeout has elapsed
+     *
+     * @param timeout - maximum time to wait in milliseconds
+     * @return true if no requests are pending, false if timeout elapsed first
+     * @throws InterruptedException
+     */
+    public synchronized boolean await(long timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        while (pending > 0) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+}
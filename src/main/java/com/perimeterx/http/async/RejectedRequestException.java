@@ -0,0 +1,20 @@
+package com.perimeterx.http.async;
+
+import java.io.IOException;
+
+/**
+ * Thrown when PX servers answer with a status that retrying will not fix
+ */
+public class RejectedRequestException extends IOException {
+
+    private final int status;
+
+    public RejectedRequestException(int status) {
+        super("Request rejected with status " + status);
+        this.status = status;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+}
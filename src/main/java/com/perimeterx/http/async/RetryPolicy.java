@@ -0,0 +1,85 @@
+package com.perimeterx.http.async;
+
+import com.perimeterx.models.configuration.PXConfiguration;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides if and when a failed async request is retried.
+ * <p>
+ * Connection errors, 429 and 5xx responses are retried up to asyncMaxRetries times with exponential backoff and
+ * full jitter, honouring Retry-After up to retryBackoffMax. Retries are also limited by a budget that every
+ * request adds retryBudgetRatio of a retry to, so during an outage retries add at most that share of load
+ * once the initial balance is spent.
+ */
+public class RetryPolicy {
+
+    private static final long SCALE = 1000;
+    private static final long INITIAL_BUDGET = 10 * SCALE;
+    private static final long MAX_BUDGET = 100 * SCALE;
+
+    private final int maxRetries;
+    private final long backoffBase;
+    private final long backoffMax;
+    private final long depositPerRequest;
+    private final AtomicLong budget = new AtomicLong(INITIAL_BUDGET);
+
+    public RetryPolicy(PXConfiguration configuration) {
+        this(configuration.getAsyncMaxRetries(), configuration.getRetryBackoffBase(), configuration.getRetryBackoffMax(),
+                configuration.getRetryBudgetRatio());
+    }
+
+    public RetryPolicy(int maxRetries, long backoffBase, long backoffMax, double budgetRatio) {
+        this.maxRetries = maxRetries;
+        this.backoffBase = backoffBase;
+        this.backoffMax = backoffMax;
+        this.depositPerRequest = (long) (budgetRatio * SCALE);
+    }
+
+    public static boolean isRetryableStatus(int status) {
+        return status == 429 || status >= 500;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Called once for every new request, adds to the retry budget
+     */
+    public void onRequest() {
+        long current;
+        do {
+            current = budget.get();
+            if (current >= MAX_BUDGET) {
+                return;
+            }
+        } while (!budget.compareAndSet(current, Math.min(MAX_BUDGET, current + depositPerRequest)));
+    }
+
+    /**
+     * @return true if the budget allows one more retry, which is then taken from the budget
+     */
+    public boolean tryRetry() {
+        long current;
+        do {
+            current = budget.get();
+            if (current < SCALE) {
+                return false;
+            }
+        } while (!budget.compareAndSet(current, current - SCALE));
+        return true;
+    }
+
+    /**
+     * @param attempt    - number of retries already made
+     * @param retryAfter - delay in milliseconds requested by the server, 0 if none
+     * @return delay in milliseconds before the next retry
+     */
+    public long backoff(int attempt, long retryAfter) {
+        long ceiling = Math.min(backoffMax, backoffBase << Math.min(attempt, 30));
+        long delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        return Math.min(backoffMax, Math.max(delay, retryAfter));
+    }
+}
@@ -12,6 +12,8 @@ import com.perimeterx.utils.Constants;
 import com.perimeterx.utils.PXLogger;
 import org.apache.http.conn.ConnectTimeoutException;
 
+import java.net.SocketTimeoutException;
+
 /**
  * PXCaptchaValidator - Validate captcha token from request using PX Server
  * <p>
@@ -21,11 +23,20 @@ public class PXCaptchaValidator {
 
     private static final PXLogger logger = PXLogger.getLogger(PXCaptchaValidator.class);
     private PXClient pxClient;
-    private PXConfiguration pxConfiguration;
 
-    public PXCaptchaValidator(PXClient pxClient, PXConfiguration pxConfiguration) {
+    /**
+     * @param pxClient - client for the captcha api, the configuration is read from the context of each request
+     */
+    public PXCaptchaValidator(PXClient pxClient) {
         this.pxClient = pxClient;
-        this.pxConfiguration = pxConfiguration;
+    }
+
+    /**
+     * @deprecated the configuration is read from the context of each request, use {@link #PXCaptchaValidator(PXClient)}
+     */
+    @Deprecated
+    public PXCaptchaValidator(PXClient pxClient, PXConfiguration pxConfiguration) {
+        this(pxClient);
     }
 
     /**
@@ -41,7 +52,7 @@ public class PXCaptchaValidator {
         }
         long startRiskRtt = System.currentTimeMillis();
         try {
-            ResetCaptchaRequest resetCaptchaRequest = ResetCaptchaRequest.fromContext(context, pxConfiguration);
+            ResetCaptchaRequest resetCaptchaRequest = ResetCaptchaRequest.fromContext(context, context.getPxConfiguration());
             CaptchaResponse response = this.pxClient.sendCaptchaRequest(resetCaptchaRequest);
             context.setRiskRtt(System.currentTimeMillis() - startRiskRtt);
             if (response != null && response.getStatus() == Constants.CAPTCHA_SUCCESS_CODE) {
@@ -52,7 +63,7 @@ public class PXCaptchaValidator {
             }
             context.setBlockReason(BlockReason.SERVER);
             return false;
-        } catch (ConnectTimeoutException e) {
+        } catch (ConnectTimeoutException | SocketTimeoutException e) {
             logger.debug(PXLogger.LogReason.DEBUG_CAPTCHA_RESPONSE_TIMEOUT);
             context.setPassReason(PassReason.CAPTCHA_TIMEOUT);
             return true;
@@ -2,6 +2,9 @@ package com.perimeterx.internals;
 
 import com.perimeterx.internals.cookie.AbstractPXCookie;
 import com.perimeterx.internals.cookie.PXCookieFactory;
+import com.perimeterx.metrics.EnforcerEvents;
+import com.perimeterx.metrics.EnforcerMetrics;
+import com.perimeterx.metrics.Stage;
 import com.perimeterx.models.PXContext;
 import com.perimeterx.models.configuration.PXConfiguration;
 import com.perimeterx.models.exceptions.PXCookieDecryptionException;
@@ -21,6 +24,19 @@ public class PXCookieValidator {
 
     private static final PXLogger logger = PXLogger.getLogger(PXCookieValidator.class);
 
+    private final EnforcerMetrics metrics;
+
+    public PXCookieValidator() {
+        this(new EnforcerMetrics());
+    }
+
+    /**
+     * @param metrics - recorder of the cookie decryption and HMAC validation times
+     */
+    public PXCookieValidator(EnforcerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
     public static PXCookieValidator getDecoder(String cookieKey) throws PXException {
         try {
             PXCookieValidator cookieValidator = new PXCookieValidator();
@@ -76,7 +92,20 @@ public class PXCookieValidator {
 
             // In case pxCookie will be modified from the outside extracting the cookie on the constructor
             // will fail, we test for null for the cookie before, if its null then we want to set pxCookieOrig
-            if (pxCookie.getPxCookie() == null || !pxCookie.deserialize()) {
+            if (pxCookie.getPxCookie() == null) {
+                context.setS2sCallReason(S2SCallReason.INVALID_DECRYPTION);
+                return false;
+            }
+            Object decryptEvent = EnforcerEvents.beginStage(Stage.COOKIE_DECRYPT);
+            long decryptStart = System.nanoTime();
+            boolean deserialized = false;
+            try {
+                deserialized = pxCookie.deserialize();
+            } finally {
+                metrics.recordStage(Stage.COOKIE_DECRYPT, System.nanoTime() - decryptStart);
+                EnforcerEvents.endStage(decryptEvent, null, deserialized ? "valid" : "invalid");
+            }
+            if (!deserialized) {
                 context.setS2sCallReason(S2SCallReason.INVALID_DECRYPTION);
                 return false;
             }
@@ -99,7 +128,18 @@ public class PXCookieValidator {
                 return true;
             }
 
-            if (!pxCookie.isSecured()) {
+            // The HMAC key is derived once per configuration snapshot and built per request without one
+            metrics.recordHmacKey(pxConfiguration.getCookieHmacKey() != null);
+            Object hmacEvent = EnforcerEvents.beginStage(Stage.COOKIE_HMAC);
+            long hmacStart = System.nanoTime();
+            boolean secured = false;
+            try {
+                secured = pxCookie.isSecured();
+            } finally {
+                metrics.recordStage(Stage.COOKIE_HMAC, System.nanoTime() - hmacStart);
+                EnforcerEvents.endStage(hmacEvent, null, secured ? "valid" : "invalid");
+            }
+            if (!secured) {
                 context.setS2sCallReason(S2SCallReason.INVALID_VERIFICATION);
                 return false;
             }
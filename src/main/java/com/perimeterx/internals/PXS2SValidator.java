@@ -14,6 +14,8 @@ import com.perimeterx.utils.Constants;
 import com.perimeterx.utils.PXLogger;
 import org.apache.http.conn.ConnectTimeoutException;
 
+import java.net.SocketTimeoutException;
+
 /**
  * High level Abstracted interface for calling PerimeterX servers
  * <p>
@@ -24,11 +26,20 @@ public class PXS2SValidator {
     private static final PXLogger logger = PXLogger.getLogger(PXS2SValidator.class);
 
     private PXClient pxClient;
-    private PXConfiguration pxConfiguration;
 
-    public PXS2SValidator(PXClient pxClient, PXConfiguration pxConfiguration) {
+    /**
+     * @param pxClient - client for the risk api, the configuration is read from the context of each request
+     */
+    public PXS2SValidator(PXClient pxClient) {
         this.pxClient = pxClient;
-        this.pxConfiguration = pxConfiguration;
+    }
+
+    /**
+     * @deprecated the configuration is read from the context of each request, use {@link #PXS2SValidator(PXClient)}
+     */
+    @Deprecated
+    public PXS2SValidator(PXClient pxClient, PXConfiguration pxConfiguration) {
+        this(pxClient);
     }
 
     /**
@@ -45,7 +56,8 @@ public class PXS2SValidator {
         long rtt;
 
         try {
-            // Extract Custom Params only if we do risk  api
+            // Extract Custom Params only if we do risk  api, from the configuration snapshot the request is verified with
+            PXConfiguration pxConfiguration = pxContext.getPxConfiguration();
             CustomParametersProvider customParametersProvider = pxConfiguration.getCustomParametersProvider();
             CustomParameters customParameters = customParametersProvider.buildCustomParameters(pxConfiguration, pxContext);
             pxContext.setCustomParameters(customParameters);
@@ -78,7 +90,7 @@ public class PXS2SValidator {
             }
             logger.debug(PXLogger.LogReason.DEBUG_S2S_ENFORCING_ACTION, pxContext.getBlockReason());
             return false;
-        } catch (ConnectTimeoutException e) {
+        } catch (ConnectTimeoutException | SocketTimeoutException e) {
             // Timeout handling - report pass reason and proceed with request
             pxContext.setPassReason(PassReason.S2S_TIMEOUT);
             return true;
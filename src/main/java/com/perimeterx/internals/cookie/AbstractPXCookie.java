@@ -140,7 +140,10 @@ public abstract class AbstractPXCookie implements PXCookie {
 
         try {
             Mac sha256_HMAC = Mac.getInstance("HmacSHA256");
-            SecretKeySpec secret_key = new SecretKeySpec(this.cookieKey.getBytes(), "HmacSHA256");
+            SecretKeySpec secret_key = this.pxConfiguration.getCookieHmacKey();
+            if (secret_key == null) {
+                secret_key = new SecretKeySpec(this.cookieKey.getBytes(), "HmacSHA256");
+            }
             sha256_HMAC.init(secret_key);
             byte[] b_hmac = sha256_HMAC.doFinal(hmacStr.getBytes(StandardCharsets.UTF_8));
             byte[] b_cookieHmac = hexStringToByteArray(cookieHmac);
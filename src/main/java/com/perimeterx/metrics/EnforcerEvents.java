@@ -0,0 +1,60 @@
+package com.perimeterx.metrics;
+
+import com.perimeterx.models.PXContext;
+
+/**
+ * Java Flight Recorder events of the enforcer pipeline.
+ * <p>
+ * This class does nothing, every method is empty so calls cost nothing once inlined. On Java 11 and later the
+ * multi-release jar provides a version of this class in {@code META-INF/versions/11} recording the verifications,
+ * their stages and the activity pipeline as {@code com.perimeterx.*} events while a recording is enabled for them.
+ * <p>
+ * A begin method returns the event to pass to the matching end method, or null when the event is not recorded.
+ */
+public class EnforcerEvents {
+
+    private EnforcerEvents() {
+    }
+
+    public static Object beginVerify() {
+        return null;
+    }
+
+    /**
+     * @param context - context of the verified request, null if it could not be created
+     */
+    public static void endVerify(Object event, PXContext context) {
+    }
+
+    public static Object beginStage(Stage stage) {
+        return null;
+    }
+
+    /**
+     * @param reason - reason related to the stage, such as the risk API call reason, null if there is none
+     * @param result - result of the stage, such as the risk API call outcome, null if there is none
+     */
+    public static void endStage(Object event, String reason, String result) {
+    }
+
+    public static Object beginActivityEnqueue() {
+        return null;
+    }
+
+    /**
+     * @param accepted - false if the activity was dropped
+     */
+    public static void endActivityEnqueue(Object event, String activityType, boolean accepted) {
+    }
+
+    public static Object beginActivityFlush() {
+        return null;
+    }
+
+    /**
+     * @param activities - activities in the flushed batch
+     * @param sent       - false if sending the batch failed
+     */
+    public static void endActivityFlush(Object event, int activities, boolean sent) {
+    }
+}
@@ -0,0 +1,103 @@
+package com.perimeterx.metrics;
+
+import com.perimeterx.api.activities.ActivitiesCounters;
+import com.perimeterx.api.activities.ActivityHandler;
+import com.perimeterx.api.activities.BufferedActivityHandler;
+import com.perimeterx.api.activities.SidecarActivityHandler;
+import com.perimeterx.http.PXHttpClient;
+import com.perimeterx.http.PXHttpTransport;
+import com.perimeterx.models.configuration.PXConfigurationStore;
+import org.apache.http.pool.PoolStats;
+
+/**
+ * Reads the current usage of the connection pools, the risk API bulkhead and the activity pipeline of an enforcer.
+ * Values are read when asked for, nothing is recorded on the request threads.
+ */
+public class EnforcerGauges {
+
+    private final PXConfigurationStore configurationStore;
+    private final PXHttpClient client;
+    private final PXHttpTransport transport;
+    private volatile ActivityHandler activityHandler;
+
+    /**
+     * @param transport       - transport whose pools are read, null if they are not read
+     * @param activityHandler - handler whose pipeline is read, handlers other than the buffered and sidecar
+     *                        handlers are not read
+     */
+    public EnforcerGauges(PXConfigurationStore configurationStore, PXHttpClient client, PXHttpTransport transport,
+                          ActivityHandler activityHandler) {
+        this.configurationStore = configurationStore;
+        this.client = client;
+        this.transport = transport;
+        this.activityHandler = activityHandler;
+    }
+
+    /**
+     * @param activityHandler - handler whose pipeline is read from now on
+     */
+    public void setActivityHandler(ActivityHandler activityHandler) {
+        this.activityHandler = activityHandler;
+    }
+
+    /**
+     * @return transport whose pools are read, null if they are not read
+     */
+    public PXHttpTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * @return blocking connection pool usage, null if the transport is not read
+     */
+    public PoolStats getPoolStats() {
+        return transport == null ? null : transport.getPoolStats();
+    }
+
+    /**
+     * @return async connection pool usage, null if the transport is not read
+     */
+    public PoolStats getAsyncPoolStats() {
+        return transport == null ? null : transport.getAsyncPoolStats();
+    }
+
+    /**
+     * @return risk API calls the bulkhead admits at the same time
+     */
+    public int getBulkheadMax() {
+        return configurationStore.get().getMaxConnectionsPerRoute();
+    }
+
+    /**
+     * @return risk API calls in flight
+     */
+    public int getBulkheadInUse() {
+        return Math.max(0, getBulkheadMax() - client.getBulkheadAvailable());
+    }
+
+    /**
+     * @return activity counts of the pipeline, null if the activity handler is not read
+     */
+    public ActivitiesCounters getActivitiesCounters() {
+        if (activityHandler instanceof BufferedActivityHandler) {
+            return ((BufferedActivityHandler) activityHandler).getCounters();
+        }
+        if (activityHandler instanceof SidecarActivityHandler) {
+            return ((SidecarActivityHandler) activityHandler).getCounters();
+        }
+        return null;
+    }
+
+    /**
+     * @return activities waiting to be sent, -1 if the activity handler is not read
+     */
+    public int getActivitiesBuffered() {
+        if (activityHandler instanceof BufferedActivityHandler) {
+            return ((BufferedActivityHandler) activityHandler).getBufferedActivitiesCount();
+        }
+        if (activityHandler instanceof SidecarActivityHandler) {
+            return ((SidecarActivityHandler) activityHandler).getBufferedActivitiesCount();
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,169 @@
+package com.perimeterx.metrics;
+
+import com.perimeterx.models.risk.BlockReason;
+import com.perimeterx.models.risk.PassReason;
+import com.perimeterx.models.risk.S2SCallReason;
+import com.perimeterx.utils.LatencyHistogram;
+import com.perimeterx.utils.PXLogger;
+import com.perimeterx.utils.StripedCounters;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Built-in {@link MetricsRecorder} keeping the time spent in every verification {@link Stage}, the risk API
+ * round trips and the verdicts of an enforcer.
+ * <p>
+ * Recording is lock free and allocation free so it can be done on every request. Latencies are kept in
+ * microseconds, counts are kept since the enforcer was created. Everything recorded is forwarded to the
+ * configured recorder as well, if there is one.
+ */
+public class EnforcerMetrics implements MetricsRecorder {
+
+    private static final PXLogger logger = PXLogger.getLogger(EnforcerMetrics.class);
+
+    private static final int HMAC_KEY_HIT = 0;
+    private static final int HMAC_KEY_MISS = 1;
+
+    private final LatencyHistogram[] stages = new LatencyHistogram[Stage.values().length];
+    private final LatencyHistogram[] s2sOutcomes = new LatencyHistogram[S2SOutcome.values().length];
+    private final StripedCounters passReasons = new StripedCounters(PassReason.values().length);
+    private final StripedCounters blockReasons = new StripedCounters(BlockReason.values().length);
+    private final StripedCounters s2sCallReasons = new StripedCounters(S2SCallReason.values().length);
+    private final StripedCounters hmacKey = new StripedCounters(2);
+    private final MetricsRecorder recorder;
+
+    public EnforcerMetrics() {
+        this(null);
+    }
+
+    /**
+     * @param recorder - recorder everything is forwarded to, null if there is none
+     */
+    public EnforcerMetrics(MetricsRecorder recorder) {
+        this.recorder = recorder;
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new LatencyHistogram();
+        }
+        for (int i = 0; i < s2sOutcomes.length; i++) {
+            s2sOutcomes[i] = new LatencyHistogram();
+        }
+    }
+
+    @Override
+    public void recordStage(Stage stage, long nanos) {
+        stages[stage.ordinal()].record(TimeUnit.NANOSECONDS.toMicros(nanos));
+        if (recorder != null) {
+            try {
+                recorder.recordStage(stage, nanos);
+            } catch (RuntimeException e) {
+                recorderFailed(e);
+            }
+        }
+    }
+
+    @Override
+    public void recordS2S(S2SOutcome outcome, long nanos) {
+        s2sOutcomes[outcome.ordinal()].record(TimeUnit.NANOSECONDS.toMicros(nanos));
+        if (recorder != null) {
+            try {
+                recorder.recordS2S(outcome, nanos);
+            } catch (RuntimeException e) {
+                recorderFailed(e);
+            }
+        }
+    }
+
+    @Override
+    public void recordS2SCall(S2SCallReason reason) {
+        s2sCallReasons.increment(reason.ordinal());
+        if (recorder != null) {
+            try {
+                recorder.recordS2SCall(reason);
+            } catch (RuntimeException e) {
+                recorderFailed(e);
+            }
+        }
+    }
+
+    @Override
+    public void recordPass(PassReason reason) {
+        passReasons.increment(reason.ordinal());
+        if (recorder != null) {
+            try {
+                recorder.recordPass(reason);
+            } catch (RuntimeException e) {
+                recorderFailed(e);
+            }
+        }
+    }
+
+    @Override
+    public void recordBlock(BlockReason reason) {
+        blockReasons.increment(reason.ordinal());
+        if (recorder != null) {
+            try {
+                recorder.recordBlock(reason);
+            } catch (RuntimeException e) {
+                recorderFailed(e);
+            }
+        }
+    }
+
+    @Override
+    public void recordHmacKey(boolean hit) {
+        hmacKey.increment(hit ? HMAC_KEY_HIT : HMAC_KEY_MISS);
+        if (recorder != null) {
+            try {
+                recorder.recordHmacKey(hit);
+            } catch (RuntimeException e) {
+                recorderFailed(e);
+            }
+        }
+    }
+
+    private void recorderFailed(RuntimeException e) {
+        // A broken recorder must not fail the request, debug level since it fails on every request
+        logger.debug("Metrics recorder {} failed, {}", recorder.getClass().getSimpleName(), e.getMessage());
+    }
+
+    /**
+     * @return microseconds spent in the stage
+     */
+    public LatencyHistogram getStage(Stage stage) {
+        return stages[stage.ordinal()];
+    }
+
+    /**
+     * @return microseconds of the risk API round trips with the outcome
+     */
+    public LatencyHistogram getS2S(S2SOutcome outcome) {
+        return s2sOutcomes[outcome.ordinal()];
+    }
+
+    public long getS2SCallCount(S2SCallReason reason) {
+        return s2sCallReasons.get(reason.ordinal());
+    }
+
+    public long getPassCount(PassReason reason) {
+        return passReasons.get(reason.ordinal());
+    }
+
+    public long getBlockCount(BlockReason reason) {
+        return blockReasons.get(reason.ordinal());
+    }
+
+    public long getHmacKeyHits() {
+        return hmacKey.get(HMAC_KEY_HIT);
+    }
+
+    public long getHmacKeyMisses() {
+        return hmacKey.get(HMAC_KEY_MISS);
+    }
+
+    /**
+     * @return the recorder everything is forwarded to, null if there is none
+     */
+    public MetricsRecorder getRecorder() {
+        return recorder;
+    }
+}
@@ -0,0 +1,218 @@
+package com.perimeterx.metrics;
+
+import com.perimeterx.api.activities.ActivitiesCounters;
+import com.perimeterx.http.PXHttpClient;
+import com.perimeterx.http.PXHttpTransport;
+import com.perimeterx.models.activities.EnforcerHealthActivityDetails;
+import com.perimeterx.models.activities.EnforcerTelemetry;
+import com.perimeterx.models.configuration.PXConfiguration;
+import com.perimeterx.models.configuration.PXConfigurationStore;
+import com.perimeterx.models.exceptions.PXException;
+import com.perimeterx.models.risk.BlockReason;
+import com.perimeterx.models.risk.PassReason;
+import com.perimeterx.utils.LatencyHistogram;
+import com.perimeterx.utils.PXLogger;
+import org.apache.http.pool.PoolStats;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends a health report of the enforcer with the enforcer telemetry every healthReportInterval.
+ * <p>
+ * A report holds the stage latency percentiles, verdicts, HMAC key cache hits and activity counts of the interval
+ * and the connection pools usage when it is sent, so PX support can tell the enforcer overhead apart from
+ * the application latency.
+ * <p>
+ * Enforcers usually share the JVM wide transport, its connection pools are reported by one reporter of the
+ * transport at a time so they are not counted once per application id.
+ */
+public class HealthReporter {
+
+    private static final PXLogger logger = PXLogger.getLogger(HealthReporter.class);
+
+    private final PXConfigurationStore configurationStore;
+    private final EnforcerMetrics metrics;
+    private final PXHttpClient client;
+    private final EnforcerGauges gauges;
+    private ScheduledThreadPoolExecutor scheduler;
+
+    // Values at the previous report, counts are reported for the interval since then
+    private final LatencyHistogram[] previousStages = new LatencyHistogram[Stage.values().length];
+    private final long[] previousPasses = new long[PassReason.values().length];
+    private final long[] previousBlocks = new long[BlockReason.values().length];
+    private long previousHmacKeyHits;
+    private long previousHmacKeyMisses;
+    private long[] previousActivities = new long[4];
+    private long previousReport = System.currentTimeMillis();
+
+    public HealthReporter(PXConfigurationStore configurationStore, EnforcerMetrics metrics, PXHttpClient client,
+                          EnforcerGauges gauges) {
+        this.configurationStore = configurationStore;
+        this.metrics = metrics;
+        this.client = client;
+        this.gauges = gauges;
+        for (Stage stage : Stage.values()) {
+            previousStages[stage.ordinal()] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Starts sending reports on a named daemon thread, does nothing when healthReportInterval is 0
+     */
+    public synchronized void schedule() {
+        long interval = configurationStore.get().getHealthReportInterval();
+        if (scheduler != null || interval <= 0) {
+            return;
+        }
+        scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "PerimeterX-health");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    send();
+                } catch (Throwable t) {
+                    logger.error("Failed sending the health report, {}", t.getMessage());
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops sending reports, another reporter of the transport reports its connection pools from now
+     */
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        PXHttpTransport transport = gauges.getTransport();
+        if (transport != null) {
+            transport.unclaimPoolReporting(this);
+        }
+    }
+
+    /**
+     * Sends the report of the interval since the previous report
+     */
+    public void send() throws PXException, IOException {
+        PXConfiguration pxConfiguration = configurationStore.get();
+        client.sendEnforcerTelemetry(new EnforcerTelemetry("enforcer_telemetry", pxConfiguration.getAppId(), report()));
+    }
+
+    /**
+     * @return the report of the interval since the previous report, the next report starts from now
+     */
+    public synchronized EnforcerHealthActivityDetails report() {
+        long now = System.currentTimeMillis();
+        Map<String, Map<String, Long>> stages = new LinkedHashMap<>();
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram current = metrics.getStage(stage).copy();
+            LatencyHistogram interval = current.since(previousStages[stage.ordinal()]);
+            previousStages[stage.ordinal()] = current;
+            Map<String, Long> latency = new LinkedHashMap<>();
+            latency.put("count", interval.getCount());
+            latency.put("p50_us", interval.getValueAtPercentile(50));
+            latency.put("p90_us", interval.getValueAtPercentile(90));
+            latency.put("p99_us", interval.getValueAtPercentile(99));
+            latency.put("max_us", interval.getMax());
+            stages.put(stage.getValue(), latency);
+        }
+
+        Map<String, Long> passes = new LinkedHashMap<>();
+        for (PassReason reason : PassReason.values()) {
+            long count = metrics.getPassCount(reason);
+            passes.put(reason.getValue() == null ? "none" : reason.getValue(), count - previousPasses[reason.ordinal()]);
+            previousPasses[reason.ordinal()] = count;
+        }
+        Map<String, Long> blocks = new LinkedHashMap<>();
+        for (BlockReason reason : BlockReason.values()) {
+            long count = metrics.getBlockCount(reason);
+            blocks.put(reason.getValue(), count - previousBlocks[reason.ordinal()]);
+            previousBlocks[reason.ordinal()] = count;
+        }
+
+        long hits = metrics.getHmacKeyHits();
+        long misses = metrics.getHmacKeyMisses();
+        Map<String, Map<String, Number>> caches = new LinkedHashMap<>();
+        caches.put("hmac_key", cacheStats(hits - previousHmacKeyHits, misses - previousHmacKeyMisses));
+        previousHmacKeyHits = hits;
+        previousHmacKeyMisses = misses;
+
+        Map<String, Map<String, Number>> pools = new LinkedHashMap<>();
+        if (reportsPools()) {
+            pools.put("blocking", poolStats(gauges.getPoolStats()));
+            pools.put("async", poolStats(gauges.getAsyncPoolStats()));
+        }
+        int bulkheadInUse = gauges.getBulkheadInUse();
+        int bulkheadMax = gauges.getBulkheadMax();
+        Map<String, Number> bulkhead = new LinkedHashMap<>();
+        bulkhead.put("in_use", bulkheadInUse);
+        bulkhead.put("max", bulkheadMax);
+        bulkhead.put("saturation", ratio(bulkheadInUse, bulkheadMax));
+        pools.put("bulkhead", bulkhead);
+
+        EnforcerHealthActivityDetails details = new EnforcerHealthActivityDetails(now - previousReport, stages, passes, blocks,
+                caches, pools, activities());
+        previousReport = now;
+        return details;
+    }
+
+    /**
+     * @return true if this reporter reports the connection pools of its transport, the first reporter
+     * asking for a transport reports them until it stops
+     */
+    private boolean reportsPools() {
+        PXHttpTransport transport = gauges.getTransport();
+        return transport != null && transport.claimPoolReporting(this);
+    }
+
+    private Map<String, Long> activities() {
+        Map<String, Long> activities = new LinkedHashMap<>();
+        ActivitiesCounters counters = gauges.getActivitiesCounters();
+        if (counters == null) {
+            return activities;
+        }
+        long[] current = {counters.getEnqueued(), counters.getSent(), counters.getDropped(), counters.getFailed()};
+        activities.put("enqueued", current[0] - previousActivities[0]);
+        activities.put("sent", current[1] - previousActivities[1]);
+        activities.put("dropped", current[2] - previousActivities[2]);
+        activities.put("failed", current[3] - previousActivities[3]);
+        activities.put("buffered", (long) gauges.getActivitiesBuffered());
+        previousActivities = current;
+        return activities;
+    }
+
+    private static Map<String, Number> cacheStats(long hits, long misses) {
+        Map<String, Number> stats = new LinkedHashMap<>();
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("hit_rate", ratio(hits, hits + misses));
+        return stats;
+    }
+
+    private static Map<String, Number> poolStats(PoolStats poolStats) {
+        Map<String, Number> stats = new LinkedHashMap<>();
+        stats.put("leased", poolStats.getLeased());
+        stats.put("available", poolStats.getAvailable());
+        stats.put("pending", poolStats.getPending());
+        stats.put("max", poolStats.getMax());
+        stats.put("saturation", ratio(poolStats.getLeased(), poolStats.getMax()));
+        return stats;
+    }
+
+    private static double ratio(long part, long total) {
+        return total <= 0 ? 0 : (double) part / total;
+    }
+}
@@ -0,0 +1,38 @@
+package com.perimeterx.metrics;
+
+import com.perimeterx.models.risk.BlockReason;
+import com.perimeterx.models.risk.PassReason;
+import com.perimeterx.models.risk.S2SCallReason;
+
+/**
+ * Receives the timings and verdicts of the requests verified by an enforcer, set with
+ * {@link com.perimeterx.models.configuration.PXConfiguration.Builder#metricsRecorder(MetricsRecorder)} to forward
+ * them to a metrics library in addition to the built-in {@link EnforcerMetrics}.
+ * <p>
+ * Methods are called on the request threads, implementations must be thread safe and should not block.
+ * Connection pool and activity queue usage are read with {@link EnforcerGauges}.
+ */
+public interface MetricsRecorder {
+
+    /**
+     * @param nanos - time spent in the stage in nanoseconds
+     */
+    void recordStage(Stage stage, long nanos);
+
+    /**
+     * @param nanos - round trip time of the risk API call in nanoseconds
+     */
+    void recordS2S(S2SOutcome outcome, long nanos);
+
+    void recordS2SCall(S2SCallReason reason);
+
+    void recordPass(PassReason reason);
+
+    void recordBlock(BlockReason reason);
+
+    /**
+     * @param hit - true if the HMAC key derived with the configuration snapshot was used, false if it was built
+     *            for the request
+     */
+    void recordHmacKey(boolean hit);
+}
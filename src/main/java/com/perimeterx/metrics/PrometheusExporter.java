@@ -0,0 +1,218 @@
+package com.perimeterx.metrics;
+
+import com.perimeterx.api.PerimeterX;
+import com.perimeterx.api.activities.ActivitiesCounters;
+import com.perimeterx.http.PXHttpTransport;
+import com.perimeterx.models.risk.BlockReason;
+import com.perimeterx.models.risk.PassReason;
+import com.perimeterx.models.risk.S2SCallReason;
+import com.perimeterx.utils.LatencyHistogram;
+import org.apache.http.pool.PoolStats;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Writes the metrics of enforcers in the Prometheus text exposition format, to be served by the application
+ * on its metrics endpoint with the {@link #CONTENT_TYPE} content type:
+ * <pre>
+ * response.setContentType(PrometheusExporter.CONTENT_TYPE);
+ * exporter.write(response.getWriter());
+ * </pre>
+ * Every sample is labeled with the enforcer application id, except the HTTP connection pools which are
+ * reported once per transport since enforcers may share one. Latencies are summaries in seconds with the
+ * 0.5, 0.9 and 0.99 quantiles since the enforcer was created.
+ */
+public class PrometheusExporter {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+    private static final double MICROS_PER_SECOND = 1000000.0;
+
+    private final List<PerimeterX> enforcers;
+
+    public PrometheusExporter(PerimeterX... enforcers) {
+        this.enforcers = Arrays.asList(enforcers);
+    }
+
+    public String scrape() {
+        StringWriter writer = new StringWriter();
+        try {
+            write(writer);
+        } catch (IOException e) {
+            // A string writer does not throw
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
+    }
+
+    public void write(Writer writer) throws IOException {
+        StringBuilder out = new StringBuilder(8192);
+
+        family(out, "perimeterx_stage_duration_seconds", "summary", "Time spent in the request verification stages");
+        for (PerimeterX enforcer : enforcers) {
+            for (Stage stage : Stage.values()) {
+                summary(out, "perimeterx_stage_duration_seconds", appId(enforcer), "stage", stage.getValue(),
+                        enforcer.getMetrics().getStage(stage));
+            }
+        }
+        family(out, "perimeterx_s2s_duration_seconds", "summary", "Round trip time of the risk API calls by outcome");
+        for (PerimeterX enforcer : enforcers) {
+            for (S2SOutcome outcome : S2SOutcome.values()) {
+                summary(out, "perimeterx_s2s_duration_seconds", appId(enforcer), "outcome", outcome.getValue(),
+                        enforcer.getMetrics().getS2S(outcome));
+            }
+        }
+
+        family(out, "perimeterx_pass_total", "counter", "Requests passed by pass reason");
+        for (PerimeterX enforcer : enforcers) {
+            for (PassReason reason : PassReason.values()) {
+                sample(out, "perimeterx_pass_total", appId(enforcer), "reason",
+                        reason.getValue() == null ? "none" : reason.getValue(), enforcer.getMetrics().getPassCount(reason));
+            }
+        }
+        family(out, "perimeterx_block_total", "counter", "Requests blocked by block reason");
+        for (PerimeterX enforcer : enforcers) {
+            for (BlockReason reason : BlockReason.values()) {
+                sample(out, "perimeterx_block_total", appId(enforcer), "reason", reason.getValue(),
+                        enforcer.getMetrics().getBlockCount(reason));
+            }
+        }
+        family(out, "perimeterx_s2s_call_total", "counter", "Risk API calls by call reason");
+        for (PerimeterX enforcer : enforcers) {
+            for (S2SCallReason reason : S2SCallReason.values()) {
+                sample(out, "perimeterx_s2s_call_total", appId(enforcer), "reason", reason.getValue(),
+                        enforcer.getMetrics().getS2SCallCount(reason));
+            }
+        }
+        family(out, "perimeterx_hmac_key_total", "counter", "Cookie validations by HMAC key source, hit if derived once per configuration");
+        for (PerimeterX enforcer : enforcers) {
+            sample(out, "perimeterx_hmac_key_total", appId(enforcer), "result", "hit", enforcer.getMetrics().getHmacKeyHits());
+            sample(out, "perimeterx_hmac_key_total", appId(enforcer), "result", "miss", enforcer.getMetrics().getHmacKeyMisses());
+        }
+
+        // Gauges are read once the enforcer initialized
+        family(out, "perimeterx_activities_total", "counter", "Activities by pipeline event");
+        for (PerimeterX enforcer : enforcers) {
+            ActivitiesCounters counters = enforcer.getGauges() == null ? null : enforcer.getGauges().getActivitiesCounters();
+            if (counters != null) {
+                sample(out, "perimeterx_activities_total", appId(enforcer), "event", "enqueued", counters.getEnqueued());
+                sample(out, "perimeterx_activities_total", appId(enforcer), "event", "sent", counters.getSent());
+                sample(out, "perimeterx_activities_total", appId(enforcer), "event", "dropped", counters.getDropped());
+                sample(out, "perimeterx_activities_total", appId(enforcer), "event", "failed", counters.getFailed());
+            }
+        }
+        family(out, "perimeterx_activities_buffered", "gauge", "Activities waiting to be sent");
+        for (PerimeterX enforcer : enforcers) {
+            if (enforcer.getGauges() != null && enforcer.getGauges().getActivitiesBuffered() >= 0) {
+                sample(out, "perimeterx_activities_buffered", appId(enforcer), null, null, enforcer.getGauges().getActivitiesBuffered());
+            }
+        }
+        family(out, "perimeterx_http_pool_connections", "gauge", "Connections of the HTTP connection pools by state");
+        Set<PXHttpTransport> transports = Collections.newSetFromMap(new IdentityHashMap<PXHttpTransport, Boolean>());
+        for (PerimeterX enforcer : enforcers) {
+            if (enforcer.getGauges() != null && enforcer.getGauges().getTransport() != null
+                    && transports.add(enforcer.getGauges().getTransport())) {
+                pool(out, "blocking", enforcer.getGauges().getPoolStats());
+                pool(out, "async", enforcer.getGauges().getAsyncPoolStats());
+            }
+        }
+        family(out, "perimeterx_bulkhead_in_use", "gauge", "Risk API calls in flight");
+        for (PerimeterX enforcer : enforcers) {
+            if (enforcer.getGauges() != null) {
+                sample(out, "perimeterx_bulkhead_in_use", appId(enforcer), null, null, enforcer.getGauges().getBulkheadInUse());
+            }
+        }
+        family(out, "perimeterx_bulkhead_max", "gauge", "Risk API calls admitted at the same time");
+        for (PerimeterX enforcer : enforcers) {
+            if (enforcer.getGauges() != null) {
+                sample(out, "perimeterx_bulkhead_max", appId(enforcer), null, null, enforcer.getGauges().getBulkheadMax());
+            }
+        }
+        writer.write(out.toString());
+        writer.flush();
+    }
+
+    private static String appId(PerimeterX enforcer) {
+        return enforcer.getConfigurationStore().get().getAppId();
+    }
+
+    private static void family(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void summary(StringBuilder out, String name, String appId, String label, String value, LatencyHistogram histogram) {
+        // Copied so the quantiles, sum and count are consistent with each other
+        LatencyHistogram snapshot = histogram.copy();
+        for (double quantile : QUANTILES) {
+            labels(out.append(name), appId, label, value).append(",quantile=\"").append(quantile).append("\"} ")
+                    .append(snapshot.getValueAtPercentile(quantile * 100) / MICROS_PER_SECOND).append('\n');
+        }
+        labels(out.append(name).append("_sum"), appId, label, value).append("} ")
+                .append(snapshot.getSum() / MICROS_PER_SECOND).append('\n');
+        labels(out.append(name).append("_count"), appId, label, value).append("} ")
+                .append(snapshot.getCount()).append('\n');
+    }
+
+    private static void pool(StringBuilder out, String pool, PoolStats stats) {
+        if (stats == null) {
+            return;
+        }
+        String name = "perimeterx_http_pool_connections";
+        labels(out.append(name), null, "pool", pool).append(",state=\"leased\"} ").append(stats.getLeased()).append('\n');
+        labels(out.append(name), null, "pool", pool).append(",state=\"available\"} ").append(stats.getAvailable()).append('\n');
+        labels(out.append(name), null, "pool", pool).append(",state=\"pending\"} ").append(stats.getPending()).append('\n');
+        labels(out.append(name), null, "pool", pool).append(",state=\"max\"} ").append(stats.getMax()).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String appId, String label, String value, long sample) {
+        labels(out.append(name), appId, label, value).append("} ").append(sample).append('\n');
+    }
+
+    /**
+     * Appends the opening brace and the labels, without the closing brace
+     *
+     * @param appId - application id label, null for samples not labeled by enforcer
+     */
+    private static StringBuilder labels(StringBuilder out, String appId, String label, String value) {
+        out.append('{');
+        if (appId != null) {
+            out.append("app_id=\"");
+            escape(out, appId);
+            out.append('"');
+        }
+        if (label != null) {
+            if (appId != null) {
+                out.append(',');
+            }
+            out.append(label).append("=\"");
+            escape(out, value);
+            out.append('"');
+        }
+        return out;
+    }
+
+    private static void escape(StringBuilder out, String value) {
+        if (value == null) {
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                out.append('\\').append(c);
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else {
+                out.append(c);
+            }
+        }
+    }
+}
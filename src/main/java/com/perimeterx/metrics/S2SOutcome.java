@@ -0,0 +1,42 @@
+package com.perimeterx.metrics;
+
+import com.perimeterx.models.PXContext;
+import com.perimeterx.models.risk.BlockReason;
+import com.perimeterx.models.risk.PassReason;
+
+/**
+ * Outcomes of a risk API call, the call round trip time is recorded per outcome
+ */
+public enum S2SOutcome {
+
+    PASS("pass"),
+    BLOCK("block"),
+    TIMEOUT("timeout"),
+    ERROR("error");
+
+    private final String value;
+
+    S2SOutcome(String value) {
+        this.value = value;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * @return the outcome of the risk API call made for the context
+     */
+    public static S2SOutcome of(PXContext context) {
+        if (context.getPassReason() == PassReason.S2S) {
+            return PASS;
+        }
+        if (context.getPassReason() == PassReason.S2S_TIMEOUT) {
+            return TIMEOUT;
+        }
+        if (context.getBlockReason() == BlockReason.SERVER || context.getBlockReason() == BlockReason.CHALLENGE) {
+            return BLOCK;
+        }
+        return ERROR;
+    }
+}
@@ -0,0 +1,57 @@
+package com.perimeterx.metrics;
+
+/**
+ * Stages of a request verification timed by {@link EnforcerMetrics}
+ */
+public enum Stage {
+
+    /**
+     * The whole verification of a request
+     */
+    VERIFY("verify"),
+
+    /**
+     * Building the request context from the request
+     */
+    CONTEXT("context"),
+
+    /**
+     * Checking and serving first party requests
+     */
+    FIRST_PARTY("first_party"),
+
+    /**
+     * Validating the captcha cookie
+     */
+    CAPTCHA("captcha"),
+
+    /**
+     * Decrypting and parsing the risk cookie
+     */
+    COOKIE_DECRYPT("cookie_decrypt"),
+
+    /**
+     * Validating the risk cookie HMAC
+     */
+    COOKIE_HMAC("cookie_hmac"),
+
+    /**
+     * Calling the risk API
+     */
+    S2S("s2s"),
+
+    /**
+     * Rendering the block page
+     */
+    BLOCK_RENDER("block_render");
+
+    private final String value;
+
+    Stage(String value) {
+        this.value = value;
+    }
+
+    public String getValue() {
+        return value;
+    }
+}
@@ -109,6 +109,11 @@ public class PXContext {
      */
     private long riskRtt;
 
+    /**
+     * Number of requests the page_requested activity of this request stands for when page activities are sampled
+     */
+    private double samplingWeight = 1;
+
     /**
      * Request verification status - if {@link com.perimeterx.models.PXContext#verified} is true, the request is safe to pass to server.
      */
@@ -415,6 +420,14 @@ public class PXContext {
         this.riskRtt = riskRtt;
     }
 
+    public double getSamplingWeight() {
+        return samplingWeight;
+    }
+
+    public void setSamplingWeight(double samplingWeight) {
+        this.samplingWeight = samplingWeight;
+    }
+
     /**
      * Check if request is verified or not
      * @deprecated - Use {@link PXContext#isHandledResponse}
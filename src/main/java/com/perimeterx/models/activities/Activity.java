@@ -2,6 +2,7 @@ package com.perimeterx.models.activities;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.perimeterx.models.PXContext;
+import com.perimeterx.utils.PXCommonUtils;
 
 import java.util.Map;
 
@@ -25,7 +26,7 @@ public class Activity {
 
     public Activity(String activityType, String appId, PXContext context, ActivityDetails details) {
         this.type = activityType;
-        this.headers = context.getHeaders();
+        this.headers = PXCommonUtils.filterSensitiveHeaders(context.getHeaders(), context.getPxConfiguration().getSensitiveHeaders());
         this.timestamp = System.currentTimeMillis();
         this.socketIp = context.getIp();
         this.pxAppId = appId;
@@ -34,6 +35,21 @@ public class Activity {
         this.details = details;
     }
 
+    /**
+     * Activity decoded from its JSON, see {@link ActivityBatch#toActivities()}
+     */
+    Activity(String type, Map<String, String> headers, long timestamp, String socketIp, String url, String pxAppId,
+             String vid, ActivityDetails details) {
+        this.type = type;
+        this.headers = headers;
+        this.timestamp = timestamp;
+        this.socketIp = socketIp;
+        this.url = url;
+        this.pxAppId = pxAppId;
+        this.vid = vid;
+        this.details = details;
+    }
+
     public String getType() {
         return type;
     }
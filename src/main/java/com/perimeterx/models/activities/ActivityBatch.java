@@ -0,0 +1,131 @@
+package com.perimeterx.models.activities;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.perimeterx.utils.JsonUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Batch of JSON encoded activities, written as a JSON array when sent to the collector
+ */
+public class ActivityBatch {
+
+    /**
+     * Notified once the collector answered or the batch could not be delivered
+     */
+    public interface Callback {
+        void sent(ActivityBatch batch);
+
+        void failed(ActivityBatch batch, Exception e);
+    }
+
+    private final List<byte[]> activities = new ArrayList<>();
+    private int bytes;
+    private long oldestTimestamp = Long.MAX_VALUE;
+    private Callback callback;
+
+    /**
+     * @param activity  - activity encoded as a JSON object
+     * @param timestamp - time the activity was created
+     */
+    public void add(byte[] activity, long timestamp) {
+        activities.add(activity);
+        bytes += activity.length;
+        oldestTimestamp = Math.min(oldestTimestamp, timestamp);
+    }
+
+    public void add(ActivitySnapshot activity) {
+        add(activity.getEncoded(), activity.getTimestamp());
+    }
+
+    public int size() {
+        return activities.size();
+    }
+
+    public boolean isEmpty() {
+        return activities.isEmpty();
+    }
+
+    /**
+     * @return size of the encoded activities, excluding the array delimiters
+     */
+    public int getBytes() {
+        return bytes;
+    }
+
+    public long getOldestTimestamp() {
+        return oldestTimestamp;
+    }
+
+    public List<byte[]> getActivities() {
+        return activities;
+    }
+
+    /**
+     * Decodes the activities for clients sending {@link Activity} objects, the details are kept as
+     * {@link EncodedActivityDetails} so every activity is written back to the same JSON
+     *
+     * @return the activities the batch was encoded from
+     * @throws IOException when an activity cannot be decoded
+     */
+    public List<Activity> toActivities() throws IOException {
+        List<Activity> decoded = new ArrayList<>(activities.size());
+        for (byte[] activity : activities) {
+            JsonNode node = JsonUtils.treeReader.readValue(activity);
+            Map<String, String> headers = null;
+            if (node.hasNonNull("headers")) {
+                headers = new HashMap<>();
+                Iterator<Map.Entry<String, JsonNode>> fields = node.get("headers").fields();
+                while (fields.hasNext()) {
+                    Map.Entry<String, JsonNode> header = fields.next();
+                    headers.put(header.getKey(), header.getValue().asText());
+                }
+            }
+            JsonNode details = node.get("details");
+            decoded.add(new Activity(text(node, "type"), headers, node.path("timestamp").asLong(), text(node, "socket_ip"),
+                    text(node, "url"), text(node, "px_app_id"), text(node, "vid"),
+                    details == null || details.isNull() ? null : new EncodedActivityDetails(details)));
+        }
+        return decoded;
+    }
+
+    private static String text(JsonNode node, String field) {
+        return node.hasNonNull(field) ? node.get(field).asText() : null;
+    }
+
+    public Callback getCallback() {
+        return callback;
+    }
+
+    public void setCallback(Callback callback) {
+        this.callback = callback;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write('[');
+        for (int i = 0; i < activities.size(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            out.write(activities.get(i));
+        }
+        out.write(']');
+    }
+
+    public byte[] toByteArray() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes + activities.size() + 2);
+        try {
+            writeTo(out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,79 @@
+package com.perimeterx.models.activities;
+
+import com.perimeterx.utils.JsonUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Immutable, already encoded activity kept while the activity waits to be sent.
+ * <p>
+ * Holds only the JSON bytes and the fields the pipeline needs for batching and dropping decisions,
+ * so a buffered activity does not retain the request headers or the context it was created from.
+ */
+public final class ActivitySnapshot {
+
+    private final String type;
+    private final long timestamp;
+    private final byte[] encoded;
+
+    private ActivitySnapshot(String type, long timestamp, byte[] encoded) {
+        this.type = type;
+        this.timestamp = timestamp;
+        this.encoded = encoded;
+    }
+
+    /**
+     * Encodes the activity, Jackson writes into its recycled per thread buffers and returns an exact size copy
+     *
+     * @param activity - activity to encode, sensitive headers should already be filtered
+     * @return the encoded activity
+     * @throws IOException when the activity cannot be encoded
+     */
+    public static ActivitySnapshot of(Activity activity) throws IOException {
+        return new ActivitySnapshot(activity.getType(), activity.getTimestamp(), JsonUtils.writer.writeValueAsBytes(activity));
+    }
+
+    /**
+     * Writes the snapshot as a record read back by {@link #readFrom(DataInput)}
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeUTF(type);
+        out.writeLong(timestamp);
+        out.writeInt(encoded.length);
+        out.write(encoded);
+    }
+
+    /**
+     * @param in        - input positioned at a record written by {@link #writeTo(DataOutput)}
+     * @param maxLength - maximum length of the encoded activity
+     * @throws IOException when the record cannot be read or is longer than maxLength
+     */
+    public static ActivitySnapshot readFrom(DataInput in, int maxLength) throws IOException {
+        String type = in.readUTF();
+        long timestamp = in.readLong();
+        int length = in.readInt();
+        if (length < 0 || length > maxLength) {
+            throw new IOException("Invalid activity record length " + length);
+        }
+        byte[] encoded = new byte[length];
+        in.readFully(encoded);
+        return new ActivitySnapshot(type, timestamp, encoded);
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the activity encoded as a JSON object, must not be modified
+     */
+    public byte[] getEncoded() {
+        return encoded;
+    }
+}
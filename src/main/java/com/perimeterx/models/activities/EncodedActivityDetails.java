@@ -0,0 +1,24 @@
+package com.perimeterx.models.activities;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Details of an activity decoded from its JSON, written back as they were encoded
+ */
+public final class EncodedActivityDetails implements ActivityDetails {
+
+    private final JsonNode details;
+
+    EncodedActivityDetails(JsonNode details) {
+        this.details = details;
+    }
+
+    /**
+     * @return the details as encoded, must not be modified
+     */
+    @JsonValue
+    public JsonNode getDetails() {
+        return details;
+    }
+}
@@ -0,0 +1,77 @@
+package com.perimeterx.models.activities;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.perimeterx.utils.Constants;
+
+import java.util.Map;
+
+/**
+ * Health report of an enforcer for one report interval, sent with the enforcer telemetry.
+ * <p>
+ * Stage latencies are in microseconds, counts are the ones of the interval.
+ */
+public class EnforcerHealthActivityDetails implements ActivityDetails {
+
+    @JsonProperty("module_version")
+    private final String moduleVersion = Constants.SDK_VERSION;
+    @JsonProperty("os_name")
+    private final String osName = EnforcerTelemetryActivityDetails.Node.OS_NAME;
+    @JsonProperty("node_name")
+    private final String nodeName = EnforcerTelemetryActivityDetails.Node.NAME;
+    @JsonProperty("update_reason")
+    private final UpdateReason updateReason = UpdateReason.HEALTH_REPORT;
+    @JsonProperty("interval_ms")
+    private final long intervalMs;
+    @JsonProperty("stages")
+    private final Map<String, Map<String, Long>> stages;
+    @JsonProperty("pass_reasons")
+    private final Map<String, Long> passReasons;
+    @JsonProperty("block_reasons")
+    private final Map<String, Long> blockReasons;
+    @JsonProperty("caches")
+    private final Map<String, Map<String, Number>> caches;
+    @JsonProperty("pools")
+    private final Map<String, Map<String, Number>> pools;
+    @JsonProperty("activities")
+    private final Map<String, Long> activities;
+
+    public EnforcerHealthActivityDetails(long intervalMs, Map<String, Map<String, Long>> stages, Map<String, Long> passReasons,
+                                         Map<String, Long> blockReasons, Map<String, Map<String, Number>> caches,
+                                         Map<String, Map<String, Number>> pools, Map<String, Long> activities) {
+        this.intervalMs = intervalMs;
+        this.stages = stages;
+        this.passReasons = passReasons;
+        this.blockReasons = blockReasons;
+        this.caches = caches;
+        this.pools = pools;
+        this.activities = activities;
+    }
+
+    public long getIntervalMs() {
+        return intervalMs;
+    }
+
+    public Map<String, Map<String, Long>> getStages() {
+        return stages;
+    }
+
+    public Map<String, Long> getPassReasons() {
+        return passReasons;
+    }
+
+    public Map<String, Long> getBlockReasons() {
+        return blockReasons;
+    }
+
+    public Map<String, Map<String, Number>> getCaches() {
+        return caches;
+    }
+
+    public Map<String, Map<String, Number>> getPools() {
+        return pools;
+    }
+
+    public Map<String, Long> getActivities() {
+        return activities;
+    }
+}
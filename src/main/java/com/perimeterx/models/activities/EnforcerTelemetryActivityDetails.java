@@ -14,6 +14,10 @@ import java.net.UnknownHostException;
  */
 public class EnforcerTelemetryActivityDetails implements ActivityDetails {
 
+    // The configuration serialized for the last telemetry. Snapshots never change, the checksum and module state
+    // are compared for configurations still updated in place through the deprecated update methods
+    private static volatile SerializedConfiguration lastConfiguration;
+
     @JsonProperty("module_version")
     private String moduleVersion;
     @JsonProperty("enforcer_configs")
@@ -27,18 +31,23 @@ public class EnforcerTelemetryActivityDetails implements ActivityDetails {
 
     public EnforcerTelemetryActivityDetails(PXConfiguration pxConfiguration, UpdateReason updateReason) {
         this.moduleVersion = Constants.SDK_VERSION;
-        this.osName = System.getProperty("os.name");
+        this.osName = Node.OS_NAME;
         this.updateReason = updateReason;
-        try {
-            this.nodeName = InetAddress.getLocalHost().getHostName();
-        } catch (UnknownHostException e) {
-            this.nodeName = "unknown";
-        }
+        this.nodeName = Node.NAME;
+        this.enforcerConfigs = serialize(pxConfiguration);
+    }
 
+    private static String serialize(PXConfiguration pxConfiguration) {
+        SerializedConfiguration last = lastConfiguration;
+        if (last != null && last.matches(pxConfiguration)) {
+            return last.json;
+        }
         try {
-            this.enforcerConfigs = JsonUtils.writer.writeValueAsString(pxConfiguration.getTelemetryConfig());
+            String json = JsonUtils.writer.writeValueAsString(pxConfiguration.getTelemetryConfig());
+            lastConfiguration = new SerializedConfiguration(pxConfiguration, json);
+            return json;
         } catch (JsonProcessingException e) {
-            this.enforcerConfigs = "Could not retrieve pxConfiguration";
+            return "Could not retrieve pxConfiguration";
         }
     }
 
@@ -57,4 +66,41 @@ public class EnforcerTelemetryActivityDetails implements ActivityDetails {
     public String getNodeName() {
         return nodeName;
     }
+
+    /**
+     * Host details resolved once, on the first telemetry sent
+     */
+    static final class Node {
+
+        static final String OS_NAME = System.getProperty("os.name");
+        static final String NAME = hostName();
+
+        private static String hostName() {
+            try {
+                return InetAddress.getLocalHost().getHostName();
+            } catch (UnknownHostException e) {
+                return "unknown";
+            }
+        }
+    }
+
+    private static final class SerializedConfiguration {
+
+        private final PXConfiguration configuration;
+        private final String checksum;
+        private final boolean moduleEnabled;
+        private final String json;
+
+        SerializedConfiguration(PXConfiguration configuration, String json) {
+            this.configuration = configuration;
+            this.checksum = configuration.getChecksum();
+            this.moduleEnabled = configuration.isModuleEnabled();
+            this.json = json;
+        }
+
+        boolean matches(PXConfiguration pxConfiguration) {
+            return configuration == pxConfiguration && moduleEnabled == pxConfiguration.isModuleEnabled()
+                    && (checksum == null ? pxConfiguration.getChecksum() == null : checksum.equals(pxConfiguration.getChecksum()));
+        }
+    }
 }
@@ -28,6 +28,8 @@ public class PageRequestedActivityDetails implements ActivityDetails {
     private String clientUuid;
     @JsonProperty("cookie_origin")
     private String cookieOrigin;
+    @JsonProperty("sampling_weight")
+    private Double samplingWeight;
 
 
     public PageRequestedActivityDetails(PXContext context) {
@@ -39,6 +41,10 @@ public class PageRequestedActivityDetails implements ActivityDetails {
         this.moduleVersion = Constants.SDK_VERSION;
         this.clientUuid = context.getUuid();
         this.cookieOrigin = context.getCookieOrigin();
+        // Only sampled activities carry a weight
+        if (context.getSamplingWeight() != 1) {
+            this.samplingWeight = context.getSamplingWeight();
+        }
     }
 
     public String getHttpMethod() {
@@ -68,4 +74,8 @@ public class PageRequestedActivityDetails implements ActivityDetails {
     public String getClientUuid() {
         return clientUuid;
     }
+
+    public Double getSamplingWeight() {
+        return samplingWeight;
+    }
 }
@@ -0,0 +1,20 @@
+package com.perimeterx.models.configuration;
+
+/**
+ * Decides which activities are dropped when an activities queue is full, block and page_requested activities
+ * have queues of their own, each with its policy
+ */
+public enum ActivitiesOverflowPolicy {
+    /**
+     * Drop the incoming activity
+     */
+    DROP_NEWEST,
+    /**
+     * Drop the oldest queued activity to make room for the incoming one
+     */
+    DROP_OLDEST,
+    /**
+     * Sample incoming activities as the queue fills up, every activity is kept while the queue is at most half full
+     */
+    SAMPLE
+}
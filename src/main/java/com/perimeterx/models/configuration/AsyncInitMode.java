@@ -0,0 +1,17 @@
+package com.perimeterx.models.configuration;
+
+/**
+ * Handling of requests while an enforcer created with asyncInit initializes
+ */
+public enum AsyncInitMode {
+
+    /**
+     * Requests pass without verification, as if the module was disabled
+     */
+    PASS_THROUGH,
+
+    /**
+     * Requests are verified in monitor mode once the HTTP clients are set up, until then they pass
+     */
+    MONITOR
+}
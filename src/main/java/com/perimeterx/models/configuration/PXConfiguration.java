@@ -1,19 +1,31 @@
 package com.perimeterx.models.configuration;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.perimeterx.api.blockhandler.BlockHandler;
 import com.perimeterx.api.blockhandler.DefaultBlockHandler;
 import com.perimeterx.api.providers.CustomParametersProvider;
 import com.perimeterx.api.providers.DefaultCustomParametersProvider;
+import com.perimeterx.metrics.MetricsRecorder;
 import com.perimeterx.utils.Constants;
 import com.perimeterx.utils.PXLogger;
 
+import javax.crypto.spec.SecretKeySpec;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 
 /**
  * PX configuration object
  * <p>
+ * Instances are treated as immutable snapshots, remote configuration updates publish a new instance through
+ * {@link PXConfigurationStore} so a request reads all its settings from a single consistent snapshot.
+ * <p>
  * Created by shikloshi on 03/07/2016.
  */
 public class PXConfiguration {
@@ -21,12 +33,37 @@ public class PXConfiguration {
 
     private String appId;
     private String cookieKey;
+    // Derived from the other fields, transient fields are not compared by changedProperties
+    private transient SecretKeySpec cookieHmacKey;
     private String authToken;
     private boolean moduleEnabled;
     private boolean encryptionEnabled;
     private int blockingScore;
     private Set<String> sensitiveHeaders;
     private int maxBufferLen;
+    private int maxBufferAge;
+    private int maxBufferBytes;
+    private int activitiesCompressionMinBytes;
+    private int activitiesQueueCapacity;
+    private ActivitiesOverflowPolicy activitiesOverflowPolicy;
+    private int maxInFlightBatches;
+    private int blockActivitiesMaxBufferAge;
+    private int blockActivitiesQueueCapacity;
+    private ActivitiesOverflowPolicy blockActivitiesOverflowPolicy;
+    private int blockMaxInFlightBatches;
+    private String activitiesJournalDir;
+    private int activitiesJournalSegmentSize;
+    private int activitiesJournalMaxSegments;
+    private int activitiesJournalReplayRate;
+    private int activitiesSidecarPort;
+    private double pageRequestedSampleRate;
+    private Map<String, Double> pageRequestedRouteSampleRates;
+    private int asyncMaxRetries;
+    private int retryBackoffBase;
+    private int retryBackoffMax;
+    private double retryBudgetRatio;
+    private int activitiesSenderThreads;
+    private int maxAdaptiveBufferLen;
     private int apiTimeout;
     private int connectionTimeout;
     private boolean sendPageActivities;
@@ -42,11 +79,20 @@ public class PXConfiguration {
     private ModuleMode moduleMode;
     private int remoteConfigurationInterval;
     private int remoteConfigurationDelay;
+    private double remoteConfigurationJitter;
+    private int remoteConfigurationMaxBackoff;
+    private int remoteConfigurationLongPollTimeout;
+    private String remoteConfigurationCacheFile;
+    private boolean asyncInit;
+    private AsyncInitMode asyncInitMode;
+    private int healthReportInterval;
+    private boolean jmxEnabled;
     private int maxConnections;
     private int maxConnectionsPerRoute;
     private String remoteConfigurationUrl;
     private CaptchaProvider captchaProvider;
     private CustomParametersProvider customParametersProvider;
+    private MetricsRecorder metricsRecorder;
     private BlockHandler blockHandler;
     private String collectorUrl;
     private String clientHost;
@@ -62,6 +108,29 @@ public class PXConfiguration {
         blockingScore = builder.blockingScore;
         sensitiveHeaders = builder.sensitiveHeaders;
         maxBufferLen = builder.maxBufferLen;
+        maxBufferAge = builder.maxBufferAge;
+        maxBufferBytes = builder.maxBufferBytes;
+        activitiesCompressionMinBytes = builder.activitiesCompressionMinBytes;
+        activitiesQueueCapacity = builder.activitiesQueueCapacity;
+        activitiesOverflowPolicy = builder.activitiesOverflowPolicy;
+        maxInFlightBatches = builder.maxInFlightBatches;
+        blockActivitiesMaxBufferAge = builder.blockActivitiesMaxBufferAge;
+        blockActivitiesQueueCapacity = builder.blockActivitiesQueueCapacity;
+        blockActivitiesOverflowPolicy = builder.blockActivitiesOverflowPolicy;
+        blockMaxInFlightBatches = builder.blockMaxInFlightBatches;
+        activitiesJournalDir = builder.activitiesJournalDir;
+        activitiesJournalSegmentSize = builder.activitiesJournalSegmentSize;
+        activitiesJournalMaxSegments = builder.activitiesJournalMaxSegments;
+        activitiesJournalReplayRate = builder.activitiesJournalReplayRate;
+        activitiesSidecarPort = builder.activitiesSidecarPort;
+        pageRequestedSampleRate = builder.pageRequestedSampleRate;
+        pageRequestedRouteSampleRates = builder.pageRequestedRouteSampleRates;
+        asyncMaxRetries = builder.asyncMaxRetries;
+        retryBackoffBase = builder.retryBackoffBase;
+        retryBackoffMax = builder.retryBackoffMax;
+        retryBudgetRatio = builder.retryBudgetRatio;
+        activitiesSenderThreads = builder.activitiesSenderThreads;
+        maxAdaptiveBufferLen = builder.maxAdaptiveBufferLen;
         apiTimeout = builder.apiTimeout;
         connectionTimeout = builder.connectionTimeout;
         sendPageActivities = builder.sendPageActivities;
@@ -75,81 +144,169 @@ public class PXConfiguration {
         moduleMode = builder.moduleMode;
         remoteConfigurationInterval = builder.remoteConfigurationInterval;
         remoteConfigurationDelay = builder.remoteConfigurationDelay;
+        remoteConfigurationJitter = builder.remoteConfigurationJitter;
+        remoteConfigurationMaxBackoff = builder.remoteConfigurationMaxBackoff;
+        remoteConfigurationLongPollTimeout = builder.remoteConfigurationLongPollTimeout;
+        remoteConfigurationCacheFile = builder.remoteConfigurationCacheFile;
+        asyncInit = builder.asyncInit;
+        asyncInitMode = builder.asyncInitMode;
+        healthReportInterval = builder.healthReportInterval;
+        jmxEnabled = builder.jmxEnabled;
         maxConnections = builder.maxConnections;
         maxConnectionsPerRoute = builder.maxConnectionsPerRoute;
         remoteConfigurationUrl = builder.remoteConfigurationUrl;
         captchaProvider = builder.captchaProvider;
         ipHeaders = builder.ipHeaders;
         customParametersProvider = builder.customParametersProvider;
+        metricsRecorder = builder.metricsRecorder;
         blockHandler = builder.blockHandler;
         collectorUrl = builder.collectorUrl;
         firstPartyEnabled = builder.firstPartyEnabled;
         xhrFirstPartyEnabled = builder.xhrFirstPartyEnabled;
         clientHost = builder.clientHost;
+        cookieHmacKey = hmacKey(cookieKey);
 
     }
 
-    private PXConfiguration(String appId, String cookieKey, String authToken, boolean moduleEnabled, boolean encryptionEnabled,
-                            int blockingScore, Set<String> sensitiveHeaders, int maxBufferLen, int apiTimeout, int connectionTimeout,
-                            boolean sendPageActivities, boolean signedWithIP, String serverURL, String customLogo, String cssRef,
-                            String jsRef, Set<String> sensitiveRoutes, Set<String> ipHeaders, String checksum, boolean remoteConfigurationEnabled,
-                            ModuleMode moduleMode, int remoteConfigurationInterval, int remoteConfigurationDelay, int maxConnections, int maxConnectionsPerRoute,
-                            String remoteConfigurationUrl, CaptchaProvider captchaProvider, CustomParametersProvider customParametersProvider,
-                            BlockHandler blockHandler, String collectorUrl, boolean firstPartyEnabled, boolean xhrFirstPartyEnable,
-                            String clientHost) {
-        this.appId = appId;
-        this.cookieKey = cookieKey;
-        this.authToken = authToken;
-        this.moduleEnabled = moduleEnabled;
-        this.encryptionEnabled = encryptionEnabled;
-        this.blockingScore = blockingScore;
-        this.sensitiveHeaders = sensitiveHeaders;
-        this.maxBufferLen = maxBufferLen;
-        this.apiTimeout = apiTimeout;
-        this.connectionTimeout = connectionTimeout;
-        this.sendPageActivities = sendPageActivities;
-        this.signedWithIP = signedWithIP;
-        this.serverURL = serverURL;
-        this.customLogo = customLogo;
-        this.cssRef = cssRef;
-        this.jsRef = jsRef;
-        this.sensitiveRoutes = sensitiveRoutes;
-        this.ipHeaders = ipHeaders;
-        this.checksum = checksum;
-        this.remoteConfigurationEnabled = remoteConfigurationEnabled;
-        this.moduleMode = moduleMode;
-        this.remoteConfigurationInterval = remoteConfigurationInterval;
-        this.remoteConfigurationDelay = remoteConfigurationDelay;
-        this.maxConnections = maxConnections;
-        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
-        this.remoteConfigurationUrl = remoteConfigurationUrl;
-        this.captchaProvider = captchaProvider;
-        this.customParametersProvider = customParametersProvider;
-        this.blockHandler = blockHandler;
-        this.collectorUrl = collectorUrl;
-        this.firstPartyEnabled = firstPartyEnabled;
-        this.xhrFirstPartyEnabled = xhrFirstPartyEnabled;
-        this.clientHost = clientHost;
+    private PXConfiguration(PXConfiguration other) {
+        appId = other.appId;
+        cookieKey = other.cookieKey;
+        cookieHmacKey = other.cookieHmacKey;
+        authToken = other.authToken;
+        moduleEnabled = other.moduleEnabled;
+        encryptionEnabled = other.encryptionEnabled;
+        blockingScore = other.blockingScore;
+        sensitiveHeaders = other.sensitiveHeaders;
+        maxBufferLen = other.maxBufferLen;
+        maxBufferAge = other.maxBufferAge;
+        maxBufferBytes = other.maxBufferBytes;
+        activitiesCompressionMinBytes = other.activitiesCompressionMinBytes;
+        activitiesQueueCapacity = other.activitiesQueueCapacity;
+        activitiesOverflowPolicy = other.activitiesOverflowPolicy;
+        maxInFlightBatches = other.maxInFlightBatches;
+        blockActivitiesMaxBufferAge = other.blockActivitiesMaxBufferAge;
+        blockActivitiesQueueCapacity = other.blockActivitiesQueueCapacity;
+        blockActivitiesOverflowPolicy = other.blockActivitiesOverflowPolicy;
+        blockMaxInFlightBatches = other.blockMaxInFlightBatches;
+        activitiesJournalDir = other.activitiesJournalDir;
+        activitiesJournalSegmentSize = other.activitiesJournalSegmentSize;
+        activitiesJournalMaxSegments = other.activitiesJournalMaxSegments;
+        activitiesJournalReplayRate = other.activitiesJournalReplayRate;
+        activitiesSidecarPort = other.activitiesSidecarPort;
+        pageRequestedSampleRate = other.pageRequestedSampleRate;
+        pageRequestedRouteSampleRates = other.pageRequestedRouteSampleRates;
+        asyncMaxRetries = other.asyncMaxRetries;
+        retryBackoffBase = other.retryBackoffBase;
+        retryBackoffMax = other.retryBackoffMax;
+        retryBudgetRatio = other.retryBudgetRatio;
+        activitiesSenderThreads = other.activitiesSenderThreads;
+        maxAdaptiveBufferLen = other.maxAdaptiveBufferLen;
+        apiTimeout = other.apiTimeout;
+        connectionTimeout = other.connectionTimeout;
+        sendPageActivities = other.sendPageActivities;
+        signedWithIP = other.signedWithIP;
+        serverURL = other.serverURL;
+        customLogo = other.customLogo;
+        cssRef = other.cssRef;
+        jsRef = other.jsRef;
+        sensitiveRoutes = other.sensitiveRoutes;
+        ipHeaders = other.ipHeaders;
+        checksum = other.checksum;
+        remoteConfigurationEnabled = other.remoteConfigurationEnabled;
+        moduleMode = other.moduleMode;
+        remoteConfigurationInterval = other.remoteConfigurationInterval;
+        remoteConfigurationDelay = other.remoteConfigurationDelay;
+        remoteConfigurationJitter = other.remoteConfigurationJitter;
+        remoteConfigurationMaxBackoff = other.remoteConfigurationMaxBackoff;
+        remoteConfigurationLongPollTimeout = other.remoteConfigurationLongPollTimeout;
+        remoteConfigurationCacheFile = other.remoteConfigurationCacheFile;
+        asyncInit = other.asyncInit;
+        asyncInitMode = other.asyncInitMode;
+        healthReportInterval = other.healthReportInterval;
+        jmxEnabled = other.jmxEnabled;
+        maxConnections = other.maxConnections;
+        maxConnectionsPerRoute = other.maxConnectionsPerRoute;
+        remoteConfigurationUrl = other.remoteConfigurationUrl;
+        captchaProvider = other.captchaProvider;
+        customParametersProvider = other.customParametersProvider;
+        metricsRecorder = other.metricsRecorder;
+        blockHandler = other.blockHandler;
+        collectorUrl = other.collectorUrl;
+        firstPartyEnabled = other.firstPartyEnabled;
+        xhrFirstPartyEnabled = other.xhrFirstPartyEnabled;
+        clientHost = other.clientHost;
     }
 
     /*
     * @return Configuration Object clone without cookieKey and authToken
     * */
     public PXConfiguration getTelemetryConfig() {
-        return new PXConfiguration(appId, null, null, moduleEnabled, encryptionEnabled, blockingScore, sensitiveHeaders, maxBufferLen, apiTimeout,
-                connectionTimeout, sendPageActivities, signedWithIP, serverURL, customLogo, cssRef, jsRef, sensitiveRoutes, ipHeaders, checksum, remoteConfigurationEnabled,
-                moduleMode, remoteConfigurationInterval, remoteConfigurationDelay, maxConnections, maxConnectionsPerRoute, remoteConfigurationUrl, captchaProvider,
-                customParametersProvider, blockHandler, collectorUrl, firstPartyEnabled, xhrFirstPartyEnabled, clientHost);
+        PXConfiguration telemetryConfig = new PXConfiguration(this);
+        telemetryConfig.cookieKey = null;
+        telemetryConfig.cookieHmacKey = null;
+        telemetryConfig.authToken = null;
+        return telemetryConfig;
     }
 
     public String getRemoteConfigurationUrl(){
         return this.remoteConfigurationUrl;
     }
 
+    /**
+     * @deprecated mutating a shared configuration is not visible consistently to requests in flight,
+     * use {@link #withModuleDisabled()} and publish the copy through {@link PXConfigurationStore}
+     */
+    @Deprecated
     public void disableModule() {
         this.moduleEnabled = false;
     }
 
+    /**
+     * @return copy of this configuration with the module disabled
+     */
+    public PXConfiguration withModuleDisabled() {
+        PXConfiguration next = new PXConfiguration(this);
+        next.moduleEnabled = false;
+        return next;
+    }
+
+    /**
+     * @return a copy of this configuration with the given module mode
+     */
+    public PXConfiguration withModuleMode(ModuleMode moduleMode) {
+        PXConfiguration next = new PXConfiguration(this);
+        next.moduleMode = moduleMode;
+        return next;
+    }
+
+    /**
+     * @return a copy of this configuration with the given blocking score
+     */
+    public PXConfiguration withBlockingScore(int blockingScore) {
+        PXConfiguration next = new PXConfiguration(this);
+        next.blockingScore = blockingScore;
+        return next;
+    }
+
+    /**
+     * @return a copy of this configuration with the given connection and API timeouts in milliseconds
+     */
+    public PXConfiguration withTimeouts(int connectionTimeout, int apiTimeout) {
+        PXConfiguration next = new PXConfiguration(this);
+        next.connectionTimeout = connectionTimeout;
+        next.apiTimeout = apiTimeout;
+        return next;
+    }
+
+    /**
+     * @return a copy of this configuration with the values derived from it, such as the cookie HMAC key, derived again
+     */
+    public PXConfiguration withCachesCleared() {
+        PXConfiguration next = new PXConfiguration(this);
+        next.cookieHmacKey = hmacKey(cookieKey);
+        return next;
+    }
+
     public String getAppId() {
         return appId;
     }
@@ -158,6 +315,14 @@ public class PXConfiguration {
         return cookieKey;
     }
 
+    /**
+     * @return HMAC key of the cookie key, derived once per configuration snapshot, null without a cookie key
+     */
+    @JsonIgnore
+    public SecretKeySpec getCookieHmacKey() {
+        return cookieHmacKey;
+    }
+
     public String getAuthToken() {
         return authToken;
     }
@@ -182,6 +347,98 @@ public class PXConfiguration {
         return maxBufferLen;
     }
 
+    public int getMaxBufferAge() {
+        return maxBufferAge;
+    }
+
+    public int getMaxBufferBytes() {
+        return maxBufferBytes;
+    }
+
+    public int getActivitiesCompressionMinBytes() {
+        return activitiesCompressionMinBytes;
+    }
+
+    public int getActivitiesQueueCapacity() {
+        return activitiesQueueCapacity;
+    }
+
+    public ActivitiesOverflowPolicy getActivitiesOverflowPolicy() {
+        return activitiesOverflowPolicy;
+    }
+
+    public int getMaxInFlightBatches() {
+        return maxInFlightBatches;
+    }
+
+    public int getBlockActivitiesMaxBufferAge() {
+        return blockActivitiesMaxBufferAge;
+    }
+
+    public int getBlockActivitiesQueueCapacity() {
+        return blockActivitiesQueueCapacity;
+    }
+
+    public ActivitiesOverflowPolicy getBlockActivitiesOverflowPolicy() {
+        return blockActivitiesOverflowPolicy;
+    }
+
+    public int getBlockMaxInFlightBatches() {
+        return blockMaxInFlightBatches;
+    }
+
+    public String getActivitiesJournalDir() {
+        return activitiesJournalDir;
+    }
+
+    public int getActivitiesJournalSegmentSize() {
+        return activitiesJournalSegmentSize;
+    }
+
+    public int getActivitiesJournalMaxSegments() {
+        return activitiesJournalMaxSegments;
+    }
+
+    public int getActivitiesJournalReplayRate() {
+        return activitiesJournalReplayRate;
+    }
+
+    public int getActivitiesSidecarPort() {
+        return activitiesSidecarPort;
+    }
+
+    public double getPageRequestedSampleRate() {
+        return pageRequestedSampleRate;
+    }
+
+    public Map<String, Double> getPageRequestedRouteSampleRates() {
+        return pageRequestedRouteSampleRates;
+    }
+
+    public int getAsyncMaxRetries() {
+        return asyncMaxRetries;
+    }
+
+    public int getRetryBackoffBase() {
+        return retryBackoffBase;
+    }
+
+    public int getRetryBackoffMax() {
+        return retryBackoffMax;
+    }
+
+    public double getRetryBudgetRatio() {
+        return retryBudgetRatio;
+    }
+
+    public int getActivitiesSenderThreads() {
+        return activitiesSenderThreads;
+    }
+
+    public int getMaxAdaptiveBufferLen() {
+        return maxAdaptiveBufferLen;
+    }
+
     public int getApiTimeout() {
         return apiTimeout;
     }
@@ -238,6 +495,38 @@ public class PXConfiguration {
         return this.remoteConfigurationDelay;
     }
 
+    public double getRemoteConfigurationJitter() {
+        return remoteConfigurationJitter;
+    }
+
+    public int getRemoteConfigurationMaxBackoff() {
+        return remoteConfigurationMaxBackoff;
+    }
+
+    public int getRemoteConfigurationLongPollTimeout() {
+        return remoteConfigurationLongPollTimeout;
+    }
+
+    public String getRemoteConfigurationCacheFile() {
+        return remoteConfigurationCacheFile;
+    }
+
+    public boolean isAsyncInit() {
+        return asyncInit;
+    }
+
+    public AsyncInitMode getAsyncInitMode() {
+        return asyncInitMode;
+    }
+
+    public int getHealthReportInterval() {
+        return healthReportInterval;
+    }
+
+    public boolean isJmxEnabled() {
+        return jmxEnabled;
+    }
+
     public int getMaxConnections(){
         return this.maxConnections;
     }
@@ -258,6 +547,10 @@ public class PXConfiguration {
         return customParametersProvider;
     }
 
+    public MetricsRecorder getMetricsRecorder() {
+        return metricsRecorder;
+    }
+
     public BlockHandler getBlockHandler() {
         return blockHandler;
     }
@@ -278,11 +571,36 @@ public class PXConfiguration {
         return clientHost;
     }
 
+    /**
+     * @deprecated mutating a shared configuration is not visible consistently to requests in flight,
+     * use {@link #withDynamicConfiguration(PXDynamicConfiguration)} and publish the copy through {@link PXConfigurationStore}
+     */
+    @Deprecated
     public void update(PXDynamicConfiguration pxDynamicConfiguration) {
+        apply(pxDynamicConfiguration);
+    }
+
+    /**
+     * @return copy of this configuration with the remote configuration applied
+     */
+    public PXConfiguration withDynamicConfiguration(PXDynamicConfiguration pxDynamicConfiguration) {
+        PXConfiguration next = new PXConfiguration(this);
+        next.apply(pxDynamicConfiguration);
+        return next;
+    }
+
+    private void apply(PXDynamicConfiguration pxDynamicConfiguration) {
         logger.debug("Updating PXConfiguration file");
+        String previousAppId = this.appId;
         this.appId = pxDynamicConfiguration.getAppId();
+        if (previousAppId != null && this.appId != null && !previousAppId.equals(this.appId)) {
+            // URLs derived from the application id follow it, explicitly configured URLs are kept
+            this.serverURL = rederive(this.serverURL, Constants.SERVER_URL, previousAppId, this.appId);
+            this.collectorUrl = rederive(this.collectorUrl, Constants.COLLECTOR_URL, previousAppId, this.appId);
+        }
         this.checksum = pxDynamicConfiguration.getChecksum();
         this.cookieKey = pxDynamicConfiguration.getCookieSecret();
+        this.cookieHmacKey = hmacKey(this.cookieKey);
         this.blockingScore = pxDynamicConfiguration.getBlockingScore();
         this.apiTimeout = pxDynamicConfiguration.getApiConnectTimeout();
         this.connectionTimeout = pxDynamicConfiguration.getApiConnectTimeout();
@@ -292,6 +610,35 @@ public class PXConfiguration {
         this.ipHeaders = pxDynamicConfiguration.getIpHeaders();
     }
 
+    private static String rederive(String url, String format, String previousAppId, String appId) {
+        return String.format(format, previousAppId.toLowerCase()).equals(url) ? String.format(format, appId.toLowerCase()) : url;
+    }
+
+    /**
+     * @return names of the fields that differ between the configurations
+     */
+    static Set<String> changedProperties(PXConfiguration previous, PXConfiguration current) {
+        Set<String> changed = new LinkedHashSet<>();
+        for (Field field : PXConfiguration.class.getDeclaredFields()) {
+            int modifiers = field.getModifiers();
+            if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+                continue;
+            }
+            try {
+                if (!Objects.equals(field.get(previous), field.get(current))) {
+                    changed.add(field.getName());
+                }
+            } catch (IllegalAccessException e) {
+                changed.add(field.getName());
+            }
+        }
+        return changed;
+    }
+
+    private static SecretKeySpec hmacKey(String cookieKey) {
+        return cookieKey == null || cookieKey.isEmpty() ? null : new SecretKeySpec(cookieKey.getBytes(), "HmacSHA256");
+    }
+
     public static final class Builder {
         private String appId;
         private String cookieKey;
@@ -301,6 +648,29 @@ public class PXConfiguration {
         private int blockingScore = 100;
         private Set<String> sensitiveHeaders = new HashSet<>(Arrays.asList("cookie", "cookies"));
         private int maxBufferLen = 10;
+        private int maxBufferAge = 1000;
+        private int maxBufferBytes = 256 * 1024;
+        private int activitiesCompressionMinBytes = 1024;
+        private int activitiesQueueCapacity = 10000;
+        private ActivitiesOverflowPolicy activitiesOverflowPolicy = ActivitiesOverflowPolicy.DROP_NEWEST;
+        private int maxInFlightBatches = 4;
+        private int blockActivitiesMaxBufferAge = 200;
+        private int blockActivitiesQueueCapacity = 1000;
+        private ActivitiesOverflowPolicy blockActivitiesOverflowPolicy = ActivitiesOverflowPolicy.DROP_OLDEST;
+        private int blockMaxInFlightBatches = 2;
+        private String activitiesJournalDir;
+        private int activitiesJournalSegmentSize = 4 * 1024 * 1024;
+        private int activitiesJournalMaxSegments = 16;
+        private int activitiesJournalReplayRate = 10;
+        private int activitiesSidecarPort;
+        private double pageRequestedSampleRate = 1;
+        private Map<String, Double> pageRequestedRouteSampleRates = new HashMap<>();
+        private int asyncMaxRetries = 3;
+        private int retryBackoffBase = 100;
+        private int retryBackoffMax = 5000;
+        private double retryBudgetRatio = 0.2;
+        private int activitiesSenderThreads = 0;
+        private int maxAdaptiveBufferLen = 1000;
         private int apiTimeout = 1000;
         private int connectionTimeout = 1000;
         private boolean sendPageActivities = true;
@@ -314,12 +684,21 @@ public class PXConfiguration {
         private ModuleMode moduleMode = ModuleMode.MONITOR;
         private int remoteConfigurationInterval = 1000 * 5;
         private int remoteConfigurationDelay = 0;
+        private double remoteConfigurationJitter = 0.2;
+        private int remoteConfigurationMaxBackoff = 60 * 1000;
+        private int remoteConfigurationLongPollTimeout = 0;
+        private String remoteConfigurationCacheFile = null;
+        private boolean asyncInit = false;
+        private AsyncInitMode asyncInitMode = AsyncInitMode.PASS_THROUGH;
+        private int healthReportInterval = 0;
+        private boolean jmxEnabled = false;
         private int maxConnectionsPerRoute = 20;
         private int maxConnections = 200;
         private String remoteConfigurationUrl = Constants.REMOTE_CONFIGURATION_SERVER_URL;
         private CaptchaProvider captchaProvider = CaptchaProvider.RECAPTCHA;
         private Set<String> ipHeaders = new HashSet<>();
         private CustomParametersProvider customParametersProvider = new DefaultCustomParametersProvider();
+        private MetricsRecorder metricsRecorder = null;
         private BlockHandler blockHandler = new DefaultBlockHandler();
         private String collectorUrl;
         private boolean xhrFirstPartyEnabled = true;
@@ -388,6 +767,121 @@ public class PXConfiguration {
             return this;
         }
 
+        public Builder maxBufferAge(int val) {
+            maxBufferAge = val;
+            return this;
+        }
+
+        public Builder maxBufferBytes(int val) {
+            maxBufferBytes = val;
+            return this;
+        }
+
+        public Builder activitiesCompressionMinBytes(int val) {
+            activitiesCompressionMinBytes = val;
+            return this;
+        }
+
+        public Builder activitiesQueueCapacity(int val) {
+            activitiesQueueCapacity = val;
+            return this;
+        }
+
+        public Builder activitiesOverflowPolicy(ActivitiesOverflowPolicy val) {
+            activitiesOverflowPolicy = val;
+            return this;
+        }
+
+        public Builder maxInFlightBatches(int val) {
+            maxInFlightBatches = val;
+            return this;
+        }
+
+        public Builder blockActivitiesMaxBufferAge(int val) {
+            blockActivitiesMaxBufferAge = val;
+            return this;
+        }
+
+        public Builder blockActivitiesQueueCapacity(int val) {
+            blockActivitiesQueueCapacity = val;
+            return this;
+        }
+
+        public Builder blockActivitiesOverflowPolicy(ActivitiesOverflowPolicy val) {
+            blockActivitiesOverflowPolicy = val;
+            return this;
+        }
+
+        public Builder blockMaxInFlightBatches(int val) {
+            blockMaxInFlightBatches = val;
+            return this;
+        }
+
+        public Builder activitiesJournalDir(String val) {
+            activitiesJournalDir = val;
+            return this;
+        }
+
+        public Builder activitiesJournalSegmentSize(int val) {
+            activitiesJournalSegmentSize = val;
+            return this;
+        }
+
+        public Builder activitiesJournalMaxSegments(int val) {
+            activitiesJournalMaxSegments = val;
+            return this;
+        }
+
+        public Builder activitiesJournalReplayRate(int val) {
+            activitiesJournalReplayRate = val;
+            return this;
+        }
+
+        public Builder activitiesSidecarPort(int val) {
+            activitiesSidecarPort = val;
+            return this;
+        }
+
+        public Builder pageRequestedSampleRate(double val) {
+            pageRequestedSampleRate = val;
+            return this;
+        }
+
+        public Builder pageRequestedRouteSampleRates(Map<String, Double> val) {
+            pageRequestedRouteSampleRates = val;
+            return this;
+        }
+
+        public Builder asyncMaxRetries(int val) {
+            asyncMaxRetries = val;
+            return this;
+        }
+
+        public Builder retryBackoffBase(int val) {
+            retryBackoffBase = val;
+            return this;
+        }
+
+        public Builder retryBackoffMax(int val) {
+            retryBackoffMax = val;
+            return this;
+        }
+
+        public Builder retryBudgetRatio(double val) {
+            retryBudgetRatio = val;
+            return this;
+        }
+
+        public Builder activitiesSenderThreads(int val) {
+            activitiesSenderThreads = val;
+            return this;
+        }
+
+        public Builder maxAdaptiveBufferLen(int val) {
+            maxAdaptiveBufferLen = val;
+            return this;
+        }
+
         public Builder apiTimeout(int val) {
             apiTimeout = val;
             return this;
@@ -453,6 +947,46 @@ public class PXConfiguration {
             return this;
         }
 
+        public Builder remoteConfigurationJitter(double val) {
+            remoteConfigurationJitter = val;
+            return this;
+        }
+
+        public Builder remoteConfigurationMaxBackoff(int val) {
+            remoteConfigurationMaxBackoff = val;
+            return this;
+        }
+
+        public Builder remoteConfigurationLongPollTimeout(int val) {
+            remoteConfigurationLongPollTimeout = val;
+            return this;
+        }
+
+        public Builder remoteConfigurationCacheFile(String val) {
+            remoteConfigurationCacheFile = val;
+            return this;
+        }
+
+        public Builder asyncInit(boolean val) {
+            asyncInit = val;
+            return this;
+        }
+
+        public Builder asyncInitMode(AsyncInitMode val) {
+            asyncInitMode = val;
+            return this;
+        }
+
+        public Builder healthReportInterval(int val) {
+            healthReportInterval = val;
+            return this;
+        }
+
+        public Builder jmxEnabled(boolean val) {
+            jmxEnabled = val;
+            return this;
+        }
+
         public Builder maxConnection(int val){
             maxConnections = val;
             return this;
@@ -478,6 +1012,11 @@ public class PXConfiguration {
             return this;
         }
 
+        public Builder metricsRecorder(MetricsRecorder val) {
+            this.metricsRecorder = val;
+            return this;
+        }
+
         public Builder blockHandler(BlockHandler val) {
             this.blockHandler = val;
             return this;
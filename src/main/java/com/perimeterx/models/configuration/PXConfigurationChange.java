@@ -0,0 +1,56 @@
+package com.perimeterx.models.configuration;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * A configuration snapshot replacing another, with the names of the {@link PXConfiguration} fields that changed
+ */
+public class PXConfigurationChange {
+
+    private final PXConfiguration previous;
+    private final PXConfiguration current;
+    private final Set<String> changedProperties;
+
+    public PXConfigurationChange(PXConfiguration previous, PXConfiguration current) {
+        this.previous = previous;
+        this.current = current;
+        this.changedProperties = Collections.unmodifiableSet(PXConfiguration.changedProperties(previous, current));
+    }
+
+    public PXConfiguration getPrevious() {
+        return previous;
+    }
+
+    public PXConfiguration getCurrent() {
+        return current;
+    }
+
+    /**
+     * @return names of the changed fields, such as appId or blockingScore
+     */
+    public Set<String> getChangedProperties() {
+        return changedProperties;
+    }
+
+    /**
+     * @return true if any of the given fields changed
+     */
+    public boolean isChanged(String... properties) {
+        for (String property : properties) {
+            if (changedProperties.contains(property)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isEmpty() {
+        return changedProperties.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "PXConfigurationChange" + changedProperties;
+    }
+}
@@ -0,0 +1,15 @@
+package com.perimeterx.models.configuration;
+
+/**
+ * Notified when a {@link PXConfigurationStore} publishes a snapshot that differs from the previous one,
+ * so components can rebuild the state they derived from the changed fields.
+ */
+public interface PXConfigurationListener {
+
+    /**
+     * Called on the thread that published the snapshot, after requests started reading it
+     *
+     * @param change - previous and current snapshots and the changed fields
+     */
+    void onConfigurationChange(PXConfigurationChange change);
+}
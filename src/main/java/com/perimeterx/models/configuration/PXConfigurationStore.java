@@ -0,0 +1,150 @@
+package com.perimeterx.models.configuration;
+
+import com.perimeterx.utils.PXLogger;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Publishes the current {@link PXConfiguration} snapshot of an enforcer.
+ * <p>
+ * Readers take the snapshot once per request and never lock, updates replace the snapshot with a modified copy
+ * so a reader never sees a partially applied remote configuration. Updates are applied one at a time and
+ * {@link PXConfigurationListener}s are notified of every change in the order the snapshots were published.
+ */
+public class PXConfigurationStore {
+
+    private static final PXLogger logger = PXLogger.getLogger(PXConfigurationStore.class);
+
+    private final List<PXConfigurationListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile PXConfiguration current;
+
+    public PXConfigurationStore(PXConfiguration initial) {
+        this.current = initial;
+    }
+
+    /**
+     * @return the current configuration snapshot
+     */
+    public PXConfiguration get() {
+        return current;
+    }
+
+    public void addListener(PXConfigurationListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(PXConfigurationListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Publishes a copy of the current snapshot with the remote configuration applied
+     *
+     * @return the published snapshot
+     */
+    public PXConfiguration update(final PXDynamicConfiguration dynamicConfiguration) {
+        return publish(new Change() {
+            @Override
+            public PXConfiguration apply(PXConfiguration configuration) {
+                return configuration.withDynamicConfiguration(dynamicConfiguration);
+            }
+        });
+    }
+
+    /**
+     * Publishes a copy of the current snapshot with the module disabled
+     *
+     * @return the published snapshot
+     */
+    public PXConfiguration disableModule() {
+        return publish(new Change() {
+            @Override
+            public PXConfiguration apply(PXConfiguration configuration) {
+                return configuration.withModuleDisabled();
+            }
+        });
+    }
+
+    /**
+     * Publishes a copy of the current snapshot with the given blocking score, kept until a remote configuration
+     * changes it
+     *
+     * @return the published snapshot
+     */
+    public PXConfiguration setBlockingScore(final int blockingScore) {
+        return publish(new Change() {
+            @Override
+            public PXConfiguration apply(PXConfiguration configuration) {
+                return configuration.withBlockingScore(blockingScore);
+            }
+        });
+    }
+
+    /**
+     * Publishes a copy of the current snapshot with the given timeouts in milliseconds, kept until a remote
+     * configuration changes them
+     *
+     * @return the published snapshot
+     */
+    public PXConfiguration setTimeouts(final int connectionTimeout, final int apiTimeout) {
+        return publish(new Change() {
+            @Override
+            public PXConfiguration apply(PXConfiguration configuration) {
+                return configuration.withTimeouts(connectionTimeout, apiTimeout);
+            }
+        });
+    }
+
+    /**
+     * Publishes a copy of the current snapshot with its derived values derived again, values cached per snapshot
+     * are dropped with the previous snapshot
+     *
+     * @return the published snapshot
+     */
+    public PXConfiguration clearCaches() {
+        return publish(new Change() {
+            @Override
+            public PXConfiguration apply(PXConfiguration configuration) {
+                return configuration.withCachesCleared();
+            }
+        });
+    }
+
+    /**
+     * Publishes a configuration built elsewhere, for example with {@link PXConfiguration.Builder}
+     *
+     * @return the published snapshot
+     */
+    public PXConfiguration set(final PXConfiguration configuration) {
+        return publish(new Change() {
+            @Override
+            public PXConfiguration apply(PXConfiguration previous) {
+                return configuration;
+            }
+        });
+    }
+
+    private synchronized PXConfiguration publish(Change change) {
+        PXConfiguration previous = current;
+        PXConfiguration next = change.apply(previous);
+        current = next;
+        PXConfigurationChange configurationChange = new PXConfigurationChange(previous, next);
+        if (configurationChange.isEmpty()) {
+            return next;
+        }
+        logger.debug("Configuration changed {}", configurationChange.getChangedProperties());
+        for (PXConfigurationListener listener : listeners) {
+            try {
+                listener.onConfigurationChange(configurationChange);
+            } catch (Exception e) {
+                logger.error("Configuration listener {} failed, {}", listener.getClass().getSimpleName(), e.getMessage());
+            }
+        }
+        return next;
+    }
+
+    private interface Change {
+        PXConfiguration apply(PXConfiguration configuration);
+    }
+}
@@ -0,0 +1,16 @@
+package com.perimeterx.models.exceptions;
+
+/**
+ * Thrown when the remote configuration could not be fetched, unchecked so the remote configuration API
+ * keeps its signatures
+ */
+public class RemoteConfigurationException extends RuntimeException {
+
+    public RemoteConfigurationException(String message) {
+        super(message);
+    }
+
+    public RemoteConfigurationException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -43,6 +43,7 @@ public final class Constants {
     public static final String COOKIE_V3_KEY = "_px3";
     public static final String FIRST_PARTY_HEADER = "x-px-first-party";
     public static final String ENFORCER_TRUE_IP_HEADER = "x-px-enforcer-true-ip";
+    public static final String PREFER_HEADER = "Prefer";
     public static final String FIRST_PARTY_VALUE = "1";
 
     public static final String API_RISK = "/api/v2/risk";
@@ -1,5 +1,6 @@
 package com.perimeterx.utils;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.ObjectWriter;
@@ -16,9 +17,10 @@ public final class JsonUtils {
 
     private final static ObjectMapper mapper = new ObjectMapper();
 
-    public final static ObjectReader riskResponseReader = mapper.reader(RiskResponse.class);
-    public final static ObjectReader captchaResponseReader = mapper.reader(CaptchaResponse.class);
-    public final static ObjectReader pxConfigurationStubReader = mapper.reader(PXDynamicConfiguration.class);
+    public final static ObjectReader riskResponseReader = mapper.readerFor(RiskResponse.class);
+    public final static ObjectReader captchaResponseReader = mapper.readerFor(CaptchaResponse.class);
+    public final static ObjectReader pxConfigurationStubReader = mapper.readerFor(PXDynamicConfiguration.class);
+    public final static ObjectReader treeReader = mapper.readerFor(JsonNode.class);
     public final static ObjectWriter writer = mapper.writer();
 
     protected JsonUtils() {
@@ -0,0 +1,160 @@
+package com.perimeterx.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock free histogram of non negative values such as latencies in milliseconds.
+ * <p>
+ * Values below 8 are counted exactly, larger values fall in log linear buckets of 8 buckets per power of two,
+ * so a reported percentile is within 12.5% of the recorded value. Values above 2^40 are counted in the last bucket.
+ * <p>
+ * The buckets and the sum are {@link StripedCounters}, so threads recording at the same time mostly update
+ * different cache lines. The count is summed from the buckets when read, and the max is only written by
+ * values above it, so recording does not contend on fields shared by all threads.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+    // Counter of the sum, after the buckets
+    private static final int SUM = BUCKETS;
+    // A histogram has hundreds of counters, fewer stripes than StripedCounters keep its memory small
+    private static final int MAX_STRIPES = 16;
+
+    private final StripedCounters counters;
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram() {
+        this(MAX_STRIPES);
+    }
+
+    private LatencyHistogram(int stripes) {
+        this.counters = new StripedCounters(BUCKETS + 1, stripes);
+    }
+
+    public void record(long value) {
+        value = Math.max(0, value);
+        counters.incrementAndAdd(index(value), SUM, value);
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // Retry until the max is at least the value
+        }
+    }
+
+    /**
+     * @return the sum of the buckets, slower than recording a value
+     */
+    public long getCount() {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counters.get(i);
+        }
+        return total;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getSum() {
+        return counters.get(SUM);
+    }
+
+    public double getMean() {
+        long total = getCount();
+        return total == 0 ? 0 : (double) getSum() / total;
+    }
+
+    /**
+     * @param percentile - between 0 and 100
+     * @return highest value of the bucket holding the percentile, 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] buckets = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = counters.get(i);
+            total += buckets[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, percentile) / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Math.min(highestValue(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * @return a copy of the values recorded so far, kept in a single stripe
+     */
+    public LatencyHistogram copy() {
+        LatencyHistogram copy = new LatencyHistogram(1);
+        for (int i = 0; i < BUCKETS; i++) {
+            copy.counters.add(i, counters.get(i));
+        }
+        copy.counters.add(SUM, getSum());
+        copy.max.set(max.get());
+        return copy;
+    }
+
+    /**
+     * Values recorded while the copy is taken may be counted in some of the buckets only
+     *
+     * @param earlier - copy of this histogram taken earlier
+     * @return the values recorded since the copy was taken, the max is the highest value of the highest bucket
+     * recorded in since then
+     */
+    public LatencyHistogram since(LatencyHistogram earlier) {
+        LatencyHistogram delta = new LatencyHistogram(1);
+        int highest = -1;
+        for (int i = 0; i < BUCKETS; i++) {
+            long recorded = Math.max(0, counters.get(i) - earlier.counters.get(i));
+            if (recorded > 0) {
+                delta.counters.add(i, recorded);
+                highest = i;
+            }
+        }
+        delta.counters.add(SUM, Math.max(0, getSum() - earlier.getSum()));
+        delta.max.set(highest < 0 ? 0 : Math.min(highestValue(highest), getMax()));
+        return delta;
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = Math.min(MAX_EXPONENT, 63 - Long.numberOfLeadingZeros(value));
+        if (exponent == MAX_EXPONENT && value >= (1L << (MAX_EXPONENT + 1))) {
+            return BUCKETS - 1;
+        }
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    static long lowestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        int subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + subBucket) << shift;
+    }
+
+    static long highestValue(int index) {
+        return index == BUCKETS - 1 ? Long.MAX_VALUE : lowestValue(index + 1) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + ", mean=" + getMean() + ", p50=" + getValueAtPercentile(50)
+                + ", p99=" + getValueAtPercentile(99) + ", max=" + getMax();
+    }
+}
@@ -0,0 +1,79 @@
+package com.perimeterx.utils;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Releases the memory mapping of a {@link MappedByteBuffer} right away instead of when the buffer is garbage
+ * collected, so the mapped file can be deleted and its space reclaimed.
+ * <p>
+ * Uses the buffer cleaner on Java 8 and {@code sun.misc.Unsafe.invokeCleaner} on Java 9 and later, looked up
+ * reflectively once. On runtimes providing neither the mapping is left to the garbage collector. A buffer must not
+ * be accessed once it was unmapped.
+ */
+public final class MappedBuffers {
+
+    private static final PXLogger logger = PXLogger.getLogger(MappedBuffers.class);
+
+    // Java 9 and later
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+    // Java 8
+    private static final Method CLEANER;
+    private static final Method CLEAN;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        Method cleaner = null;
+        Method clean = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafe = theUnsafe.get(null);
+        } catch (Exception | LinkageError e) {
+            invokeCleaner = null;
+            try {
+                cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+                clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            } catch (Exception | LinkageError e8) {
+                cleaner = null;
+                logger.debug("Mapped buffers cannot be unmapped in this runtime, {}", e8.getMessage());
+            }
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+        CLEANER = cleaner;
+        CLEAN = clean;
+    }
+
+    private MappedBuffers() {
+    }
+
+    /**
+     * @param buffer - buffer to unmap, not accessed by anyone anymore
+     * @return false if the mapping is left to the garbage collector
+     */
+    public static boolean unmap(MappedByteBuffer buffer) {
+        try {
+            if (INVOKE_CLEANER != null) {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+                return true;
+            }
+            if (CLEANER != null) {
+                Object cleaner = CLEANER.invoke(buffer);
+                if (cleaner != null) {
+                    CLEAN.invoke(cleaner);
+                    return true;
+                }
+            }
+        } catch (Exception | LinkageError e) {
+            logger.debug("Failed unmapping buffer, {}", e.getMessage());
+        }
+        return false;
+    }
+}
@@ -23,6 +23,7 @@ public class PXCommonUtils {
         return RequestConfig.custom()
                     .setConnectTimeout(connectionTimeout)
                     .setConnectionRequestTimeout(apiTimeout)
+                    .setSocketTimeout(apiTimeout)
                     .build();
 
     }
@@ -38,4 +39,19 @@ public class PXCommonUtils {
         }
         return headers;
     }
+
+    /**
+     * @param headers          - request headers, names in lower case
+     * @param sensitiveHeaders - names of headers that should not leave the server
+     * @return copy of the headers without the sensitive headers
+     */
+    public static Map<String, String> filterSensitiveHeaders(Map<String, String> headers, Set<String> sensitiveHeaders) {
+        Map<String, String> filtered = new HashMap<>(headers);
+        if (sensitiveHeaders != null) {
+            for (String sensitiveHeader : sensitiveHeaders) {
+                filtered.remove(sensitiveHeader.toLowerCase());
+            }
+        }
+        return filtered;
+    }
 }
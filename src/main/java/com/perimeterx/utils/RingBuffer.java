@@ -0,0 +1,127 @@
+package com.perimeterx.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock free queue backed by a power of two ring of slots, each slot carries a sequence number
+ * telling producers and consumers whether it is free or holds an element (Vyukov's bounded queue).
+ * <p>
+ * Producers never block and their cost is bounded - {@link #offer(Object)} returns false when the ring is full,
+ * or after {@link #MAX_CLAIM_ATTEMPTS} claims of a slot were lost to other threads. A lost claim means another
+ * thread claimed the slot, so the queue as a whole keeps making progress. {@link #tryPoll()} is bounded the same way
+ * for producers evicting elements, {@link #poll()} retries until it takes an element or finds the ring empty.
+ * Built for many request threads producing and a single sender thread consuming, consuming from
+ * several threads is also safe.
+ */
+public class RingBuffer<E> {
+
+    public static final int MAX_CLAIM_ATTEMPTS = 64;
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * @param requestedCapacity - minimal capacity, rounded up to the next power of two
+     */
+    public RingBuffer(int requestedCapacity) {
+        if (requestedCapacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        int size = 1;
+        while (size < requestedCapacity && size < (1 << 30)) {
+            size <<= 1;
+        }
+        this.capacity = size;
+        this.mask = capacity - 1;
+        this.elements = new AtomicReferenceArray<>(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * @param e - element to add
+     * @return true if added, false if the ring is full or {@link #MAX_CLAIM_ATTEMPTS} claims were lost
+     */
+    public boolean offer(E e) {
+        long position = tail.get();
+        for (int attempt = 0; attempt < MAX_CLAIM_ATTEMPTS; attempt++) {
+            int index = (int) (position & mask);
+            long sequence = sequences.get(index);
+            long diff = sequence - position;
+            if (diff == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements.lazySet(index, e);
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the oldest element, or null if the ring is empty
+     */
+    public E poll() {
+        return poll(Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return the oldest element, or null if the ring is empty or {@link #MAX_CLAIM_ATTEMPTS} claims were lost
+     */
+    public E tryPoll() {
+        return poll(MAX_CLAIM_ATTEMPTS);
+    }
+
+    private E poll(int maxAttempts) {
+        long position = head.get();
+        for (int attempt = 0; attempt < maxAttempts; attempt++) {
+            int index = (int) (position & mask);
+            long sequence = sequences.get(index);
+            long diff = sequence - (position + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    E e = elements.get(index);
+                    elements.lazySet(index, null);
+                    sequences.lazySet(index, position + capacity);
+                    return e;
+                }
+                position = head.get();
+            } else if (diff < 0) {
+                return null;
+            } else {
+                position = head.get();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return approximate number of elements, exact when no concurrent operations are running
+     */
+    public int size() {
+        long size = tail.get() - head.get();
+        return size < 0 ? 0 : (int) Math.min(size, capacity);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,76 @@
+package com.perimeterx.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed number of counters incremented by many threads, such as counts per verdict reason.
+ * <p>
+ * Every counter is split in stripes picked by the thread id, so request threads mostly update different
+ * cache lines instead of contending on a single atomic. Reading a counter sums its stripes and is slower
+ * than incrementing it.
+ */
+public class StripedCounters {
+
+    // Longs in a cache line, stripes are padded to start on different lines
+    private static final int LINE = 8;
+    private static final int MAX_STRIPES = 64;
+
+    private final int stride;
+    private final int mask;
+    private final AtomicLongArray cells;
+
+    /**
+     * @param counters - number of counters
+     */
+    public StripedCounters(int counters) {
+        this(counters, MAX_STRIPES);
+    }
+
+    /**
+     * @param counters   - number of counters
+     * @param maxStripes - maximum number of stripes, lower it for large sets of counters
+     */
+    public StripedCounters(int counters, int maxStripes) {
+        int stripes = 1;
+        int wanted = Math.min(Math.min(MAX_STRIPES, maxStripes), Runtime.getRuntime().availableProcessors() * 2);
+        while (stripes < wanted) {
+            stripes <<= 1;
+        }
+        this.stride = (counters + LINE - 1) / LINE * LINE + LINE;
+        this.mask = stripes - 1;
+        this.cells = new AtomicLongArray(stripes * stride);
+    }
+
+    public void increment(int counter) {
+        add(counter, 1);
+    }
+
+    public void add(int counter, long value) {
+        cells.addAndGet(stripe() * stride + counter, value);
+    }
+
+    /**
+     * Increments a counter and adds a value to another, on the same stripe
+     */
+    public void incrementAndAdd(int counter, int valueCounter, long value) {
+        int offset = stripe() * stride;
+        cells.incrementAndGet(offset + counter);
+        cells.addAndGet(offset + valueCounter, value);
+    }
+
+    /**
+     * @return the sum of the counter stripes, counts added while summing may be missed
+     */
+    public long get(int counter) {
+        long sum = 0;
+        for (int i = counter; i < cells.length(); i += stride) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+
+    private int stripe() {
+        long id = Thread.currentThread().getId();
+        return (int) (id ^ (id >>> 16)) & mask;
+    }
+}
@@ -0,0 +1,23 @@
+package com.perimeterx.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.perimeterx.ActivityEnqueue")
+@Label("PerimeterX Activity Enqueue")
+@Category({"PerimeterX", "Activities"})
+@Description("Activity queued to be sent to the collector")
+@StackTrace(false)
+class ActivityEnqueueEvent extends Event {
+
+    @Label("Activity Type")
+    String activityType;
+
+    @Label("Accepted")
+    @Description("False if the queue was full and the activity was dropped")
+    boolean accepted;
+}
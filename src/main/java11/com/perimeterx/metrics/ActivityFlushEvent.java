@@ -0,0 +1,23 @@
+package com.perimeterx.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.perimeterx.ActivityFlush")
+@Label("PerimeterX Activity Flush")
+@Category({"PerimeterX", "Activities"})
+@Description("Batch of activities sent to the collector, from sending until it was answered")
+@StackTrace(false)
+class ActivityFlushEvent extends Event {
+
+    @Label("Activities")
+    int activities;
+
+    @Label("Sent")
+    @Description("False if sending the batch failed")
+    boolean sent;
+}
@@ -0,0 +1,156 @@
+package com.perimeterx.metrics;
+
+import com.perimeterx.models.PXContext;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+
+/**
+ * Java Flight Recorder events of the enforcer pipeline, the Java 11 version of the class.
+ * <p>
+ * A begin method allocates and begins an event only while a recording enables its type, otherwise it returns null
+ * and the matching end method returns right away. The event types are looked up by name in {@link Types} once the
+ * jdk.jfr module is found in the boot layer, so runtimes without it load no Flight Recorder class and record nothing.
+ */
+public class EnforcerEvents {
+
+    private static final boolean AVAILABLE = ModuleLayer.boot().findModule("jdk.jfr").isPresent();
+
+    private EnforcerEvents() {
+    }
+
+    public static Object beginVerify() {
+        if (!AVAILABLE || !Types.enabled(Types.VERIFY)) {
+            return null;
+        }
+        VerifyEvent event = new VerifyEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @param context - context of the verified request, null if it could not be created
+     */
+    public static void endVerify(Object event, PXContext context) {
+        if (event == null) {
+            return;
+        }
+        VerifyEvent verify = (VerifyEvent) event;
+        verify.end();
+        if (!verify.shouldCommit()) {
+            return;
+        }
+        if (context != null) {
+            verify.appId = context.getAppId();
+            verify.moduleMode = context.getPxConfiguration().getModuleMode().name();
+            verify.verified = context.isRequestLowScore();
+            verify.firstParty = context.isFirstPartyRequest();
+            verify.riskScore = context.getRiskScore();
+            verify.passReason = context.getPassReason() == null ? null : context.getPassReason().getValue();
+            verify.blockReason = context.getBlockReason() == null ? null : context.getBlockReason().getValue();
+            verify.s2sCallReason = context.getS2sCallReason() == null ? null : context.getS2sCallReason().getValue();
+        }
+        verify.commit();
+    }
+
+    public static Object beginStage(Stage stage) {
+        if (!AVAILABLE || !Types.enabled(Types.STAGE)) {
+            return null;
+        }
+        StageEvent event = new StageEvent();
+        event.stage = stage.getValue();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @param reason - reason related to the stage, such as the risk API call reason, null if there is none
+     * @param result - result of the stage, such as the risk API call outcome, null if there is none
+     */
+    public static void endStage(Object event, String reason, String result) {
+        if (event == null) {
+            return;
+        }
+        StageEvent stage = (StageEvent) event;
+        stage.end();
+        if (stage.shouldCommit()) {
+            stage.reason = reason;
+            stage.result = result;
+            stage.commit();
+        }
+    }
+
+    public static Object beginActivityEnqueue() {
+        if (!AVAILABLE || !Types.enabled(Types.ACTIVITY_ENQUEUE)) {
+            return null;
+        }
+        ActivityEnqueueEvent event = new ActivityEnqueueEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @param accepted - false if the activity was dropped
+     */
+    public static void endActivityEnqueue(Object event, String activityType, boolean accepted) {
+        if (event == null) {
+            return;
+        }
+        ActivityEnqueueEvent enqueue = (ActivityEnqueueEvent) event;
+        enqueue.end();
+        if (enqueue.shouldCommit()) {
+            enqueue.activityType = activityType;
+            enqueue.accepted = accepted;
+            enqueue.commit();
+        }
+    }
+
+    public static Object beginActivityFlush() {
+        if (!AVAILABLE || !Types.enabled(Types.ACTIVITY_FLUSH)) {
+            return null;
+        }
+        ActivityFlushEvent event = new ActivityFlushEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @param activities - activities in the flushed batch
+     * @param sent       - false if sending the batch failed
+     */
+    public static void endActivityFlush(Object event, int activities, boolean sent) {
+        if (event == null) {
+            return;
+        }
+        ActivityFlushEvent flush = (ActivityFlushEvent) event;
+        flush.end();
+        if (flush.shouldCommit()) {
+            flush.activities = activities;
+            flush.sent = sent;
+            flush.commit();
+        }
+    }
+
+    /**
+     * Flight Recorder event types, initialized on first use only when jdk.jfr is available
+     */
+    private static final class Types {
+
+        static final EventType VERIFY = eventType("com.perimeterx.metrics.VerifyEvent");
+        static final EventType STAGE = eventType("com.perimeterx.metrics.StageEvent");
+        static final EventType ACTIVITY_ENQUEUE = eventType("com.perimeterx.metrics.ActivityEnqueueEvent");
+        static final EventType ACTIVITY_FLUSH = eventType("com.perimeterx.metrics.ActivityFlushEvent");
+
+        static boolean enabled(EventType type) {
+            return type != null && type.isEnabled();
+        }
+
+        private static EventType eventType(String eventClass) {
+            try {
+                return EventType.getEventType(Class.forName(eventClass).asSubclass(Event.class));
+            } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+                // Flight Recorder is not usable in this runtime
+                return null;
+            }
+        }
+    }
+}
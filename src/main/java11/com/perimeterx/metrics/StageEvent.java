@@ -0,0 +1,27 @@
+package com.perimeterx.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.perimeterx.Stage")
+@Label("PerimeterX Verification Stage")
+@Category({"PerimeterX", "Enforcer"})
+@Description("Stage of a request verification, such as the cookie decryption or the risk API call")
+@StackTrace(false)
+class StageEvent extends Event {
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Reason")
+    @Description("Reason related to the stage, such as the risk API call reason")
+    String reason;
+
+    @Label("Result")
+    @Description("Result of the stage, such as the risk API call outcome")
+    String result;
+}
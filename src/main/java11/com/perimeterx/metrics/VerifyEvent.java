@@ -0,0 +1,41 @@
+package com.perimeterx.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("com.perimeterx.Verify")
+@Label("PerimeterX Verify")
+@Category({"PerimeterX", "Enforcer"})
+@Description("Verification of a request by the enforcer")
+@StackTrace(false)
+class VerifyEvent extends Event {
+
+    @Label("Application ID")
+    String appId;
+
+    @Label("Module Mode")
+    String moduleMode;
+
+    @Label("Verified")
+    @Description("True if the request was passed")
+    boolean verified;
+
+    @Label("First Party")
+    boolean firstParty;
+
+    @Label("Risk Score")
+    int riskScore;
+
+    @Label("Pass Reason")
+    String passReason;
+
+    @Label("Block Reason")
+    String blockReason;
+
+    @Label("Risk API Call Reason")
+    String s2sCallReason;
+}
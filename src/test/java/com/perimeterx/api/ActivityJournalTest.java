@@ -0,0 +1,146 @@
+package com.perimeterx.api;
+
+import com.perimeterx.api.activities.ActivityJournal;
+import com.perimeterx.models.activities.ActivityBatch;
+import com.perimeterx.utils.MappedBuffers;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+
+/**
+ * Testing {@link ActivityJournal}
+ */
+@Test
+public class ActivityJournalTest {
+
+    private static final int SEGMENT_SIZE = 1024;
+
+    private File directory;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("px-journal").toFile();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testReplayInOrder() throws Exception {
+        ActivityJournal journal = new ActivityJournal(directory, SEGMENT_SIZE, 4);
+        Assert.assertTrue(journal.append(batch("{\"a\":1}", "{\"a\":2}")));
+        Assert.assertTrue(journal.append(batch("{\"b\":1}")));
+        Assert.assertEquals(journal.getPendingBatches(), 2);
+
+        ActivityJournal.Entry first = journal.next();
+        Assert.assertEquals(new String(first.getBatch().toByteArray()), "[{\"a\":1},{\"a\":2}]");
+        // Not acked yet, handed out again
+        Assert.assertEquals(new String(journal.next().getBatch().toByteArray()), "[{\"a\":1},{\"a\":2}]");
+
+        journal.ack(first);
+        ActivityJournal.Entry second = journal.next();
+        Assert.assertEquals(new String(second.getBatch().toByteArray()), "[{\"b\":1}]");
+        journal.ack(second);
+        Assert.assertNull(journal.next());
+        Assert.assertEquals(journal.getPendingBatches(), 0);
+        journal.close();
+    }
+
+    @Test
+    public void testSurvivesRestart() throws Exception {
+        ActivityJournal journal = new ActivityJournal(directory, SEGMENT_SIZE, 4);
+        journal.append(batch("{\"a\":1}"));
+        journal.append(batch("{\"b\":1}"));
+        journal.ack(journal.next());
+        journal.close();
+
+        ActivityJournal reopened = new ActivityJournal(directory, SEGMENT_SIZE, 4);
+        Assert.assertEquals(reopened.getPendingBatches(), 1);
+        Assert.assertEquals(new String(reopened.next().getBatch().toByteArray()), "[{\"b\":1}]");
+        reopened.append(batch("{\"c\":1}"));
+        Assert.assertEquals(reopened.getPendingBatches(), 2);
+        reopened.close();
+    }
+
+    @Test
+    public void testSegmentsAreCappedAndDeletedOnceReplayed() throws Exception {
+        ActivityJournal journal = new ActivityJournal(directory, SEGMENT_SIZE, 2);
+        String activity = "{\"payload\":\"" + new String(new char[300]).replace('\0', 'x') + "\"}";
+        int appended = 0;
+        while (journal.append(batch(activity))) {
+            appended++;
+        }
+        Assert.assertEquals(appended, 6);
+        Assert.assertEquals(directory.listFiles().length, 2);
+
+        for (int i = 0; i < 3; i++) {
+            journal.ack(journal.next());
+        }
+        Assert.assertEquals(directory.listFiles().length, 1);
+        Assert.assertTrue(journal.append(batch(activity)));
+        journal.close();
+    }
+
+    @Test
+    public void testReplayedSegmentIsDeletedWhenFilledPast() throws Exception {
+        ActivityJournal journal = new ActivityJournal(directory, SEGMENT_SIZE, 2);
+        String activity = "{\"payload\":\"" + new String(new char[300]).replace('\0', 'x') + "\"}";
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(journal.append(batch(activity)));
+        }
+        for (int i = 0; i < 3; i++) {
+            journal.ack(journal.next());
+        }
+        // Drained while still written to
+        Assert.assertEquals(directory.listFiles().length, 1);
+
+        for (int i = 0; i < 6; i++) {
+            Assert.assertTrue(journal.append(batch(activity)));
+        }
+        Assert.assertEquals(directory.listFiles().length, 2);
+        Assert.assertEquals(journal.getPendingBatches(), 6);
+        Assert.assertFalse(journal.append(batch(activity)));
+        journal.close();
+    }
+
+    @Test
+    public void testRejectsBatchLargerThanSegment() throws Exception {
+        ActivityJournal journal = new ActivityJournal(directory, SEGMENT_SIZE, 2);
+        String activity = "{\"payload\":\"" + new String(new char[SEGMENT_SIZE]).replace('\0', 'x') + "\"}";
+        Assert.assertFalse(journal.append(batch(activity)));
+        journal.close();
+    }
+
+    @Test
+    public void testSegmentsAreUnmapped() throws Exception {
+        File file = new File(directory, "mapped");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+            Assert.assertTrue(MappedBuffers.unmap(buffer));
+        }
+    }
+
+    private static ActivityBatch batch(String... activities) {
+        ActivityBatch batch = new ActivityBatch();
+        for (String activity : activities) {
+            batch.add(activity.getBytes(), System.currentTimeMillis());
+        }
+        return batch;
+    }
+}
@@ -0,0 +1,142 @@
+package com.perimeterx.api;
+
+import com.perimeterx.api.activities.ActivityShipper;
+import com.perimeterx.http.async.RejectedRequestException;
+import com.perimeterx.models.activities.ActivityBatch;
+import com.perimeterx.utils.LatencyHistogram;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import testutils.PXClientMock;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Testing {@link ActivityShipper}
+ */
+@Test
+public class ActivityShipperTest {
+
+    @Test
+    public void testInFlightLimit() throws Exception {
+        HoldingClient client = new HoldingClient();
+        final AtomicInteger released = new AtomicInteger();
+        ActivityShipper shipper = new ActivityShipper(client, 2, new Runnable() {
+            @Override
+            public void run() {
+                released.incrementAndGet();
+            }
+        });
+        RecordingCallback callback = new RecordingCallback();
+
+        Assert.assertTrue(shipper.trySend(batch(System.currentTimeMillis()), callback));
+        Assert.assertTrue(shipper.trySend(batch(System.currentTimeMillis()), callback));
+        Assert.assertFalse(shipper.trySend(batch(System.currentTimeMillis()), callback));
+        Assert.assertFalse(shipper.send(batch(System.currentTimeMillis()), callback, 10, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(shipper.getInFlightCount(), 2);
+        Assert.assertFalse(shipper.awaitIdle(10, TimeUnit.MILLISECONDS));
+
+        ActivityBatch first = client.held.get(0);
+        first.getCallback().sent(first);
+        // A second answer for the same batch is ignored
+        first.getCallback().sent(first);
+        Assert.assertEquals(shipper.getInFlightCount(), 1);
+        Assert.assertEquals(released.get(), 1);
+        Assert.assertEquals(callback.sent.get(), 1);
+        Assert.assertTrue(shipper.trySend(batch(System.currentTimeMillis()), callback));
+
+        client.held.get(1).getCallback().failed(client.held.get(1), new IOException("collector is down"));
+        client.held.get(2).getCallback().failed(client.held.get(2), new RejectedRequestException(400));
+        Assert.assertTrue(shipper.awaitIdle(10, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(shipper.getBatchesSent(), 1);
+        Assert.assertEquals(shipper.getBatchesFailed(), 1);
+        Assert.assertEquals(shipper.getBatchesRejected(), 1);
+        Assert.assertEquals(callback.failed.get(), 2);
+        Assert.assertEquals(shipper.getBatchLatency().getCount(), 3);
+        Assert.assertEquals(shipper.getDeliveryLag().getCount(), 1);
+    }
+
+    @Test
+    public void testClientExceptionFailsBatch() {
+        ActivityShipper shipper = new ActivityShipper(new PXClientMock(0, 0) {
+            @Override
+            public void sendBatchActivities(ActivityBatch batch) throws IOException {
+                throw new IOException("client is closed");
+            }
+        }, 1, null);
+        RecordingCallback callback = new RecordingCallback();
+
+        Assert.assertTrue(shipper.trySend(batch(System.currentTimeMillis()), callback));
+        Assert.assertEquals(callback.failed.get(), 1);
+        Assert.assertEquals(shipper.getInFlightCount(), 0);
+        Assert.assertEquals(shipper.getBatchesFailed(), 1);
+    }
+
+    @Test
+    public void testDeliveryLag() {
+        ActivityShipper shipper = new ActivityShipper(new PXClientMock(0, 0), 1, null);
+        shipper.trySend(batch(System.currentTimeMillis() - 5000), new RecordingCallback());
+
+        Assert.assertTrue(shipper.getDeliveryLag().getMax() >= 5000);
+        Assert.assertTrue(shipper.getBatchLatency().getMax() < 5000);
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(histogram.getValueAtPercentile(99), 0);
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        Assert.assertEquals(histogram.getCount(), 1000);
+        Assert.assertEquals(histogram.getMax(), 1000);
+        Assert.assertEquals(histogram.getMean(), 500.5, 0.001);
+        assertWithin(histogram.getValueAtPercentile(50), 500);
+        assertWithin(histogram.getValueAtPercentile(99), 990);
+        Assert.assertEquals(histogram.getValueAtPercentile(100), 1000);
+        Assert.assertEquals(histogram.getValueAtPercentile(0.01), 1);
+    }
+
+    private static void assertWithin(long actual, long expected) {
+        Assert.assertTrue(actual >= expected && actual <= expected * 1.125, actual + " is not within 12.5% of " + expected);
+    }
+
+    private static ActivityBatch batch(long timestamp) {
+        ActivityBatch batch = new ActivityBatch();
+        batch.add("{}".getBytes(), timestamp);
+        return batch;
+    }
+
+    private static class HoldingClient extends PXClientMock {
+
+        private final List<ActivityBatch> held = new ArrayList<>();
+
+        HoldingClient() {
+            super(0, 0);
+        }
+
+        @Override
+        public void sendBatchActivities(ActivityBatch batch) {
+            held.add(batch);
+        }
+    }
+
+    private static class RecordingCallback implements ActivityBatch.Callback {
+
+        private final AtomicInteger sent = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+
+        @Override
+        public void sent(ActivityBatch batch) {
+            sent.incrementAndGet();
+        }
+
+        @Override
+        public void failed(ActivityBatch batch, Exception e) {
+            failed.incrementAndGet();
+        }
+    }
+}
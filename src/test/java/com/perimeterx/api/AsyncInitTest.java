@@ -0,0 +1,139 @@
+package com.perimeterx.api;
+
+import com.perimeterx.http.PXHttpTransport;
+import com.perimeterx.models.PXContext;
+import com.perimeterx.models.configuration.AsyncInitMode;
+import com.perimeterx.models.configuration.PXConfiguration;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import testutils.PXApiStandIn;
+
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+@Test
+public class AsyncInitTest {
+
+    private static final long REMOTE_CONFIGURATION_LATENCY = 1000;
+
+    private PXApiStandIn standIn;
+    private PXHttpTransport transport;
+
+    @BeforeClass
+    public void startStandIn() throws Exception {
+        standIn = new PXApiStandIn();
+    }
+
+    @AfterClass
+    public void stopStandIn() {
+        standIn.close();
+    }
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        standIn.reset()
+                .scoreScript(PXApiStandIn.fixedScore(100))
+                .latency(PXApiStandIn.REMOTE_CONFIG, PXApiStandIn.Latency.fixed(REMOTE_CONFIGURATION_LATENCY))
+                .remoteConfiguration("{\"moduleEnabled\":true,\"cookieKey\":\"cookieKey\",\"blockingScore\":100,\"appId\":\"PXstandin\"," +
+                        "\"moduleMode\":\"blocking\",\"sensitiveHeaders\":[],\"ipHeaders\":[],\"connectTimeout\":3000,\"riskTimeout\":3000,\"checksum\":\"c1\"}");
+        transport = new PXHttpTransport();
+    }
+
+    @Test
+    public void passThroughUntilReady() throws Exception {
+        final List<EnforcerState> states = new CopyOnWriteArrayList<>();
+        long start = System.currentTimeMillis();
+        PerimeterX perimeterx = new PerimeterX(configuration(AsyncInitMode.PASS_THROUGH), transport);
+        try {
+            Assert.assertTrue(System.currentTimeMillis() - start < REMOTE_CONFIGURATION_LATENCY);
+            perimeterx.addStateListener(new EnforcerStateListener() {
+                @Override
+                public void onStateChange(PerimeterX enforcer, EnforcerState state) {
+                    states.add(state);
+                }
+            });
+            Assert.assertEquals(perimeterx.getState(), EnforcerState.INITIALIZING);
+            Assert.assertNull(verify(perimeterx));
+
+            Assert.assertSame(perimeterx.getReadiness().get(10, TimeUnit.SECONDS), perimeterx);
+            Assert.assertEquals(perimeterx.getState(), EnforcerState.READY);
+            Assert.assertEquals(perimeterx.getConfigurationStore().get().getChecksum(), "c1");
+            PXContext context = verify(perimeterx);
+            Assert.assertNotNull(context);
+            Assert.assertFalse(context.isVerified());
+        } finally {
+            perimeterx.shutdown(1000);
+        }
+        Assert.assertEquals(states.get(0), EnforcerState.INITIALIZING);
+        Assert.assertTrue(states.contains(EnforcerState.READY));
+        Assert.assertEquals(states.get(states.size() - 1), EnforcerState.CLOSED);
+    }
+
+    @Test
+    public void monitorUntilReady() throws Exception {
+        final PerimeterX perimeterx = new PerimeterX(configuration(AsyncInitMode.MONITOR), transport);
+        try {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (perimeterx.getState() == EnforcerState.INITIALIZING && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            Assert.assertEquals(perimeterx.getState(), EnforcerState.MONITORING);
+            // Scored as a bot and still passed
+            PXContext monitored = verify(perimeterx);
+            Assert.assertNotNull(monitored);
+            Assert.assertEquals(monitored.getRiskScore(), 100);
+            Assert.assertTrue(monitored.isVerified());
+
+            perimeterx.getReadiness().get(10, TimeUnit.SECONDS);
+            Assert.assertFalse(verify(perimeterx).isVerified());
+        } finally {
+            perimeterx.shutdown(1000);
+        }
+        Assert.assertEquals(perimeterx.getState(), EnforcerState.CLOSED);
+    }
+
+    @Test
+    public void shutdownWhileInitializing() throws Exception {
+        PerimeterX perimeterx = new PerimeterX(configuration(AsyncInitMode.PASS_THROUGH), transport);
+        perimeterx.shutdown(10);
+        Assert.assertEquals(perimeterx.getState(), EnforcerState.CLOSED);
+        Assert.assertNull(verify(perimeterx));
+
+        perimeterx.getReadiness().get(10, TimeUnit.SECONDS);
+        // The initialization released the transport and did not start polling
+        Assert.assertTrue(transport.isClosed());
+        Thread.sleep(100);
+        Assert.assertEquals(standIn.requestCount(PXApiStandIn.REMOTE_CONFIG), 1);
+    }
+
+    private PXConfiguration configuration(AsyncInitMode asyncInitMode) {
+        return new PXConfiguration.Builder()
+                .appId("PXstandin")
+                .authToken("token")
+                .cookieKey("cookieKey")
+                .baseURL(standIn.getUrl())
+                .collectorUrl(standIn.getUrl())
+                .clientHost(standIn.getUrl())
+                .remoteConfigurationUrl(standIn.getUrl())
+                .remoteConfigurationEnabled(true)
+                .remoteConfigurationInterval(60000)
+                .apiTimeout(3000)
+                .connectionTimeout(3000)
+                .blockingScore(100)
+                .asyncInit(true)
+                .asyncInitMode(asyncInitMode)
+                .build();
+    }
+
+    private PXContext verify(PerimeterX perimeterx) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/login");
+        return perimeterx.pxVerify(request, new HttpServletResponseWrapper(new MockHttpServletResponse()));
+    }
+}
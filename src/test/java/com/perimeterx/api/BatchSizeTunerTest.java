@@ -0,0 +1,59 @@
+package com.perimeterx.api;
+
+import com.perimeterx.api.activities.BatchSizeTuner;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Testing {@link BatchSizeTuner}
+ */
+@Test
+public class BatchSizeTunerTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testStartsAtMinimum() {
+        BatchSizeTuner tuner = new BatchSizeTuner(10, 1000, 4);
+        Assert.assertTrue(tuner.isAdaptive());
+        Assert.assertEquals(tuner.getBatchSize(), 10);
+        Assert.assertFalse(new BatchSizeTuner(10, 10, 4).isAdaptive());
+    }
+
+    @Test
+    public void testGrowsWithRateWithinBounds() {
+        BatchSizeTuner tuner = new BatchSizeTuner(10, 1000, 4);
+        long now = System.nanoTime();
+
+        tuner.onArrivals(1000, now + SECOND);
+        Assert.assertEquals(tuner.getBatchSize(), 100);
+
+        tuner.onArrivals(50000, now + 2 * SECOND);
+        Assert.assertEquals(tuner.getBatchSize(), 1000);
+    }
+
+    @Test
+    public void testStaysAtMinimumWhenQuiet() {
+        BatchSizeTuner tuner = new BatchSizeTuner(10, 1000, 4);
+        tuner.onArrivals(20, System.nanoTime() + SECOND);
+        Assert.assertEquals(tuner.getBatchSize(), 10);
+    }
+
+    @Test
+    public void testSlowCollectorGetsLargerBatches() {
+        BatchSizeTuner tuner = new BatchSizeTuner(10, 1000, 4);
+        tuner.onBatchLatency(1000);
+        tuner.onArrivals(1000, System.nanoTime() + SECOND);
+        // 4 in flight batches at 1s latency, half of them busy, are 2 batches per second
+        Assert.assertEquals(tuner.getBatchSize(), 500);
+    }
+
+    @Test
+    public void testWaitsForFullWindow() {
+        BatchSizeTuner tuner = new BatchSizeTuner(10, 1000, 4);
+        tuner.onArrivals(5000, System.nanoTime() + SECOND / 2);
+        Assert.assertEquals(tuner.getBatchSize(), 10);
+    }
+}
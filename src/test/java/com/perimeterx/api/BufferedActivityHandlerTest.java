@@ -7,14 +7,23 @@ import com.perimeterx.api.providers.IPProvider;
 import com.perimeterx.api.providers.RemoteAddressIPProvider;
 import com.perimeterx.http.PXClient;
 import com.perimeterx.models.PXContext;
+import com.perimeterx.models.activities.Activity;
+import com.perimeterx.models.activities.ActivityBatch;
 import com.perimeterx.models.configuration.PXConfiguration;
 import com.perimeterx.models.exceptions.PXException;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.util.Assert;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
+import testutils.PXClientMock;
 import testutils.TestObjectUtils;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
 /**
  * Testing {@link DefaultActivityHandler}
  * <p>
@@ -62,4 +71,68 @@ public class BufferedActivityHandlerTest {
         }
         Assert.isTrue(!thrown);
     }
+
+    @Test
+    public void testActivitiesSentOffRequestThread() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> senders = Collections.synchronizedList(new ArrayList<String>());
+        PXConfiguration asyncConfig = new PXConfiguration.Builder()
+                .appId("APP_ID")
+                .authToken("AUTH_123")
+                .cookieKey("COOKIE_123")
+                .activitiesSenderThreads(1)
+                .activitiesQueueCapacity(1)
+                .build();
+        DefaultActivityHandler handler = new DefaultActivityHandler(new PXClientMock(0, 0) {
+            @Override
+            public void sendBatchActivities(final ActivityBatch batch) {
+                senders.add(Thread.currentThread().getName());
+                // Answered on the async client threads
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        batch.getCallback().sent(batch);
+                    }
+                }).start();
+            }
+        }, asyncConfig);
+        PXContext context = new PXContext(new MockHttpServletRequest(), this.ipProvider, this.hostnameProvider, asyncConfig);
+
+        // One activity in flight held by the worker, one queued and one dropped, none blocks the caller
+        for (int i = 0; i < 3; i++) {
+            handler.handlePageRequestedActivity(context);
+        }
+        Assert.isTrue(handler.getCounters().getEnqueued() == 2);
+        Assert.isTrue(handler.getCounters().getDropped() == 1);
+
+        release.countDown();
+        handler.close();
+        Assert.isTrue(handler.getCounters().getSent() == 2);
+        Assert.isTrue(senders.size() == 2);
+        for (String sender : senders) {
+            Assert.isTrue(sender.startsWith("PerimeterX-activity-worker"));
+        }
+    }
+
+    @Test(expectedExceptions = PXException.class)
+    public void testSynchronousModePropagatesFailures() throws Exception {
+        PXConfiguration syncConfig = new PXConfiguration.Builder()
+                .appId("APP_ID")
+                .authToken("AUTH_123")
+                .cookieKey("COOKIE_123")
+                .activitiesSenderThreads(0)
+                .build();
+        DefaultActivityHandler handler = new DefaultActivityHandler(new PXClientMock(0, 0) {
+            @Override
+            public void sendActivity(Activity activity) throws IOException {
+                throw new IOException("collector is down");
+            }
+        }, syncConfig);
+        handler.handleBlockActivity(new PXContext(new MockHttpServletRequest(), this.ipProvider, this.hostnameProvider, syncConfig));
+    }
 }
@@ -0,0 +1,115 @@
+package com.perimeterx.api;
+
+import com.perimeterx.api.jmx.EnforcerManagement;
+import com.perimeterx.models.PXContext;
+import com.perimeterx.models.configuration.ModuleMode;
+import com.perimeterx.models.configuration.PXConfiguration;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import testutils.TestObjectUtils;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.lang.management.ManagementFactory;
+
+@Test
+public class EnforcerManagementTest {
+
+    private static final int BLOCKING_SCORE = 30;
+
+    private MBeanServer server;
+    private ObjectName name;
+    private PerimeterX perimeterx;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        PXConfiguration configuration = new PXConfiguration.Builder()
+                .appId("appIdJmx")
+                .authToken("token")
+                .cookieKey("cookieKey")
+                .moduleMode(ModuleMode.BLOCKING)
+                .remoteConfigurationEnabled(false)
+                .blockingScore(BLOCKING_SCORE)
+                .jmxEnabled(true)
+                .build();
+        perimeterx = TestObjectUtils.testablePerimeterXObject(configuration, TestObjectUtils.blockingPXClient(BLOCKING_SCORE));
+        server = ManagementFactory.getPlatformMBeanServer();
+        name = EnforcerManagement.objectName("appIdJmx");
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        perimeterx.close();
+    }
+
+    @Test
+    public void exposesStatistics() throws Exception {
+        Assert.assertTrue(server.isRegistered(name));
+        Assert.assertFalse(verify().isVerified());
+
+        Assert.assertEquals(server.getAttribute(name, "AppId"), "appIdJmx");
+        Assert.assertEquals(server.getAttribute(name, "State"), "READY");
+        Assert.assertEquals(server.getAttribute(name, "ModuleMode"), "BLOCKING");
+        Assert.assertEquals(server.getAttribute(name, "RequestCount"), 1L);
+        Assert.assertEquals(server.getAttribute(name, "BlockCount"), 1L);
+        Assert.assertEquals(server.getAttribute(name, "PassCount"), 0L);
+        Assert.assertEquals(server.getAttribute(name, "S2SCallCount"), 1L);
+        Assert.assertEquals(server.getAttribute(name, "BulkheadInUse"), 0);
+        Assert.assertNotNull(server.getAttribute(name, "BlockReasons"));
+        Assert.assertTrue((Long) server.getAttribute(name, "S2SLatencyP99") <= (Long) server.getAttribute(name, "S2SLatencyMax"));
+
+        perimeterx.close();
+        Assert.assertFalse(server.isRegistered(name));
+    }
+
+    @Test
+    public void changesConfigurationAtRuntime() throws Exception {
+        PXConfiguration initial = perimeterx.getConfigurationStore().get();
+        server.invoke(name, "changeBlockingScore", new Object[]{BLOCKING_SCORE + 1}, new String[]{"int"});
+        server.invoke(name, "changeTimeouts", new Object[]{500, 700}, new String[]{"int", "int"});
+
+        PXConfiguration current = perimeterx.getConfigurationStore().get();
+        Assert.assertNotSame(current, initial);
+        Assert.assertEquals(initial.getBlockingScore(), BLOCKING_SCORE);
+        Assert.assertEquals(current.getBlockingScore(), BLOCKING_SCORE + 1);
+        Assert.assertEquals(current.getConnectionTimeout(), 500);
+        Assert.assertEquals(current.getApiTimeout(), 700);
+        Assert.assertTrue(verify().isVerified());
+
+        server.invoke(name, "clearCaches", new Object[0], new String[0]);
+        Assert.assertNotSame(perimeterx.getConfigurationStore().get(), current);
+        Assert.assertNotSame(perimeterx.getConfigurationStore().get().getCookieHmacKey(), current.getCookieHmacKey());
+        Assert.assertEquals(perimeterx.getConfigurationStore().get().getCookieHmacKey(), current.getCookieHmacKey());
+
+        try {
+            server.invoke(name, "changeBlockingScore", new Object[]{101}, new String[]{"int"});
+            Assert.fail("blocking score above 100 accepted");
+        } catch (Exception e) {
+            Assert.assertEquals(perimeterx.getConfigurationStore().get().getBlockingScore(), BLOCKING_SCORE + 1);
+        }
+    }
+
+    @Test
+    public void forcesMonitorMode() throws Exception {
+        server.invoke(name, "forceMonitorMode", new Object[]{60L}, new String[]{"long"});
+        Assert.assertEquals(server.getAttribute(name, "ModuleMode"), "MONITOR");
+        Assert.assertTrue((Long) server.getAttribute(name, "ForcedMonitorModeSeconds") > 0);
+        PXContext monitored = verify();
+        Assert.assertEquals(monitored.getRiskScore(), BLOCKING_SCORE);
+        Assert.assertTrue(monitored.isVerified());
+        Assert.assertEquals(perimeterx.getConfigurationStore().get().getModuleMode(), ModuleMode.BLOCKING);
+
+        server.invoke(name, "forceMonitorMode", new Object[]{0L}, new String[]{"long"});
+        Assert.assertEquals(server.getAttribute(name, "ForcedMonitorModeSeconds"), 0L);
+        Assert.assertFalse(verify().isVerified());
+    }
+
+    private PXContext verify() throws Exception {
+        return perimeterx.pxVerify(new MockHttpServletRequest(), new HttpServletResponseWrapper(new MockHttpServletResponse()));
+    }
+}
@@ -0,0 +1,132 @@
+package com.perimeterx.api;
+
+import com.perimeterx.http.PXClient;
+import com.perimeterx.http.PXHttpClient;
+import com.perimeterx.http.PXHttpTransport;
+import com.perimeterx.metrics.EnforcerGauges;
+import com.perimeterx.metrics.EnforcerMetrics;
+import com.perimeterx.metrics.HealthReporter;
+import com.perimeterx.metrics.Stage;
+import com.perimeterx.models.activities.EnforcerHealthActivityDetails;
+import com.perimeterx.models.activities.EnforcerTelemetry;
+import com.perimeterx.models.configuration.PXConfiguration;
+import com.perimeterx.models.configuration.PXConfigurationStore;
+import com.perimeterx.models.risk.PassReason;
+import com.perimeterx.utils.JsonUtils;
+import com.perimeterx.utils.LatencyHistogram;
+import org.mockito.ArgumentCaptor;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import testutils.TestObjectUtils;
+
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@Test
+public class HealthReporterTest {
+
+    private PXConfiguration configuration;
+    private PXHttpClient client;
+
+    @BeforeMethod
+    public void setUp() {
+        configuration = TestObjectUtils.generateConfiguration();
+        client = mock(PXHttpClient.class);
+        when(client.getBulkheadAvailable()).thenReturn(configuration.getMaxConnectionsPerRoute() - 1);
+    }
+
+    @Test
+    public void reportsStagesAndVerdictsOfTheInterval() throws Exception {
+        PXClient blockingClient = TestObjectUtils.blockingPXClient(configuration.getBlockingScore());
+        PXConfigurationStore store = new PXConfigurationStore(configuration);
+        PerimeterX perimeterx = TestObjectUtils.testablePerimeterXObject(configuration, blockingClient);
+        HealthReporter reporter = new HealthReporter(store, perimeterx.getMetrics(), client, new EnforcerGauges(store, client, null, null));
+        for (int i = 0; i < 3; i++) {
+            perimeterx.pxVerify(new MockHttpServletRequest(), new HttpServletResponseWrapper(new MockHttpServletResponse()));
+        }
+
+        EnforcerHealthActivityDetails report = reporter.report();
+        Assert.assertEquals(report.getStages().get("verify").get("count"), Long.valueOf(3));
+        Assert.assertEquals(report.getStages().get("context").get("count"), Long.valueOf(3));
+        Assert.assertEquals(report.getStages().get("s2s").get("count"), Long.valueOf(3));
+        Assert.assertEquals(report.getStages().get("block_render").get("count"), Long.valueOf(3));
+        Assert.assertEquals(report.getBlockReasons().get("s2s_high_score"), Long.valueOf(3));
+        Assert.assertEquals(report.getPassReasons().get("s2s"), Long.valueOf(0));
+        Assert.assertEquals(report.getPools().get("bulkhead").get("in_use"), 1);
+
+        perimeterx.pxVerify(new MockHttpServletRequest(), new HttpServletResponseWrapper(new MockHttpServletResponse()));
+        report = reporter.report();
+        Assert.assertEquals(report.getStages().get("verify").get("count"), Long.valueOf(1));
+        Assert.assertEquals(report.getBlockReasons().get("s2s_high_score"), Long.valueOf(1));
+        perimeterx.close();
+    }
+
+    @Test
+    public void sendsReportWithTelemetry() throws Exception {
+        EnforcerMetrics metrics = new EnforcerMetrics();
+        metrics.recordStage(Stage.COOKIE_HMAC, 5000);
+        metrics.recordHmacKey(true);
+        metrics.recordHmacKey(true);
+        metrics.recordHmacKey(false);
+        metrics.recordPass(PassReason.COOKIE);
+        PXConfigurationStore store = new PXConfigurationStore(configuration);
+        HealthReporter reporter = new HealthReporter(store, metrics, client, new EnforcerGauges(store, client, null, null));
+
+        reporter.send();
+        ArgumentCaptor<EnforcerTelemetry> telemetry = ArgumentCaptor.forClass(EnforcerTelemetry.class);
+        verify(client).sendEnforcerTelemetry(telemetry.capture());
+        EnforcerHealthActivityDetails report = (EnforcerHealthActivityDetails) telemetry.getValue().getDetails();
+        Assert.assertEquals(report.getStages().get("cookie_hmac").get("p99_us"), Long.valueOf(5));
+        Assert.assertEquals(report.getCaches().get("hmac_key").get("hit_rate").doubleValue(), 2 / 3.0, 0.001);
+        Assert.assertEquals(report.getPassReasons().get("cookie"), Long.valueOf(1));
+
+        String json = JsonUtils.writer.writeValueAsString(telemetry.getValue());
+        Assert.assertTrue(json.contains("\"update_reason\":\"health_report\""));
+        Assert.assertTrue(json.contains("\"pass_reasons\":{"));
+    }
+
+    @Test
+    public void sharedTransportPoolsAreReportedOnce() throws Exception {
+        PXHttpTransport transport = new PXHttpTransport();
+        transport.register(configuration);
+        PXConfigurationStore store = new PXConfigurationStore(configuration);
+        HealthReporter first = new HealthReporter(store, new EnforcerMetrics(), client, new EnforcerGauges(store, client, transport, null));
+        HealthReporter second = new HealthReporter(store, new EnforcerMetrics(), client, new EnforcerGauges(store, client, transport, null));
+        try {
+            Assert.assertTrue(first.report().getPools().containsKey("blocking"));
+            Assert.assertFalse(second.report().getPools().containsKey("blocking"));
+            Assert.assertTrue(second.report().getPools().containsKey("bulkhead"));
+
+            first.stop();
+            Assert.assertTrue(second.report().getPools().containsKey("async"));
+            Assert.assertFalse(first.report().getPools().containsKey("blocking"));
+        } finally {
+            first.stop();
+            second.stop();
+            transport.release(configuration);
+        }
+    }
+
+    @Test
+    public void histogramSinceCopy() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+        histogram.record(2000);
+        LatencyHistogram earlier = histogram.copy();
+        histogram.record(10);
+        histogram.record(20);
+
+        LatencyHistogram interval = histogram.since(earlier);
+        Assert.assertEquals(interval.getCount(), 2);
+        Assert.assertEquals(interval.getMean(), 15.0);
+        Assert.assertTrue(interval.getMax() >= 20 && interval.getMax() < 23);
+        Assert.assertTrue(interval.getValueAtPercentile(100) < 23);
+        Assert.assertEquals(earlier.getCount(), 2);
+    }
+}
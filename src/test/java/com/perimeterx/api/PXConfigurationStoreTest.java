@@ -0,0 +1,146 @@
+package com.perimeterx.api;
+
+import com.perimeterx.api.providers.CombinedIPProvider;
+import com.perimeterx.api.proxy.DefaultReverseProxy;
+import com.perimeterx.models.configuration.ModuleMode;
+import com.perimeterx.models.configuration.PXConfiguration;
+import com.perimeterx.models.configuration.PXConfigurationChange;
+import com.perimeterx.models.configuration.PXConfigurationListener;
+import com.perimeterx.models.configuration.PXConfigurationStore;
+import com.perimeterx.models.configuration.PXDynamicConfiguration;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import testutils.TestObjectUtils;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+@Test
+public class PXConfigurationStoreTest {
+
+    private PXConfigurationStore store;
+    private List<PXConfigurationChange> changes;
+
+    @BeforeMethod
+    public void setUp() {
+        store = new PXConfigurationStore(TestObjectUtils.generateConfiguration());
+        changes = new ArrayList<>();
+        store.addListener(new PXConfigurationListener() {
+            @Override
+            public void onConfigurationChange(PXConfigurationChange change) {
+                changes.add(change);
+            }
+        });
+    }
+
+    @Test
+    public void listenerReceivesSnapshotsAndChangedProperties() {
+        PXConfiguration previous = store.get();
+        PXConfiguration current = store.update(dynamicConfiguration("appId", 70));
+
+        Assert.assertEquals(changes.size(), 1);
+        PXConfigurationChange change = changes.get(0);
+        Assert.assertSame(change.getPrevious(), previous);
+        Assert.assertSame(change.getCurrent(), current);
+        Assert.assertTrue(change.isChanged("blockingScore"));
+        Assert.assertTrue(change.isChanged("checksum"));
+        Assert.assertFalse(change.isChanged("appId"));
+        Assert.assertFalse(change.getChangedProperties().contains("cookieHmacKey"));
+        Assert.assertEquals(previous.getBlockingScore(), 30);
+    }
+
+    @Test
+    public void unchangedConfigurationIsNotPublished() {
+        store.update(dynamicConfiguration("appId", 70));
+        store.update(dynamicConfiguration("appId", 70));
+        Assert.assertEquals(changes.size(), 1);
+    }
+
+    @Test
+    public void failingListenerDoesNotStopPublishing() {
+        final List<PXConfigurationChange> later = new ArrayList<>();
+        store = new PXConfigurationStore(TestObjectUtils.generateConfiguration());
+        store.addListener(new PXConfigurationListener() {
+            @Override
+            public void onConfigurationChange(PXConfigurationChange change) {
+                throw new IllegalStateException("listener failure");
+            }
+        });
+        store.addListener(new PXConfigurationListener() {
+            @Override
+            public void onConfigurationChange(PXConfigurationChange change) {
+                later.add(change);
+            }
+        });
+
+        PXConfiguration current = store.update(dynamicConfiguration("appId", 70));
+        Assert.assertSame(store.get(), current);
+        Assert.assertEquals(later.size(), 1);
+    }
+
+    @Test
+    public void appIdChangeRederivesDefaultUrls() {
+        PXConfiguration current = store.update(dynamicConfiguration("PXnewAppId", 30));
+
+        Assert.assertTrue(changes.get(0).isChanged("appId", "serverURL", "collectorUrl"));
+        Assert.assertEquals(current.getServerURL(), "https://sapi-pxnewappid.perimeterx.net");
+        Assert.assertEquals(current.getCollectorUrl(), "https://collector-pxnewappid.perimeterx.net");
+    }
+
+    @Test
+    public void appIdChangeKeepsCustomUrls() {
+        store = new PXConfigurationStore(new PXConfiguration.Builder()
+                .appId("appId")
+                .authToken("token")
+                .cookieKey("cookieKey")
+                .collectorUrl("https://collector.example.com")
+                .build());
+
+        PXConfiguration current = store.update(dynamicConfiguration("PXnewAppId", 30));
+        Assert.assertEquals(current.getCollectorUrl(), "https://collector.example.com");
+        Assert.assertEquals(current.getServerURL(), "https://sapi-pxnewappid.perimeterx.net");
+    }
+
+    @Test
+    public void reverseProxyRoutesNewAppId() throws Exception {
+        PXConfiguration configuration = new PXConfiguration.Builder()
+                .appId("PX12345678")
+                .authToken("token")
+                .cookieKey("cookieKey")
+                .firstPartyEnabled(false)
+                .build();
+        store = new PXConfigurationStore(configuration);
+        DefaultReverseProxy reverseProxy = new DefaultReverseProxy(configuration, new CombinedIPProvider(configuration));
+        store.addListener(reverseProxy);
+
+        store.update(dynamicConfiguration("PX87654321", 30));
+
+        MockHttpServletRequest oldRoute = new MockHttpServletRequest();
+        oldRoute.setRequestURI("/12345678/init.js");
+        Assert.assertFalse(reverseProxy.reversePxClient(oldRoute, new MockHttpServletResponse()));
+
+        MockHttpServletRequest newRoute = new MockHttpServletRequest();
+        newRoute.setRequestURI("/87654321/init.js");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        Assert.assertTrue(reverseProxy.reversePxClient(newRoute, response));
+        Assert.assertEquals(response.getHeader("Content-Type"), "application/javascript");
+    }
+
+    private PXDynamicConfiguration dynamicConfiguration(String appId, int blockingScore) {
+        PXDynamicConfiguration dynamicConfiguration = new PXDynamicConfiguration();
+        dynamicConfiguration.setAppId(appId);
+        dynamicConfiguration.setChecksum("checksum-" + blockingScore);
+        dynamicConfiguration.setBlockingScore(blockingScore);
+        dynamicConfiguration.setCookieSecret("cookieKey");
+        dynamicConfiguration.setApiConnectTimeout(1000);
+        dynamicConfiguration.setSensitiveHeaders(new HashSet<String>());
+        dynamicConfiguration.setIpHeaders(new HashSet<String>());
+        dynamicConfiguration.setModuleEnabled(true);
+        dynamicConfiguration.setModuleMode(ModuleMode.BLOCKING);
+        return dynamicConfiguration;
+    }
+}
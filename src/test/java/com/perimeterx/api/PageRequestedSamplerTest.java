@@ -0,0 +1,105 @@
+package com.perimeterx.api;
+
+import com.perimeterx.api.activities.PageRequestedSampler;
+import com.perimeterx.api.providers.DefaultHostnameProvider;
+import com.perimeterx.api.providers.RemoteAddressIPProvider;
+import com.perimeterx.models.PXContext;
+import com.perimeterx.models.activities.Activity;
+import com.perimeterx.models.activities.ActivityFactory;
+import com.perimeterx.models.configuration.PXConfiguration;
+import com.perimeterx.utils.Constants;
+import com.perimeterx.utils.JsonUtils;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Testing {@link PageRequestedSampler}
+ */
+@Test
+public class PageRequestedSamplerTest {
+
+    @Test
+    public void testDisabledByDefault() {
+        Assert.assertFalse(new PageRequestedSampler(configuration(1, new HashMap<String, Double>())).isEnabled());
+    }
+
+    @Test
+    public void testSampleRateAndWeight() {
+        PXConfiguration config = configuration(0.25, new HashMap<String, Double>());
+        PageRequestedSampler sampler = new PageRequestedSampler(config);
+        Assert.assertTrue(sampler.isEnabled());
+
+        int kept = 0;
+        for (int i = 0; i < 10000; i++) {
+            PXContext context = context(config, "/home", UUID.randomUUID().toString());
+            if (sampler.sample(context)) {
+                kept++;
+                Assert.assertEquals(context.getSamplingWeight(), 4.0);
+            }
+        }
+        Assert.assertTrue(kept > 2200 && kept < 2800, "kept " + kept);
+    }
+
+    @Test
+    public void testDeterministicByVid() {
+        PXConfiguration config = configuration(0.5, new HashMap<String, Double>());
+        PageRequestedSampler sampler = new PageRequestedSampler(config);
+        for (int i = 0; i < 100; i++) {
+            String vid = UUID.randomUUID().toString();
+            boolean first = sampler.sample(context(config, "/home", vid));
+            Assert.assertEquals(sampler.sample(context(config, "/other", vid)), first);
+        }
+    }
+
+    @Test
+    public void testLongestRoutePrefixWins() {
+        Map<String, Double> routeRates = new HashMap<>();
+        routeRates.put("/api", 0.0);
+        routeRates.put("/api/checkout", 1.0);
+        PXConfiguration config = configuration(1, routeRates);
+        PageRequestedSampler sampler = new PageRequestedSampler(config);
+
+        for (int i = 0; i < 100; i++) {
+            String vid = UUID.randomUUID().toString();
+            Assert.assertFalse(sampler.sample(context(config, "/api/items", vid)));
+            PXContext checkout = context(config, "/api/checkout/pay", vid);
+            Assert.assertTrue(sampler.sample(checkout));
+            Assert.assertEquals(checkout.getSamplingWeight(), 1.0);
+            Assert.assertTrue(sampler.sample(context(config, "/home", vid)));
+        }
+    }
+
+    @Test
+    public void testWeightIsSentOnlyWhenSampled() throws Exception {
+        PXConfiguration config = configuration(1, new HashMap<String, Double>());
+        PXContext context = context(config, "/home", "vid");
+        Activity activity = ActivityFactory.createActivity(Constants.ACTIVITY_PAGE_REQUESTED, config.getAppId(), context);
+        Assert.assertFalse(JsonUtils.writer.writeValueAsString(activity).contains("sampling_weight"));
+
+        context.setSamplingWeight(4);
+        activity = ActivityFactory.createActivity(Constants.ACTIVITY_PAGE_REQUESTED, config.getAppId(), context);
+        Assert.assertTrue(JsonUtils.writer.writeValueAsString(activity).contains("\"sampling_weight\":4.0"));
+    }
+
+    private static PXConfiguration configuration(double rate, Map<String, Double> routeRates) {
+        return new PXConfiguration.Builder()
+                .appId("APP_ID")
+                .authToken("AUTH_123")
+                .cookieKey("COOKIE_123")
+                .pageRequestedSampleRate(rate)
+                .pageRequestedRouteSampleRates(routeRates)
+                .build();
+    }
+
+    private static PXContext context(PXConfiguration config, String uri, String vid) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", uri);
+        PXContext context = new PXContext(request, new RemoteAddressIPProvider(), new DefaultHostnameProvider(), config);
+        context.setVid(vid);
+        return context;
+    }
+}
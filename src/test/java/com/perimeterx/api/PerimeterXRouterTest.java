@@ -0,0 +1,92 @@
+package com.perimeterx.api;
+
+import com.perimeterx.http.PXHttpTransport;
+import com.perimeterx.models.configuration.ModuleMode;
+import com.perimeterx.models.configuration.PXConfiguration;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.servlet.http.HttpServletResponseWrapper;
+
+@Test
+public class PerimeterXRouterTest {
+
+    private PXHttpTransport transport;
+    private PerimeterX brandA;
+    private PerimeterX brandB;
+    private PerimeterX fallback;
+    private PerimeterXRouter router;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        transport = new PXHttpTransport();
+        brandA = new PerimeterX(configuration("PXbrandA"), transport);
+        brandB = new PerimeterX(configuration("PXbrandB"), transport);
+        fallback = new PerimeterX(configuration("PXfallback"), transport);
+        router = new PerimeterXRouter.Builder()
+                .route("www.brand-a.com", brandA)
+                .route("*.brand-b.com", brandB)
+                .route("*.shop.brand-b.com", brandA)
+                .defaultEnforcer(fallback)
+                .build();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        router.close();
+    }
+
+    @Test
+    public void testRouteExactHost() {
+        Assert.assertSame(router.route("www.brand-a.com"), brandA);
+        Assert.assertSame(router.route("WWW.Brand-A.com"), brandA);
+    }
+
+    @Test
+    public void testRouteWildcardMostSpecificSuffix() {
+        Assert.assertSame(router.route("m.brand-b.com"), brandB);
+        Assert.assertSame(router.route("a.b.brand-b.com"), brandB);
+        Assert.assertSame(router.route("eu.shop.brand-b.com"), brandA);
+    }
+
+    @Test
+    public void testRouteDefault() {
+        Assert.assertSame(router.route("brand-b.com"), fallback);
+        Assert.assertSame(router.route("unknown.com"), fallback);
+        Assert.assertSame(router.route((String) null), fallback);
+    }
+
+    @Test
+    public void testNoDefaultEnforcer() throws Exception {
+        PerimeterXRouter noDefault = new PerimeterXRouter.Builder().route("www.brand-a.com", brandA).build();
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setServerName("other.com");
+        Assert.assertNull(noDefault.pxVerify(request, new HttpServletResponseWrapper(new MockHttpServletResponse())));
+    }
+
+    @Test
+    public void testTransportClosedWithLastEnforcer() throws Exception {
+        brandA.close();
+        Assert.assertFalse(transport.isClosed());
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setServerName("www.brand-a.com");
+        Assert.assertNull(router.pxVerify(request, new HttpServletResponseWrapper(new MockHttpServletResponse())));
+
+        brandB.close();
+        fallback.close();
+        Assert.assertTrue(transport.isClosed());
+    }
+
+    private PXConfiguration configuration(String appId) {
+        return new PXConfiguration.Builder()
+                .appId(appId)
+                .authToken("token_" + appId)
+                .cookieKey("cookie_" + appId)
+                .moduleMode(ModuleMode.BLOCKING)
+                .build();
+    }
+}
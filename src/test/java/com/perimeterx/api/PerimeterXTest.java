@@ -1,7 +1,11 @@
 package com.perimeterx.api;
 
+import com.perimeterx.api.activities.ActivityHandler;
+import com.perimeterx.api.activities.BufferedActivityHandler;
 import com.perimeterx.http.PXClient;
+import com.perimeterx.models.PXContext;
 import com.perimeterx.models.configuration.PXConfiguration;
+import org.mockito.Mockito;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
 import org.testng.Assert;
@@ -12,6 +16,7 @@ import testutils.TestObjectUtils;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.Closeable;
 import java.util.Collection;
 
 /**
@@ -116,4 +121,23 @@ public class PerimeterXTest extends ConfiguredTest {
         Assert.assertEquals((((MockHttpServletResponse) response).getContentAsString()), "custom verification handle");
     }
 
+    @Test
+    public void testSetActivityHandler() throws Exception {
+        PXClient client = TestObjectUtils.blockingPXClient(configuration.getBlockingScore());
+        PerimeterX perimeterx = TestObjectUtils.testablePerimeterXObject(configuration, client);
+        ActivityHandler closeable = Mockito.mock(ActivityHandler.class, Mockito.withSettings().extraInterfaces(Closeable.class));
+        perimeterx.setActivityHandler(closeable);
+        perimeterx.setActivityHandler(new BufferedActivityHandler(client, configuration));
+        Mockito.verify((Closeable) closeable).close();
+        Assert.assertEquals(perimeterx.getGauges().getActivitiesBuffered(), 0);
+
+        ActivityHandler activityHandler = Mockito.mock(ActivityHandler.class);
+        perimeterx.setActivityHandler(activityHandler);
+        perimeterx.pxVerify(new MockHttpServletRequest(), new HttpServletResponseWrapper(new MockHttpServletResponse()));
+        Mockito.verify(activityHandler).handleBlockActivity(Mockito.any(PXContext.class));
+        Assert.assertEquals(perimeterx.getGauges().getActivitiesBuffered(), -1);
+        Mockito.verifyZeroInteractions(closeable);
+        perimeterx.close();
+    }
+
 }
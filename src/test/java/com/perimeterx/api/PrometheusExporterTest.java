@@ -0,0 +1,262 @@
+package com.perimeterx.api;
+
+import com.perimeterx.metrics.MetricsRecorder;
+import com.perimeterx.metrics.PrometheusExporter;
+import com.perimeterx.metrics.S2SOutcome;
+import com.perimeterx.metrics.Stage;
+import com.perimeterx.models.configuration.ModuleMode;
+import com.perimeterx.models.configuration.PXConfiguration;
+import com.perimeterx.models.risk.BlockReason;
+import com.perimeterx.models.risk.PassReason;
+import com.perimeterx.models.risk.S2SCallReason;
+import com.perimeterx.utils.LatencyHistogram;
+import com.perimeterx.utils.StripedCounters;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.testng.Assert;
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+import testutils.TestObjectUtils;
+
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+@Test
+public class PrometheusExporterTest {
+
+    @Test
+    public void exportsStagesOutcomesAndReasons() throws Exception {
+        RecordingMetricsRecorder recorder = new RecordingMetricsRecorder();
+        PXConfiguration configuration = configuration("APP\"ID", recorder);
+        PerimeterX perimeterx = TestObjectUtils.testablePerimeterXObject(configuration,
+                TestObjectUtils.blockingPXClient(configuration.getBlockingScore()));
+        try {
+            for (int i = 0; i < 2; i++) {
+                perimeterx.pxVerify(new MockHttpServletRequest(), new HttpServletResponseWrapper(new MockHttpServletResponse()));
+            }
+
+            String scrape = new PrometheusExporter(perimeterx).scrape();
+            Assert.assertTrue(scrape.contains("# TYPE perimeterx_stage_duration_seconds summary\n"));
+            Assert.assertTrue(scrape.contains("perimeterx_stage_duration_seconds_count{app_id=\"APP\\\"ID\",stage=\"verify\"} 2\n"));
+            Assert.assertTrue(scrape.contains("perimeterx_stage_duration_seconds_count{app_id=\"APP\\\"ID\",stage=\"captcha\"} 2\n"));
+            Assert.assertTrue(scrape.contains("perimeterx_s2s_duration_seconds_count{app_id=\"APP\\\"ID\",outcome=\"block\"} 2\n"));
+            Assert.assertTrue(scrape.contains("perimeterx_s2s_duration_seconds_count{app_id=\"APP\\\"ID\",outcome=\"pass\"} 0\n"));
+            Assert.assertTrue(scrape.contains("perimeterx_s2s_duration_seconds{app_id=\"APP\\\"ID\",outcome=\"block\",quantile=\"0.99\"} "));
+            Assert.assertTrue(scrape.contains("perimeterx_block_total{app_id=\"APP\\\"ID\",reason=\"s2s_high_score\"} 2\n"));
+            Assert.assertTrue(scrape.contains("perimeterx_s2s_call_total{app_id=\"APP\\\"ID\",reason=\"no_cookie\"} 2\n"));
+            Assert.assertTrue(scrape.contains("perimeterx_pass_total{app_id=\"APP\\\"ID\",reason=\"none\"} 0\n"));
+            Assert.assertTrue(scrape.contains("perimeterx_bulkhead_max{app_id=\"APP\\\"ID\"} " + configuration.getMaxConnectionsPerRoute() + "\n"));
+            Assert.assertTrue(scrape.contains("perimeterx_http_pool_connections{pool=\"blocking\",state=\"max\"} "));
+            for (String line : scrape.split("\n")) {
+                Assert.assertTrue(line.startsWith("# ") || line.matches("perimeterx_[a-z0-9_]+\\{[^}]*\\} [0-9.E-]+"), line);
+            }
+
+            Assert.assertTrue(recorder.events.contains("stage:verify"));
+            Assert.assertTrue(recorder.events.contains("s2s:block"));
+            Assert.assertTrue(recorder.events.contains("call:no_cookie"));
+            Assert.assertTrue(recorder.events.contains("block:s2s_high_score"));
+        } finally {
+            perimeterx.close();
+        }
+    }
+
+    @Test
+    public void sharedTransportPoolsAreExportedOnce() throws Exception {
+        PXConfiguration first = configuration("appIdA", new RecordingMetricsRecorder());
+        PXConfiguration second = configuration("appIdB", new RecordingMetricsRecorder());
+        PerimeterX firstEnforcer = TestObjectUtils.testablePerimeterXObject(first, TestObjectUtils.blockingPXClient(30));
+        PerimeterX secondEnforcer = TestObjectUtils.testablePerimeterXObject(second, TestObjectUtils.blockingPXClient(30));
+        try {
+            String scrape = new PrometheusExporter(firstEnforcer, secondEnforcer).scrape();
+            int pools = 0;
+            for (String line : scrape.split("\n")) {
+                if (line.startsWith("perimeterx_http_pool_connections{pool=\"blocking\",state=\"max\"} ")) {
+                    pools++;
+                }
+            }
+            Assert.assertEquals(pools, 1);
+            Assert.assertTrue(scrape.contains("perimeterx_bulkhead_max{app_id=\"appIdB\"} "));
+        } finally {
+            firstEnforcer.close();
+            secondEnforcer.close();
+        }
+    }
+
+    @Test
+    public void failingRecorderDoesNotFailRequests() throws Exception {
+        PXConfiguration configuration = configuration("appId", new RecordingMetricsRecorder() {
+            @Override
+            public void recordStage(Stage stage, long nanos) {
+                throw new IllegalStateException("broken");
+            }
+        });
+        PerimeterX perimeterx = TestObjectUtils.testablePerimeterXObject(configuration,
+                TestObjectUtils.blockingPXClient(configuration.getBlockingScore()));
+        try {
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            Assert.assertFalse(perimeterx.pxVerify(new MockHttpServletRequest(), new HttpServletResponseWrapper(response)).isVerified());
+            Assert.assertEquals(perimeterx.getMetrics().getStage(Stage.VERIFY).getCount(), 1);
+        } finally {
+            perimeterx.close();
+        }
+    }
+
+    @Test
+    public void stripedCountersSumAcrossThreads() throws Exception {
+        final StripedCounters counters = new StripedCounters(3);
+        final CountDownLatch done = new CountDownLatch(8);
+        for (int t = 0; t < 8; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        counters.increment(1);
+                    }
+                    counters.add(2, 5);
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        Assert.assertEquals(counters.get(0), 0);
+        Assert.assertEquals(counters.get(1), 80000);
+        Assert.assertEquals(counters.get(2), 40);
+    }
+
+    @Test
+    public void latencyHistogramRecordsAcrossThreads() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final CountDownLatch done = new CountDownLatch(8);
+        for (int t = 0; t < 8; t++) {
+            final int thread = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        histogram.record(i % 100);
+                    }
+                    histogram.record(1000 + thread);
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        Assert.assertEquals(histogram.getCount(), 80008);
+        Assert.assertEquals(histogram.getSum(), 8 * 100 * 4950 + 8 * 1000 + 28);
+        Assert.assertEquals(histogram.getMax(), 1007);
+        Assert.assertEquals(histogram.copy().getCount(), 80008);
+    }
+
+    @Test
+    public void latencyHistogramOutpacesSharedCountersUnderContention() throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (threads < 4) {
+            throw new SkipException("Contention needs at least 4 processors, found " + threads);
+        }
+        final LatencyHistogram histogram = new LatencyHistogram();
+        // The layout recording updated before the histogram was striped
+        final AtomicLongArray buckets = new AtomicLongArray(64);
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong sum = new AtomicLong();
+        Runnable striped = new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 1000000; i++) {
+                    histogram.record(i & 63);
+                }
+            }
+        };
+        Runnable shared = new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 1000000; i++) {
+                    buckets.incrementAndGet(i & 63);
+                    count.incrementAndGet();
+                    sum.addAndGet(i & 63);
+                }
+            }
+        };
+        // Warm up both before timing them
+        contend(threads, striped);
+        contend(threads, shared);
+        long stripedNanos = contend(threads, striped);
+        long sharedNanos = contend(threads, shared);
+        Assert.assertTrue(stripedNanos < sharedNanos, "striped " + stripedNanos + "ns, shared " + sharedNanos + "ns");
+    }
+
+    private static long contend(int threads, final Runnable work) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        work.run();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        return System.nanoTime() - begin;
+    }
+
+    private static PXConfiguration configuration(String appId, MetricsRecorder recorder) {
+        return new PXConfiguration.Builder()
+                .appId(appId)
+                .authToken("token")
+                .cookieKey("cookieKey")
+                .moduleMode(ModuleMode.BLOCKING)
+                .remoteConfigurationEnabled(false)
+                .blockingScore(30)
+                .metricsRecorder(recorder)
+                .build();
+    }
+
+    private static class RecordingMetricsRecorder implements MetricsRecorder {
+
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public void recordStage(Stage stage, long nanos) {
+            events.add("stage:" + stage.getValue());
+        }
+
+        @Override
+        public void recordS2S(S2SOutcome outcome, long nanos) {
+            events.add("s2s:" + outcome.getValue());
+        }
+
+        @Override
+        public void recordS2SCall(S2SCallReason reason) {
+            events.add("call:" + reason.getValue());
+        }
+
+        @Override
+        public void recordPass(PassReason reason) {
+            events.add("pass:" + reason.getValue());
+        }
+
+        @Override
+        public void recordBlock(BlockReason reason) {
+            events.add("block:" + reason.getValue());
+        }
+
+        @Override
+        public void recordHmacKey(boolean hit) {
+            events.add("hmac:" + hit);
+        }
+    }
+}
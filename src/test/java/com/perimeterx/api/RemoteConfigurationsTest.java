@@ -3,22 +3,31 @@ package com.perimeterx.api;
 import com.perimeterx.api.activities.ActivityHandler;
 import com.perimeterx.api.activities.DefaultActivityHandler;
 import com.perimeterx.api.remoteconfigurations.DefaultRemoteConfigManager;
+import com.perimeterx.api.remoteconfigurations.RemoteConfigurationFile;
 import com.perimeterx.api.remoteconfigurations.RemoteConfigurationManager;
 import com.perimeterx.api.remoteconfigurations.TimerConfigUpdater;
 import com.perimeterx.http.PXHttpClient;
+import com.perimeterx.models.activities.UpdateReason;
 import com.perimeterx.models.configuration.ModuleMode;
 import com.perimeterx.models.configuration.PXConfiguration;
+import com.perimeterx.models.configuration.PXConfigurationStore;
 import com.perimeterx.models.configuration.PXDynamicConfiguration;
+import com.perimeterx.models.exceptions.RemoteConfigurationException;
 import junit.framework.Assert;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 import testutils.TestObjectUtils;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
 import java.util.HashSet;
 
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.doThrow;
 
 
 @Test
@@ -39,18 +48,20 @@ public class RemoteConfigurationsTest {
         PXDynamicConfiguration pxDynamicConfiguration = getDynamicConfiguration("stub_app_id", "stub_checksum",
                                 1000, "stub_cookie_key", 1500, 1500, new HashSet<String>(), false, ModuleMode.BLOCKING);
         when(pxClient.getConfigurationFromServer()).thenReturn(pxDynamicConfiguration);
-        RemoteConfigurationManager remoteConfigurationManager = new DefaultRemoteConfigManager(config, pxClient);
-        TimerConfigUpdater timerConfigUpdater = new TimerConfigUpdater(remoteConfigurationManager, config, activityHandler);
+        DefaultRemoteConfigManager remoteConfigurationManager = new DefaultRemoteConfigManager(config, pxClient);
+        TimerConfigUpdater timerConfigUpdater = new TimerConfigUpdater(remoteConfigurationManager, remoteConfigurationManager.getConfigurationStore(), activityHandler);
         timerConfigUpdater.run();
-        Assert.assertTrue(config.getAppId().equals("stub_app_id"));
-        Assert.assertTrue(config.getCookieKey().equals("stub_cookie_key"));
-        Assert.assertTrue(config.getChecksum().equals("stub_checksum"));
-        Assert.assertTrue(config.getBlockingScore() == 1000);
-        Assert.assertTrue(config.getConnectionTimeout() == 1500);
-        Assert.assertTrue(config.getApiTimeout() == 1500);
-        Assert.assertTrue(config.getSensitiveHeaders().equals(new HashSet<String>()));
-        Assert.assertTrue(config.isModuleEnabled() == false);
-        Assert.assertTrue(config.getModuleMode().equals(ModuleMode.BLOCKING));
+        PXConfiguration snapshot = remoteConfigurationManager.getConfigurationStore().get();
+        Assert.assertTrue(snapshot.getAppId().equals("stub_app_id"));
+        Assert.assertTrue(snapshot.getCookieKey().equals("stub_cookie_key"));
+        Assert.assertTrue(snapshot.getChecksum().equals("stub_checksum"));
+        Assert.assertTrue(snapshot.getBlockingScore() == 1000);
+        Assert.assertTrue(snapshot.getConnectionTimeout() == 1500);
+        Assert.assertTrue(snapshot.getApiTimeout() == 1500);
+        Assert.assertTrue(snapshot.getSensitiveHeaders().equals(new HashSet<String>()));
+        Assert.assertTrue(snapshot.isModuleEnabled() == false);
+        Assert.assertTrue(snapshot.getModuleMode().equals(ModuleMode.BLOCKING));
+        Assert.assertNotSame(config, snapshot);
     }
 
     @Test
@@ -58,12 +69,172 @@ public class RemoteConfigurationsTest {
         PXDynamicConfiguration pxDynamicConfiguration = getDynamicConfiguration("stub_app_id", "stub_checksum",
                 1000, "stub_cookie_key", 1500, 1500, new HashSet<String>(), true, ModuleMode.BLOCKING);
         when(pxClient.getConfigurationFromServer()).thenReturn(pxDynamicConfiguration);
-        RemoteConfigurationManager remoteConfigurationManager = new DefaultRemoteConfigManager(config, pxClient);
-        TimerConfigUpdater timerConfigUpdater = new TimerConfigUpdater(remoteConfigurationManager, config, activityHandler);
+        DefaultRemoteConfigManager remoteConfigurationManager = new DefaultRemoteConfigManager(config, pxClient);
+        TimerConfigUpdater timerConfigUpdater = new TimerConfigUpdater(remoteConfigurationManager, remoteConfigurationManager.getConfigurationStore(), activityHandler);
         timerConfigUpdater.run();
         when(pxClient.getConfigurationFromServer()).thenReturn(null);
         timerConfigUpdater.run();
-        Assert.assertTrue(config.isModuleEnabled() == true);
+        Assert.assertTrue(remoteConfigurationManager.getConfigurationStore().get().isModuleEnabled() == true);
+    }
+
+    @Test
+    public void pullConfigurationsPublishesSnapshot() throws IOException {
+        PXDynamicConfiguration pxDynamicConfiguration = getDynamicConfiguration("stub_app_id", "stub_checksum",
+                1000, "stub_cookie_key", 1500, 1500, new HashSet<String>(), true, ModuleMode.MONITOR);
+        when(pxClient.getConfigurationFromServer()).thenReturn(pxDynamicConfiguration);
+        PXConfigurationStore store = new PXConfigurationStore(config);
+        String initialAppId = config.getAppId();
+        int initialBlockingScore = config.getBlockingScore();
+        RemoteConfigurationManager remoteConfigurationManager = new DefaultRemoteConfigManager(store, pxClient);
+        TimerConfigUpdater timerConfigUpdater = new TimerConfigUpdater(remoteConfigurationManager, store, activityHandler);
+        timerConfigUpdater.run();
+
+        PXConfiguration snapshot = store.get();
+        Assert.assertNotSame(config, snapshot);
+        Assert.assertEquals("stub_app_id", snapshot.getAppId());
+        Assert.assertEquals("stub_cookie_key", snapshot.getCookieKey());
+        Assert.assertEquals(1000, snapshot.getBlockingScore());
+        Assert.assertEquals(ModuleMode.MONITOR, snapshot.getModuleMode());
+        Assert.assertEquals("HmacSHA256", snapshot.getCookieHmacKey().getAlgorithm());
+        // Requests holding the previous snapshot keep a consistent view
+        Assert.assertEquals(initialAppId, config.getAppId());
+        Assert.assertEquals(initialBlockingScore, config.getBlockingScore());
+    }
+
+    @Test
+    public void pullConfigurationsFailedPublishesDisabledSnapshot() throws IOException {
+        when(pxClient.getConfigurationFromServer()).thenReturn(null);
+        PXConfigurationStore store = new PXConfigurationStore(config);
+        RemoteConfigurationManager remoteConfigurationManager = new DefaultRemoteConfigManager(store, pxClient);
+        remoteConfigurationManager.disableModuleOnError();
+        Assert.assertFalse(store.get().isModuleEnabled());
+        Assert.assertTrue(config.isModuleEnabled());
+    }
+
+    @Test
+    public void pullConfigurationsErrorBacksOff() throws IOException {
+        config = new PXConfiguration.Builder()
+                .appId("appId")
+                .authToken("token")
+                .cookieKey("cookieKey")
+                .remoteConfigurationInterval(1000)
+                .remoteConfigurationMaxBackoff(5000)
+                .remoteConfigurationJitter(0.2)
+                .build();
+        when(pxClient.getConfigurationFromServer()).thenThrow(new RemoteConfigurationException("unavailable"));
+        TimerConfigUpdater timerConfigUpdater = new TimerConfigUpdater(new DefaultRemoteConfigManager(config, pxClient), config, activityHandler);
+        for (int i = 0; i < 100; i++) {
+            long delay = timerConfigUpdater.nextDelay();
+            Assert.assertTrue(delay >= 800 && delay <= 1200);
+        }
+
+        timerConfigUpdater.run();
+        Assert.assertEquals(1, timerConfigUpdater.getConsecutiveFailures());
+        Assert.assertTrue(timerConfigUpdater.getLastFailureTime() > 0);
+        Assert.assertEquals(0, timerConfigUpdater.getLastSuccessTime());
+        long delay = timerConfigUpdater.nextDelay();
+        Assert.assertTrue(delay >= 1600 && delay <= 2400);
+        for (int i = 0; i < 10; i++) {
+            timerConfigUpdater.run();
+        }
+        delay = timerConfigUpdater.nextDelay();
+        Assert.assertTrue(delay >= 4000 && delay <= 6000);
+    }
+
+    @Test
+    public void scheduledUpdaterSurvivesErrors() throws Exception {
+        config = new PXConfiguration.Builder()
+                .appId("appId")
+                .authToken("token")
+                .cookieKey("cookieKey")
+                .remoteConfigurationInterval(10)
+                .remoteConfigurationMaxBackoff(20)
+                .build();
+        PXDynamicConfiguration pxDynamicConfiguration = getDynamicConfiguration("stub_app_id", "stub_checksum",
+                1000, "stub_cookie_key", 1500, 1500, new HashSet<String>(), true, ModuleMode.BLOCKING);
+        when(pxClient.getConfigurationFromServer())
+                .thenThrow(new RuntimeException("boom"))
+                .thenThrow(new RemoteConfigurationException("unavailable"))
+                .thenReturn(pxDynamicConfiguration);
+        doThrow(new RuntimeException("telemetry")).when(activityHandler).handleEnforcerTelemetryActivity(
+                any(PXConfiguration.class), any(UpdateReason.class));
+        PXConfigurationStore store = new PXConfigurationStore(config);
+        TimerConfigUpdater timerConfigUpdater = new TimerConfigUpdater(new DefaultRemoteConfigManager(store, pxClient), store, activityHandler);
+        timerConfigUpdater.schedule();
+        try {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (timerConfigUpdater.getLastSuccessTime() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertTrue(timerConfigUpdater.getLastFailureTime() > 0);
+            Assert.assertTrue(timerConfigUpdater.getLastSuccessTime() > 0);
+            Assert.assertEquals("stub_app_id", store.get().getAppId());
+            long successes = timerConfigUpdater.getLastSuccessTime();
+            deadline = System.currentTimeMillis() + 5000;
+            while (timerConfigUpdater.getLastSuccessTime() == successes && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            // Still polling after the telemetry failure
+            Assert.assertTrue(timerConfigUpdater.getLastSuccessTime() > successes);
+        } finally {
+            timerConfigUpdater.stop();
+        }
+    }
+
+    @Test
+    public void savedConfigurationIsAppliedOnLoad() throws IOException {
+        File file = File.createTempFile("px-remote-config", ".json");
+        file.delete();
+        try {
+            PXDynamicConfiguration pxDynamicConfiguration = getDynamicConfiguration("appId", "stub_checksum",
+                    70, "stub_cookie_key", 1500, 1500, new HashSet<String>(), true, ModuleMode.BLOCKING);
+            PXConfigurationStore store = new PXConfigurationStore(config);
+            new DefaultRemoteConfigManager(store, pxClient, new RemoteConfigurationFile(file, "appId")).updateConfiguration(pxDynamicConfiguration);
+            Assert.assertTrue(file.isFile());
+
+            PXConfigurationStore restarted = new PXConfigurationStore(config);
+            DefaultRemoteConfigManager manager = new DefaultRemoteConfigManager(restarted, pxClient, new RemoteConfigurationFile(file, "appId"));
+            Assert.assertTrue(manager.loadSavedConfiguration());
+            Assert.assertEquals(70, restarted.get().getBlockingScore());
+            Assert.assertEquals("stub_checksum", restarted.get().getChecksum());
+            Assert.assertEquals("stub_cookie_key", restarted.get().getCookieKey());
+            Assert.assertEquals(ModuleMode.BLOCKING, restarted.get().getModuleMode());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void invalidSavedConfigurationIsIgnored() throws IOException {
+        File file = File.createTempFile("px-remote-config", ".json");
+        try {
+            RemoteConfigurationFile configurationFile = new RemoteConfigurationFile(file, "appId");
+            Assert.assertNull(configurationFile.load());
+
+            configurationFile.save(getDynamicConfiguration("appId", "stub_checksum",
+                    70, "stub_cookie_key", 1500, 1500, new HashSet<String>(), true, ModuleMode.BLOCKING));
+            Assert.assertNotNull(configurationFile.load());
+            Assert.assertNull(new RemoteConfigurationFile(file, "otherAppId").load());
+
+            byte[] content = Files.readAllBytes(file.toPath());
+            content[content.length - 2] ^= 1;
+            Files.write(file.toPath(), content);
+            Assert.assertNull(configurationFile.load());
+
+            Files.write(file.toPath(), Arrays.copyOf(content, 40));
+            Assert.assertNull(configurationFile.load());
+            Assert.assertFalse(new DefaultRemoteConfigManager(new PXConfigurationStore(config), pxClient, configurationFile).loadSavedConfiguration());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void telemetryConfigHasNoKeyMaterial() {
+        PXConfiguration telemetryConfig = config.getTelemetryConfig();
+        Assert.assertNotNull(config.getCookieHmacKey());
+        Assert.assertNull(telemetryConfig.getCookieKey());
+        Assert.assertNull(telemetryConfig.getCookieHmacKey());
     }
 
     private PXDynamicConfiguration getDynamicConfiguration(String appId, String checksum, int blockingScore, String cookieSecert,
@@ -0,0 +1,142 @@
+package com.perimeterx.api;
+
+import com.perimeterx.http.PXHttpTransport;
+import com.perimeterx.models.configuration.ModuleMode;
+import com.perimeterx.models.configuration.PXConfiguration;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import testutils.PXApiStandIn;
+
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Shuts down an enforcer running against {@link PXApiStandIn}
+ */
+@Test
+public class ShutdownTest {
+
+    private static final int ACTIVITIES = 3;
+    private static final long SHORT_DRAIN_TIMEOUT = 300;
+    private static final String MONITORING_CONFIGURATION = "{\"moduleEnabled\":true,\"cookieKey\":\"cookieKey\",\"blockingScore\":100,\"appId\":\"PXstandin\"," +
+            "\"moduleMode\":\"monitoring\",\"sensitiveHeaders\":[],\"ipHeaders\":[],\"connectTimeout\":3000,\"riskTimeout\":3000,\"checksum\":\"c1\"}";
+
+    private PXApiStandIn standIn;
+
+    @BeforeClass
+    public void startStandIn() throws Exception {
+        standIn = new PXApiStandIn();
+    }
+
+    @AfterClass
+    public void stopStandIn() {
+        standIn.close();
+    }
+
+    @Test
+    public void shutdownSendsBufferedActivitiesAndStopsThreads() throws Exception {
+        standIn.reset()
+                .remoteConfiguration(MONITORING_CONFIGURATION)
+                // The init telemetry and the drained batch are sent after a retry
+                .failNext(PXApiStandIn.TELEMETRY, 1, 503)
+                .failNext(PXApiStandIn.ACTIVITIES, 1, 503);
+        Set<Thread> before = Thread.getAllStackTraces().keySet();
+        PXHttpTransport transport = new PXHttpTransport();
+        PerimeterX perimeterx = new PerimeterX(configuration(standIn), transport);
+
+        for (int i = 0; i < ACTIVITIES; i++) {
+            perimeterx.pxVerify(new MockHttpServletRequest("GET", "/home"), new HttpServletResponseWrapper(new MockHttpServletResponse()));
+        }
+        // Below the buffer length, nothing is sent before the shutdown
+        Assert.assertEquals(standIn.activityCount("page_requested"), 0);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (standIn.requestCount(PXApiStandIn.TELEMETRY) < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        List<Thread> started = enforcerThreads(before);
+        Assert.assertTrue(hasThread(started, "PerimeterX-activity-sender"));
+        Assert.assertTrue(hasThread(started, "PerimeterX-retry"));
+        Assert.assertTrue(hasThread(started, "PerimeterX-remote-config"));
+
+        perimeterx.shutdown(5000);
+        Assert.assertEquals(standIn.activityCount("page_requested"), ACTIVITIES);
+        Assert.assertEquals(standIn.requestCount(PXApiStandIn.ACTIVITIES), 2);
+        Assert.assertEquals(perimeterx.getState(), EnforcerState.CLOSED);
+        Assert.assertTrue(transport.isClosed());
+        for (Thread thread : started) {
+            thread.join(5000);
+            Assert.assertFalse(thread.isAlive(), thread.getName() + " is still running");
+        }
+    }
+
+    @Test
+    public void shutdownReturnsWithinTheDrainTimeout() throws Exception {
+        // A stand-in of its own, so activities answered after this test are not counted by the others
+        PXApiStandIn slowStandIn = new PXApiStandIn();
+        try {
+            slowStandIn.remoteConfiguration(MONITORING_CONFIGURATION)
+                    .latency(PXApiStandIn.ACTIVITIES, PXApiStandIn.Latency.fixed(5000));
+            PerimeterX perimeterx = new PerimeterX(configuration(slowStandIn), new PXHttpTransport());
+            for (int i = 0; i < ACTIVITIES; i++) {
+                perimeterx.pxVerify(new MockHttpServletRequest("GET", "/home"), new HttpServletResponseWrapper(new MockHttpServletResponse()));
+            }
+
+            long start = System.currentTimeMillis();
+            perimeterx.shutdown(SHORT_DRAIN_TIMEOUT);
+            long elapsed = System.currentTimeMillis() - start;
+            Assert.assertTrue(elapsed < SHORT_DRAIN_TIMEOUT + 500, "shutdown took " + elapsed + "ms");
+            Assert.assertEquals(perimeterx.getState(), EnforcerState.CLOSED);
+        } finally {
+            slowStandIn.close();
+        }
+    }
+
+    private static PXConfiguration configuration(PXApiStandIn standIn) {
+        return new PXConfiguration.Builder()
+                .appId("PXstandin")
+                .authToken("token")
+                .cookieKey("cookieKey")
+                .baseURL(standIn.getUrl())
+                .collectorUrl(standIn.getUrl())
+                .clientHost(standIn.getUrl())
+                .remoteConfigurationUrl(standIn.getUrl())
+                .remoteConfigurationEnabled(true)
+                .remoteConfigurationInterval(60000)
+                .moduleMode(ModuleMode.MONITOR)
+                .maxBufferLen(ACTIVITIES + 10)
+                .retryBackoffBase(10)
+                .retryBackoffMax(50)
+                .apiTimeout(3000)
+                .connectionTimeout(3000)
+                .blockingScore(100)
+                .build();
+    }
+
+    /**
+     * @return threads named by the enforcer that were not running before
+     */
+    private static List<Thread> enforcerThreads(Set<Thread> before) {
+        List<Thread> threads = new ArrayList<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (!before.contains(thread) && thread.getName().startsWith("PerimeterX-")) {
+                threads.add(thread);
+            }
+        }
+        return threads;
+    }
+
+    private static boolean hasThread(List<Thread> threads, String name) {
+        for (Thread thread : threads) {
+            if (thread.getName().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,167 @@
+package com.perimeterx.api;
+
+import com.perimeterx.api.activities.ActivityAggregator;
+import com.perimeterx.api.activities.BufferedActivityHandler;
+import com.perimeterx.api.activities.SidecarActivityHandler;
+import com.perimeterx.api.providers.DefaultHostnameProvider;
+import com.perimeterx.api.providers.RemoteAddressIPProvider;
+import com.perimeterx.models.PXContext;
+import com.perimeterx.models.activities.ActivityBatch;
+import com.perimeterx.models.configuration.PXConfiguration;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import testutils.PXClientMock;
+
+import java.io.DataInputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Testing {@link SidecarActivityHandler} with an {@link ActivityAggregator}
+ */
+@Test
+public class SidecarActivityHandlerTest {
+
+    @Test
+    public void testActivitiesOfSeveralEnforcersAreMerged() throws Exception {
+        final AtomicInteger batches = new AtomicInteger();
+        final AtomicInteger delivered = new AtomicInteger();
+        PXConfiguration aggregatorConfig = configuration(0);
+        BufferedActivityHandler handler = new BufferedActivityHandler(new PXClientMock(0, 0) {
+            @Override
+            public void sendBatchActivities(ActivityBatch batch) {
+                batches.incrementAndGet();
+                delivered.addAndGet(batch.size());
+                batch.getCallback().sent(batch);
+            }
+        }, aggregatorConfig);
+        ActivityAggregator aggregator = new ActivityAggregator("APP_ID", "AUTH_123", 0, handler);
+
+        PXConfiguration sidecarConfig = configuration(aggregator.getPort());
+        SidecarActivityHandler first = new SidecarActivityHandler(new PXClientMock(0, 0), sidecarConfig);
+        SidecarActivityHandler second = new SidecarActivityHandler(new PXClientMock(0, 0), sidecarConfig);
+        PXContext context = new PXContext(new MockHttpServletRequest(), new RemoteAddressIPProvider(), new DefaultHostnameProvider(), sidecarConfig);
+        for (int i = 0; i < 5; i++) {
+            first.handlePageRequestedActivity(context);
+            second.handlePageRequestedActivity(context);
+        }
+        first.close();
+        second.close();
+        Assert.assertEquals(first.getCounters().getSent(), 5);
+        Assert.assertEquals(second.getCounters().getSent(), 5);
+
+        long deadline = System.currentTimeMillis() + 2000;
+        while (aggregator.getReceivedActivities() < 10 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        aggregator.close();
+        handler.close();
+        Assert.assertEquals(aggregator.getReceivedActivities(), 10);
+        Assert.assertEquals(delivered.get(), 10);
+        Assert.assertEquals(batches.get(), 1);
+    }
+
+    @Test
+    public void testOtherApplicationIsRefused() throws Exception {
+        BufferedActivityHandler handler = new BufferedActivityHandler(new PXClientMock(0, 0), configuration(0));
+        ActivityAggregator aggregator = new ActivityAggregator("OTHER_APP", "AUTH_123", 0, handler);
+        PXConfiguration sidecarConfig = configuration(aggregator.getPort());
+        SidecarActivityHandler sidecar = new SidecarActivityHandler(new PXClientMock(0, 0), sidecarConfig);
+
+        sidecar.handleBlockActivity(new PXContext(new MockHttpServletRequest(), new RemoteAddressIPProvider(), new DefaultHostnameProvider(), sidecarConfig));
+        Thread.sleep(200);
+        sidecar.close();
+        aggregator.close();
+        handler.close();
+        Assert.assertEquals(aggregator.getReceivedActivities(), 0);
+        Assert.assertEquals(handler.getCounters().getEnqueued(), 0);
+    }
+
+    @Test
+    public void testOtherTokenIsRefused() throws Exception {
+        BufferedActivityHandler handler = new BufferedActivityHandler(new PXClientMock(0, 0), configuration(0));
+        ActivityAggregator aggregator = new ActivityAggregator("APP_ID", "OTHER_TOKEN", 0, handler);
+        PXConfiguration sidecarConfig = configuration(aggregator.getPort());
+        SidecarActivityHandler sidecar = new SidecarActivityHandler(new PXClientMock(0, 0), sidecarConfig);
+
+        sidecar.handleBlockActivity(new PXContext(new MockHttpServletRequest(), new RemoteAddressIPProvider(), new DefaultHostnameProvider(), sidecarConfig));
+        Thread.sleep(200);
+        sidecar.close();
+        aggregator.close();
+        handler.close();
+        Assert.assertEquals(aggregator.getReceivedActivities(), 0);
+        Assert.assertEquals(handler.getCounters().getEnqueued(), 0);
+    }
+
+    @Test
+    public void testConnectionsOverTheLimitAreClosed() throws Exception {
+        BufferedActivityHandler handler = new BufferedActivityHandler(new PXClientMock(0, 0), configuration(0));
+        ActivityAggregator aggregator = new ActivityAggregator("APP_ID", "AUTH_123", 0, handler);
+        List<Socket> pending = new ArrayList<>();
+        try {
+            // Connections never answering the handshake hold the handshake slots
+            for (int i = 0; i < ActivityAggregator.MAX_PENDING_HANDSHAKES; i++) {
+                Socket socket = new Socket(InetAddress.getLoopbackAddress(), aggregator.getPort());
+                new DataInputStream(socket.getInputStream()).readFully(new byte[16]);
+                pending.add(socket);
+            }
+            Socket refused = new Socket(InetAddress.getLoopbackAddress(), aggregator.getPort());
+            refused.setSoTimeout(2000);
+            Assert.assertEquals(refused.getInputStream().read(), -1);
+            refused.close();
+            Assert.assertEquals(aggregator.getRefusedConnections(), 1);
+        } finally {
+            for (Socket socket : pending) {
+                socket.close();
+            }
+        }
+
+        // The slots are released once the pending connections are closed
+        PXConfiguration sidecarConfig = configuration(aggregator.getPort());
+        SidecarActivityHandler sidecar = new SidecarActivityHandler(new PXClientMock(0, 0), sidecarConfig);
+        sidecar.handleBlockActivity(new PXContext(new MockHttpServletRequest(), new RemoteAddressIPProvider(), new DefaultHostnameProvider(), sidecarConfig));
+        long deadline = System.currentTimeMillis() + 2000;
+        while (aggregator.getReceivedActivities() < 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        sidecar.close();
+        aggregator.close();
+        handler.close();
+        Assert.assertEquals(aggregator.getReceivedActivities(), 1);
+    }
+
+    @Test
+    public void testActivitiesDroppedWithoutAggregator() throws Exception {
+        PXConfiguration config = new PXConfiguration.Builder()
+                .appId("APP_ID")
+                .authToken("AUTH_123")
+                .cookieKey("COOKIE_123")
+                .activitiesSidecarPort(1)
+                .activitiesQueueCapacity(2)
+                .build();
+        SidecarActivityHandler sidecar = new SidecarActivityHandler(new PXClientMock(0, 0), config);
+        PXContext context = new PXContext(new MockHttpServletRequest(), new RemoteAddressIPProvider(), new DefaultHostnameProvider(), config);
+        for (int i = 0; i < 5; i++) {
+            sidecar.handlePageRequestedActivity(context);
+        }
+        sidecar.close();
+        Assert.assertEquals(sidecar.getCounters().getEnqueued(), 2);
+        Assert.assertEquals(sidecar.getCounters().getDropped(), 3 + 2);
+        Assert.assertEquals(sidecar.getCounters().getSent(), 0);
+    }
+
+    private static PXConfiguration configuration(int sidecarPort) {
+        return new PXConfiguration.Builder()
+                .appId("APP_ID")
+                .authToken("AUTH_123")
+                .cookieKey("COOKIE_123")
+                .maxBufferLen(100)
+                .maxBufferAge(60000)
+                .activitiesSidecarPort(sidecarPort)
+                .build();
+    }
+}
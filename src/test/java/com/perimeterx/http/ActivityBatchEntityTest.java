@@ -0,0 +1,82 @@
+package com.perimeterx.http;
+
+import com.perimeterx.models.activities.ActivityBatch;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpEntity;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+@Test
+public class ActivityBatchEntityTest {
+
+    @Test
+    public void testUncompressedContent() throws Exception {
+        ActivityBatch batch = batch(3, 10);
+        HttpEntity entity = new ActivityBatchEntity(batch, false);
+
+        byte[] content = IOUtils.toByteArray(entity.getContent());
+        Assert.assertEquals(content, batch.toByteArray());
+        Assert.assertEquals(entity.getContentLength(), content.length);
+        Assert.assertNull(entity.getContentEncoding());
+        Assert.assertFalse(entity.isChunked());
+    }
+
+    @Test
+    public void testEmptyBatch() throws Exception {
+        ActivityBatch batch = new ActivityBatch();
+        Assert.assertEquals(new String(IOUtils.toByteArray(new ActivityBatchEntity(batch, false).getContent()), "UTF-8"), "[]");
+        Assert.assertEquals(new String(gunzip(new ActivityBatchEntity(batch, true).getContent()), "UTF-8"), "[]");
+    }
+
+    @Test
+    public void testCompressedContentIsRepeatable() throws Exception {
+        // Larger than the compressor buffer so the body is produced in several reads
+        ActivityBatch batch = batch(200, 300);
+        HttpEntity entity = new ActivityBatchEntity(batch, true);
+
+        Assert.assertEquals(entity.getContentEncoding().getValue(), "gzip");
+        Assert.assertTrue(entity.isChunked());
+        Assert.assertEquals(entity.getContentLength(), -1);
+        Assert.assertTrue(entity.isRepeatable());
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(gunzip(entity.getContent()), batch.toByteArray());
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeTo(out);
+        Assert.assertEquals(IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()))), batch.toByteArray());
+    }
+
+    @Test
+    public void testCompressorReleasedOnEarlyClose() throws Exception {
+        ActivityBatch batch = batch(50, 100);
+        HttpEntity entity = new ActivityBatchEntity(batch, true);
+        InputStream content = entity.getContent();
+        Assert.assertTrue(content.read(new byte[16]) > 0);
+        content.close();
+        Assert.assertEquals(content.read(new byte[16]), -1);
+        Assert.assertEquals(gunzip(entity.getContent()), batch.toByteArray());
+    }
+
+    private static byte[] gunzip(InputStream content) throws Exception {
+        return IOUtils.toByteArray(new GZIPInputStream(content));
+    }
+
+    private static ActivityBatch batch(int size, int activityLength) throws Exception {
+        Random random = new Random(size);
+        ActivityBatch batch = new ActivityBatch();
+        for (int i = 0; i < size; i++) {
+            StringBuilder activity = new StringBuilder("{\"type\":\"page_requested\",\"value\":\"");
+            for (int j = 0; j < activityLength; j++) {
+                activity.append((char) ('a' + random.nextInt(26)));
+            }
+            batch.add(activity.append("\"}").toString().getBytes("UTF-8"), i);
+        }
+        return batch;
+    }
+}
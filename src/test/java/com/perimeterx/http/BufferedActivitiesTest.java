@@ -5,24 +5,40 @@ import com.perimeterx.api.providers.DefaultHostnameProvider;
 import com.perimeterx.api.providers.HostnameProvider;
 import com.perimeterx.api.providers.IPProvider;
 import com.perimeterx.api.providers.RemoteAddressIPProvider;
+import com.perimeterx.http.async.RejectedRequestException;
 import com.perimeterx.models.PXContext;
+import com.perimeterx.models.activities.Activity;
+import com.perimeterx.models.activities.ActivityBatch;
+import com.perimeterx.models.activities.ActivityFactory;
+import com.perimeterx.models.activities.ActivitySnapshot;
+import com.perimeterx.models.configuration.ActivitiesOverflowPolicy;
 import com.perimeterx.models.configuration.PXConfiguration;
 import com.perimeterx.models.exceptions.PXException;
-import org.junit.Test;
+import com.perimeterx.utils.Constants;
+import com.perimeterx.utils.JsonUtils;
+import org.mockito.ArgumentCaptor;
 import org.springframework.mock.web.MockHttpServletRequest;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
-import testutils.TestObjectUtils;
+import org.testng.annotations.Test;
+import testutils.PXClientMock;
 
 import javax.servlet.http.HttpServletRequest;
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.mockito.Mockito.*;
 
 /**
  * Created by nitzangoldfeder on 23/02/2017.
  */
-@org.testng.annotations.Test
+@Test
 public class BufferedActivitiesTest {
 
     private BufferedActivityHandler bufferedActivityHandler;
@@ -32,41 +48,456 @@ public class BufferedActivitiesTest {
     private IPProvider ipProvider;
     private HostnameProvider hostnameProvider;
     private PXContext context;
-    private PXConfiguration config;
 
 
     @BeforeMethod
     public void setUp() {
-        config = new PXConfiguration.Builder()
+        this.configuration = new PXConfiguration.Builder()
                 .appId("APP_ID")
                 .authToken("AUTH_123")
                 .cookieKey("COOKIE_123")
+                .maxBufferAge(60000)
                 .build();
         this.pxClient = mock(PXHttpClient.class);
-        this.configuration = TestObjectUtils.generateConfiguration();
         this.bufferedActivityHandler = new BufferedActivityHandler(pxClient, configuration);
 
         this.request = new MockHttpServletRequest();
         this.ipProvider = new RemoteAddressIPProvider();
         this.hostnameProvider = new DefaultHostnameProvider();
-        this.context = new PXContext(request, this.ipProvider, this.hostnameProvider, config);
+        this.context = new PXContext(request, this.ipProvider, this.hostnameProvider, configuration);
+    }
 
+    @AfterMethod
+    public void tearDown() throws IOException {
+        bufferedActivityHandler.close();
     }
 
     @Test
     public void testSendActivityOnMaxBuffer() throws IOException, PXException {
         for (int i = 0; i <= this.configuration.getMaxBufferLen(); i++) {
-            bufferedActivityHandler.handleBlockActivity(context);
+            bufferedActivityHandler.handlePageRequestedActivity(context);
         }
 
-        verify(pxClient, atLeastOnce()).sendBatchActivities(any(List.class));
+        verify(pxClient, timeout(2000).atLeastOnce()).sendBatchActivities(any(ActivityBatch.class));
     }
 
     @Test
-    public void testDontSendActivityBelowMaxBuffer() throws IOException, PXException {
+    public void testDontSendActivityBelowMaxBuffer() throws Exception {
         for (int i = 0; i < this.configuration.getMaxBufferLen() - 1; i++) {
-            bufferedActivityHandler.handleBlockActivity(context);
+            bufferedActivityHandler.handlePageRequestedActivity(context);
+        }
+        Thread.sleep(100);
+        verify(pxClient, never()).sendBatchActivities(any(ActivityBatch.class));
+    }
+
+    @Test
+    public void testSendActivityOnMaxAge() throws Exception {
+        PXConfiguration config = new PXConfiguration.Builder()
+                .appId("APP_ID")
+                .authToken("AUTH_123")
+                .cookieKey("COOKIE_123")
+                .maxBufferAge(50)
+                .build();
+        PXHttpClient client = mock(PXHttpClient.class);
+        BufferedActivityHandler handler = new BufferedActivityHandler(client, config);
+        handler.handlePageRequestedActivity(context);
+
+        verify(client, timeout(2000)).sendBatchActivities(any(ActivityBatch.class));
+        handler.close();
+    }
+
+    @Test
+    public void testClientWithoutBatchesGetsActivities() throws Exception {
+        PXClient client = mock(PXClient.class);
+        BufferedActivityHandler handler = new BufferedActivityHandler(client, configuration);
+        handler.handleBlockActivity(context);
+        handler.close();
+        ArgumentCaptor<List> sent = ArgumentCaptor.forClass(List.class);
+        verify(client).sendBatchActivities(sent.capture());
+        Assert.assertEquals(sent.getValue().size(), 1);
+        Activity activity = (Activity) sent.getValue().get(0);
+        Activity expected = ActivityFactory.createActivity(Constants.ACTIVITY_BLOCKED, configuration.getAppId(), context);
+        Assert.assertEquals(activity.getType(), Constants.ACTIVITY_BLOCKED);
+        Assert.assertEquals(JsonUtils.writer.writeValueAsString(activity.getDetails()),
+                JsonUtils.writer.writeValueAsString(expected.getDetails()));
+        Assert.assertEquals(handler.getBufferedActivitiesCount(), 0);
+    }
+
+    @Test
+    public void testFlushOnClose() throws Exception {
+        bufferedActivityHandler.handleBlockActivity(context);
+        bufferedActivityHandler.close();
+        verify(pxClient).sendBatchActivities(any(ActivityBatch.class));
+        Assert.assertEquals(bufferedActivityHandler.getBufferedActivitiesCount(), 0);
+    }
+
+    @Test
+    public void testConcurrentActivitiesAreSentOnce() throws Exception {
+        final AtomicInteger sent = new AtomicInteger();
+        final BufferedActivityHandler handler = new BufferedActivityHandler(new PXClientMock(0, 0) {
+            @Override
+            public void sendBatchActivities(ActivityBatch batch) {
+                sent.addAndGet(batch.size());
+                batch.getCallback().sent(batch);
+            }
+        }, configuration);
+
+        int threads = 8;
+        final int perThread = 500;
+        List<Thread> producers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread producer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < perThread; j++) {
+                        try {
+                            handler.handlePageRequestedActivity(context);
+                        } catch (PXException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                }
+            });
+            producers.add(producer);
+            producer.start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        handler.close();
+
+        Assert.assertEquals(sent.get(), threads * perThread);
+        Assert.assertEquals(handler.getCounters().getSent(), threads * perThread);
+        Assert.assertEquals(handler.getCounters().getDropped(), 0);
+    }
+
+    @Test
+    public void testBlockActivitiesAreNotDelayedByPageRequested() throws Exception {
+        PXConfiguration config = new PXConfiguration.Builder()
+                .appId("APP_ID")
+                .authToken("AUTH_123")
+                .cookieKey("COOKIE_123")
+                .maxBufferLen(1)
+                .maxBufferAge(60000)
+                .activitiesQueueCapacity(16)
+                .maxInFlightBatches(1)
+                .activitiesOverflowPolicy(ActivitiesOverflowPolicy.DROP_NEWEST)
+                .build();
+        HoldingClient holdingClient = new HoldingClient();
+        BufferedActivityHandler handler = new BufferedActivityHandler(holdingClient, config);
+
+        // One page_requested batch in flight and one waiting for it, the page_requested lane cannot send more
+        handler.handlePageRequestedActivity(context);
+        awaitState(handler, 1, 0);
+        handler.handlePageRequestedActivity(context);
+        awaitState(handler, 1, 0);
+        for (int i = 0; i < 100; i++) {
+            handler.handlePageRequestedActivity(context);
+        }
+        for (int i = 0; i < 5; i++) {
+            handler.handleBlockActivity(context);
+        }
+
+        long deadline = System.currentTimeMillis() + 2000;
+        while (handler.getBlockCounters().getSent() < 5 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(handler.getBlockCounters().getSent(), 5);
+        Assert.assertEquals(handler.getBlockCounters().getDropped(), 0);
+        Assert.assertEquals(handler.getPageRequestedCounters().getEnqueued(), 2 + 16);
+        Assert.assertEquals(handler.getPageRequestedCounters().getDropped(), 84);
+        Assert.assertEquals(handler.getPageRequestedCounters().getSent(), 0);
+
+        holdingClient.release();
+        handler.close();
+        Assert.assertEquals(handler.getPageRequestedCounters().getSent(), 2 + 16);
+        Assert.assertEquals(handler.getCounters().getSent(), 5 + 2 + 16);
+        Assert.assertEquals(handler.getCounters().getDropped(), 84);
+        Assert.assertEquals(holdingClient.blocks.get(), 5);
+    }
+
+    @Test
+    public void testBlockLaneOverflowEvictsOldest() throws Exception {
+        PXConfiguration config = new PXConfiguration.Builder()
+                .appId("APP_ID")
+                .authToken("AUTH_123")
+                .cookieKey("COOKIE_123")
+                .maxBufferLen(1)
+                .blockActivitiesQueueCapacity(4)
+                .blockMaxInFlightBatches(1)
+                .build();
+        HoldingClient holdingClient = new HoldingClient();
+        holdingClient.holdBlocks = true;
+        BufferedActivityHandler handler = new BufferedActivityHandler(holdingClient, config);
+
+        handler.handleBlockActivity(context);
+        awaitState(handler, 1, 0);
+        handler.handleBlockActivity(context);
+        awaitState(handler, 1, 0);
+        for (int i = 0; i < 10; i++) {
+            handler.handleBlockActivity(context);
+        }
+        Assert.assertEquals(handler.getBlockCounters().getEnqueued(), 12);
+        Assert.assertEquals(handler.getBlockCounters().getDropped(), 6);
+
+        holdingClient.release();
+        handler.close();
+        Assert.assertEquals(handler.getBlockCounters().getSent(), 6);
+        Assert.assertEquals(handler.getPageRequestedCounters().getEnqueued(), 0);
+    }
+
+    @Test
+    public void testBlockLaneSamplesAsItFillsUp() throws Exception {
+        PXConfiguration config = new PXConfiguration.Builder()
+                .appId("APP_ID")
+                .authToken("AUTH_123")
+                .cookieKey("COOKIE_123")
+                .maxBufferLen(1)
+                .blockActivitiesQueueCapacity(16)
+                .blockActivitiesOverflowPolicy(ActivitiesOverflowPolicy.SAMPLE)
+                .blockMaxInFlightBatches(1)
+                .build();
+        HoldingClient holdingClient = new HoldingClient();
+        holdingClient.holdBlocks = true;
+        BufferedActivityHandler handler = new BufferedActivityHandler(holdingClient, config);
+
+        handler.handleBlockActivity(context);
+        awaitState(handler, 1, 0);
+        handler.handleBlockActivity(context);
+        awaitState(handler, 1, 0);
+        for (int i = 0; i < 100; i++) {
+            handler.handleBlockActivity(context);
+        }
+        // Kept while the queue is at most half full, sampled above it and dropped once it is full
+        long queued = handler.getBlockCounters().getEnqueued() - 2;
+        Assert.assertTrue(queued >= 8 && queued <= 16, "queued " + queued);
+        Assert.assertEquals(handler.getBlockCounters().getDropped(), 100 - queued);
+
+        holdingClient.release();
+        handler.close();
+        Assert.assertEquals(handler.getBlockCounters().getSent(), 2 + queued);
+    }
+
+    @Test
+    public void testFailedBatchesAreCounted() throws Exception {
+        BufferedActivityHandler handler = new BufferedActivityHandler(new PXClientMock(0, 0) {
+            @Override
+            public void sendBatchActivities(ActivityBatch batch) throws PXException {
+                throw new PXException("collector is down");
+            }
+        }, configuration);
+        for (int i = 0; i < configuration.getMaxBufferLen() + 1; i++) {
+            handler.handlePageRequestedActivity(context);
+        }
+        handler.close();
+
+        Assert.assertEquals(handler.getCounters().getEnqueued(), configuration.getMaxBufferLen() + 1);
+        Assert.assertEquals(handler.getCounters().getFailed(), configuration.getMaxBufferLen() + 1);
+        Assert.assertEquals(handler.getCounters().getSent(), 0);
+        Assert.assertEquals(handler.getInFlightBatchesCount(), 0);
+    }
+
+    @Test
+    public void testFailedBatchesAreJournaledAndReplayed() throws Exception {
+        File journalDir = Files.createTempDirectory("px-journal").toFile();
+        PXConfiguration config = new PXConfiguration.Builder()
+                .appId("APP_ID")
+                .authToken("AUTH_123")
+                .cookieKey("COOKIE_123")
+                .maxBufferLen(1)
+                .activitiesJournalDir(journalDir.getPath())
+                .activitiesJournalReplayRate(100)
+                .build();
+        final AtomicBoolean collectorUp = new AtomicBoolean();
+        final AtomicInteger delivered = new AtomicInteger();
+        BufferedActivityHandler handler = new BufferedActivityHandler(new PXClientMock(0, 0) {
+            @Override
+            public void sendBatchActivities(ActivityBatch batch) {
+                if (collectorUp.get()) {
+                    delivered.addAndGet(batch.size());
+                    batch.getCallback().sent(batch);
+                } else {
+                    batch.getCallback().failed(batch, new IOException("collector is down"));
+                }
+            }
+        }, config);
+
+        for (int i = 0; i < 3; i++) {
+            handler.handleBlockActivity(context);
+        }
+        long deadline = System.currentTimeMillis() + 2000;
+        while (handler.getCounters().getSpilled() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(handler.getCounters().getSpilled(), 3);
+        Assert.assertEquals(handler.getJournaledBatchesCount(), 3);
+
+        collectorUp.set(true);
+        handler.handleBlockActivity(context);
+        deadline = System.currentTimeMillis() + 2000;
+        while (handler.getCounters().getReplayed() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        handler.close();
+
+        Assert.assertEquals(handler.getCounters().getReplayed(), 3);
+        Assert.assertEquals(handler.getCounters().getSent(), 1);
+        Assert.assertEquals(delivered.get(), 4);
+        Assert.assertEquals(handler.getJournaledBatchesCount(), 0);
+        for (File file : journalDir.listFiles()) {
+            file.delete();
+        }
+        journalDir.delete();
+    }
+
+    @Test
+    public void testRejectedReplaysAreDropped() throws Exception {
+        File journalDir = Files.createTempDirectory("px-journal").toFile();
+        final AtomicBoolean rejecting = new AtomicBoolean();
+        BufferedActivityHandler handler = new BufferedActivityHandler(new PXClientMock(0, 0) {
+            @Override
+            public void sendBatchActivities(ActivityBatch batch) {
+                batch.getCallback().failed(batch, rejecting.get() ? new RejectedRequestException(400) : new IOException("collector is down"));
+            }
+        }, journalConfiguration(journalDir));
+        journalBlocks(handler, context);
+
+        rejecting.set(true);
+        handler.handleBlockActivity(context);
+        long deadline = System.currentTimeMillis() + 2000;
+        while (handler.getJournaledBatchesCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        handler.close();
+
+        Assert.assertEquals(handler.getJournaledBatchesCount(), 0);
+        Assert.assertEquals(handler.getCounters().getDropped(), 3);
+        Assert.assertEquals(handler.getCounters().getReplayed(), 0);
+        deleteDirectory(journalDir);
+    }
+
+    @Test
+    public void testReplaysFailingWhileCollectorAcceptsOthersAreDropped() throws Exception {
+        File journalDir = Files.createTempDirectory("px-journal").toFile();
+        final AtomicBoolean collectorUp = new AtomicBoolean();
+        BufferedActivityHandler handler = new BufferedActivityHandler(new PXClientMock(0, 0) {
+            @Override
+            public void sendBatchActivities(ActivityBatch batch) {
+                if (collectorUp.get() && !new String(batch.toByteArray()).contains("/journaled")) {
+                    batch.getCallback().sent(batch);
+                } else {
+                    batch.getCallback().failed(batch, new IOException("collector is down"));
+                }
+            }
+        }, journalConfiguration(journalDir));
+        journalBlocks(handler, new PXContext(new MockHttpServletRequest("GET", "/journaled"), ipProvider, hostnameProvider, configuration));
+
+        collectorUp.set(true);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (handler.getJournaledBatchesCount() > 0 && System.currentTimeMillis() < deadline) {
+            handler.handleBlockActivity(context);
+            Thread.sleep(5);
+        }
+        handler.close();
+
+        Assert.assertEquals(handler.getJournaledBatchesCount(), 0);
+        Assert.assertEquals(handler.getCounters().getDropped(), 3);
+        Assert.assertEquals(handler.getCounters().getReplayed(), 0);
+        deleteDirectory(journalDir);
+    }
+
+    private static PXConfiguration journalConfiguration(File journalDir) {
+        return new PXConfiguration.Builder()
+                .appId("APP_ID")
+                .authToken("AUTH_123")
+                .cookieKey("COOKIE_123")
+                .maxBufferLen(1)
+                .activitiesJournalDir(journalDir.getPath())
+                .activitiesJournalReplayRate(100)
+                .build();
+    }
+
+    /**
+     * Sends 3 block activities while the collector is down and waits until they are journaled
+     */
+    private static void journalBlocks(BufferedActivityHandler handler, PXContext context) throws Exception {
+        for (int i = 0; i < 3; i++) {
+            handler.handleBlockActivity(context);
+        }
+        long deadline = System.currentTimeMillis() + 2000;
+        while (handler.getCounters().getSpilled() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(handler.getJournaledBatchesCount(), 3);
+    }
+
+    private static void deleteDirectory(File directory) {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testSnapshotWithoutSensitiveHeaders() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader("Cookie", "_px3=secret");
+        request.addHeader("User-Agent", "test-agent");
+        PXContext pxContext = new PXContext(request, ipProvider, hostnameProvider, configuration);
+
+        Activity activity = ActivityFactory.createActivity(Constants.ACTIVITY_PAGE_REQUESTED, configuration.getAppId(), pxContext);
+        ActivitySnapshot snapshot = ActivitySnapshot.of(activity);
+        String json = new String(snapshot.getEncoded(), "UTF-8");
+
+        Assert.assertEquals(snapshot.getType(), Constants.ACTIVITY_PAGE_REQUESTED);
+        Assert.assertEquals(snapshot.getTimestamp(), activity.getTimestamp());
+        Assert.assertTrue(json.contains("test-agent"));
+        Assert.assertFalse(json.contains("_px3=secret"));
+        Assert.assertFalse(activity.getHeaders().containsKey("cookie"));
+        Assert.assertTrue(pxContext.getHeaders().containsKey("cookie"));
+    }
+
+    private static void awaitState(BufferedActivityHandler handler, int inFlight, int buffered) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (handler.getInFlightBatchesCount() != inFlight || handler.getBufferedActivitiesCount() != buffered) {
+            Assert.assertTrue(System.currentTimeMillis() < deadline, "Sender did not reach the expected state");
+            Thread.sleep(5);
+        }
+    }
+
+    private static class HoldingClient extends PXClientMock {
+
+        private final List<ActivityBatch> held = new ArrayList<>();
+        private final AtomicInteger blocks = new AtomicInteger();
+        private boolean holdBlocks;
+        private boolean released;
+
+        HoldingClient() {
+            super(0, 0);
+        }
+
+        @Override
+        public synchronized void sendBatchActivities(ActivityBatch batch) {
+            boolean block = false;
+            for (byte[] activity : batch.getActivities()) {
+                if (new String(activity).contains("\"type\":\"block\"")) {
+                    blocks.incrementAndGet();
+                    block = true;
+                }
+            }
+            if (released || (block && !holdBlocks)) {
+                batch.getCallback().sent(batch);
+            } else {
+                held.add(batch);
+            }
+        }
+
+        synchronized void release() {
+            released = true;
+            for (ActivityBatch batch : held) {
+                batch.getCallback().sent(batch);
+            }
+            held.clear();
         }
-        verify(pxClient, never()).sendBatchActivities(any(List.class));
     }
 }
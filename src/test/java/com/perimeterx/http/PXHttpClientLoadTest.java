@@ -0,0 +1,374 @@
+package com.perimeterx.http;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.perimeterx.api.activities.ActivityHandler;
+import com.perimeterx.api.providers.DefaultHostnameProvider;
+import com.perimeterx.api.providers.RemoteAddressIPProvider;
+import com.perimeterx.api.proxy.DefaultReverseProxy;
+import com.perimeterx.api.remoteconfigurations.DefaultRemoteConfigManager;
+import com.perimeterx.api.remoteconfigurations.TimerConfigUpdater;
+import com.perimeterx.http.async.RejectedRequestException;
+import com.perimeterx.http.async.RetryPolicy;
+import com.perimeterx.internals.PXS2SValidator;
+import com.perimeterx.models.PXContext;
+import com.perimeterx.models.activities.Activity;
+import com.perimeterx.models.activities.ActivityBatch;
+import com.perimeterx.models.activities.ActivityFactory;
+import com.perimeterx.models.activities.ActivitySnapshot;
+import com.perimeterx.models.activities.EnforcerTelemetry;
+import com.perimeterx.models.activities.EnforcerTelemetryActivityDetails;
+import com.perimeterx.models.activities.UpdateReason;
+import com.perimeterx.models.configuration.PXConfiguration;
+import com.perimeterx.models.configuration.PXConfigurationStore;
+import com.perimeterx.models.configuration.PXDynamicConfiguration;
+import com.perimeterx.models.risk.PassReason;
+import com.perimeterx.utils.Constants;
+import org.mockito.Mockito;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import testutils.PXApiStandIn;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the real http clients against {@link PXApiStandIn}
+ */
+@Test
+public class PXHttpClientLoadTest {
+
+    private static final int API_TIMEOUT = 300;
+
+    private PXApiStandIn standIn;
+    private PXHttpTransport transport;
+    private PXConfiguration configuration;
+    private PXHttpClient client;
+
+    @BeforeClass
+    public void startStandIn() throws Exception {
+        standIn = new PXApiStandIn();
+    }
+
+    @AfterClass
+    public void stopStandIn() {
+        standIn.close();
+    }
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        standIn.reset();
+        configuration = new PXConfiguration.Builder()
+                .appId("PXstandin")
+                .authToken("token")
+                .cookieKey("cookieKey")
+                .baseURL(standIn.getUrl())
+                .collectorUrl(standIn.getUrl())
+                .clientHost(standIn.getUrl())
+                .remoteConfigurationUrl(standIn.getUrl())
+                .apiTimeout(API_TIMEOUT)
+                .connectionTimeout(API_TIMEOUT)
+                .maxConnectionsPerRoute(50)
+                .blockingScore(100)
+                .retryBackoffBase(10)
+                .retryBackoffMax(50)
+                .build();
+        transport = new PXHttpTransport();
+        transport.register(configuration);
+        client = new PXHttpClient(configuration, transport.getAsyncHttpClient(), transport.getHttpClient());
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        transport.release(configuration);
+    }
+
+    @Test
+    public void testScriptedScore() throws Exception {
+        standIn.scoreScript(new PXApiStandIn.ScoreScript() {
+            @Override
+            public int score(JsonNode riskRequest) {
+                return riskRequest.path("request").path("uri").asText().startsWith("/bot") ? 100 : 0;
+            }
+        });
+        PXS2SValidator validator = new PXS2SValidator(client);
+
+        PXContext human = context("/home");
+        Assert.assertTrue(validator.verify(human));
+        Assert.assertEquals(human.getPassReason(), PassReason.S2S);
+
+        PXContext bot = context("/bot/login");
+        Assert.assertFalse(validator.verify(bot));
+        Assert.assertEquals(bot.getRiskScore(), 100);
+        Assert.assertEquals(standIn.requestCount(PXApiStandIn.RISK), 2);
+    }
+
+    @Test
+    public void testRiskTimeoutFailsOpen() throws Exception {
+        standIn.latency(PXApiStandIn.RISK, PXApiStandIn.Latency.fixed(API_TIMEOUT * 3));
+        PXS2SValidator validator = new PXS2SValidator(client);
+        PXContext context = context("/home");
+
+        long start = System.currentTimeMillis();
+        Assert.assertTrue(validator.verify(context));
+        Assert.assertTrue(System.currentTimeMillis() - start < API_TIMEOUT * 3);
+        Assert.assertEquals(context.getPassReason(), PassReason.S2S_TIMEOUT);
+    }
+
+    @Test
+    public void testRiskErrorFailsOpen() throws Exception {
+        standIn.errors(PXApiStandIn.RISK, 1, 500);
+        PXS2SValidator validator = new PXS2SValidator(client);
+        PXContext context = context("/home");
+        Assert.assertTrue(validator.verify(context));
+        Assert.assertEquals(context.getPassReason(), PassReason.ERROR);
+    }
+
+    @Test
+    public void testConcurrentRiskCallsWithLatency() throws Exception {
+        standIn.latency(PXApiStandIn.RISK, PXApiStandIn.Latency.uniform(5, 20));
+        final PXS2SValidator validator = new PXS2SValidator(client);
+        ExecutorService pool = Executors.newFixedThreadPool(16);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            results.add(pool.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return validator.verify(context("/home"));
+                }
+            }));
+        }
+        for (Future<Boolean> result : results) {
+            Assert.assertTrue(result.get());
+        }
+        pool.shutdown();
+        Assert.assertEquals(standIn.requestCount(PXApiStandIn.RISK), 200);
+    }
+
+    @Test
+    public void testBatchActivitiesDelivered() throws Exception {
+        List<Activity> activities = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            activities.add(ActivityFactory.createActivity(Constants.ACTIVITY_PAGE_REQUESTED, configuration.getAppId(), context("/home")));
+        }
+        activities.add(ActivityFactory.createActivity(Constants.ACTIVITY_BLOCKED, configuration.getAppId(), context("/home")));
+        client.sendBatchActivities(activities);
+
+        Assert.assertTrue(client.awaitPendingRequests(5000));
+        Assert.assertEquals(standIn.activityCount(Constants.ACTIVITY_PAGE_REQUESTED), 5);
+        Assert.assertEquals(standIn.activityCount(Constants.ACTIVITY_BLOCKED), 1);
+    }
+
+    @Test
+    public void testActivitiesRetriedOnServerError() throws Exception {
+        standIn.failNext(PXApiStandIn.ACTIVITIES, 2, 503);
+        RecordingCallback callback = new RecordingCallback();
+        client.sendBatchActivities(batch(3, callback));
+
+        Assert.assertTrue(client.awaitPendingRequests(5000));
+        Assert.assertEquals(standIn.requestCount(PXApiStandIn.ACTIVITIES), 3);
+        Assert.assertEquals(standIn.activityCount(Constants.ACTIVITY_PAGE_REQUESTED), 3);
+        Assert.assertEquals(client.getActivitiesMetrics().getRetried(), 2);
+        Assert.assertEquals(client.getActivitiesMetrics().getDelivered(), 1);
+        Assert.assertTrue(callback.sent);
+    }
+
+    @Test
+    public void testCompressedBatchRetriedAndDelivered() throws Exception {
+        standIn.failNext(PXApiStandIn.ACTIVITIES, 1, 503);
+        RecordingCallback callback = new RecordingCallback();
+        ActivityBatch batch = batch(500, callback);
+        Assert.assertTrue(batch.getBytes() >= configuration.getActivitiesCompressionMinBytes());
+        client.sendBatchActivities(batch);
+
+        Assert.assertTrue(client.awaitPendingRequests(5000));
+        Assert.assertEquals(standIn.requestCount(PXApiStandIn.ACTIVITIES), 2);
+        Assert.assertEquals(standIn.activityCount(Constants.ACTIVITY_PAGE_REQUESTED), 500);
+        Assert.assertTrue(callback.sent);
+    }
+
+    @Test
+    public void testActivitiesRejectedAreNotRetried() throws Exception {
+        standIn.failNext(PXApiStandIn.ACTIVITIES, 1, 400);
+        RecordingCallback callback = new RecordingCallback();
+        client.sendBatchActivities(batch(1, callback));
+
+        Assert.assertTrue(client.awaitPendingRequests(5000));
+        Assert.assertEquals(standIn.requestCount(PXApiStandIn.ACTIVITIES), 1);
+        Assert.assertEquals(client.getActivitiesMetrics().getRejected(), 1);
+        Assert.assertTrue(callback.failure instanceof RejectedRequestException);
+    }
+
+    @Test
+    public void testTelemetryRetriesExhausted() throws Exception {
+        standIn.errors(PXApiStandIn.TELEMETRY, 1, 500);
+        EnforcerTelemetryActivityDetails details = new EnforcerTelemetryActivityDetails(configuration, UpdateReason.INIT);
+        client.sendEnforcerTelemetry(new EnforcerTelemetry("enforcer_telemetry", configuration.getAppId(), details));
+
+        Assert.assertTrue(client.awaitPendingRequests(5000));
+        Assert.assertEquals(standIn.requestCount(PXApiStandIn.TELEMETRY), 1 + configuration.getAsyncMaxRetries());
+        Assert.assertEquals(client.getTelemetryMetrics().getExhausted(), 1);
+    }
+
+    @Test
+    public void testRetryBudget() {
+        RetryPolicy policy = new RetryPolicy(3, 10, 50, 0.5);
+        int retries = 0;
+        while (policy.tryRetry()) {
+            retries++;
+        }
+        Assert.assertEquals(retries, 10);
+        policy.onRequest();
+        Assert.assertFalse(policy.tryRetry());
+        policy.onRequest();
+        Assert.assertTrue(policy.tryRetry());
+        Assert.assertTrue(policy.backoff(2, 0) <= 40);
+        Assert.assertEquals(policy.backoff(0, 1000), 50);
+    }
+
+    @Test
+    public void testRemoteConfigurationChecksum() throws Exception {
+        standIn.remoteConfiguration("{\"moduleEnabled\":true,\"cookieKey\":\"new_key\",\"blockingScore\":70,\"appId\":\"PXstandin\"," +
+                "\"moduleMode\":\"blocking\",\"sensitiveHeaders\":[],\"connectTimeout\":1000,\"riskTimeout\":1000,\"checksum\":\"c1\"}");
+        PXDynamicConfiguration dynamicConfiguration = client.getConfigurationFromServer();
+        Assert.assertEquals(dynamicConfiguration.getChecksum(), "c1");
+
+        configuration.update(dynamicConfiguration);
+        Assert.assertNull(client.getConfigurationFromServer());
+        Assert.assertEquals(standIn.requestCount(PXApiStandIn.REMOTE_CONFIG), 2);
+    }
+
+    @Test
+    public void testRemoteConfigurationLongPoll() throws Exception {
+        standIn.longPolling(true).remoteConfiguration(remoteConfiguration("c1", 100));
+        PXConfiguration longPollConfiguration = new PXConfiguration.Builder()
+                .appId("PXstandin")
+                .authToken("token")
+                .cookieKey("cookieKey")
+                .remoteConfigurationUrl(standIn.getUrl())
+                .apiTimeout(API_TIMEOUT)
+                .connectionTimeout(API_TIMEOUT)
+                .remoteConfigurationInterval(60000)
+                .remoteConfigurationJitter(0)
+                .remoteConfigurationLongPollTimeout(2000)
+                .build();
+        final PXConfigurationStore store = new PXConfigurationStore(longPollConfiguration);
+        PXHttpClient longPollClient = new PXHttpClient(store, transport.getAsyncHttpClient(), transport.getHttpClient());
+        DefaultRemoteConfigManager manager = new DefaultRemoteConfigManager(store, longPollClient);
+        manager.updateConfiguration(manager.getConfiguration());
+        TimerConfigUpdater updater = new TimerConfigUpdater(manager, store, Mockito.mock(ActivityHandler.class));
+        updater.schedule();
+        try {
+            waitFor(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return standIn.requestCount(PXApiStandIn.REMOTE_CONFIG) >= 2;
+                }
+            });
+            long pushed = System.currentTimeMillis();
+            standIn.remoteConfiguration(remoteConfiguration("c2", 50));
+            waitFor(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return "c2".equals(store.get().getChecksum());
+                }
+            });
+            // Applied by the held request, well before the interval
+            Assert.assertTrue(System.currentTimeMillis() - pushed < 2000);
+            Assert.assertEquals(store.get().getBlockingScore(), 50);
+        } finally {
+            updater.stop();
+        }
+    }
+
+    @Test
+    public void testRemoteConfigurationLongPollFallback() throws Exception {
+        standIn.remoteConfiguration(remoteConfiguration("c1", 100));
+        PXConfiguration longPollConfiguration = new PXConfiguration.Builder()
+                .appId("PXstandin")
+                .authToken("token")
+                .cookieKey("cookieKey")
+                .remoteConfigurationUrl(standIn.getUrl())
+                .remoteConfigurationInterval(60000)
+                .remoteConfigurationJitter(0)
+                .remoteConfigurationLongPollTimeout(2000)
+                .build();
+        PXConfigurationStore store = new PXConfigurationStore(longPollConfiguration);
+        PXHttpClient longPollClient = new PXHttpClient(store, transport.getAsyncHttpClient(), transport.getHttpClient());
+        DefaultRemoteConfigManager manager = new DefaultRemoteConfigManager(store, longPollClient);
+        manager.updateConfiguration(manager.getConfiguration());
+        TimerConfigUpdater updater = new TimerConfigUpdater(manager, store, Mockito.mock(ActivityHandler.class));
+
+        // The stand-in ignores the wait preference and answers 204 right away. Counted from here, a reconnect
+        // of the previous long poll test may still reach the stand-in after its updater stopped
+        int polls = standIn.requestCount(PXApiStandIn.REMOTE_CONFIG);
+        updater.run();
+        Assert.assertEquals(updater.getConsecutiveFailures(), 0);
+        Assert.assertEquals(updater.nextDelay(), 60000);
+        Assert.assertEquals(standIn.requestCount(PXApiStandIn.REMOTE_CONFIG), polls + 1);
+    }
+
+    private static void waitFor(Callable<Boolean> condition) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.call()) {
+            Assert.assertTrue(System.currentTimeMillis() < deadline, "Condition was not reached");
+            Thread.sleep(5);
+        }
+    }
+
+    private static String remoteConfiguration(String checksum, int blockingScore) {
+        return "{\"moduleEnabled\":true,\"cookieKey\":\"new_key\",\"blockingScore\":" + blockingScore + ",\"appId\":\"PXstandin\"," +
+                "\"moduleMode\":\"blocking\",\"sensitiveHeaders\":[],\"connectTimeout\":1000,\"riskTimeout\":1000,\"checksum\":\"" + checksum + "\"}";
+    }
+
+    @Test
+    public void testReverseProxyClient() throws Exception {
+        standIn.firstPartyBody("console.log('px');");
+        DefaultReverseProxy reverseProxy = new DefaultReverseProxy(configuration, new RemoteAddressIPProvider(), transport.getHttpClient());
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/standin/init.js");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        Assert.assertTrue(reverseProxy.reversePxClient(request, response));
+        Assert.assertEquals(response.getContentAsString(), "console.log('px');");
+        Assert.assertEquals(standIn.requestCount(PXApiStandIn.FIRST_PARTY), 1);
+    }
+
+    private ActivityBatch batch(int size, ActivityBatch.Callback callback) throws Exception {
+        ActivityBatch batch = new ActivityBatch();
+        for (int i = 0; i < size; i++) {
+            batch.add(ActivitySnapshot.of(ActivityFactory.createActivity(Constants.ACTIVITY_PAGE_REQUESTED, configuration.getAppId(), context("/home"))));
+        }
+        batch.setCallback(callback);
+        return batch;
+    }
+
+    private static class RecordingCallback implements ActivityBatch.Callback {
+
+        private volatile boolean sent;
+        private volatile Exception failure;
+
+        @Override
+        public void sent(ActivityBatch batch) {
+            sent = true;
+        }
+
+        @Override
+        public void failed(ActivityBatch batch, Exception e) {
+            failure = e;
+        }
+    }
+
+    private PXContext context(String uri) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", uri);
+        return new PXContext(request, new RemoteAddressIPProvider(), new DefaultHostnameProvider(), configuration);
+    }
+}
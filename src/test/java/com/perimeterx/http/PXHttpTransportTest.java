@@ -0,0 +1,143 @@
+package com.perimeterx.http;
+
+import com.perimeterx.api.PerimeterX;
+import com.perimeterx.models.PXContext;
+import com.perimeterx.models.configuration.PXConfiguration;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import testutils.PXApiStandIn;
+
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.util.ArrayList;
+import java.util.List;
+
+@Test
+public class PXHttpTransportTest {
+
+    private static final String SERVER_URL = "https://sapi-appid.perimeterx.net";
+    private static final String REMOTE_CONFIGURATION_URL = "https://px-conf.perimeterx.net";
+
+    @Test
+    public void routeLimitsAddUpAcrossEnforcers() throws Exception {
+        PXHttpTransport transport = new PXHttpTransport();
+        PXConfiguration first = configuration("appIdA", 10);
+        PXConfiguration second = configuration("appIdB", 30);
+
+        transport.register(first);
+        transport.register(second);
+        Assert.assertEquals(transport.getMaxPerRoute(SERVER_URL), 40);
+        Assert.assertEquals(transport.getMaxPerRoute(REMOTE_CONFIGURATION_URL), 40);
+        Assert.assertEquals(transport.getMaxPerRoute("https://other.example.com"), PXHttpTransport.DEFAULT_MAX_PER_ROUTE);
+
+        PXConfiguration longPolling = new PXConfiguration.Builder()
+                .appId("appIdC")
+                .authToken("token")
+                .cookieKey("cookieKey")
+                .baseURL(SERVER_URL)
+                .remoteConfigurationUrl(REMOTE_CONFIGURATION_URL)
+                .remoteConfigurationEnabled(true)
+                .remoteConfigurationLongPollTimeout(30000)
+                .maxConnectionsPerRoute(10)
+                .build();
+        transport.register(longPolling);
+        Assert.assertEquals(transport.getMaxPerRoute(SERVER_URL), 50);
+        Assert.assertEquals(transport.getMaxPerRoute(REMOTE_CONFIGURATION_URL), 51);
+        transport.release(longPolling);
+        Assert.assertEquals(transport.getMaxPerRoute(REMOTE_CONFIGURATION_URL), 40);
+
+        PXConfiguration updated = configuration("appIdB", 5);
+        transport.update(second, updated);
+        Assert.assertEquals(transport.getMaxPerRoute(SERVER_URL), 15);
+
+        transport.release(first);
+        Assert.assertEquals(transport.getMaxPerRoute(SERVER_URL), 5);
+        Assert.assertFalse(transport.isClosed());
+
+        transport.release(updated);
+        Assert.assertTrue(transport.isClosed());
+    }
+
+    @Test
+    public void releasedRouteReturnsToDefault() throws Exception {
+        PXHttpTransport transport = new PXHttpTransport();
+        PXConfiguration shared = configuration("appIdA", 10);
+        PXConfiguration other = new PXConfiguration.Builder()
+                .appId("appIdB")
+                .authToken("token")
+                .cookieKey("cookieKey")
+                .baseURL("https://sapi-other.perimeterx.net")
+                .build();
+
+        transport.register(shared);
+        transport.register(other);
+        transport.release(shared);
+        Assert.assertEquals(transport.getMaxPerRoute(SERVER_URL), PXHttpTransport.DEFAULT_MAX_PER_ROUTE);
+        transport.release(other);
+    }
+
+    @Test
+    public void longPollsDoNotStarveRiskCalls() throws Exception {
+        PXApiStandIn standIn = new PXApiStandIn();
+        PXHttpTransport transport = new PXHttpTransport();
+        List<PerimeterX> enforcers = new ArrayList<>();
+        try {
+            standIn.longPolling(true)
+                    .scoreScript(PXApiStandIn.fixedScore(100))
+                    .remoteConfiguration("{\"moduleEnabled\":true,\"cookieKey\":\"cookieKey\",\"blockingScore\":100,\"appId\":\"PXstandin\"," +
+                            "\"moduleMode\":\"blocking\",\"sensitiveHeaders\":[],\"ipHeaders\":[],\"connectTimeout\":1000,\"riskTimeout\":1000,\"checksum\":\"c1\"}");
+            for (int i = 0; i < 3; i++) {
+                enforcers.add(new PerimeterX(new PXConfiguration.Builder()
+                        .appId("PXstandin")
+                        .authToken("token")
+                        .cookieKey("cookieKey")
+                        .baseURL(standIn.getUrl())
+                        .collectorUrl(standIn.getUrl())
+                        .clientHost(standIn.getUrl())
+                        .remoteConfigurationUrl(standIn.getUrl())
+                        .remoteConfigurationEnabled(true)
+                        .remoteConfigurationDelay(0)
+                        .remoteConfigurationJitter(0)
+                        .remoteConfigurationLongPollTimeout(5000)
+                        .maxConnectionsPerRoute(1)
+                        .apiTimeout(1000)
+                        .connectionTimeout(1000)
+                        .blockingScore(100)
+                        .build(), transport));
+            }
+            // Every enforcer got its initial configuration and holds a poll open
+            long deadline = System.currentTimeMillis() + 5000;
+            while (standIn.requestCount(PXApiStandIn.REMOTE_CONFIG) < 6 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            Thread.sleep(100);
+            Assert.assertEquals(standIn.requestCount(PXApiStandIn.REMOTE_CONFIG), 6);
+            Assert.assertEquals(transport.getMaxPerRoute(standIn.getUrl()), 6);
+
+            for (PerimeterX enforcer : enforcers) {
+                PXContext context = enforcer.pxVerify(new MockHttpServletRequest("GET", "/login"),
+                        new HttpServletResponseWrapper(new MockHttpServletResponse()));
+                Assert.assertEquals(context.getRiskScore(), 100);
+            }
+            Assert.assertEquals(standIn.requestCount(PXApiStandIn.RISK), 3);
+        } finally {
+            for (PerimeterX enforcer : enforcers) {
+                enforcer.shutdown(1000);
+            }
+            standIn.close();
+        }
+    }
+
+    private static PXConfiguration configuration(String appId, int maxConnectionsPerRoute) {
+        return new PXConfiguration.Builder()
+                .appId(appId)
+                .authToken("token")
+                .cookieKey("cookieKey")
+                .baseURL(SERVER_URL)
+                .collectorUrl(SERVER_URL)
+                .remoteConfigurationUrl(REMOTE_CONFIGURATION_URL)
+                .maxConnectionsPerRoute(maxConnectionsPerRoute)
+                .build();
+    }
+}
@@ -9,12 +9,17 @@ import com.perimeterx.internals.PXCaptchaValidator;
 import com.perimeterx.models.PXContext;
 import com.perimeterx.models.configuration.PXConfiguration;
 import com.perimeterx.models.exceptions.PXException;
+import com.perimeterx.models.httpmodels.ResetCaptchaRequest;
+import com.perimeterx.models.risk.PassReason;
+import org.mockito.Mockito;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.testng.Assert;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 import testutils.TestObjectUtils;
 
+import java.net.SocketTimeoutException;
+
 /**
  * Created by shikloshi on 16/07/2016.
  */
@@ -36,8 +41,8 @@ public class PXCaptchaValidatorTest {
                 .build();
         PXClient client = TestObjectUtils.verifiedCaptchaClient();
         PXClient noVerificationClient = TestObjectUtils.notVerifiedCaptchaClient();
-        this.captchaValidator = new PXCaptchaValidator(client, pxConfig);
-        this.noValidateCaptchaValidator = new PXCaptchaValidator(noVerificationClient, pxConfig);
+        this.captchaValidator = new PXCaptchaValidator(client);
+        this.noValidateCaptchaValidator = new PXCaptchaValidator(noVerificationClient);
         this.ipProvider = new RemoteAddressIPProvider();
         this.hostnameProvider = new DefaultHostnameProvider();
     }
@@ -64,4 +69,15 @@ public class PXCaptchaValidatorTest {
         boolean verify = this.noValidateCaptchaValidator.verify(context);
         Assert.assertEquals(verify, false);
     }
+
+    public void verifyCaptcha_readTimeout() throws Exception {
+        PXClient timeoutClient = Mockito.mock(PXClient.class);
+        Mockito.when(timeoutClient.sendCaptchaRequest(Mockito.any(ResetCaptchaRequest.class))).thenThrow(new SocketTimeoutException("Read timed out"));
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader("cookie", "_pxCaptcha=test:vid:uuid");
+        PXContext context = new PXContext(request, this.ipProvider, this.hostnameProvider, pxConfig);
+        boolean verify = new PXCaptchaValidator(timeoutClient).verify(context);
+        Assert.assertEquals(verify, true);
+        Assert.assertEquals(context.getPassReason(), PassReason.CAPTCHA_TIMEOUT);
+    }
 }
@@ -13,6 +13,7 @@ import com.perimeterx.models.exceptions.PXException;
 import com.perimeterx.models.httpmodels.RiskRequest;
 import com.perimeterx.models.risk.BlockReason;
 import com.perimeterx.models.risk.CustomParameters;
+import com.perimeterx.models.risk.PassReason;
 import com.perimeterx.models.risk.S2SCallReason;
 import com.perimeterx.utils.BlockAction;
 import com.perimeterx.utils.Constants;
@@ -25,8 +26,10 @@ import testutils.PXClientMock;
 
 import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
+import java.net.SocketTimeoutException;
 
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.times;
 
 /**
@@ -59,7 +62,7 @@ public class PXS2SValidatorTest {
         this.ipProvider = new RemoteAddressIPProvider();
         this.hostnameProvider = new DefaultHostnameProvider();
         this.context = new PXContext(request, this.ipProvider, this.hostnameProvider, pxConfig);
-        this.validator = new PXS2SValidator(this.client, pxConfig);
+        this.validator = new PXS2SValidator(this.client);
     }
 
     @Test
@@ -71,7 +74,7 @@ public class PXS2SValidatorTest {
     @Test
     public void jsChallengeTest() throws PXException {
         this.client = new PXClientMock(100, Constants.CAPTCHA_SUCCESS_CODE, true);
-        this.validator = new PXS2SValidator(this.client, this.pxConfig);
+        this.validator = new PXS2SValidator(this.client);
         context.setS2sCallReason(S2SCallReason.SENSITIVE_ROUTE);
         boolean verify = validator.verify(context);
         Assert.assertEquals(BlockAction.CHALLENGE,context.getBlockAction());
@@ -94,9 +97,34 @@ public class PXS2SValidatorTest {
                 .customParametersProvider(testCustomParamProvider)
                 .build();
         this.client = Mockito.spy(new PXClientMock(0, Constants.CAPTCHA_SUCCESS_CODE, true));
-        this.validator = new PXS2SValidator(this.client, conf);
+        this.validator = new PXS2SValidator(this.client);
+        PXContext context = new PXContext(request, this.ipProvider, this.hostnameProvider, conf);
         validator.verify(context);
-        Mockito.verify(testCustomParamProvider, times(1)).buildCustomParameters(any(PXConfiguration.class),any(PXContext.class));
+        Mockito.verify(testCustomParamProvider, times(1)).buildCustomParameters(eq(conf), eq(context));
         Mockito.verify(client, times(1)).riskApiCall(any(RiskRequest.class));
     }
+
+    @Test
+    public void blockingScoreOfContextConfigurationTest() throws PXException {
+        PXConfiguration conf = new PXConfiguration.Builder()
+                .appId("APP_ID")
+                .authToken("AUTH_123")
+                .cookieKey("COOKIE_123")
+                .blockingScore(40)
+                .build();
+        PXContext context = new PXContext(request, this.ipProvider, this.hostnameProvider, conf);
+        boolean verify = validator.verify(context);
+        Assert.assertFalse(verify);
+        Assert.assertEquals(context.getBlockReason(), BlockReason.SERVER);
+    }
+
+    @Test
+    public void readTimeoutPassesTest() throws Exception {
+        PXClient timeoutClient = Mockito.mock(PXClient.class);
+        Mockito.when(timeoutClient.riskApiCall(any(RiskRequest.class))).thenThrow(new SocketTimeoutException("Read timed out"));
+        this.validator = new PXS2SValidator(timeoutClient);
+        boolean verify = validator.verify(context);
+        Assert.assertTrue(verify);
+        Assert.assertEquals(context.getPassReason(), PassReason.S2S_TIMEOUT);
+    }
 }
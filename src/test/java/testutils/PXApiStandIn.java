@@ -0,0 +1,389 @@
+package testutils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.perimeterx.utils.Constants;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Embedded HTTP server standing in for PerimeterX APIs - risk, captcha, activities, telemetry,
+ * remote configuration and the first party client/collector endpoints.
+ * Lets tests run the real {@link com.perimeterx.http.PXHttpClient} and
+ * {@link com.perimeterx.api.proxy.DefaultReverseProxy} against a local server with
+ * scripted scores, latency, injected errors and request counting.
+ * <p>
+ * Point the configuration at {@link #getUrl()} using baseURL, collectorUrl, clientHost and remoteConfigurationUrl.
+ */
+public class PXApiStandIn implements Closeable {
+
+    public static final String RISK = "risk";
+    public static final String CAPTCHA = "captcha";
+    public static final String ACTIVITIES = "activities";
+    public static final String TELEMETRY = "telemetry";
+    public static final String REMOTE_CONFIG = "remote_config";
+    public static final String FIRST_PARTY = "first_party";
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * Decides the score of a risk api call
+     */
+    public interface ScoreScript {
+        int score(JsonNode riskRequest);
+    }
+
+    /**
+     * Response delay distribution in milliseconds
+     */
+    public static abstract class Latency {
+        public abstract long nextDelay(Random random);
+
+        public static Latency none() {
+            return fixed(0);
+        }
+
+        public static Latency fixed(final long millis) {
+            return new Latency() {
+                @Override
+                public long nextDelay(Random random) {
+                    return millis;
+                }
+            };
+        }
+
+        public static Latency uniform(final long minMillis, final long maxMillis) {
+            return new Latency() {
+                @Override
+                public long nextDelay(Random random) {
+                    return minMillis + (long) (random.nextDouble() * (maxMillis - minMillis));
+                }
+            };
+        }
+
+        public static Latency exponential(final long meanMillis) {
+            return new Latency() {
+                @Override
+                public long nextDelay(Random random) {
+                    return (long) (-meanMillis * Math.log(1 - random.nextDouble()));
+                }
+            };
+        }
+
+        /**
+         * Mostly fast responses with a slow tail - slowRatio of the calls take slowMillis
+         */
+        public static Latency bimodal(final long fastMillis, final long slowMillis, final double slowRatio) {
+            return new Latency() {
+                @Override
+                public long nextDelay(Random random) {
+                    return random.nextDouble() < slowRatio ? slowMillis : fastMillis;
+                }
+            };
+        }
+    }
+
+    private static final class ErrorInjection {
+        private final double rate;
+        private final int status;
+        // Number of requests left to fail, negative when failing by rate
+        private final AtomicInteger remaining;
+
+        private ErrorInjection(double rate, int status, int count) {
+            this.rate = rate;
+            this.status = status;
+            this.remaining = new AtomicInteger(count);
+        }
+
+        private boolean fire(Random random) {
+            if (remaining.get() < 0) {
+                return random.nextDouble() < rate;
+            }
+            return remaining.getAndDecrement() > 0;
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Random random = new Random();
+    private final ConcurrentMap<String, AtomicInteger> requestCounts = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicInteger> activityCounts = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Latency> latencies = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ErrorInjection> errors = new ConcurrentHashMap<>();
+
+    private volatile ScoreScript scoreScript = fixedScore(0);
+    private volatile int captchaStatus = Constants.CAPTCHA_SUCCESS_CODE;
+    private volatile String remoteConfiguration;
+    private volatile boolean longPolling;
+    private final Object remoteConfigurationLock = new Object();
+    private volatile String firstPartyBody = "";
+
+    public PXApiStandIn() throws IOException {
+        this(32);
+    }
+
+    public PXApiStandIn(int threads) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.server.setExecutor(executor);
+        this.server.createContext(Constants.API_CAPTCHA, new StandInHandler(CAPTCHA));
+        this.server.createContext(Constants.API_ENFORCER_TELEMETRY, new StandInHandler(TELEMETRY));
+        this.server.createContext(Constants.API_RISK, new StandInHandler(RISK));
+        this.server.createContext(Constants.API_ACTIVITIES, new StandInHandler(ACTIVITIES));
+        this.server.createContext(Constants.API_REMOTE_CONFIGURATION, new StandInHandler(REMOTE_CONFIG));
+        this.server.createContext("/", new StandInHandler(FIRST_PARTY));
+        this.server.start();
+    }
+
+    public static ScoreScript fixedScore(final int score) {
+        return new ScoreScript() {
+            @Override
+            public int score(JsonNode riskRequest) {
+                return score;
+            }
+        };
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public PXApiStandIn scoreScript(ScoreScript val) {
+        scoreScript = val;
+        return this;
+    }
+
+    public PXApiStandIn captchaStatus(int val) {
+        captchaStatus = val;
+        return this;
+    }
+
+    /**
+     * @param json - remote configuration body, answered with 204 when the request checksum matches its checksum
+     */
+    public PXApiStandIn remoteConfiguration(String json) {
+        synchronized (remoteConfigurationLock) {
+            remoteConfiguration = json;
+            remoteConfigurationLock.notifyAll();
+        }
+        return this;
+    }
+
+    /**
+     * @param val - true to hold remote configuration requests with a Prefer wait header until the configuration changes
+     */
+    public PXApiStandIn longPolling(boolean val) {
+        longPolling = val;
+        return this;
+    }
+
+    public PXApiStandIn firstPartyBody(String val) {
+        firstPartyBody = val;
+        return this;
+    }
+
+    public PXApiStandIn latency(String endpoint, Latency latency) {
+        latencies.put(endpoint, latency);
+        return this;
+    }
+
+    /**
+     * @param rate   - ratio of requests between 0 and 1 answered with the status instead of the regular response
+     * @param status - http status to return
+     */
+    public PXApiStandIn errors(String endpoint, double rate, int status) {
+        errors.put(endpoint, new ErrorInjection(rate, status, -1));
+        return this;
+    }
+
+    /**
+     * @param count  - number of next requests answered with the status, later requests get the regular response
+     * @param status - http status to return
+     */
+    public PXApiStandIn failNext(String endpoint, int count, int status) {
+        errors.put(endpoint, new ErrorInjection(1, status, count));
+        return this;
+    }
+
+    public PXApiStandIn reset() {
+        latencies.clear();
+        errors.clear();
+        requestCounts.clear();
+        activityCounts.clear();
+        scoreScript = fixedScore(0);
+        captchaStatus = Constants.CAPTCHA_SUCCESS_CODE;
+        longPolling = false;
+        return this;
+    }
+
+    public int requestCount(String endpoint) {
+        AtomicInteger count = requestCounts.get(endpoint);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * @param activityType - block, page_requested etc'
+     * @return number of activities of the type received on the activities endpoint
+     */
+    public int activityCount(String activityType) {
+        AtomicInteger count = activityCounts.get(activityType);
+        return count == null ? 0 : count.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private static void increment(ConcurrentMap<String, AtomicInteger> counters, String key) {
+        AtomicInteger counter = counters.get(key);
+        if (counter == null) {
+            AtomicInteger created = new AtomicInteger();
+            counter = counters.putIfAbsent(key, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        counter.incrementAndGet();
+    }
+
+    private class StandInHandler implements HttpHandler {
+
+        private final String endpoint;
+
+        StandInHandler(String endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                increment(requestCounts, endpoint);
+                byte[] requestBody = readBody(exchange);
+                delay();
+
+                ErrorInjection error = errors.get(endpoint);
+                if (error != null && error.fire(random)) {
+                    respond(exchange, error.status, null, "");
+                    return;
+                }
+
+                switch (endpoint) {
+                    case RISK:
+                        JsonNode riskRequest = mapper.readTree(requestBody);
+                        int score = scoreScript.score(riskRequest);
+                        respond(exchange, 200, "application/json",
+                                "{\"status\":0,\"uuid\":\"stand-in-uuid\",\"score\":" + score + ",\"action\":\"c\"}");
+                        break;
+                    case CAPTCHA:
+                        respond(exchange, 200, "application/json",
+                                "{\"status\":" + captchaStatus + ",\"uuid\":\"stand-in-uuid\",\"vid\":\"stand-in-vid\",\"cid\":\"stand-in-cid\"}");
+                        break;
+                    case ACTIVITIES:
+                        countActivities(requestBody);
+                        respond(exchange, 200, "application/json", "{}");
+                        break;
+                    case TELEMETRY:
+                        respond(exchange, 200, "application/json", "{}");
+                        break;
+                    case REMOTE_CONFIG:
+                        respondRemoteConfiguration(exchange);
+                        break;
+                    default:
+                        respond(exchange, 200, "application/javascript", firstPartyBody);
+                }
+            } catch (Exception e) {
+                respond(exchange, 500, null, "");
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private byte[] readBody(HttpExchange exchange) throws IOException {
+            InputStream body = exchange.getRequestBody();
+            if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+                body = new GZIPInputStream(body);
+            }
+            return IOUtils.toByteArray(body);
+        }
+
+        private void delay() throws InterruptedException {
+            Latency latency = latencies.get(endpoint);
+            if (latency != null) {
+                long millis = latency.nextDelay(random);
+                if (millis > 0) {
+                    TimeUnit.MILLISECONDS.sleep(millis);
+                }
+            }
+        }
+
+        private void countActivities(byte[] requestBody) throws IOException {
+            JsonNode activities = mapper.readTree(requestBody);
+            if (activities.isArray()) {
+                for (JsonNode activity : activities) {
+                    increment(activityCounts, activity.path("type").asText());
+                }
+            } else {
+                increment(activityCounts, activities.path("type").asText());
+            }
+        }
+
+        private void respondRemoteConfiguration(HttpExchange exchange) throws IOException, InterruptedException {
+            String prefer = exchange.getRequestHeaders().getFirst("Prefer");
+            long deadline = System.currentTimeMillis();
+            if (longPolling && prefer != null && prefer.startsWith("wait=")) {
+                deadline += TimeUnit.SECONDS.toMillis(Long.parseLong(prefer.substring("wait=".length())));
+            }
+            String query = exchange.getRequestURI().getQuery();
+            synchronized (remoteConfigurationLock) {
+                while (true) {
+                    String config = remoteConfiguration;
+                    if (config != null && (query == null || !query.contains("checksum=" + mapper.readTree(config).path("checksum").asText()))) {
+                        respond(exchange, 200, "application/json", config);
+                        return;
+                    }
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        respond(exchange, 204, null, "");
+                        return;
+                    }
+                    remoteConfigurationLock.wait(wait);
+                }
+            }
+        }
+
+        private void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            if (contentType != null) {
+                exchange.getResponseHeaders().set("Content-Type", contentType);
+            }
+            if (status == 204 || bytes.length == 0) {
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(status, bytes.length);
+            OutputStream os = exchange.getResponseBody();
+            os.write(bytes);
+            os.flush();
+        }
+    }
+}
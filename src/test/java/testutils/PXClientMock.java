@@ -1,7 +1,9 @@
 package testutils;
 
+import com.perimeterx.http.ActivityBatchClient;
 import com.perimeterx.http.PXClient;
 import com.perimeterx.models.activities.Activity;
+import com.perimeterx.models.activities.ActivityBatch;
 import com.perimeterx.models.activities.EnforcerTelemetry;
 import com.perimeterx.models.configuration.ModuleMode;
 import com.perimeterx.models.configuration.PXDynamicConfiguration;
@@ -18,7 +20,7 @@ import java.util.List;
  * <p>
  * Created by shikloshi on 12/07/2016.
  */
-public class PXClientMock implements PXClient {
+public class PXClientMock implements PXClient, ActivityBatchClient {
 
     private final int score;
     private final int captchaReturnStatus;
@@ -57,6 +59,13 @@ public class PXClientMock implements PXClient {
         // noop
     }
 
+    @Override
+    public void sendBatchActivities(ActivityBatch batch) throws PXException, IOException {
+        if (batch.getCallback() != null) {
+            batch.getCallback().sent(batch);
+        }
+    }
+
     @Override
     public CaptchaResponse sendCaptchaRequest(ResetCaptchaRequest resetCaptchaRequest) throws PXException, IOException {
         return new CaptchaResponse(captchaReturnStatus, "1", "vid", "cid");
@@ -50,17 +50,15 @@ public class TestObjectUtils {
 
     public static PerimeterX testablePerimeterXObject(PXConfiguration configuration, PXClient client) throws Exception {
         PerimeterX instance = new PerimeterX(configuration);
-        PXS2SValidator validator = new PXS2SValidator(client, configuration);
-        PXCaptchaValidator captchaValidator = new PXCaptchaValidator(client, configuration);
+        PXS2SValidator validator = new PXS2SValidator(client);
+        PXCaptchaValidator captchaValidator = new PXCaptchaValidator(client);
         ActivityHandler activityHandler = new DefaultActivityHandler(client, configuration);
         Field validatorField = PerimeterX.class.getDeclaredField("serverValidator");
         validatorField.setAccessible(true);
-        Field activityHandlerField = PerimeterX.class.getDeclaredField("activityHandler");
-        activityHandlerField.setAccessible(true);
         Field captchaValidatorField = PerimeterX.class.getDeclaredField("captchaValidator");
         captchaValidatorField.setAccessible(true);
         validatorField.set(instance, validator);
-        activityHandlerField.set(instance, activityHandler);
+        instance.setActivityHandler(activityHandler);
         captchaValidatorField.set(instance, captchaValidator);
         return instance;
     }